@@ -0,0 +1,35 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+/**
+ * Options for {@link QueryIface#appendBatches(java.util.Map, AppendBatchesOptions)}.
+ */
+@InterfaceStability.Evolving
+public class AppendBatchesOptions {
+    private Integer timeoutMs = null;
+    private short acks = -1;
+
+    public AppendBatchesOptions timeoutMs(Integer timeoutMs) {
+        this.timeoutMs = timeoutMs;
+        return this;
+    }
+
+    public Integer timeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * Set the acknowledgments the leader waits for, -1 for all the in-sync replicas or 1 for the leader only.
+     */
+    public AppendBatchesOptions acks(short acks) {
+        if (acks != -1 && acks != 1)
+            throw new IllegalArgumentException("The acks of appending batches must be -1 or 1, but it is " + acks + ".");
+        this.acks = acks;
+        return this;
+    }
+
+    public short acks() {
+        return acks;
+    }
+}
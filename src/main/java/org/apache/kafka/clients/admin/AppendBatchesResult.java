@@ -0,0 +1,33 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+import java.util.Map;
+
+/**
+ * The result of {@link QueryIface#appendBatches(Map, AppendBatchesOptions)}.
+ */
+@InterfaceStability.Evolving
+public class AppendBatchesResult {
+    private final Map<TopicPartition, KafkaFuture<Long>> futures;
+
+    public AppendBatchesResult(Map<TopicPartition, KafkaFuture<Long>> futures) {
+        this.futures = futures;
+    }
+
+    /**
+     * Return a map from the partitions to futures which yield the base offsets of the appended batches.
+     */
+    public Map<TopicPartition, KafkaFuture<Long>> values() {
+        return futures;
+    }
+
+    /**
+     * Return a future which succeeds only if all the batches are appended.
+     */
+    public KafkaFuture<Void> all() {
+        return KafkaFuture.allOf(futures.values().toArray(new KafkaFuture[0]));
+    }
+}
@@ -0,0 +1,11 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+/**
+ * Options for {@link QueryIface#describeGroups(java.util.Collection, DescribeGroupsOptions)}.
+ */
+@InterfaceStability.Evolving
+public class DescribeGroupsOptions extends AbstractOptions<DescribeGroupsOptions> {
+
+}
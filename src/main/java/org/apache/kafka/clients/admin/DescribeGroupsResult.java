@@ -0,0 +1,32 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+import java.util.Map;
+
+/**
+ * The result of {@link QueryIface#describeGroups(java.util.Collection, DescribeGroupsOptions)}.
+ */
+@InterfaceStability.Evolving
+public class DescribeGroupsResult {
+    private final Map<String, KafkaFuture<GroupDescription>> futures;
+
+    public DescribeGroupsResult(Map<String, KafkaFuture<GroupDescription>> futures) {
+        this.futures = futures;
+    }
+
+    /**
+     * Return a map from the group ids to futures which yield the group descriptions.
+     */
+    public Map<String, KafkaFuture<GroupDescription>> values() {
+        return futures;
+    }
+
+    /**
+     * Return a future which succeeds only if all the groups are described.
+     */
+    public KafkaFuture<Void> all() {
+        return KafkaFuture.allOf(futures.values().toArray(new KafkaFuture[0]));
+    }
+}
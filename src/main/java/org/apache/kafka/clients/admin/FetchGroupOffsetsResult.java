@@ -0,0 +1,28 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+import java.util.Map;
+
+/**
+ * The result of {@link QueryIface#fetchCommittedOffsets(String, FetchOffsetOptions)}.
+ */
+@InterfaceStability.Evolving
+public class FetchGroupOffsetsResult {
+    private final KafkaFuture<Map<TopicPartition, OffsetAndMetadata>> future;
+
+    public FetchGroupOffsetsResult(KafkaFuture<Map<TopicPartition, OffsetAndMetadata>> future) {
+        this.future = future;
+    }
+
+    /**
+     * Return a future which yields the committed offsets of the group, the partitions without a committed offset
+     * are absent.
+     */
+    public KafkaFuture<Map<TopicPartition, OffsetAndMetadata>> values() {
+        return future;
+    }
+}
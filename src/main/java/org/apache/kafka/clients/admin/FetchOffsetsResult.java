@@ -0,0 +1,27 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+import java.util.Map;
+
+/**
+ * The result of {@link QueryIface#fetchOffsetsByTimes(Map, FetchOffsetOptions)} and
+ * {@link QueryIface#fetchTimestampsAtOffsets(Map, int, FetchOffsetOptions)}.
+ */
+@InterfaceStability.Evolving
+public class FetchOffsetsResult {
+    private final KafkaFuture<Map<TopicPartition, Long>> future;
+
+    public FetchOffsetsResult(KafkaFuture<Map<TopicPartition, Long>> future) {
+        this.future = future;
+    }
+
+    /**
+     * Return a future which yields the values of all the partitions, it fails if any of the requests fails.
+     */
+    public KafkaFuture<Map<TopicPartition, Long>> values() {
+        return future;
+    }
+}
@@ -0,0 +1,33 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.common.annotation.InterfaceStability;
+import org.apache.kafka.common.record.Records;
+
+/**
+ * The raw record batches fetched from a partition, as they are stored by the broker. The first batch may start
+ * before the fetch offset and the last one may be incomplete when it is cut by the fetch size.
+ */
+@InterfaceStability.Evolving
+public class FetchedBatches {
+    private final Records records;
+    private final long highWatermark;
+    private final long logStartOffset;
+
+    public FetchedBatches(Records records, long highWatermark, long logStartOffset) {
+        this.records = records;
+        this.highWatermark = highWatermark;
+        this.logStartOffset = logStartOffset;
+    }
+
+    public Records records() {
+        return records;
+    }
+
+    public long highWatermark() {
+        return highWatermark;
+    }
+
+    public long logStartOffset() {
+        return logStartOffset;
+    }
+}
@@ -0,0 +1,71 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.clients.consumer.internals.ConsumerProtocol;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group described by its coordinator.
+ */
+@InterfaceStability.Evolving
+public class GroupDescription {
+    private final String groupId;
+    private final String state;
+    private final String protocolType;
+    private final String protocol;
+    private final List<MemberDescription> members;
+    private final Node coordinator;
+
+    public GroupDescription(String groupId, String state, String protocolType, String protocol,
+                            List<MemberDescription> members, Node coordinator) {
+        this.groupId = groupId;
+        this.state = state;
+        this.protocolType = protocolType;
+        this.protocol = protocol;
+        this.members = Collections.unmodifiableList(members);
+        this.coordinator = coordinator;
+    }
+
+    public String groupId() {
+        return groupId;
+    }
+
+    /**
+     * The state of the group, one of Empty, PreparingRebalance, CompletingRebalance, Stable and Dead.
+     */
+    public String state() {
+        return state;
+    }
+
+    public String protocolType() {
+        return protocolType;
+    }
+
+    /**
+     * The protocol the group agreed on, the assignor name for consumer groups.
+     */
+    public String protocol() {
+        return protocol;
+    }
+
+    public List<MemberDescription> members() {
+        return members;
+    }
+
+    public Node coordinator() {
+        return coordinator;
+    }
+
+    public boolean isConsumerGroup() {
+        return ConsumerProtocol.PROTOCOL_TYPE.equals(protocolType);
+    }
+
+    @Override
+    public String toString() {
+        return "(groupId=" + groupId + ", state=" + state + ", protocolType=" + protocolType + ", protocol=" + protocol +
+                ", members=" + members + ", coordinator=" + coordinator + ")";
+    }
+}
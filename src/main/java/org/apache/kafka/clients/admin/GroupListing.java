@@ -0,0 +1,41 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+/**
+ * A group listed by its coordinator.
+ */
+@InterfaceStability.Evolving
+public class GroupListing {
+    private final String groupId;
+    private final String protocolType;
+    private final Node coordinator;
+
+    public GroupListing(String groupId, String protocolType, Node coordinator) {
+        this.groupId = groupId;
+        this.protocolType = protocolType;
+        this.coordinator = coordinator;
+    }
+
+    public String groupId() {
+        return groupId;
+    }
+
+    /**
+     * The protocol type of the group, "consumer" for the consumer groups and empty for the groups which only
+     * commit offsets.
+     */
+    public String protocolType() {
+        return protocolType;
+    }
+
+    public Node coordinator() {
+        return coordinator;
+    }
+
+    @Override
+    public String toString() {
+        return "(groupId=" + groupId + ", protocolType=" + protocolType + ", coordinator=" + coordinator + ")";
+    }
+}
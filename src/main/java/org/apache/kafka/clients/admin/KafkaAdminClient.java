@@ -23,6 +23,8 @@ import org.apache.kafka.clients.admin.DeleteAclsResult.FilterResults;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.internals.ConsumerProtocol;
 import org.apache.kafka.clients.consumer.internals.StaleMetadataException;
 import org.apache.kafka.common.*;
 import org.apache.kafka.common.acl.AclBinding;
@@ -37,7 +39,12 @@ import org.apache.kafka.common.metrics.*;
 import org.apache.kafka.common.network.ChannelBuilder;
 import org.apache.kafka.common.network.Selector;
 import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.protocol.types.SchemaException;
+import org.apache.kafka.common.record.DefaultRecordBatch;
+import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.Records;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.requests.*;
 import org.apache.kafka.common.requests.CreateAclsRequest.AclCreation;
@@ -51,6 +58,9 @@ import org.slf4j.Logger;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -136,6 +146,23 @@ public class KafkaAdminClient extends AdminClient {
 
     private final int maxRetries;
 
+    private final long retryBackoffMs;
+
+    /**
+     * The leaders of the partitions queried for messages and offsets, removed when a request to the leader fails.
+     */
+    private final ConcurrentMap<TopicPartition, Node> partitionLeaders = new ConcurrentHashMap<>();
+
+    /**
+     * The coordinators of the groups queried for committed offsets, removed when a request to the coordinator fails.
+     */
+    private final ConcurrentMap<String, Node> groupCoordinators = new ConcurrentHashMap<>();
+
+    /**
+     * The average size of the records of the topics in the lazy fetches, which sizes the next fetches.
+     */
+    private final ConcurrentMap<String, Integer> avgRecordSizes = new ConcurrentHashMap<>();
+
     /**
      * Get or create a list value from a map.
      *
@@ -277,190 +304,1695 @@ public class KafkaAdminClient extends AdminClient {
         }
     }
 
-    static KafkaAdminClient createInternal(AdminClientConfig config, KafkaClient client, Metadata metadata, Time time) {
-        Metrics metrics = null;
-        String clientId = generateClientId(config);
+    static KafkaAdminClient createInternal(AdminClientConfig config, KafkaClient client, Metadata metadata, Time time) {
+        Metrics metrics = null;
+        String clientId = generateClientId(config);
+
+        try {
+            metrics = new Metrics(new MetricConfig(), new LinkedList<MetricsReporter>(), time);
+            return new KafkaAdminClient(config, clientId, time, metadata, metrics, client, null,
+                    createLogContext(clientId));
+        } catch (Throwable exc) {
+            closeQuietly(metrics, "Metrics");
+            throw new KafkaException("Failed create new KafkaAdminClient", exc);
+        }
+    }
+
+    private static LogContext createLogContext(String clientId) {
+        return new LogContext("[AdminClient clientId=" + clientId + "] ");
+    }
+
+    private KafkaAdminClient(AdminClientConfig config, String clientId, Time time, Metadata metadata,
+                             Metrics metrics, KafkaClient client, TimeoutProcessorFactory timeoutProcessorFactory,
+                             LogContext logContext) {
+        this.defaultTimeoutMs = config.getInt(AdminClientConfig.REQUEST_TIMEOUT_MS_CONFIG);
+        this.clientId = clientId;
+        this.log = logContext.logger(KafkaAdminClient.class);
+        this.time = time;
+        this.metadata = metadata;
+        List<InetSocketAddress> addresses = ClientUtils.parseAndValidateAddresses(
+                config.getList(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG));
+        this.metadata.update(Cluster.bootstrap(addresses), Collections.<String>emptySet(), time.milliseconds());
+        this.metrics = metrics;
+        this.client = client;
+        this.runnable = new AdminClientRunnable();
+        String threadName = "kafka-admin-client-thread | " + clientId;
+        this.thread = new KafkaThread(threadName, runnable, true);
+        this.timeoutProcessorFactory = (timeoutProcessorFactory == null) ?
+                new TimeoutProcessorFactory() : timeoutProcessorFactory;
+        this.maxRetries = config.getInt(AdminClientConfig.RETRIES_CONFIG);
+        this.retryBackoffMs = config.getLong(AdminClientConfig.RETRY_BACKOFF_MS_CONFIG);
+        config.logUnused();
+        AppInfoParser.registerAppInfo(JMX_PREFIX, clientId, metrics);
+        log.debug("Kafka admin client initialized");
+        thread.start();
+    }
+
+    Time time() {
+        return time;
+    }
+
+    @Override
+    public void close(long duration, TimeUnit unit) {
+        long waitTimeMs = unit.toMillis(duration);
+        waitTimeMs = Math.min(TimeUnit.DAYS.toMillis(365), waitTimeMs); // Limit the timeout to a year.
+        long now = time.milliseconds();
+        long newHardShutdownTimeMs = now + waitTimeMs;
+        long prev = INVALID_SHUTDOWN_TIME;
+        while (true) {
+            if (hardShutdownTimeMs.compareAndSet(prev, newHardShutdownTimeMs)) {
+                if (prev == INVALID_SHUTDOWN_TIME) {
+                    log.debug("Initiating close operation.");
+                } else {
+                    log.debug("Moving hard shutdown time forward.");
+                }
+                client.wakeup(); // Wake the thread, if it is blocked inside poll().
+                break;
+            }
+            prev = hardShutdownTimeMs.get();
+            if (prev < newHardShutdownTimeMs) {
+                log.debug("Hard shutdown time is already earlier than requested.");
+                newHardShutdownTimeMs = prev;
+                break;
+            }
+        }
+        if (log.isDebugEnabled()) {
+            long deltaMs = Math.max(0, newHardShutdownTimeMs - time.milliseconds());
+            log.debug("Waiting for the I/O thread to exit. Hard shutdown in {} ms.", deltaMs);
+        }
+        try {
+            // Wait for the thread to be joined.
+            thread.join();
+
+            AppInfoParser.unregisterAppInfo(JMX_PREFIX, clientId, metrics);
+
+            log.debug("Kafka admin client isRunning.");
+        } catch (InterruptedException e) {
+            log.debug("Interrupted while joining I/O thread", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <K, V> ConsumerRecords<K, V> fetchRecords(TopicPartition tp, FetchResponse.PartitionData partitionData, int maxRecords,
+                                                      Deserializer<K> kDeserializer, Deserializer<V> vDeserializer) {
+        List<ConsumerRecord<K, V>> records = new ArrayList<>();
+        Iterator<Record> recItor = partitionData.records.records().iterator();
+        for (int i = 0; i < maxRecords && recItor.hasNext(); i++) {
+            records.add(toConsumerRecord(tp, TimestampType.NO_TIMESTAMP_TYPE, recItor.next(), kDeserializer, vDeserializer));
+        }
+        return new ConsumerRecords<>(Collections.singletonMap(tp, records));
+    }
+
+    private static <K, V> ConsumerRecord<K, V> toConsumerRecord(TopicPartition tp, TimestampType timestampType, Record rec,
+                                                                Deserializer<K> kDeserializer, Deserializer<V> vDeserializer) {
+        try {
+            Headers headers = new RecordHeaders(rec.headers());
+            ByteBuffer keyBytes = rec.key();
+            byte[] keyByteArray = keyBytes == null ? null : Utils.toArray(keyBytes);
+            K key = keyBytes == null ? null : kDeserializer.deserialize(tp.topic(), keyByteArray);
+            ByteBuffer valueBytes = rec.value();
+            byte[] valueByteArray = valueBytes == null ? null : Utils.toArray(valueBytes);
+            V value = valueBytes == null ? null : vDeserializer.deserialize(tp.topic(), valueByteArray);
+            return new ConsumerRecord<>(tp.topic(), tp.partition(), rec.offset(),
+                    rec.timestamp(), timestampType, rec.checksumOrNull(),
+                    keyByteArray == null ? ConsumerRecord.NULL_SIZE : keyByteArray.length,
+                    valueByteArray == null ? ConsumerRecord.NULL_SIZE : valueByteArray.length,
+                    key, value, headers);
+        } catch (RuntimeException e) {
+            throw new SerializationException("Error deserializing key/value for partition " + tp +
+                    " at offset " + rec.offset(), e);
+        }
+    }
+
+    /**
+     * Listens to the fetch of a partition, called in the admin client thread.
+     */
+    private interface FetchListener {
+        void onFetched(FetchResponse.PartitionData partitionData);
+
+        void onFailure(Throwable throwable);
+    }
+
+    /**
+     * Fetch the partition from its cached leader. The broker waits until there are minBytes, up to the request
+     * timeout, a leader which fails the fetch is removed from the cache.
+     */
+    private void fetchPartition(final TopicPartition tp, final long offset, final int maxBytes, final int minBytes,
+                                long deadlineMs, final FetchListener listener, long now) {
+        callPartitionLeader(tp, new Call("retrieveMessages", deadlineMs, new PartitionLeaderNodeProvider(tp)) {
+            @Override
+            AbstractRequest.Builder createRequest(int timeoutMs) {
+                LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchMap = new LinkedHashMap<>();
+                fetchMap.put(tp, new FetchRequest.PartitionData(offset, FetchRequest.INVALID_LOG_START_OFFSET, maxBytes));
+                return FetchRequest.Builder.forConsumer(timeoutMs, minBytes, fetchMap).setMaxBytes(maxBytes);
+            }
+
+            @Override
+            void handleResponse(AbstractResponse abstractResponse) {
+                FetchResponse fetchResponse = (FetchResponse) abstractResponse;
+                FetchResponse.PartitionData partitionData = fetchResponse.responseData().get(tp);
+                Errors error = partitionData.error;
+                if (error == Errors.NONE) {
+                    listener.onFetched(partitionData);
+                } else {
+                    if (error.exception() instanceof InvalidMetadataException)
+                        partitionLeaders.remove(tp);
+                    listener.onFailure(error.exception());
+                }
+            }
+
+            @Override
+            void handleFailure(Throwable throwable) {
+                partitionLeaders.remove(tp);
+                listener.onFailure(throwable);
+            }
+        }, now);
+    }
+
+    /**
+     * Send the call to the leader of the partition, the leaders of the topic are cached by a metadata request
+     * when the leader isn't cached.
+     */
+    private void callPartitionLeader(final TopicPartition tp, final Call call, long now) {
+        if (partitionLeaders.containsKey(tp)) {
+            runnable.call(call, now);
+            return;
+        }
+        findLeaders(Collections.singletonList(tp.topic()), call.deadlineMs, new LeaderListener() {
+            @Override
+            public void onLeaders() {
+                if (partitionLeaders.containsKey(tp))
+                    runnable.call(call, time.milliseconds());
+                else
+                    call.handleFailure(new LeaderNotAvailableException("There is no leader for " + tp + "."));
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                call.handleFailure(throwable);
+            }
+        }, now);
+    }
+
+    /**
+     * Listens to the lookup of partition leaders, called in the admin client thread.
+     */
+    private interface LeaderListener {
+        void onLeaders();
+
+        void onFailure(Throwable throwable);
+    }
+
+    /**
+     * Cache the leaders of the topics by one metadata request.
+     */
+    private void findLeaders(final Collection<String> topics, long deadlineMs, final LeaderListener listener, long now) {
+        findLeaders(topics, deadlineMs, now, listener, now);
+    }
+
+    /**
+     * Cache the leaders of the topics by one metadata request, which isn't sent before notBeforeMs.
+     */
+    private void findLeaders(final Collection<String> topics, long deadlineMs, long notBeforeMs,
+                             final LeaderListener listener, long now) {
+        Call call = new Call("findLeader", deadlineMs, new LeastLoadedNodeProvider()) {
+            @Override
+            AbstractRequest.Builder createRequest(int timeoutMs) {
+                return new MetadataRequest.Builder(new ArrayList<>(topics), false);
+            }
+
+            @Override
+            void handleResponse(AbstractResponse abstractResponse) {
+                MetadataResponse response = (MetadataResponse) abstractResponse;
+                for (String topic : topics) {
+                    Errors topicError = response.errors().get(topic);
+                    if (topicError != null) {
+                        listener.onFailure(topicError.exception());
+                        return;
+                    }
+                }
+                Cluster cluster = response.cluster();
+                for (String topic : topics) {
+                    for (PartitionInfo partitionInfo : cluster.partitionsForTopic(topic)) {
+                        Node leader = partitionInfo.leader();
+                        if (leader != null && leader.id() != Node.noNode().id())
+                            partitionLeaders.put(new TopicPartition(partitionInfo.topic(), partitionInfo.partition()), leader);
+                    }
+                }
+                listener.onLeaders();
+            }
+
+            @Override
+            void handleFailure(Throwable throwable) {
+                listener.onFailure(throwable);
+            }
+        };
+        call.nextAllowedTryMs = notBeforeMs;
+        runnable.call(call, now);
+    }
+
+    /**
+     * Look up the offsets of the partitions by time with one request per cached leader, the offset is -1 when there
+     * is no message at or after the timestamp.
+     */
+    private KafkaFuture<Map<TopicPartition, Long>> listOffsetsByTime(Map<TopicPartition, Long> timestamps, long deadlineMs) {
+        KafkaFutureImpl<Map<TopicPartition, Long>> future = new KafkaFutureImpl<>();
+        listOffsetsByTime(timestamps, deadlineMs, future);
+        return future;
+    }
+
+    private void listOffsetsByTime(Map<TopicPartition, Long> timestamps, long deadlineMs,
+                                   final KafkaFutureImpl<Map<TopicPartition, Long>> future) {
+        final Map<TopicPartition, Long> offsets = new ConcurrentHashMap<>();
+        Map<Node, Map<TopicPartition, Long>> timestampsByLeader = groupByLeader(timestamps, future);
+        if (timestampsByLeader == null)
+            return;
+        if (timestampsByLeader.isEmpty()) {
+            future.complete(offsets);
+            return;
+        }
+        final AtomicInteger remainingLeaders = new AtomicInteger(timestampsByLeader.size());
+        long now = time.milliseconds();
+        for (Map.Entry<Node, Map<TopicPartition, Long>> entry : timestampsByLeader.entrySet()) {
+            final Map<TopicPartition, Long> targetTimes = entry.getValue();
+            runnable.call(new Call("listOffsets", deadlineMs, new FixedNodeProvider(entry.getKey())) {
+                @Override
+                AbstractRequest.Builder createRequest(int timeoutMs) {
+                    return ListOffsetRequest.Builder.forConsumer(true, IsolationLevel.READ_UNCOMMITTED)
+                            .setTargetTimes(targetTimes);
+                }
+
+                @Override
+                void handleResponse(AbstractResponse abstractResponse) {
+                    ListOffsetResponse response = (ListOffsetResponse) abstractResponse;
+                    for (TopicPartition tp : targetTimes.keySet()) {
+                        ListOffsetResponse.PartitionData partitionData = response.responseData().get(tp);
+                        if (partitionData == null) {
+                            future.completeExceptionally(new KafkaException("The offset of " + tp + " is missing in the response."));
+                            return;
+                        }
+                        Errors error = partitionData.error;
+                        if (error == Errors.NONE) {
+                            offsets.put(tp, partitionData.offset);
+                        } else if (error == Errors.UNSUPPORTED_FOR_MESSAGE_FORMAT) {
+                            offsets.put(tp, ListOffsetResponse.UNKNOWN_OFFSET);
+                        } else {
+                            if (error.exception() instanceof InvalidMetadataException)
+                                partitionLeaders.remove(tp);
+                            future.completeExceptionally(error.exception());
+                            return;
+                        }
+                    }
+                    if (remainingLeaders.decrementAndGet() == 0)
+                        future.complete(offsets);
+                }
+
+                @Override
+                void handleFailure(Throwable throwable) {
+                    for (TopicPartition tp : targetTimes.keySet()) {
+                        partitionLeaders.remove(tp);
+                    }
+                    future.completeExceptionally(throwable);
+                }
+            }, now);
+        }
+    }
+
+    /**
+     * Group the values of the partitions by the cached leaders, the future fails and null is returned when a leader
+     * isn't cached.
+     */
+    private <T> Map<Node, Map<TopicPartition, Long>> groupByLeader(Map<TopicPartition, Long> values, KafkaFutureImpl<T> future) {
+        Map<Node, Map<TopicPartition, Long>> valuesByLeader = new HashMap<>();
+        for (Map.Entry<TopicPartition, Long> entry : values.entrySet()) {
+            Node leader = partitionLeaders.get(entry.getKey());
+            if (leader == null) {
+                future.completeExceptionally(new LeaderNotAvailableException("There is no leader for " + entry.getKey() + "."));
+                return null;
+            }
+            Map<TopicPartition, Long> leaderValues = valuesByLeader.get(leader);
+            if (leaderValues == null) {
+                leaderValues = new HashMap<>();
+                valuesByLeader.put(leader, leaderValues);
+            }
+            leaderValues.put(entry.getKey(), entry.getValue());
+        }
+        return valuesByLeader;
+    }
+
+    /**
+     * Run the task once the leaders of all the partitions are cached, the leaders of the unknown topics are looked
+     * up by one metadata request.
+     */
+    private <T> void withLeaders(Collection<TopicPartition> partitions, long deadlineMs, final KafkaFutureImpl<T> future,
+                                 final Runnable task, long now) {
+        Set<String> unknownTopics = new HashSet<>();
+        for (TopicPartition tp : partitions) {
+            if (!partitionLeaders.containsKey(tp))
+                unknownTopics.add(tp.topic());
+        }
+        if (unknownTopics.isEmpty()) {
+            task.run();
+            return;
+        }
+        findLeaders(unknownTopics, deadlineMs, new LeaderListener() {
+            @Override
+            public void onLeaders() {
+                task.run();
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+        }, now);
+    }
+
+    @Override
+    public FetchOffsetsResult fetchOffsetsByTimes(final Map<TopicPartition, Long> timestamps, FetchOffsetOptions options) {
+        long now = time.milliseconds();
+        final long deadlineMs = calcDeadlineMs(now, options.timeoutMs());
+        final KafkaFutureImpl<Map<TopicPartition, Long>> future = new KafkaFutureImpl<>();
+        withLeaders(timestamps.keySet(), deadlineMs, future, new Runnable() {
+            @Override
+            public void run() {
+                listOffsetsByTime(timestamps, deadlineMs, future);
+            }
+        }, now);
+        return new FetchOffsetsResult(future);
+    }
+
+    @Override
+    public FetchOffsetsResult fetchTimestampsAtOffsets(final Map<TopicPartition, Long> offsets, final int partitionMaxBytes,
+                                                       FetchOffsetOptions options) {
+        KafkaFuture<Map<TopicPartition, FetchedBatches>> fetched = retrieveBatches(offsets, partitionMaxBytes, options.timeoutMs());
+        return new FetchOffsetsResult(fetched.thenApply(new KafkaFuture.Function<Map<TopicPartition, FetchedBatches>, Map<TopicPartition, Long>>() {
+            @Override
+            public Map<TopicPartition, Long> apply(Map<TopicPartition, FetchedBatches> batches) {
+                Map<TopicPartition, Long> timestamps = new HashMap<>();
+                for (Map.Entry<TopicPartition, FetchedBatches> entry : batches.entrySet()) {
+                    long offset = offsets.get(entry.getKey());
+                    Long timestamp = timestampAt(entry.getValue().records(), offset);
+                    if (timestamp != null)
+                        timestamps.put(entry.getKey(), timestamp);
+                    else if (offset >= entry.getValue().highWatermark())
+                        timestamps.put(entry.getKey(), ListOffsetResponse.UNKNOWN_TIMESTAMP);
+                    // otherwise the batch of the offset is larger than the fetch size.
+                }
+                return timestamps;
+            }
+        }));
+    }
+
+    @Override
+    public RetrieveBatchesResult retrieveBatchesByOffsets(Map<TopicPartition, Long> offsets, int partitionMaxBytes,
+                                                          RetrieveRecordsOptions options) {
+        return new RetrieveBatchesResult(retrieveBatches(offsets, partitionMaxBytes, options.timeoutMs()));
+    }
+
+    private KafkaFuture<Map<TopicPartition, FetchedBatches>> retrieveBatches(final Map<TopicPartition, Long> offsets,
+                                                                             final int partitionMaxBytes, Integer timeoutMs) {
+        long now = time.milliseconds();
+        final long deadlineMs = calcDeadlineMs(now, timeoutMs);
+        final KafkaFutureImpl<Map<TopicPartition, FetchedBatches>> future = new KafkaFutureImpl<>();
+        withLeaders(offsets.keySet(), deadlineMs, future, new Runnable() {
+            @Override
+            public void run() {
+                fetchBatches(offsets, partitionMaxBytes, deadlineMs, future);
+            }
+        }, now);
+        return future;
+    }
+
+    /**
+     * Fetch the batches at the offsets of the partitions with one request per cached leader, the broker doesn't
+     * wait for more bytes.
+     */
+    private void fetchBatches(Map<TopicPartition, Long> offsets, int partitionMaxBytes, long deadlineMs,
+                              final KafkaFutureImpl<Map<TopicPartition, FetchedBatches>> future) {
+        final Map<TopicPartition, FetchedBatches> batches = new ConcurrentHashMap<>();
+        Map<Node, Map<TopicPartition, Long>> offsetsByLeader = groupByLeader(offsets, future);
+        if (offsetsByLeader == null)
+            return;
+        if (offsetsByLeader.isEmpty()) {
+            future.complete(batches);
+            return;
+        }
+        final AtomicInteger remainingLeaders = new AtomicInteger(offsetsByLeader.size());
+        long now = time.milliseconds();
+        for (Map.Entry<Node, Map<TopicPartition, Long>> entry : offsetsByLeader.entrySet()) {
+            final Map<TopicPartition, Long> fetchOffsets = entry.getValue();
+            final LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchMap = new LinkedHashMap<>();
+            for (Map.Entry<TopicPartition, Long> offset : fetchOffsets.entrySet()) {
+                fetchMap.put(offset.getKey(), new FetchRequest.PartitionData(offset.getValue(),
+                        FetchRequest.INVALID_LOG_START_OFFSET, partitionMaxBytes));
+            }
+            final int requestMaxBytes = (int) Math.min((long) partitionMaxBytes * fetchMap.size(), Integer.MAX_VALUE);
+            runnable.call(new Call("fetchBatches", deadlineMs, new FixedNodeProvider(entry.getKey())) {
+                @Override
+                AbstractRequest.Builder createRequest(int timeoutMs) {
+                    return FetchRequest.Builder.forConsumer(timeoutMs, 0, fetchMap).setMaxBytes(requestMaxBytes);
+                }
+
+                @Override
+                void handleResponse(AbstractResponse abstractResponse) {
+                    FetchResponse response = (FetchResponse) abstractResponse;
+                    for (TopicPartition tp : fetchOffsets.keySet()) {
+                        FetchResponse.PartitionData partitionData = response.responseData().get(tp);
+                        if (partitionData == null) {
+                            future.completeExceptionally(new KafkaException("The records of " + tp + " are missing in the response."));
+                            return;
+                        }
+                        if (partitionData.error != Errors.NONE) {
+                            if (partitionData.error.exception() instanceof InvalidMetadataException)
+                                partitionLeaders.remove(tp);
+                            future.completeExceptionally(partitionData.error.exception());
+                            return;
+                        }
+                        batches.put(tp, new FetchedBatches(partitionData.records, partitionData.highWatermark,
+                                partitionData.logStartOffset));
+                    }
+                    if (remainingLeaders.decrementAndGet() == 0)
+                        future.complete(batches);
+                }
+
+                @Override
+                void handleFailure(Throwable throwable) {
+                    for (TopicPartition tp : fetchOffsets.keySet()) {
+                        partitionLeaders.remove(tp);
+                    }
+                    future.completeExceptionally(throwable);
+                }
+            }, now);
+        }
+    }
+
+    @Override
+    public AppendBatchesResult appendBatches(final Map<TopicPartition, MemoryRecords> batches, final AppendBatchesOptions options) {
+        final Map<TopicPartition, KafkaFutureImpl<Long>> futures = new HashMap<>();
+        for (TopicPartition tp : batches.keySet()) {
+            futures.put(tp, new KafkaFutureImpl<Long>());
+        }
+        long now = time.milliseconds();
+        final long deadlineMs = calcDeadlineMs(now, options.timeoutMs());
+        // a failed lookup of the leaders fails all the batches.
+        KafkaFutureImpl<Void> leadersFuture = new KafkaFutureImpl<Void>() {
+            @Override
+            public boolean completeExceptionally(Throwable throwable) {
+                for (KafkaFutureImpl<Long> future : futures.values()) {
+                    future.completeExceptionally(throwable);
+                }
+                return super.completeExceptionally(throwable);
+            }
+        };
+        withLeaders(batches.keySet(), deadlineMs, leadersFuture, new Runnable() {
+            @Override
+            public void run() {
+                produceBatches(batches, options.acks(), deadlineMs, futures);
+            }
+        }, now);
+        return new AppendBatchesResult(new HashMap<TopicPartition, KafkaFuture<Long>>(futures));
+    }
+
+    /**
+     * Send the batches with one produce request per cached leader, in the lowest magic of the batches of the leader.
+     */
+    private void produceBatches(Map<TopicPartition, MemoryRecords> batches, final short acks, long deadlineMs,
+                                final Map<TopicPartition, KafkaFutureImpl<Long>> futures) {
+        Map<Node, Map<TopicPartition, MemoryRecords>> batchesByLeader = new HashMap<>();
+        for (Map.Entry<TopicPartition, MemoryRecords> entry : batches.entrySet()) {
+            Node leader = partitionLeaders.get(entry.getKey());
+            if (leader == null) {
+                futures.get(entry.getKey()).completeExceptionally(
+                        new LeaderNotAvailableException("There is no leader for " + entry.getKey() + "."));
+                continue;
+            }
+            Map<TopicPartition, MemoryRecords> leaderBatches = batchesByLeader.get(leader);
+            if (leaderBatches == null) {
+                leaderBatches = new HashMap<>();
+                batchesByLeader.put(leader, leaderBatches);
+            }
+            leaderBatches.put(entry.getKey(), entry.getValue());
+        }
+        long now = time.milliseconds();
+        for (Map.Entry<Node, Map<TopicPartition, MemoryRecords>> entry : batchesByLeader.entrySet()) {
+            final Map<TopicPartition, MemoryRecords> produceBatches = entry.getValue();
+            byte magic = RecordBatch.CURRENT_MAGIC_VALUE;
+            for (MemoryRecords records : produceBatches.values()) {
+                for (RecordBatch batch : records.batches()) {
+                    magic = (byte) Math.min(magic, batch.magic());
+                }
+            }
+            final byte produceMagic = magic;
+            runnable.call(new Call("appendBatches", deadlineMs, new FixedNodeProvider(entry.getKey())) {
+                @Override
+                AbstractRequest.Builder createRequest(int timeoutMs) {
+                    return ProduceRequest.Builder.forMagic(produceMagic, acks, timeoutMs, produceBatches, null);
+                }
+
+                @Override
+                void handleResponse(AbstractResponse abstractResponse) {
+                    ProduceResponse response = (ProduceResponse) abstractResponse;
+                    for (TopicPartition tp : produceBatches.keySet()) {
+                        ProduceResponse.PartitionResponse partitionResponse = response.responses().get(tp);
+                        if (partitionResponse == null) {
+                            futures.get(tp).completeExceptionally(
+                                    new KafkaException("The offset of " + tp + " is missing in the response."));
+                        } else if (partitionResponse.error != Errors.NONE) {
+                            if (partitionResponse.error.exception() instanceof InvalidMetadataException)
+                                partitionLeaders.remove(tp);
+                            futures.get(tp).completeExceptionally(partitionResponse.error.exception());
+                        } else {
+                            futures.get(tp).complete(partitionResponse.baseOffset);
+                        }
+                    }
+                }
+
+                @Override
+                void handleFailure(Throwable throwable) {
+                    for (TopicPartition tp : produceBatches.keySet()) {
+                        partitionLeaders.remove(tp);
+                        futures.get(tp).completeExceptionally(throwable);
+                    }
+                }
+            }, now);
+        }
+    }
+
+    /**
+     * The timestamp of the first record at or after the offset or null if there is none, the batches before the
+     * offset are skipped without reading their records.
+     */
+    private static Long timestampAt(Records records, long offset) {
+        for (RecordBatch recordBatch : records.batches()) {
+            if (recordBatch.lastOffset() < offset)
+                continue;
+            for (Record record : recordBatch) {
+                if (record.offset() >= offset)
+                    return record.timestamp();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public FetchGroupOffsetsResult fetchCommittedOffsets(final String groupId, FetchOffsetOptions options) {
+        final long now = time.milliseconds();
+        final long deadlineMs = calcDeadlineMs(now, options.timeoutMs());
+        final KafkaFutureImpl<Map<TopicPartition, OffsetAndMetadata>> future = new KafkaFutureImpl<>();
+        findCoordinator(groupId, deadlineMs, new CoordinatorListener() {
+            @Override
+            public void onCoordinator(Node coordinator, long now) {
+                fetchGroupOffsets(groupId, coordinator, deadlineMs, future, now);
+            }
+
+            @Override
+            public void onFailure(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+        }, now);
+        return new FetchGroupOffsetsResult(future);
+    }
+
+    /**
+     * Listens to the lookup of a group coordinator, called in the admin client thread.
+     */
+    private interface CoordinatorListener {
+        void onCoordinator(Node coordinator, long now);
+
+        void onFailure(Throwable throwable);
+    }
+
+    /**
+     * Look up the coordinator of the group, a cached coordinator is used without a request.
+     */
+    private void findCoordinator(final String groupId, long deadlineMs, final CoordinatorListener listener, long now) {
+        Node coordinator = groupCoordinators.get(groupId);
+        if (coordinator != null) {
+            listener.onCoordinator(coordinator, now);
+            return;
+        }
+        runnable.call(new Call("findCoordinator", deadlineMs, new LeastLoadedNodeProvider()) {
+            @Override
+            AbstractRequest.Builder createRequest(int timeoutMs) {
+                return new FindCoordinatorRequest.Builder(FindCoordinatorRequest.CoordinatorType.GROUP, groupId);
+            }
+
+            @Override
+            void handleResponse(AbstractResponse abstractResponse) {
+                FindCoordinatorResponse response = (FindCoordinatorResponse) abstractResponse;
+                if (response.error() != Errors.NONE) {
+                    listener.onFailure(response.error().exception());
+                    return;
+                }
+                groupCoordinators.put(groupId, response.node());
+                listener.onCoordinator(response.node(), time.milliseconds());
+            }
+
+            @Override
+            void handleFailure(Throwable throwable) {
+                listener.onFailure(throwable);
+            }
+        }, now);
+    }
+
+    private void fetchGroupOffsets(final String groupId, Node coordinator, long deadlineMs,
+                                   final KafkaFutureImpl<Map<TopicPartition, OffsetAndMetadata>> future, long now) {
+        runnable.call(new Call("fetchCommittedOffsets", deadlineMs, new FixedNodeProvider(coordinator)) {
+            @Override
+            AbstractRequest.Builder createRequest(int timeoutMs) {
+                return OffsetFetchRequest.Builder.allTopicPartitions(groupId);
+            }
+
+            @Override
+            void handleResponse(AbstractResponse abstractResponse) {
+                OffsetFetchResponse response = (OffsetFetchResponse) abstractResponse;
+                if (response.hasError()) {
+                    if (response.error() == Errors.NOT_COORDINATOR || response.error() == Errors.COORDINATOR_NOT_AVAILABLE)
+                        groupCoordinators.remove(groupId);
+                    future.completeExceptionally(response.error().exception());
+                    return;
+                }
+                Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+                for (Map.Entry<TopicPartition, OffsetFetchResponse.PartitionData> entry : response.responseData().entrySet()) {
+                    OffsetFetchResponse.PartitionData partitionData = entry.getValue();
+                    if (partitionData.hasError()) {
+                        future.completeExceptionally(partitionData.error.exception());
+                        return;
+                    }
+                    if (partitionData.offset >= 0)
+                        offsets.put(entry.getKey(), new OffsetAndMetadata(partitionData.offset, partitionData.metadata));
+                }
+                future.complete(offsets);
+            }
+
+            @Override
+            void handleFailure(Throwable throwable) {
+                groupCoordinators.remove(groupId);
+                future.completeExceptionally(throwable);
+            }
+        }, now);
+    }
+
+    @Override
+    public ListGroupsResult listGroups(ListGroupsOptions options) {
+        final long now = time.milliseconds();
+        final long deadlineMs = calcDeadlineMs(now, options.timeoutMs());
+        final KafkaFutureImpl<Collection<GroupListing>> future = new KafkaFutureImpl<>();
+        runnable.call(new Call("listNodes", deadlineMs, new LeastLoadedNodeProvider()) {
+            @Override
+            AbstractRequest.Builder createRequest(int timeoutMs) {
+                return new MetadataRequest.Builder(Collections.<String>emptyList(), true);
+            }
+
+            @Override
+            void handleResponse(AbstractResponse abstractResponse) {
+                Collection<Node> brokers = ((MetadataResponse) abstractResponse).brokers();
+                if (brokers.isEmpty()) {
+                    future.complete(Collections.<GroupListing>emptyList());
+                    return;
+                }
+                listBrokerGroups(brokers, deadlineMs, future, time.milliseconds());
+            }
+
+            @Override
+            void handleFailure(Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+        }, now);
+        return new ListGroupsResult(future);
+    }
+
+    private void listBrokerGroups(Collection<Node> brokers, long deadlineMs,
+                                  final KafkaFutureImpl<Collection<GroupListing>> future, long now) {
+        final List<GroupListing> listings = Collections.synchronizedList(new ArrayList<GroupListing>());
+        final AtomicInteger remainingBrokers = new AtomicInteger(brokers.size());
+        for (final Node broker : brokers) {
+            runnable.call(new Call("listGroups", deadlineMs, new FixedNodeProvider(broker)) {
+                @Override
+                AbstractRequest.Builder createRequest(int timeoutMs) {
+                    return new ListGroupsRequest.Builder();
+                }
+
+                @Override
+                void handleResponse(AbstractResponse abstractResponse) {
+                    ListGroupsResponse response = (ListGroupsResponse) abstractResponse;
+                    if (response.error() != Errors.NONE) {
+                        future.completeExceptionally(response.error().exception());
+                        return;
+                    }
+                    for (ListGroupsResponse.Group group : response.groups()) {
+                        groupCoordinators.put(group.groupId(), broker);
+                        listings.add(new GroupListing(group.groupId(), group.protocolType(), broker));
+                    }
+                    if (remainingBrokers.decrementAndGet() == 0)
+                        future.complete(new ArrayList<>(listings));
+                }
+
+                @Override
+                void handleFailure(Throwable throwable) {
+                    future.completeExceptionally(throwable);
+                }
+            }, now);
+        }
+    }
+
+    @Override
+    public DescribeGroupsResult describeGroups(Collection<String> groupIds, DescribeGroupsOptions options) {
+        final Map<String, KafkaFutureImpl<GroupDescription>> futures = new HashMap<>();
+        for (String groupId : groupIds) {
+            futures.put(groupId, new KafkaFutureImpl<GroupDescription>());
+        }
+        final long now = time.milliseconds();
+        final long deadlineMs = calcDeadlineMs(now, options.timeoutMs());
+        // the groups are described once all the coordinators are found.
+        final Map<Node, List<String>> groupsByCoordinator = new HashMap<>();
+        final AtomicInteger remainingGroups = new AtomicInteger(futures.size());
+        for (final String groupId : futures.keySet()) {
+            findCoordinator(groupId, deadlineMs, new CoordinatorListener() {
+                @Override
+                public void onCoordinator(Node coordinator, long now) {
+                    // a cached coordinator is found in the calling thread.
+                    synchronized (groupsByCoordinator) {
+                        List<String> coordinatorGroups = groupsByCoordinator.get(coordinator);
+                        if (coordinatorGroups == null) {
+                            coordinatorGroups = new ArrayList<>();
+                            groupsByCoordinator.put(coordinator, coordinatorGroups);
+                        }
+                        coordinatorGroups.add(groupId);
+                    }
+                    onFound(now);
+                }
+
+                @Override
+                public void onFailure(Throwable throwable) {
+                    futures.get(groupId).completeExceptionally(throwable);
+                    onFound(time.milliseconds());
+                }
+
+                private void onFound(long now) {
+                    if (remainingGroups.decrementAndGet() > 0)
+                        return;
+                    synchronized (groupsByCoordinator) {
+                        for (Map.Entry<Node, List<String>> entry : groupsByCoordinator.entrySet()) {
+                            describeCoordinatorGroups(entry.getKey(), entry.getValue(), deadlineMs, futures, now);
+                        }
+                    }
+                }
+            }, now);
+        }
+        return new DescribeGroupsResult(new HashMap<String, KafkaFuture<GroupDescription>>(futures));
+    }
+
+    private void describeCoordinatorGroups(final Node coordinator, final List<String> groupIds, long deadlineMs,
+                                           final Map<String, KafkaFutureImpl<GroupDescription>> futures, long now) {
+        runnable.call(new Call("describeGroups", deadlineMs, new FixedNodeProvider(coordinator)) {
+            @Override
+            AbstractRequest.Builder createRequest(int timeoutMs) {
+                return new DescribeGroupsRequest.Builder(groupIds);
+            }
+
+            @Override
+            void handleResponse(AbstractResponse abstractResponse) {
+                DescribeGroupsResponse response = (DescribeGroupsResponse) abstractResponse;
+                for (String groupId : groupIds) {
+                    KafkaFutureImpl<GroupDescription> future = futures.get(groupId);
+                    DescribeGroupsResponse.GroupMetadata group = response.groups().get(groupId);
+                    if (group == null) {
+                        future.completeExceptionally(new KafkaException("The group " + groupId + " is missing in the response."));
+                    } else if (group.error() != Errors.NONE) {
+                        if (group.error() == Errors.NOT_COORDINATOR || group.error() == Errors.COORDINATOR_NOT_AVAILABLE)
+                            groupCoordinators.remove(groupId);
+                        future.completeExceptionally(group.error().exception());
+                    } else {
+                        try {
+                            future.complete(groupDescription(groupId, group, coordinator));
+                        } catch (SchemaException e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+                }
+            }
+
+            @Override
+            void handleFailure(Throwable throwable) {
+                for (String groupId : groupIds) {
+                    groupCoordinators.remove(groupId);
+                    futures.get(groupId).completeExceptionally(throwable);
+                }
+            }
+        }, now);
+    }
+
+    /**
+     * Describe the group, the subscriptions and assignments of the members of a consumer group are decoded by the
+     * consumer protocol.
+     */
+    private static GroupDescription groupDescription(String groupId, DescribeGroupsResponse.GroupMetadata group,
+                                                     Node coordinator) {
+        boolean isConsumerGroup = ConsumerProtocol.PROTOCOL_TYPE.equals(group.protocolType());
+        List<MemberDescription> members = new ArrayList<>(group.members().size());
+        for (DescribeGroupsResponse.GroupMember member : group.members()) {
+            List<String> subscription = Collections.emptyList();
+            List<TopicPartition> assignment = Collections.emptyList();
+            if (isConsumerGroup) {
+                if (member.memberMetadata().hasRemaining())
+                    subscription = ConsumerProtocol.deserializeSubscription(member.memberMetadata().duplicate()).topics();
+                if (member.memberAssignment().hasRemaining())
+                    assignment = ConsumerProtocol.deserializeAssignment(member.memberAssignment().duplicate()).partitions();
+            }
+            members.add(new MemberDescription(member.memberId(), member.clientId(), member.clientHost(), subscription,
+                    assignment));
+        }
+        return new GroupDescription(groupId, group.state(), group.protocolType(), group.protocol(), members, coordinator);
+    }
+
+    @Override
+    public <K, V> RetrieveRecordsResult<K, V> retrieveMessagesByOffset(final TopicPartition tp, final long offset, final int size, final Deserializer<K> kDeserializer, final Deserializer<V> vDeserializer, final RetrieveRecordsOptions options) {
+        final long now = time.milliseconds();
+        final KafkaFutureImpl<ConsumerRecords<K, V>> recordsFuture = new KafkaFutureImpl<>();
+        fetchPartition(tp, offset, ConsumerConfig.DEFAULT_MAX_PARTITION_FETCH_BYTES, FETCH_MESG_MAX_BYTES,
+                calcDeadlineMs(now, options.timeoutMs()), new FetchListener() {
+                    @Override
+                    public void onFetched(FetchResponse.PartitionData partitionData) {
+                        try {
+                            recordsFuture.complete(fetchRecords(tp, partitionData, size, kDeserializer, vDeserializer));
+                        } catch (SerializationException e) {
+                            recordsFuture.completeExceptionally(e);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable throwable) {
+                        recordsFuture.completeExceptionally(throwable);
+                    }
+                }, now);
+        return new RetrieveRecordsResult<>(recordsFuture);
+    }
+
+    @Override
+    public <K, V> RetrieveLazyRecordsResult<K, V> retrieveLazyMessagesByOffset(TopicPartition tp, long offset, int size,
+                                                                          Deserializer<K> kDeserializer, Deserializer<V> vDeserializer,
+                                                                          RetrieveRecordsOptions options) {
+        long now = time.milliseconds();
+        KafkaFutureImpl<List<LazyRecord<K, V>>> recordsFuture = new KafkaFutureImpl<>();
+        new LazyRecordsFetch<>(tp, size, kDeserializer, vDeserializer, calcDeadlineMs(now, options.timeoutMs()),
+                recordsFuture).fetch(offset, now);
+        return new RetrieveLazyRecordsResult<>(recordsFuture);
+    }
+
+    /**
+     * The fetch size for the records of the topic, from the average record size of the previous fetches.
+     */
+    private int estimateFetchBytes(String topic, int records) {
+        Integer avgRecordSize = avgRecordSizes.get(topic);
+        if (avgRecordSize == null)
+            return ConsumerConfig.DEFAULT_MAX_PARTITION_FETCH_BYTES;
+        // a quarter more for the variance of the sizes, and the overhead of a batch.
+        long fetchBytes = (long) records * avgRecordSize * 5 / 4 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD;
+        return (int) Math.max(FETCH_MESG_MAX_BYTES, Math.min(ConsumerConfig.DEFAULT_FETCH_MAX_BYTES, fetchBytes));
+    }
+
+    private void updateAvgRecordSize(String topic, long bytes, long records) {
+        if (records <= 0)
+            return;
+        int observed = (int) Math.max(1L, bytes / records);
+        Integer avgRecordSize = avgRecordSizes.get(topic);
+        avgRecordSizes.put(topic, avgRecordSize == null ? observed : (avgRecordSize * 3 + observed) / 4);
+    }
+
+    /**
+     * Fetches the records of a partition from an offset until there are enough, the records wrap the fetched
+     * buffers without copying. Another fetch is sent when the first one is short, e.g. the average size grew.
+     */
+    private final class LazyRecordsFetch<K, V> implements FetchListener {
+        private final TopicPartition tp;
+        private final int maxRecords;
+        private final Deserializer<K> kDeserializer;
+        private final Deserializer<V> vDeserializer;
+        private final long deadlineMs;
+        private final KafkaFutureImpl<List<LazyRecord<K, V>>> future;
+        private final List<LazyRecord<K, V>> records = new ArrayList<>();
+        private long nextOffset;
+        private int minFetchBytes = 0;
+
+        LazyRecordsFetch(TopicPartition tp, int maxRecords, Deserializer<K> kDeserializer, Deserializer<V> vDeserializer,
+                         long deadlineMs, KafkaFutureImpl<List<LazyRecord<K, V>>> future) {
+            this.tp = tp;
+            this.maxRecords = maxRecords;
+            this.kDeserializer = kDeserializer;
+            this.vDeserializer = vDeserializer;
+            this.deadlineMs = deadlineMs;
+            this.future = future;
+        }
+
+        void fetch(long offset, long now) {
+            nextOffset = offset;
+            if (maxRecords <= 0) {
+                future.complete(records);
+                return;
+            }
+            int fetchBytes = Math.max(minFetchBytes, estimateFetchBytes(tp.topic(), maxRecords - records.size()));
+            fetchPartition(tp, offset, fetchBytes, 0, deadlineMs, this, now);
+        }
+
+        @Override
+        public void onFetched(FetchResponse.PartitionData partitionData) {
+            long batchBytes = 0;
+            long batchRecords = 0;
+            boolean fetchedBatch = false;
+            for (RecordBatch recordBatch : partitionData.records.batches()) {
+                if (records.size() >= maxRecords)
+                    break;
+                if (recordBatch.lastOffset() < nextOffset)
+                    continue;
+                fetchedBatch = true;
+                // the commit and abort markers of transactions aren't messages.
+                if (recordBatch.isControlBatch()) {
+                    nextOffset = recordBatch.nextOffset();
+                    continue;
+                }
+                Integer count = recordBatch.countOrNull();
+                if (count != null) {
+                    batchBytes += recordBatch.sizeInBytes();
+                    batchRecords += count;
+                }
+                for (Record record : recordBatch) {
+                    if (records.size() >= maxRecords)
+                        break;
+                    if (record.offset() >= nextOffset)
+                        records.add(new LazyRecord<>(tp, recordBatch.timestampType(), record, kDeserializer, vDeserializer));
+                }
+                nextOffset = recordBatch.nextOffset();
+            }
+            updateAvgRecordSize(tp.topic(), batchBytes, batchRecords);
+            if (records.size() >= maxRecords || nextOffset >= partitionData.highWatermark) {
+                future.complete(records);
+                return;
+            }
+            if (!fetchedBatch) {
+                if (partitionData.records.sizeInBytes() == 0) {
+                    future.complete(records);
+                    return;
+                }
+                // the next batch is larger than the fetch size.
+                minFetchBytes = Math.max(ConsumerConfig.DEFAULT_MAX_PARTITION_FETCH_BYTES, partitionData.records.sizeInBytes() * 2);
+            }
+            fetch(nextOffset, time.milliseconds());
+        }
+
+        @Override
+        public void onFailure(Throwable throwable) {
+            future.completeExceptionally(throwable);
+        }
+    }
+
+    @Override
+    public <K, V> RetrieveRecordsResult<K, V> retrieveMessagesByTimeSpan(final TopicPartition tp, long bTimestamp, int size, final Deserializer<K> kDeserializer, final Deserializer<V> vDeserializer, final RetrieveRecordsOptions options) {
+        final KafkaFutureImpl<ConsumerRecords<K, V>> future = new KafkaFutureImpl<>();
+        FetchOffsetOptions fetchOffsetOptions = new FetchOffsetOptions().timeoutMs(options.timeoutMs());
+        try {
+            Long bOffset = fetchPartitionOffsetByTime(tp, bTimestamp, fetchOffsetOptions).values().get();
+            if (null == bOffset) {
+                log.warn("fetchPartitionOffsetByTime timestamp = {} failed, adjust to earliest timestamp.", bTimestamp);
+                bOffset = fetchPartitionOffsetByTime(tp, ListOffsetRequest.EARLIEST_TIMESTAMP, fetchOffsetOptions).values().get();
+            }
+            return retrieveMessagesByOffset(tp, bOffset, size, kDeserializer, vDeserializer, options);
+        } catch (Exception ex) {
+            log.warn("retrieveMessagesByOffset TopicPartition [{}] leader error.", tp, ex);
+            future.completeExceptionally(ex);
+        }
+
+        return new RetrieveRecordsResult<>(future);
+    }
+
+    @Override
+    public <K, V> MessageScanner<K, V> scanMessagesByOffset(TopicPartition tp, long startOffset, long endOffset,
+                                                           Deserializer<K> kDeserializer, Deserializer<V> vDeserializer,
+                                                           ScanRecordsOptions options) {
+        return new PartitionScanner<>(tp, startOffset, endOffset, kDeserializer, vDeserializer, options);
+    }
+
+    @Override
+    public <K, V> MessageScanner<K, V> scanMessagesByTimeSpan(TopicPartition tp, long bTimestamp, long eTimestamp,
+                                                             Deserializer<K> kDeserializer, Deserializer<V> vDeserializer,
+                                                             ScanRecordsOptions options) {
+        FetchOffsetOptions fetchOffsetOptions = new FetchOffsetOptions().timeoutMs(options.timeoutMs());
+        KafkaFuture<Long> bOffsetFuture = fetchPartitionOffsetByTime(tp, bTimestamp, fetchOffsetOptions).values();
+        KafkaFuture<Long> eOffsetFuture = fetchPartitionOffsetByTime(tp, eTimestamp, fetchOffsetOptions).values();
+        long startOffset;
+        long endOffset;
+        try {
+            // an unknown offset means there is no message at or after the timestamp.
+            Long eOffset = eOffsetFuture.get();
+            endOffset = eOffset == null || eOffset < 0 ? Long.MAX_VALUE : eOffset;
+            Long bOffset = bOffsetFuture.get();
+            startOffset = bOffset == null || bOffset < 0 ? endOffset : bOffset;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof KafkaException)
+                throw (KafkaException) e.getCause();
+            throw new KafkaException("Failed to look up the offsets of " + tp + " by time.", e.getCause());
+        }
+        return new PartitionScanner<>(tp, startOffset, endOffset, kDeserializer, vDeserializer, options);
+    }
+
+    /**
+     * Scans a partition with at most one fetch in flight. The next fetch is sent as soon as a response arrives, until
+     * prefetchFetches responses are buffered, so the fetches overlap the iteration and the memory is bounded.
+     */
+    private final class PartitionScanner<K, V> implements MessageScanner<K, V>, FetchListener {
+        private final TopicPartition tp;
+        private final long endOffset;
+        private final Deserializer<K> kDeserializer;
+        private final Deserializer<V> vDeserializer;
+        private final int prefetchFetches;
+        private final int timeoutMs;
+
+        // guarded by this, shared with the admin client thread.
+        private final ArrayDeque<FetchResponse.PartitionData> fetched = new ArrayDeque<>();
+        private long fetchOffset;
+        private int fetchBytes;
+        private boolean fetching;
+        private boolean endOfRange;
+        private int retries;
+        private RuntimeException error;
+        private boolean closed;
+
+        // accessed by the iterating thread only.
+        private Iterator<? extends RecordBatch> batches;
+        private RecordBatch batch;
+        private Iterator<Record> records;
+        private long position;
+        private ConsumerRecord<K, V> nextRecord;
+
+        PartitionScanner(TopicPartition tp, long startOffset, long endOffset, Deserializer<K> kDeserializer,
+                         Deserializer<V> vDeserializer, ScanRecordsOptions options) {
+            this.tp = tp;
+            this.endOffset = endOffset;
+            this.kDeserializer = kDeserializer;
+            this.vDeserializer = vDeserializer;
+            this.prefetchFetches = Math.max(1, options.prefetchFetches());
+            this.timeoutMs = options.timeoutMs() == null ? defaultTimeoutMs : options.timeoutMs();
+            this.fetchBytes = options.fetchMaxBytes();
+            this.fetchOffset = startOffset;
+            this.position = startOffset;
+            synchronized (this) {
+                if (startOffset >= endOffset)
+                    endOfRange = true;
+                else
+                    sendFetch();
+            }
+        }
 
-        try {
-            metrics = new Metrics(new MetricConfig(), new LinkedList<MetricsReporter>(), time);
-            return new KafkaAdminClient(config, clientId, time, metadata, metrics, client, null,
-                    createLogContext(clientId));
-        } catch (Throwable exc) {
-            closeQuietly(metrics, "Metrics");
-            throw new KafkaException("Failed create new KafkaAdminClient", exc);
+        @Override
+        public boolean hasNext() {
+            if (nextRecord != null)
+                return true;
+            while (position < endOffset) {
+                while (records != null && records.hasNext()) {
+                    Record record = records.next();
+                    if (record.offset() < position)
+                        continue;
+                    if (record.offset() >= endOffset) {
+                        position = endOffset;
+                        return false;
+                    }
+                    position = record.offset() + 1;
+                    nextRecord = toConsumerRecord(tp, batch.timestampType(), record, kDeserializer, vDeserializer);
+                    return true;
+                }
+                records = null;
+                if (batches != null && batches.hasNext()) {
+                    batch = batches.next();
+                    if (batch.isControlBatch())
+                        position = Math.max(position, batch.nextOffset());
+                    else
+                        records = batch.iterator();
+                    continue;
+                }
+                batches = null;
+                FetchResponse.PartitionData partitionData = takeFetched();
+                if (partitionData == null)
+                    return false;
+                batches = partitionData.records.batches().iterator();
+            }
+            return false;
         }
-    }
 
-    private static LogContext createLogContext(String clientId) {
-        return new LogContext("[AdminClient clientId=" + clientId + "] ");
-    }
+        @Override
+        public ConsumerRecord<K, V> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            ConsumerRecord<K, V> record = nextRecord;
+            nextRecord = null;
+            return record;
+        }
 
-    private KafkaAdminClient(AdminClientConfig config, String clientId, Time time, Metadata metadata,
-                             Metrics metrics, KafkaClient client, TimeoutProcessorFactory timeoutProcessorFactory,
-                             LogContext logContext) {
-        this.defaultTimeoutMs = config.getInt(AdminClientConfig.REQUEST_TIMEOUT_MS_CONFIG);
-        this.clientId = clientId;
-        this.log = logContext.logger(KafkaAdminClient.class);
-        this.time = time;
-        this.metadata = metadata;
-        List<InetSocketAddress> addresses = ClientUtils.parseAndValidateAddresses(
-                config.getList(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG));
-        this.metadata.update(Cluster.bootstrap(addresses), Collections.<String>emptySet(), time.milliseconds());
-        this.metrics = metrics;
-        this.client = client;
-        this.runnable = new AdminClientRunnable();
-        String threadName = "kafka-admin-client-thread | " + clientId;
-        this.thread = new KafkaThread(threadName, runnable, true);
-        this.timeoutProcessorFactory = (timeoutProcessorFactory == null) ?
-                new TimeoutProcessorFactory() : timeoutProcessorFactory;
-        this.maxRetries = config.getInt(AdminClientConfig.RETRIES_CONFIG);
-        config.logUnused();
-        AppInfoParser.registerAppInfo(JMX_PREFIX, clientId, metrics);
-        log.debug("Kafka admin client initialized");
-        thread.start();
-    }
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
 
-    Time time() {
-        return time;
-    }
+        @Override
+        public long position() {
+            return nextRecord != null ? nextRecord.offset() : position;
+        }
 
-    @Override
-    public void close(long duration, TimeUnit unit) {
-        long waitTimeMs = unit.toMillis(duration);
-        waitTimeMs = Math.min(TimeUnit.DAYS.toMillis(365), waitTimeMs); // Limit the timeout to a year.
-        long now = time.milliseconds();
-        long newHardShutdownTimeMs = now + waitTimeMs;
-        long prev = INVALID_SHUTDOWN_TIME;
-        while (true) {
-            if (hardShutdownTimeMs.compareAndSet(prev, newHardShutdownTimeMs)) {
-                if (prev == INVALID_SHUTDOWN_TIME) {
-                    log.debug("Initiating close operation.");
-                } else {
-                    log.debug("Moving hard shutdown time forward.");
+        private synchronized FetchResponse.PartitionData takeFetched() {
+            long deadlineMs = time.milliseconds() + timeoutMs;
+            while (fetched.isEmpty()) {
+                if (error != null)
+                    throw error;
+                if (closed || (endOfRange && !fetching))
+                    return null;
+                if (!fetching)
+                    sendFetch();
+                long remainingMs = deadlineMs - time.milliseconds();
+                if (remainingMs <= 0)
+                    throw new TimeoutException("Timed out waiting for the records of " + tp + " at offset " + fetchOffset + ".");
+                try {
+                    wait(remainingMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptException(e);
                 }
-                client.wakeup(); // Wake the thread, if it is blocked inside poll().
-                break;
             }
-            prev = hardShutdownTimeMs.get();
-            if (prev < newHardShutdownTimeMs) {
-                log.debug("Hard shutdown time is already earlier than requested.");
-                newHardShutdownTimeMs = prev;
-                break;
+            FetchResponse.PartitionData partitionData = fetched.poll();
+            if (!fetching && !endOfRange && error == null)
+                sendFetch();
+            return partitionData;
+        }
+
+        private void sendFetch() {
+            fetching = true;
+            long now = time.milliseconds();
+            // don't wait on the broker, the scan ends at the high watermark.
+            fetchPartition(tp, fetchOffset, fetchBytes, 0, calcDeadlineMs(now, timeoutMs), this, now);
+        }
+
+        @Override
+        public synchronized void onFetched(FetchResponse.PartitionData partitionData) {
+            fetching = false;
+            retries = 0;
+            if (closed)
+                return;
+            long nextOffset = -1L;
+            for (RecordBatch recordBatch : partitionData.records.batches()) {
+                nextOffset = recordBatch.nextOffset();
+            }
+            if (nextOffset >= 0) {
+                fetchOffset = nextOffset;
+                endOfRange = fetchOffset >= endOffset || fetchOffset >= partitionData.highWatermark;
+                fetched.add(partitionData);
+                if (!endOfRange && fetched.size() < prefetchFetches)
+                    sendFetch();
+            } else if (partitionData.records.sizeInBytes() > 0) {
+                // the next batch is larger than the fetch size.
+                fetchBytes = fetchBytes > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : fetchBytes * 2;
+                sendFetch();
+            } else {
+                endOfRange = true;
             }
+            notifyAll();
         }
-        if (log.isDebugEnabled()) {
-            long deltaMs = Math.max(0, newHardShutdownTimeMs - time.milliseconds());
-            log.debug("Waiting for the I/O thread to exit. Hard shutdown in {} ms.", deltaMs);
+
+        @Override
+        public synchronized void onFailure(Throwable throwable) {
+            fetching = false;
+            if (closed)
+                return;
+            if (throwable instanceof RetriableException && retries++ < maxRetries) {
+                log.debug("Retrying the fetch of {} at offset {}.", tp, fetchOffset, throwable);
+                sendFetch();
+                return;
+            }
+            error = throwable instanceof RuntimeException ? (RuntimeException) throwable : new KafkaException(throwable);
+            notifyAll();
         }
-        try {
-            // Wait for the thread to be joined.
-            thread.join();
 
-            AppInfoParser.unregisterAppInfo(JMX_PREFIX, clientId, metrics);
+        @Override
+        public void close() {
+            synchronized (this) {
+                closed = true;
+                fetched.clear();
+                notifyAll();
+            }
+            batches = null;
+            batch = null;
+            records = null;
+            nextRecord = null;
+            position = endOffset;
+        }
+    }
 
-            log.debug("Kafka admin client isRunning.");
+    @Override
+    public <K, V> CloseableIterator<ConsumerRecord<K, V>> searchMessages(Collection<TopicPartition> partitions, long bTimestamp,
+                                                                        long eTimestamp, Deserializer<K> kDeserializer,
+                                                                        Deserializer<V> vDeserializer, RecordFilter<K, V> filter,
+                                                                        ScanRecordsOptions options) {
+        long now = time.milliseconds();
+        long deadlineMs = calcDeadlineMs(now, options.timeoutMs());
+        Set<String> unknownTopics = new HashSet<>();
+        Map<TopicPartition, Long> bTimestamps = new HashMap<>();
+        Map<TopicPartition, Long> eTimestamps = new HashMap<>();
+        for (TopicPartition tp : partitions) {
+            if (!partitionLeaders.containsKey(tp))
+                unknownTopics.add(tp.topic());
+            bTimestamps.put(tp, bTimestamp);
+            eTimestamps.put(tp, eTimestamp);
+        }
+        Map<TopicPartition, Long> startOffsets;
+        Map<TopicPartition, Long> endOffsets;
+        try {
+            if (!unknownTopics.isEmpty()) {
+                final KafkaFutureImpl<Void> leadersFuture = new KafkaFutureImpl<>();
+                findLeaders(unknownTopics, deadlineMs, new LeaderListener() {
+                    @Override
+                    public void onLeaders() {
+                        leadersFuture.complete(null);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable throwable) {
+                        leadersFuture.completeExceptionally(throwable);
+                    }
+                }, now);
+                leadersFuture.get();
+            }
+            KafkaFuture<Map<TopicPartition, Long>> startFuture = listOffsetsByTime(bTimestamps, deadlineMs);
+            KafkaFuture<Map<TopicPartition, Long>> endFuture = listOffsetsByTime(eTimestamps, deadlineMs);
+            startOffsets = startFuture.get();
+            endOffsets = endFuture.get();
         } catch (InterruptedException e) {
-            log.debug("Interrupted while joining I/O thread", e);
             Thread.currentThread().interrupt();
+            throw new InterruptException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof KafkaException)
+                throw (KafkaException) e.getCause();
+            throw new KafkaException("Failed to look up the offsets of " + partitions + " by time.", e.getCause());
+        }
+        List<SearchCursor<K, V>> cursors = new ArrayList<>(partitions.size());
+        for (TopicPartition tp : partitions) {
+            // an unknown offset means there is no message at or after the timestamp.
+            Long eOffset = endOffsets.get(tp);
+            long endOffset = eOffset == null || eOffset < 0 ? Long.MAX_VALUE : eOffset;
+            Long bOffset = startOffsets.get(tp);
+            long startOffset = bOffset == null || bOffset < 0 ? endOffset : bOffset;
+            cursors.add(new SearchCursor<K, V>(tp, startOffset, endOffset, options.fetchMaxBytes()));
         }
+        return new MessageSearch<>(cursors, kDeserializer, vDeserializer, filter, options);
     }
 
-    private <K, V> ConsumerRecords<K, V> fetchRecords(TopicPartition tp, FetchResponse.PartitionData partitionData, int maxRecords,
-                                                      Deserializer<K> kDeserializer, Deserializer<V> vDeserializer) {
-        List<ConsumerRecord<K, V>> records = new ArrayList<>();
-        Iterator<Record> recItor = partitionData.records.records().iterator();
-        Record rec = null;
-        ConsumerRecord<K, V> tmpRec = null;
-        for (int i = 0; i < maxRecords; i++) {
-            try {
-                if (recItor.hasNext()) {
-                    rec = recItor.next();
-                    long offset = rec.offset();
-                    long timestamp = rec.timestamp();
-                    Headers headers = new RecordHeaders(rec.headers());
-                    ByteBuffer keyBytes = rec.key();
-                    byte[] keyByteArray = keyBytes == null ? null : Utils.toArray(keyBytes);
-                    K key = keyBytes == null ? null : kDeserializer.deserialize(tp.topic(), keyByteArray);
-                    ByteBuffer valueBytes = rec.value();
-                    byte[] valueByteArray = valueBytes == null ? null : Utils.toArray(valueBytes);
-                    V value = valueBytes == null ? null : vDeserializer.deserialize(tp.topic(), valueByteArray);
-                    tmpRec = new ConsumerRecord<>(tp.topic(), tp.partition(), offset,
-                            timestamp, TimestampType.NO_TIMESTAMP_TYPE, rec.checksumOrNull(),
-                            keyByteArray == null ? ConsumerRecord.NULL_SIZE : keyByteArray.length,
-                            valueByteArray == null ? ConsumerRecord.NULL_SIZE : valueByteArray.length,
-                            key, value, headers);
-                } else {
+    /**
+     * The state of a partition in a search.
+     */
+    private static final class SearchCursor<K, V> {
+        private final TopicPartition tp;
+        private final long endOffset;
+
+        // guarded by the search, shared with the admin client thread.
+        private long fetchOffset;
+        private int fetchBytes;
+        private boolean fetching;
+        private boolean fetchDone;
+        private boolean waiting;
+        private Records fetched;
+        // the partition isn't fetched again before, after a retriable error.
+        private long retryAtMs;
+
+        // accessed by the iterating thread only.
+        private Iterator<? extends RecordBatch> batches;
+        private RecordBatch batch;
+        private Iterator<Record> records;
+        private long position;
+        private ConsumerRecord<K, V> head;
+
+        SearchCursor(TopicPartition tp, long startOffset, long endOffset, int fetchBytes) {
+            this.tp = tp;
+            this.endOffset = endOffset;
+            this.fetchOffset = startOffset;
+            this.position = startOffset;
+            this.fetchBytes = fetchBytes;
+            this.fetchDone = startOffset >= endOffset;
+        }
+    }
+
+    /**
+     * Merges the accepted records of the partitions by timestamp. A record is returned after every other partition
+     * has a head record or is done, so a partition without records in the buffer is fetched right away. There is
+     * at most one fetch per leader in flight, which covers all the partitions of the leader that have no buffered
+     * response, partitions whose head is already known are only fetched ahead below maxBufferedBytes.
+     */
+    private final class MessageSearch<K, V> implements CloseableIterator<ConsumerRecord<K, V>> {
+        private final List<SearchCursor<K, V>> cursors;
+        private final Deserializer<K> kDeserializer;
+        private final Deserializer<V> vDeserializer;
+        private final RecordFilter<K, V> filter;
+        private final long maxBufferedBytes;
+        private final int timeoutMs;
+
+        // guarded by this, shared with the admin client thread.
+        private final Set<Integer> fetchingLeaders = new HashSet<>();
+        private long bufferedBytes;
+        private boolean findingLeaders;
+        private long findLeadersAtMs;
+        private int retries;
+        private RuntimeException error;
+        private boolean closed;
+
+        // accessed by the iterating thread only.
+        private final List<SearchCursor<K, V>> pending;
+        private final PriorityQueue<SearchCursor<K, V>> heads;
+
+        MessageSearch(List<SearchCursor<K, V>> cursors, Deserializer<K> kDeserializer, Deserializer<V> vDeserializer,
+                      RecordFilter<K, V> filter, ScanRecordsOptions options) {
+            this.cursors = cursors;
+            this.kDeserializer = kDeserializer;
+            this.vDeserializer = vDeserializer;
+            this.filter = filter;
+            this.maxBufferedBytes = options.maxBufferedBytes();
+            this.timeoutMs = options.timeoutMs() == null ? defaultTimeoutMs : options.timeoutMs();
+            this.pending = new LinkedList<>(cursors);
+            this.heads = new PriorityQueue<>(Math.max(1, cursors.size()), new Comparator<SearchCursor<K, V>>() {
+                @Override
+                public int compare(SearchCursor<K, V> c1, SearchCursor<K, V> c2) {
+                    int cmp = Long.compare(c1.head.timestamp(), c2.head.timestamp());
+                    if (cmp == 0)
+                        cmp = Integer.compare(c1.tp.partition(), c2.tp.partition());
+                    if (cmp == 0)
+                        cmp = c1.tp.topic().compareTo(c2.tp.topic());
+                    return cmp;
+                }
+            });
+            synchronized (this) {
+                for (SearchCursor<K, V> cursor : cursors) {
+                    cursor.waiting = true;
+                }
+                sendFetches();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            long deadlineMs = time.milliseconds() + timeoutMs;
+            while (!pending.isEmpty()) {
+                boolean progressed = false;
+                Iterator<SearchCursor<K, V>> iterator = pending.iterator();
+                while (iterator.hasNext()) {
+                    SearchCursor<K, V> cursor = iterator.next();
+                    Boolean found = advance(cursor);
+                    if (found == null)
+                        continue;
+                    if (found)
+                        heads.add(cursor);
+                    iterator.remove();
+                    progressed = true;
+                }
+                if (pending.isEmpty())
                     break;
+                if (progressed)
+                    deadlineMs = time.milliseconds() + timeoutMs;
+                awaitFetched(deadlineMs);
+            }
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public ConsumerRecord<K, V> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            SearchCursor<K, V> cursor = heads.poll();
+            ConsumerRecord<K, V> record = cursor.head;
+            cursor.head = null;
+            pending.add(cursor);
+            return record;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Find the next accepted record of the partition, null if it waits for a fetch, false if the partition is done.
+         */
+        private Boolean advance(SearchCursor<K, V> cursor) {
+            while (cursor.position < cursor.endOffset) {
+                while (cursor.records != null && cursor.records.hasNext()) {
+                    Record record = cursor.records.next();
+                    if (record.offset() < cursor.position)
+                        continue;
+                    if (record.offset() >= cursor.endOffset) {
+                        cursor.position = cursor.endOffset;
+                        return false;
+                    }
+                    cursor.position = record.offset() + 1;
+                    ConsumerRecord<K, V> consumerRecord = toConsumerRecord(cursor.tp, cursor.batch.timestampType(), record,
+                            kDeserializer, vDeserializer);
+                    if (filter == null || filter.accept(consumerRecord)) {
+                        cursor.head = consumerRecord;
+                        return true;
+                    }
+                }
+                cursor.records = null;
+                if (cursor.batches != null && cursor.batches.hasNext()) {
+                    cursor.batch = cursor.batches.next();
+                    if (cursor.batch.isControlBatch())
+                        cursor.position = Math.max(cursor.position, cursor.batch.nextOffset());
+                    else
+                        cursor.records = cursor.batch.iterator();
+                    continue;
+                }
+                cursor.batches = null;
+                synchronized (this) {
+                    if (error != null)
+                        throw error;
+                    if (closed)
+                        return false;
+                    if (cursor.fetched == null) {
+                        if (cursor.fetchDone)
+                            return false;
+                        cursor.waiting = true;
+                        sendFetches();
+                        return null;
+                    }
+                    cursor.batches = cursor.fetched.batches().iterator();
+                    bufferedBytes -= cursor.fetched.sizeInBytes();
+                    cursor.fetched = null;
+                    cursor.waiting = false;
+                    sendFetches();
                 }
-            } catch (RuntimeException e) {
-                throw new SerializationException("Error deserializing key/value for partition " + tp +
-                        " at offset " + rec.offset(), e);
             }
-            records.add(tmpRec);
+            return false;
         }
-        return new ConsumerRecords<>(Collections.singletonMap(tp, records));
-    }
 
-    @Override
-    public <K, V> RetrieveRecordsResult<K, V> retrieveMessagesByOffset(final TopicPartition tp, final long offset, final int size, final Deserializer<K> kDeserializer, final Deserializer<V> vDeserializer, final RetrieveRecordsOptions options) {
-        final long now = time.milliseconds();
-        final KafkaFutureImpl<ConsumerRecords<K, V>> recordsFuture = new KafkaFutureImpl<>();
-        try {
-            KafkaFuture<TopicDescription> topicDescription = describeTopics(Collections.singletonList(tp.topic())).values().get(tp.topic());
-            TopicDescription td = topicDescription.get();
-            final NodeProvider nodeProvider = new PartitionLeaderNodeProvider(td.partitions().get(tp.partition()));
+        private synchronized void awaitFetched(long deadlineMs) {
+            while (error == null && !closed) {
+                for (SearchCursor<K, V> cursor : pending) {
+                    if (cursor.fetched != null || cursor.fetchDone)
+                        return;
+                }
+                long remainingMs = deadlineMs - time.milliseconds();
+                if (remainingMs <= 0)
+                    throw new TimeoutException("Timed out waiting for the records of " + pending.size() + " partitions.");
+                try {
+                    wait(remainingMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptException(e);
+                }
+            }
+        }
+
+        /**
+         * Send a fetch to every leader without one in flight, for the partitions of the leader which are waited on,
+         * or fetched ahead while the buffered bytes are below the limit.
+         */
+        private void sendFetches() {
+            if (closed || error != null)
+                return;
+            Map<Node, List<SearchCursor<K, V>>> cursorsByLeader = new HashMap<>();
+            Set<String> unknownTopics = null;
+            for (SearchCursor<K, V> cursor : cursors) {
+                if (cursor.fetching || cursor.fetchDone || cursor.fetched != null)
+                    continue;
+                if (!cursor.waiting && bufferedBytes >= maxBufferedBytes)
+                    continue;
+                Node leader = partitionLeaders.get(cursor.tp);
+                if (leader == null) {
+                    if (unknownTopics == null)
+                        unknownTopics = new HashSet<>();
+                    unknownTopics.add(cursor.tp.topic());
+                    continue;
+                }
+                if (fetchingLeaders.contains(leader.id()))
+                    continue;
+                List<SearchCursor<K, V>> leaderCursors = cursorsByLeader.get(leader);
+                if (leaderCursors == null) {
+                    leaderCursors = new ArrayList<>();
+                    cursorsByLeader.put(leader, leaderCursors);
+                }
+                leaderCursors.add(cursor);
+            }
+            for (Map.Entry<Node, List<SearchCursor<K, V>>> entry : cursorsByLeader.entrySet()) {
+                sendFetch(entry.getKey(), entry.getValue());
+            }
+            if (unknownTopics != null && !findingLeaders) {
+                findingLeaders = true;
+                long now = time.milliseconds();
+                findLeaders(unknownTopics, calcDeadlineMs(now, timeoutMs), findLeadersAtMs, new LeaderListener() {
+                    @Override
+                    public void onLeaders() {
+                        onLeadersFound(null);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable throwable) {
+                        onLeadersFound(throwable);
+                    }
+                }, now);
+            }
+        }
 
-            runnable.call(new Call("retrieveMessages", calcDeadlineMs(now, options.timeoutMs()), nodeProvider) {
+        private void sendFetch(final Node leader, List<SearchCursor<K, V>> leaderCursors) {
+            final Map<TopicPartition, SearchCursor<K, V>> requested = new HashMap<>();
+            final LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchMap = new LinkedHashMap<>();
+            long maxBytes = 0;
+            for (SearchCursor<K, V> cursor : leaderCursors) {
+                cursor.fetching = true;
+                requested.put(cursor.tp, cursor);
+                fetchMap.put(cursor.tp, new FetchRequest.PartitionData(cursor.fetchOffset,
+                        FetchRequest.INVALID_LOG_START_OFFSET, cursor.fetchBytes));
+                maxBytes += cursor.fetchBytes;
+            }
+            final int requestMaxBytes = (int) Math.min(maxBytes, Integer.MAX_VALUE);
+            fetchingLeaders.add(leader.id());
+            long now = time.milliseconds();
+            Call call = new Call("searchMessages", calcDeadlineMs(now, timeoutMs), new FixedNodeProvider(leader)) {
                 @Override
                 AbstractRequest.Builder createRequest(int timeoutMs) {
-                    LinkedHashMap<TopicPartition, FetchRequest.PartitionData> fetchMap = new LinkedHashMap<>();
-                    fetchMap.put(tp, new FetchRequest.PartitionData(offset, FetchRequest.INVALID_LOG_START_OFFSET, ConsumerConfig.DEFAULT_MAX_PARTITION_FETCH_BYTES));
-                    FetchRequest.Builder request = FetchRequest.Builder.forConsumer(timeoutMs, FETCH_MESG_MAX_BYTES, fetchMap)
-                            .setMaxBytes(ConsumerConfig.DEFAULT_MAX_PARTITION_FETCH_BYTES);
-                    return request;
+                    // don't wait on the broker, a partition is done at the high watermark.
+                    return FetchRequest.Builder.forConsumer(timeoutMs, 0, fetchMap).setMaxBytes(requestMaxBytes);
                 }
 
                 @Override
                 void handleResponse(AbstractResponse abstractResponse) {
-                    FetchResponse fetchResponse = (FetchResponse) abstractResponse;
-                    FetchResponse.PartitionData partitionData = fetchResponse.responseData().get(tp);
-                    Errors error = partitionData.error;
-                    if (error == Errors.NONE) {
-                        ConsumerRecords<K, V> recs = fetchRecords(tp, partitionData, size, kDeserializer, vDeserializer);
-                        recordsFuture.complete(recs);
-                    } else {
-                        recordsFuture.completeExceptionally(error.exception());
-                    }
+                    onFetched(leader, requested, (FetchResponse) abstractResponse);
                 }
 
                 @Override
                 void handleFailure(Throwable throwable) {
-                    recordsFuture.completeExceptionally(throwable);
+                    onFetchFailed(leader, requested, throwable);
                 }
-            }, now);
-        } catch (Exception ex) {
-            log.warn("retrieveMessagesByOffset TopicPartition [{}] leader error.", tp.toString(), ex);
+            };
+            // one request fetches the partitions of the leader, it waits for the backoff of any of them.
+            for (SearchCursor<K, V> cursor : leaderCursors) {
+                call.nextAllowedTryMs = Math.max(call.nextAllowedTryMs, cursor.retryAtMs);
+            }
+            runnable.call(call, now);
         }
 
-        return new RetrieveRecordsResult(recordsFuture);
-    }
+        private synchronized void onFetched(Node leader, Map<TopicPartition, SearchCursor<K, V>> requested,
+                                            FetchResponse response) {
+            fetchingLeaders.remove(leader.id());
+            for (SearchCursor<K, V> cursor : requested.values()) {
+                cursor.fetching = false;
+            }
+            if (closed)
+                return;
+            for (Map.Entry<TopicPartition, FetchResponse.PartitionData> entry : response.responseData().entrySet()) {
+                SearchCursor<K, V> cursor = requested.get(entry.getKey());
+                if (cursor == null)
+                    continue;
+                FetchResponse.PartitionData partitionData = entry.getValue();
+                if (partitionData.error != Errors.NONE) {
+                    ApiException exception = partitionData.error.exception();
+                    if (exception instanceof InvalidMetadataException)
+                        partitionLeaders.remove(cursor.tp);
+                    if (!(exception instanceof RetriableException) || retries++ >= maxRetries) {
+                        error = exception;
+                        break;
+                    }
+                    log.debug("Retrying the fetch of {} at offset {}.", cursor.tp, cursor.fetchOffset, exception);
+                    cursor.retryAtMs = time.milliseconds() + retryBackoffMs;
+                    continue;
+                }
+                long nextOffset = -1L;
+                for (RecordBatch recordBatch : partitionData.records.batches()) {
+                    nextOffset = recordBatch.nextOffset();
+                }
+                if (nextOffset >= 0) {
+                    retries = 0;
+                    cursor.fetched = partitionData.records;
+                    bufferedBytes += partitionData.records.sizeInBytes();
+                    cursor.fetchOffset = nextOffset;
+                    cursor.fetchDone = nextOffset >= cursor.endOffset || nextOffset >= partitionData.highWatermark;
+                } else if (partitionData.records.sizeInBytes() > 0) {
+                    // the next batch is larger than the fetch size.
+                    cursor.fetchBytes = cursor.fetchBytes > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : cursor.fetchBytes * 2;
+                } else if (cursor.fetchOffset >= partitionData.highWatermark) {
+                    cursor.fetchDone = true;
+                }
+                // otherwise the response was full before the partition, it is fetched again.
+            }
+            sendFetches();
+            notifyAll();
+        }
 
-    @Override
-    public <K, V> RetrieveRecordsResult<K, V> retrieveMessagesByTimeSpan(final TopicPartition tp, long bTimestamp, int size, final Deserializer<K> kDeserializer, final Deserializer<V> vDeserializer, final RetrieveRecordsOptions options) {
-        final KafkaFutureImpl<Collection<ConsumerRecord<K, V>>> future = new KafkaFutureImpl<>();
-        FetchOffsetOptions fetchOffsetOptions = new FetchOffsetOptions().timeoutMs(options.timeoutMs());
-        try {
-            Long bOffset = fetchPartitionOffsetByTime(tp, bTimestamp, fetchOffsetOptions).values().get();
-            if (null == bOffset) {
-                log.warn("fetchPartitionOffsetByTime timestamp = {} failed, adjust to earliest timestamp.", bTimestamp);
-                bOffset = fetchPartitionOffsetByTime(tp, ListOffsetRequest.EARLIEST_TIMESTAMP, fetchOffsetOptions).values().get();
+        private synchronized void onFetchFailed(Node leader, Map<TopicPartition, SearchCursor<K, V>> requested,
+                                                Throwable throwable) {
+            fetchingLeaders.remove(leader.id());
+            for (SearchCursor<K, V> cursor : requested.values()) {
+                cursor.fetching = false;
+                partitionLeaders.remove(cursor.tp);
             }
-            return retrieveMessagesByOffset(tp, bOffset, size, kDeserializer, vDeserializer, options);
-        } catch (Exception ex) {
-            log.warn("retrieveMessagesByOffset TopicPartition [{}] leader error.", tp, ex);
+            if (closed)
+                return;
+            if (throwable instanceof RetriableException && retries++ < maxRetries) {
+                log.debug("Retrying the fetch of {} from {}.", requested.keySet(), leader, throwable);
+                long retryAtMs = time.milliseconds() + retryBackoffMs;
+                for (SearchCursor<K, V> cursor : requested.values()) {
+                    cursor.retryAtMs = retryAtMs;
+                }
+                sendFetches();
+                return;
+            }
+            error = throwable instanceof RuntimeException ? (RuntimeException) throwable : new KafkaException(throwable);
+            notifyAll();
+        }
+
+        private synchronized void onLeadersFound(Throwable throwable) {
+            findingLeaders = false;
+            if (closed)
+                return;
+            boolean retriable = throwable == null || throwable instanceof RetriableException;
+            // a partition may still have no leader, the lookup is retried on the next fetch.
+            if (retriable && retries++ < maxRetries) {
+                findLeadersAtMs = time.milliseconds() + retryBackoffMs;
+                sendFetches();
+                return;
+            }
+            error = throwable == null ? new LeaderNotAvailableException("There is no leader for the partitions to search.")
+                    : throwable instanceof RuntimeException ? (RuntimeException) throwable : new KafkaException(throwable);
+            notifyAll();
         }
 
-        return new RetrieveRecordsResult(future);
+        @Override
+        public void close() {
+            synchronized (this) {
+                closed = true;
+                for (SearchCursor<K, V> cursor : cursors) {
+                    cursor.fetched = null;
+                }
+                bufferedBytes = 0;
+                notifyAll();
+            }
+            pending.clear();
+            heads.clear();
+        }
     }
 
     @Override
@@ -468,12 +2000,9 @@ public class KafkaAdminClient extends AdminClient {
         final long now = time.milliseconds();
         final KafkaFutureImpl<Long> offsetFuture = new KafkaFutureImpl<>();
         try {
-            KafkaFuture<TopicDescription> topicDescription = describeTopics(Collections.singletonList(tp.topic())).values().get(tp.topic());
-            TopicDescription td = topicDescription.get();
-            final NodeProvider nodeProvider = new PartitionLeaderNodeProvider(td.partitions().get(tp.partition()));
             final Map<TopicPartition, Long> searchTimestamps = Collections.singletonMap(tp, sTimestamp);
 
-            runnable.call(new Call("fetchOffset", calcDeadlineMs(now, options.timeoutMs()), nodeProvider) {
+            callPartitionLeader(tp, new Call("fetchOffset", calcDeadlineMs(now, options.timeoutMs()), new PartitionLeaderNodeProvider(tp)) {
                 @Override
                 AbstractRequest.Builder createRequest(int timeoutMs) {
                     ListOffsetRequest.Builder requestBuilder = ListOffsetRequest.Builder.forConsumer(true, IsolationLevel.READ_UNCOMMITTED)
@@ -523,11 +2052,13 @@ public class KafkaAdminClient extends AdminClient {
                     } else if (error == Errors.NOT_LEADER_FOR_PARTITION) {
                         log.debug("Attempt to fetch offsets for partition {} failed due to obsolete leadership information, retrying.",
                                 tp);
+                        partitionLeaders.remove(tp);
                         offsetFuture.completeExceptionally(error.exception());
                         return;
                     } else if (error == Errors.UNKNOWN_TOPIC_OR_PARTITION) {
                         log.warn("Received unknown topic or partition error in ListOffset request for partition {}. The topic/partition " +
                                 "may not exist or the user may not have Describe access to it.", tp);
+                        partitionLeaders.remove(tp);
                         offsetFuture.completeExceptionally(error.exception());
                         return;
                     } else {
@@ -541,6 +2072,7 @@ public class KafkaAdminClient extends AdminClient {
 
                 @Override
                 void handleFailure(Throwable throwable) {
+                    partitionLeaders.remove(tp);
                     offsetFuture.completeExceptionally(throwable);
                 }
             }, now);
@@ -571,6 +2103,22 @@ public class KafkaAdminClient extends AdminClient {
         }
     }
 
+    /**
+     * Provides the given node, e.g. the cached leader of some partitions.
+     */
+    private class FixedNodeProvider implements NodeProvider {
+        private final Node node;
+
+        FixedNodeProvider(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public Node provide() {
+            return node;
+        }
+    }
+
     /**
      * Provides the controller node.
      */
@@ -591,16 +2139,19 @@ public class KafkaAdminClient extends AdminClient {
         }
     }
 
+    /**
+     * Provides the cached leader of the partition.
+     */
     private class PartitionLeaderNodeProvider implements NodeProvider {
-        private final TopicPartitionInfo tp;
+        private final TopicPartition tp;
 
-        public PartitionLeaderNodeProvider(TopicPartitionInfo tp) {
+        PartitionLeaderNodeProvider(TopicPartition tp) {
             this.tp = tp;
         }
 
         @Override
         public Node provide() {
-            return null == tp ? null : tp.leader();
+            return partitionLeaders.get(tp);
         }
     }
 
@@ -610,6 +2161,8 @@ public class KafkaAdminClient extends AdminClient {
         private final NodeProvider nodeProvider;
         private int tries = 0;
         private boolean aborted = false;
+        // the call isn't sent before, it waits in the queue of its node.
+        private long nextAllowedTryMs = 0;
 
         Call(String callName, long deadlineMs, NodeProvider nodeProvider) {
             this.callName = callName;
@@ -891,6 +2444,11 @@ public class KafkaAdminClient extends AdminClient {
          */
         private void chooseNodeForNewCall(long now, Map<Node, List<Call>> callsToSend, Call call) {
             Node node = call.nodeProvider.provide();
+            if (node == null && call.nodeProvider instanceof PartitionLeaderNodeProvider) {
+                // A failed call on the partition dropped the leader after this call was queued, look it up again.
+                callPartitionLeader(((PartitionLeaderNodeProvider) call.nodeProvider).tp, call, now);
+                return;
+            }
             if (node == null) {
                 call.fail(now, new BrokerNotAvailableException(
                         String.format("Error choosing node for %s: no node found.", call.callName)));
@@ -928,7 +2486,18 @@ public class KafkaAdminClient extends AdminClient {
                     log.trace("Client is not ready to send to {}. Must delay {} ms", node, nodeTimeout);
                     continue;
                 }
-                Call call = calls.remove(0);
+                Call call = null;
+                for (Iterator<Call> callIter = calls.iterator(); callIter.hasNext(); ) {
+                    Call candidate = callIter.next();
+                    if (candidate.nextAllowedTryMs <= now) {
+                        call = candidate;
+                        callIter.remove();
+                        break;
+                    }
+                    pollTimeout = Math.min(pollTimeout, candidate.nextAllowedTryMs - now);
+                }
+                if (call == null)
+                    continue;
                 int timeoutMs = calcTimeoutMsRemainingAsInt(now, call.deadlineMs);
                 AbstractRequest.Builder<?> requestBuilder = null;
                 try {
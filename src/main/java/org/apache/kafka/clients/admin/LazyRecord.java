@@ -0,0 +1,143 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.annotation.InterfaceStability;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.utils.Utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A record of a fetch response which is deserialized when it is accessed.
+ * <p>
+ * The key and value buffers are read-only slices over the fetch response (or over the decompressed batch), they
+ * aren't copied. {@link #key()} and {@link #value()} copy and deserialize the bytes on the first call and cache the
+ * result, the headers are built on the first call of {@link #headers()}. A record keeps the whole response in memory
+ * as long as it is referenced. This class isn't thread safe.
+ */
+@InterfaceStability.Evolving
+public final class LazyRecord<K, V> {
+    private final TopicPartition tp;
+    private final TimestampType timestampType;
+    private final Record record;
+    private final Deserializer<K> kDeserializer;
+    private final Deserializer<V> vDeserializer;
+    private K key;
+    private boolean keyDeserialized;
+    private V value;
+    private boolean valueDeserialized;
+    private Headers headers;
+
+    LazyRecord(TopicPartition tp, TimestampType timestampType, Record record, Deserializer<K> kDeserializer,
+               Deserializer<V> vDeserializer) {
+        this.tp = tp;
+        this.timestampType = timestampType;
+        this.record = record;
+        this.kDeserializer = kDeserializer;
+        this.vDeserializer = vDeserializer;
+    }
+
+    public String topic() {
+        return tp.topic();
+    }
+
+    public int partition() {
+        return tp.partition();
+    }
+
+    public long offset() {
+        return record.offset();
+    }
+
+    public long timestamp() {
+        return record.timestamp();
+    }
+
+    public TimestampType timestampType() {
+        return timestampType;
+    }
+
+    /**
+     * The size of the serialized key, or -1 if the key is null.
+     */
+    public int serializedKeySize() {
+        return record.keySize();
+    }
+
+    /**
+     * The size of the serialized value, or -1 if the value is null.
+     */
+    public int serializedValueSize() {
+        return record.valueSize();
+    }
+
+    /**
+     * A read-only view of the serialized key, or null if the key is null.
+     */
+    public ByteBuffer keyBuffer() {
+        ByteBuffer keyBytes = record.key();
+        return keyBytes == null ? null : keyBytes.asReadOnlyBuffer();
+    }
+
+    /**
+     * A read-only view of the serialized value, or null if the value is null.
+     */
+    public ByteBuffer valueBuffer() {
+        ByteBuffer valueBytes = record.value();
+        return valueBytes == null ? null : valueBytes.asReadOnlyBuffer();
+    }
+
+    public K key() {
+        if (!keyDeserialized) {
+            key = deserialize(kDeserializer, record.key());
+            keyDeserialized = true;
+        }
+        return key;
+    }
+
+    public V value() {
+        if (!valueDeserialized) {
+            value = deserialize(vDeserializer, record.value());
+            valueDeserialized = true;
+        }
+        return value;
+    }
+
+    public Headers headers() {
+        if (headers == null)
+            headers = new RecordHeaders(record.headers());
+        return headers;
+    }
+
+    /**
+     * Deserialize the key and value into a consumer record.
+     */
+    public ConsumerRecord<K, V> toConsumerRecord() {
+        return new ConsumerRecord<>(tp.topic(), tp.partition(), record.offset(), record.timestamp(), timestampType,
+                record.checksumOrNull(), record.keySize(), record.valueSize(), key(), value(), headers());
+    }
+
+    private <T> T deserialize(Deserializer<T> deserializer, ByteBuffer bytes) {
+        if (bytes == null)
+            return null;
+        try {
+            return deserializer.deserialize(tp.topic(), Utils.toArray(bytes));
+        } catch (RuntimeException e) {
+            throw new SerializationException("Error deserializing key/value for partition " + tp +
+                    " at offset " + record.offset(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LazyRecord(topic = " + tp.topic() + ", partition = " + tp.partition() + ", offset = " + record.offset()
+                + ", timestamp = " + record.timestamp() + ", serialized key size = " + record.keySize()
+                + ", serialized value size = " + record.valueSize() + ")";
+    }
+}
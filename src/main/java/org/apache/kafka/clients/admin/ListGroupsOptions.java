@@ -0,0 +1,11 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+/**
+ * Options for {@link QueryIface#listGroups(ListGroupsOptions)}.
+ */
+@InterfaceStability.Evolving
+public class ListGroupsOptions extends AbstractOptions<ListGroupsOptions> {
+
+}
@@ -0,0 +1,25 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+import java.util.Collection;
+
+/**
+ * The result of {@link QueryIface#listGroups(ListGroupsOptions)}.
+ */
+@InterfaceStability.Evolving
+public class ListGroupsResult {
+    private final KafkaFuture<Collection<GroupListing>> future;
+
+    public ListGroupsResult(KafkaFuture<Collection<GroupListing>> future) {
+        this.future = future;
+    }
+
+    /**
+     * Return a future which yields the groups of all the brokers, it fails if any of the brokers fails.
+     */
+    public KafkaFuture<Collection<GroupListing>> listings() {
+        return future;
+    }
+}
@@ -0,0 +1,55 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A member of a group, the subscription and the assignment are decoded for the members of consumer groups and are
+ * empty otherwise.
+ */
+@InterfaceStability.Evolving
+public class MemberDescription {
+    private final String memberId;
+    private final String clientId;
+    private final String clientHost;
+    private final List<String> subscription;
+    private final List<TopicPartition> assignment;
+
+    public MemberDescription(String memberId, String clientId, String clientHost, List<String> subscription,
+                             List<TopicPartition> assignment) {
+        this.memberId = memberId;
+        this.clientId = clientId;
+        this.clientHost = clientHost;
+        this.subscription = Collections.unmodifiableList(subscription);
+        this.assignment = Collections.unmodifiableList(assignment);
+    }
+
+    public String memberId() {
+        return memberId;
+    }
+
+    public String clientId() {
+        return clientId;
+    }
+
+    public String clientHost() {
+        return clientHost;
+    }
+
+    public List<String> subscription() {
+        return subscription;
+    }
+
+    public List<TopicPartition> assignment() {
+        return assignment;
+    }
+
+    @Override
+    public String toString() {
+        return "(memberId=" + memberId + ", clientId=" + clientId + ", clientHost=" + clientHost +
+                ", subscription=" + subscription + ", assignment=" + assignment + ")";
+    }
+}
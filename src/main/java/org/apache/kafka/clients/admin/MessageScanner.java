@@ -0,0 +1,29 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Iterates the records of a partition in an offset range, the next fetch is sent as soon as the previous one
+ * returns, and the records are deserialized when they are iterated. Not thread safe.
+ * <p>
+ * {@link #hasNext()} blocks until the next record is fetched, and throws the error of the fetch, e.g.
+ * {@link org.apache.kafka.common.errors.TimeoutException}.
+ */
+@InterfaceStability.Evolving
+public interface MessageScanner<K, V> extends Iterator<ConsumerRecord<K, V>>, Closeable {
+
+    /**
+     * The offset of the next record to iterate.
+     */
+    long position();
+
+    /**
+     * Stops fetching and releases the buffered records.
+     */
+    @Override
+    void close();
+}
@@ -1,9 +1,15 @@
 package org.apache.kafka.clients.admin;
 
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.record.MemoryRecords;
 import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.utils.CloseableIterator;
+
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Created by steven03.zhang on 2017/8/28.
@@ -25,9 +31,65 @@ public interface QueryIface {
     <K, V> RetrieveRecordsResult<K, V> retrieveMessagesByOffset(final TopicPartition tp, long offset, int size,
                                                                final Deserializer<K> kDeserializer, final Deserializer<V> vDeserializer, final RetrieveRecordsOptions options);
 
+    /**
+     * Get messages from the specified offset of the topicPartition without copying them. The keys and values of the
+     * records are slices over the fetch response and are deserialized when they are accessed. The fetch size is
+     * estimated from the size and the average record size of the topic in the previous fetches, so the bytes past
+     * the requested records are mostly not downloaded.
+     *
+     * @param tp            The label of the topic and partition.
+     * @param offset        The message's offset in the partition
+     * @param size          The max number of messages
+     * @param kDeserializer The deserializer of message's key
+     * @param vDeserializer The deserializer of message's value
+     */
+    <K, V> RetrieveLazyRecordsResult<K, V> retrieveLazyMessagesByOffset(final TopicPartition tp, long offset, int size,
+                                                                       final Deserializer<K> kDeserializer, final Deserializer<V> vDeserializer,
+                                                                       final RetrieveRecordsOptions options);
+
     <K, V> RetrieveRecordsResult<K, V> retrieveMessagesByTimeSpan(final TopicPartition tp, long bTimestamp, int size, final Deserializer<K> kDeserializer,
                                                                   final Deserializer<V> vDeserializer, final RetrieveRecordsOptions options);
 
+    /**
+     * Scan the messages of the topicPartition from startOffset until endOffset (exclusive), or until the high
+     * watermark when endOffset is Long.MAX_VALUE.
+     *
+     * @param tp            The label of the topic and partition.
+     * @param startOffset   The offset to begin with
+     * @param endOffset     The offset to stop at
+     * @param kDeserializer The deserializer of message's key
+     * @param vDeserializer The deserializer of message's value
+     */
+    <K, V> MessageScanner<K, V> scanMessagesByOffset(final TopicPartition tp, long startOffset, long endOffset,
+                                                    final Deserializer<K> kDeserializer, final Deserializer<V> vDeserializer, final ScanRecordsOptions options);
+
+    /**
+     * Scan the messages of the topicPartition from the first offset whose timestamp is at least bTimestamp, until the
+     * first offset whose timestamp is at least eTimestamp, the offsets are looked up once.
+     *
+     * @throws TimeoutException If the offsets can't be looked up in time.
+     * @throws KafkaException   If there was an error looking up the offsets
+     */
+    <K, V> MessageScanner<K, V> scanMessagesByTimeSpan(final TopicPartition tp, long bTimestamp, long eTimestamp,
+                                                      final Deserializer<K> kDeserializer, final Deserializer<V> vDeserializer, final ScanRecordsOptions options);
+
+    /**
+     * Search the messages of the partitions whose timestamps are in [bTimestamp, eTimestamp), the records accepted
+     * by the filter are merged in the order of timestamp. The offsets are looked up and the records are fetched with
+     * one request per leader broker at a time, which covers all the partitions of the leader that need records.
+     * <p>
+     * The memory is bounded by {@link ScanRecordsOptions#maxBufferedBytes()}, besides a fetch of
+     * {@link ScanRecordsOptions#fetchMaxBytes()} for every partition the merge is waiting on.
+     *
+     * @param partitions    The partitions to search, usually all the partitions of a topic.
+     * @param filter        The filter of records, null to accept all.
+     * @throws TimeoutException If the offsets can't be looked up in time.
+     * @throws KafkaException   If there was an error looking up the offsets
+     */
+    <K, V> CloseableIterator<ConsumerRecord<K, V>> searchMessages(final Collection<TopicPartition> partitions, long bTimestamp, long eTimestamp,
+                                                                 final Deserializer<K> kDeserializer, final Deserializer<V> vDeserializer,
+                                                                 final RecordFilter<K, V> filter, final ScanRecordsOptions options);
+
     /**
      *
      * @param tp The label of the topic and partition.
@@ -35,4 +97,68 @@ public interface QueryIface {
      * @return FetchOffsetResult
      */
     FetchOffsetResult fetchPartitionOffsetByTime(final TopicPartition tp, final long sTimestamp, final FetchOffsetOptions options);
+
+    /**
+     * Look up the offsets of the partitions by time with one request per leader broker, the offset is -1 when there
+     * is no message at or after the timestamp. {@link org.apache.kafka.common.requests.ListOffsetRequest#LATEST_TIMESTAMP}
+     * looks up the end offset and {@link org.apache.kafka.common.requests.ListOffsetRequest#EARLIEST_TIMESTAMP} the
+     * beginning offset.
+     *
+     * @param timestamps The timestamps to look up by partition
+     */
+    FetchOffsetsResult fetchOffsetsByTimes(final Map<TopicPartition, Long> timestamps, final FetchOffsetOptions options);
+
+    /**
+     * Look up the timestamps of the messages at the offsets with one fetch request per leader broker, the timestamp
+     * is -1 when the offset is at or after the high watermark. A partition is absent when the batch of the offset
+     * is larger than partitionMaxBytes, it should be looked up again with a larger size.
+     *
+     * @param offsets           The offsets to look up by partition
+     * @param partitionMaxBytes The bytes fetched for every partition
+     */
+    FetchOffsetsResult fetchTimestampsAtOffsets(final Map<TopicPartition, Long> offsets, int partitionMaxBytes,
+                                                final FetchOffsetOptions options);
+
+    /**
+     * Fetch the committed offsets of all the partitions of the group with one request to the group coordinator, the
+     * coordinator is looked up once and cached.
+     *
+     * @param groupId The id of the consumer group
+     */
+    FetchGroupOffsetsResult fetchCommittedOffsets(final String groupId, final FetchOffsetOptions options);
+
+    /**
+     * Fetch the raw record batches of the partitions from the offsets with one fetch request per leader broker, the
+     * batches are neither decompressed nor parsed. The first batch of a partition may start before its offset and
+     * the last one may be cut by partitionMaxBytes.
+     *
+     * @param offsets           The offsets to fetch from by partition
+     * @param partitionMaxBytes The bytes fetched for every partition
+     */
+    RetrieveBatchesResult retrieveBatchesByOffsets(final Map<TopicPartition, Long> offsets, int partitionMaxBytes,
+                                                   final RetrieveRecordsOptions options);
+
+    /**
+     * Append the record batches to the partitions as they are with one produce request per leader broker, the
+     * batches are assigned new offsets and aren't recompressed when the compression type of the topic is the
+     * producer one. Every partition takes one batch, as the brokers don't accept more in a produce request.
+     * The batches must not carry producer ids, a failed request may have been appended before it failed.
+     *
+     * @param batches The batch to append by partition
+     */
+    AppendBatchesResult appendBatches(final Map<TopicPartition, MemoryRecords> batches, final AppendBatchesOptions options);
+
+    /**
+     * List the groups of all the brokers with one ListGroups request per broker sent in parallel. A broker lists
+     * the groups it coordinates, so the coordinators of the listed groups are cached for the later group requests.
+     */
+    ListGroupsResult listGroups(final ListGroupsOptions options);
+
+    /**
+     * Describe the groups with one DescribeGroups request per coordinator, the coordinators are looked up in
+     * parallel when they aren't cached. The assignments of the members of consumer groups are decoded.
+     *
+     * @param groupIds The ids of the groups
+     */
+    DescribeGroupsResult describeGroups(final Collection<String> groupIds, final DescribeGroupsOptions options);
 }
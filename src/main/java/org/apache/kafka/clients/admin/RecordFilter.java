@@ -0,0 +1,13 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+/**
+ * Selects the records returned by {@link QueryIface#searchMessages}, called in the iterating thread.
+ */
+@InterfaceStability.Evolving
+public interface RecordFilter<K, V> {
+
+    boolean accept(ConsumerRecord<K, V> record);
+}
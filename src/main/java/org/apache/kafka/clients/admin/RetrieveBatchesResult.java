@@ -0,0 +1,26 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+import java.util.Map;
+
+/**
+ * The result of {@link QueryIface#retrieveBatchesByOffsets(Map, int, RetrieveRecordsOptions)}.
+ */
+@InterfaceStability.Evolving
+public class RetrieveBatchesResult {
+    private final KafkaFuture<Map<TopicPartition, FetchedBatches>> future;
+
+    public RetrieveBatchesResult(KafkaFuture<Map<TopicPartition, FetchedBatches>> future) {
+        this.future = future;
+    }
+
+    /**
+     * Return a future which yields the batches of all the partitions, it fails if any of the requests fails.
+     */
+    public KafkaFuture<Map<TopicPartition, FetchedBatches>> values() {
+        return future;
+    }
+}
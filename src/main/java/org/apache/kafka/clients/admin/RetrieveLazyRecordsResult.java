@@ -0,0 +1,25 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+import java.util.List;
+
+/**
+ * The result of {@link QueryIface#retrieveLazyMessagesByOffset}.
+ */
+@InterfaceStability.Evolving
+public class RetrieveLazyRecordsResult<K, V> {
+    private final KafkaFuture<List<LazyRecord<K, V>>> future;
+
+    public RetrieveLazyRecordsResult(KafkaFuture<List<LazyRecord<K, V>>> future) {
+        this.future = future;
+    }
+
+    /**
+     * Return a future which yields the records in the order of offset.
+     */
+    public KafkaFuture<List<LazyRecord<K, V>>> values() {
+        return future;
+    }
+}
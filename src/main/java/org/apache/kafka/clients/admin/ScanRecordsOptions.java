@@ -0,0 +1,54 @@
+package org.apache.kafka.clients.admin;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.annotation.InterfaceStability;
+
+/**
+ * Options for {@link QueryIface#scanMessagesByOffset}, {@link QueryIface#scanMessagesByTimeSpan} and
+ * {@link QueryIface#searchMessages}.
+ * <p>
+ * The timeout applies to every fetch, not to the whole scan.
+ */
+@InterfaceStability.Evolving
+public class ScanRecordsOptions extends AbstractOptions<ScanRecordsOptions> {
+    private int fetchMaxBytes = ConsumerConfig.DEFAULT_MAX_PARTITION_FETCH_BYTES;
+    private int prefetchFetches = 2;
+    private long maxBufferedBytes = 32 * 1024 * 1024L;
+
+    /**
+     * The max bytes of a fetch, it is doubled for a record which is larger.
+     */
+    public ScanRecordsOptions fetchMaxBytes(int fetchMaxBytes) {
+        this.fetchMaxBytes = fetchMaxBytes;
+        return this;
+    }
+
+    public int fetchMaxBytes() {
+        return fetchMaxBytes;
+    }
+
+    /**
+     * The number of fetched responses buffered ahead of the iteration, it bounds the memory of a scan.
+     */
+    public ScanRecordsOptions prefetchFetches(int prefetchFetches) {
+        this.prefetchFetches = prefetchFetches;
+        return this;
+    }
+
+    public int prefetchFetches() {
+        return prefetchFetches;
+    }
+
+    /**
+     * The bytes of fetched responses a search buffers ahead of the merge, partitions are only fetched ahead while
+     * the buffered bytes are below it.
+     */
+    public ScanRecordsOptions maxBufferedBytes(long maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+        return this;
+    }
+
+    public long maxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+}
@@ -2,6 +2,13 @@ package org.apache.kafka.clients.enhance;
 
 import org.apache.kafka.common.header.Headers;
 
+/**
+ * decides which messages are delivered to the handlers of a push consumer.
+ * <p>
+ * the filter parallelism of a consumer is 1 by default, the filter is called by the save stage thread only. when it is
+ * set larger than 1, the records of a poll are split into chunks which are filtered by several threads at the same time,
+ * then canDeliveryMessage must be thread safe: a filter should keep no mutable state, or guard it.
+ */
 public abstract class AbstractExtMessageFilter<K> {
 	protected boolean permitAll = false;
 
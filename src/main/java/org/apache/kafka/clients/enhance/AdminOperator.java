@@ -1,9 +1,14 @@
 package org.apache.kafka.clients.enhance;
 
+import org.apache.kafka.clients.admin.GroupDescription;
+import org.apache.kafka.clients.admin.GroupListing;
 import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.enhance.exception.KafkaAdminException;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.CloseableIterator;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -57,6 +62,48 @@ public interface AdminOperator<K> {
 	 */
 	boolean createTopic(final String newTopic);
 
+	/**
+	 * Bring the topics to the desired state, the missing topics are created, the partitions and configs of the
+	 * existing topics are updated. The cluster state is read once, and the changes are sent in batches.
+	 *
+	 * @param specs   the desired state of the topics
+	 * @param timeout timeout of the whole provisioning
+	 * @return the result of every topic, in the order of the specs
+	 * @throws KafkaAdminException
+	 */
+	Map<String, TopicProvisionResult> provisionTopics(final Collection<TopicSpec> specs, long timeout)
+			throws KafkaAdminException;
+
+	/**
+	 * List the groups of the cluster, one request per broker.
+	 *
+	 * @param timeout access timeout
+	 * @throws KafkaAdminException
+	 */
+	Collection<GroupListing> listGroups(long timeout) throws KafkaAdminException;
+
+	/**
+	 * Describe the groups with their members, the assignments of consumer groups are decoded. One request per
+	 * coordinator.
+	 *
+	 * @param groupIds the ids of the groups
+	 * @param timeout  access timeout
+	 * @return the description of every group
+	 * @throws KafkaAdminException if any of the groups can't be described
+	 */
+	Map<String, GroupDescription> describeGroups(final Collection<String> groupIds, long timeout)
+			throws KafkaAdminException;
+
+	/**
+	 * Fetch the committed offsets of all the partitions of the group.
+	 *
+	 * @param groupId the id of the group
+	 * @param timeout access timeout
+	 * @throws KafkaAdminException
+	 */
+	Map<TopicPartition, OffsetAndMetadata> fetchCommittedOffsets(final String groupId, long timeout)
+			throws KafkaAdminException;
+
 	/**
 	 * Gets the message queue offset according to some time in milliseconds<br>
 	 * be cautious to call because of more IO overhead
@@ -106,4 +153,37 @@ public interface AdminOperator<K> {
 	List<ExtMessage<K>> queryMessages(final TopicPartition tp, final long bTimestamp, final int size)
 			throws KafkaAdminException;
 
+	/**
+	 * Search the messages of all partitions of the topic which match the query, the partitions are fetched in
+	 * parallel per leader broker and the messages are returned in the order of store time as they arrive.
+	 *
+	 * @param query the topic, time span and conditions
+	 * @return the matched messages, must be closed
+	 * @throws KafkaAdminException
+	 */
+	CloseableIterator<ExtMessage<K>> searchMessages(final MessageQuery<K> query) throws KafkaAdminException;
+
+	/**
+	 * Query the messages with the key, answered by the message index if it has the key, otherwise by searching
+	 * the recent messages of all partitions of the topic, the search is bounded by a time window and a number of
+	 * messages.
+	 *
+	 * @param topic topic name
+	 * @param key   message key
+	 * @return the messages in the order of store time
+	 * @throws KafkaAdminException
+	 */
+	List<ExtMessage<K>> viewMessagesByKey(final String topic, final K key) throws KafkaAdminException;
+
+	/**
+	 * Query the message with the UNIQ_KEY, answered by the message index if it has the key, otherwise by searching
+	 * the recent messages of all partitions of the topic, the search is bounded by a time window.
+	 *
+	 * @param topic   topic name
+	 * @param uniqKey unique key of the message
+	 * @return the message, null if it isn't found
+	 * @throws KafkaAdminException
+	 */
+	ExtMessage<K> viewMessageByUniqKey(final String topic, final String uniqKey) throws KafkaAdminException;
+
 }
@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.regex.Pattern;
 
 public class ExtMessageDef {
 	private static final Logger logger = LoggerFactory.getLogger(ExtMessageDef.class);
@@ -31,6 +32,7 @@ public class ExtMessageDef {
 	public static final String PROPERTY_MSG_REGION = "MSG_REGION";
 	public static final String PROPERTY_TRACE_SWITCH = "TRACE_ON";
 	public static final String PROPERTY_UNIQ_KEY = "UNIQ_KEY";
+	public static final String PROPERTY_POSSIBLE_DUPLICATED = "POSSIBLE_DUPLICATED";
 
 	public static final int MAX_RECONSUME_COUNT = DelayedMessageTopic.maxDelayedTopicNum();
 	public static final int MAX_DELAY_TIME_LEVEL = MAX_RECONSUME_COUNT;
@@ -61,6 +63,7 @@ public class ExtMessageDef {
 		STRING_HASH_SET.add(PROPERTY_ORIGIN_MESSAGE_ID);
 		STRING_HASH_SET.add(PROPERTY_RECONSUME_TIME);
 		STRING_HASH_SET.add(PROPERTY_UNIQ_KEY);
+		STRING_HASH_SET.add(PROPERTY_POSSIBLE_DUPLICATED);
 	}
 
 
@@ -68,7 +71,7 @@ public class ExtMessageDef {
 		if (tagOrKey.contains(PROPERTY_SEP)) {
 			logger.warn("Tags or Keys [ {} ] includes invalid character '|', will be replaced by empty char.",
 					tagOrKey);
-			return tagOrKey.replaceAll(PROPERTY_SEP, STRING_EMPTY);
+			return tagOrKey.replace(PROPERTY_SEP, STRING_EMPTY);
 		}
 		return tagOrKey;
 	}
@@ -93,6 +96,6 @@ public class ExtMessageDef {
 		if (!tagsOrKeys.contains(PROPERTY_SEP)) {
 			return Collections.singletonList(tagsOrKeys);
 		}
-		return Arrays.asList(tagsOrKeys.split(PROPERTY_SEP, 0));
+		return Arrays.asList(tagsOrKeys.split(Pattern.quote(PROPERTY_SEP), 0));
 	}
 }
@@ -45,7 +45,7 @@ public class ExtMessageEncoder<K> implements Serializer<ExtMessage<K>>, Deserial
 
 			ByteBuffer bodyBuffer = mesgStruct.getBytes(EXT_MESSAGE_BODY_FIELD);
 			byte[] body = new byte[bodyBuffer.limit()];
-			bodyBuffer.put(body);
+			bodyBuffer.get(body);
 			extMessage.setMsgValue(body);
 		} catch (Exception ex) {
 			logger.warn("message format isn't the format of ExtMessage.");
@@ -0,0 +1,109 @@
+package org.apache.kafka.clients.enhance;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * generates 128 bits unique message ids, formatted as 32 hex chars.
+ * <p>
+ * high 64 bits: ipv4 address (32) | pid (16) | random salt (16).
+ * low 64 bits: timestamp in ms (44) | sequence (20).
+ * every thread reserves a block of sequences from a global counter, ids inside the block are allocated without
+ * any CAS. the timestamp is taken when the block is reserved.
+ */
+public final class MessageIdGenerator {
+	private static final Logger logger = LoggerFactory.getLogger(MessageIdGenerator.class);
+	static final int BLOCK_SIZE = 1024;
+	static final int SEQUENCE_BITS = 20;
+	static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+	static final int ID_LENGTH = 32;
+	static final int SEQUENCE_HEX_CHARS = SEQUENCE_BITS / 4;
+	private static final char[] HEX_CHARS = "0123456789ABCDEF".toCharArray();
+
+	private static final long NODE_ID = nodeId();
+	private static final AtomicLong SEQUENCE = new AtomicLong(0L);
+	private static final ThreadLocal<IdBlock> ID_BLOCKS = new ThreadLocal<IdBlock>() {
+		@Override
+		protected IdBlock initialValue() {
+			return new IdBlock();
+		}
+	};
+
+	//the node part and the timestamp of the block are formatted once, only the sequence chars are updated per id.
+	private static final class IdBlock {
+		private final char[] chars = new char[ID_LENGTH];
+		private long next;
+		private long end;
+
+		IdBlock() {
+			fillHex(chars, 0, 16, NODE_ID);
+		}
+	}
+
+	private MessageIdGenerator() {
+	}
+
+	public static String nextId() {
+		IdBlock block = ID_BLOCKS.get();
+		char[] chars = block.chars;
+		if (block.next == block.end) {
+			block.next = SEQUENCE.getAndAdd(BLOCK_SIZE);
+			block.end = block.next + BLOCK_SIZE;
+			fillHex(chars, 16, 16 - SEQUENCE_HEX_CHARS, System.currentTimeMillis());
+		}
+		fillHex(chars, ID_LENGTH - SEQUENCE_HEX_CHARS, SEQUENCE_HEX_CHARS, block.next++ & SEQUENCE_MASK);
+		return new String(chars);
+	}
+
+	//the time when the id block was reserved, -1 if the id isn't generated by this class.
+	public static long timestampMsOf(String id) {
+		if (null == id || id.length() != ID_LENGTH) {
+			return -1L;
+		}
+		long low = 0L;
+		for (int idx = 16; idx < ID_LENGTH; idx++) {
+			int digit = Character.digit(id.charAt(idx), 16);
+			if (digit < 0) {
+				return -1L;
+			}
+			low = (low << 4) | digit;
+		}
+		return low >>> SEQUENCE_BITS;
+	}
+
+	//format the lowest num * 4 bits of value to chars[offset, offset + num).
+	private static void fillHex(char[] chars, int offset, int num, long value) {
+		for (int idx = offset + num - 1; idx >= offset; idx--) {
+			chars[idx] = HEX_CHARS[(int) (value & 0xF)];
+			value >>>= 4;
+		}
+	}
+
+	private static long nodeId() {
+		long ip = 0L;
+		try {
+			byte[] address = InetAddress.getLocalHost().getAddress();
+			for (int i = Math.max(0, address.length - 4); i < address.length; i++) {
+				ip = (ip << 8) | (address[i] & 0xFF);
+			}
+		} catch (Exception e) {
+			logger.info("[MessageIdGenerator] couldn't get local address, a random one is used instead.");
+			ip = new SecureRandom().nextInt() & 0xFFFFFFFFL;
+		}
+
+		long pid;
+		try {
+			String jvmName = ManagementFactory.getRuntimeMXBean().getName();
+			pid = Long.parseLong(jvmName.substring(0, jvmName.indexOf('@')));
+		} catch (Exception e) {
+			pid = new SecureRandom().nextInt();
+		}
+		long salt = new SecureRandom().nextInt();
+		return (ip << 32) | ((pid & 0xFFFF) << 16) | (salt & 0xFFFF);
+	}
+}
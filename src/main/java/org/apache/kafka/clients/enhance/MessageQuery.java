@@ -0,0 +1,137 @@
+package org.apache.kafka.clients.enhance;
+
+import org.apache.kafka.clients.admin.RecordFilter;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.apache.kafka.clients.enhance.ExtMessageDef.PROPERTY_UNIQ_KEY;
+
+/**
+ * the conditions of AdminOperator#searchMessages on the messages of a topic stored in [bTimestamp, eTimestamp).
+ * <p>
+ * a message must match every condition which is set, and any of the tags. the conditions are checked in the
+ * searching thread as the records are fetched, fetchBytes and maxBufferedBytes bound the memory of the search.
+ */
+public class MessageQuery<K> implements RecordFilter<K, ExtMessage<K>> {
+	public static final int DEFAULT_FETCH_BYTES = 64 * 1024;
+	public static final long DEFAULT_MAX_BUFFERED_BYTES = 16 * 1024 * 1024L;
+
+	private final String topic;
+	private final long bTimestamp;
+	private final long eTimestamp;
+	private K key;
+	private String uniqKey;
+	private final Set<String> tags = new HashSet<>();
+	private final Map<String, String> properties = new HashMap<>();
+	private int maxMessages = Integer.MAX_VALUE;
+	private int fetchBytes = DEFAULT_FETCH_BYTES;
+	private long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+
+	public MessageQuery(String topic, long bTimestamp, long eTimestamp) {
+		if (null == topic || topic.isEmpty()) {
+			throw new IllegalArgumentException("topic of query is empty.");
+		}
+		if (bTimestamp > eTimestamp) {
+			throw new IllegalArgumentException("begin timestamp " + bTimestamp + " is after end timestamp " + eTimestamp);
+		}
+		this.topic = topic;
+		this.bTimestamp = bTimestamp;
+		this.eTimestamp = eTimestamp;
+	}
+
+	public MessageQuery<K> key(K key) {
+		this.key = key;
+		return this;
+	}
+
+	public MessageQuery<K> uniqKey(String uniqKey) {
+		this.uniqKey = uniqKey;
+		return this;
+	}
+
+	public MessageQuery<K> tag(String tag) {
+		this.tags.add(tag);
+		return this;
+	}
+
+	public MessageQuery<K> property(String name, String value) {
+		this.properties.put(name, value);
+		return this;
+	}
+
+	public MessageQuery<K> maxMessages(int maxMessages) {
+		this.maxMessages = maxMessages;
+		return this;
+	}
+
+	//the initial fetch size of a partition.
+	public MessageQuery<K> fetchBytes(int fetchBytes) {
+		this.fetchBytes = fetchBytes;
+		return this;
+	}
+
+	//the bytes of fetched records buffered ahead of the merge.
+	public MessageQuery<K> maxBufferedBytes(long maxBufferedBytes) {
+		this.maxBufferedBytes = maxBufferedBytes;
+		return this;
+	}
+
+	public String topic() {
+		return topic;
+	}
+
+	public long bTimestamp() {
+		return bTimestamp;
+	}
+
+	public long eTimestamp() {
+		return eTimestamp;
+	}
+
+	public int maxMessages() {
+		return maxMessages;
+	}
+
+	public int fetchBytes() {
+		return fetchBytes;
+	}
+
+	public long maxBufferedBytes() {
+		return maxBufferedBytes;
+	}
+
+	@Override
+	public boolean accept(ConsumerRecord<K, ExtMessage<K>> record) {
+		ExtMessage<K> message = record.value();
+		if (null == message)
+			return false;
+		if (null != key && !key.equals(record.key()))
+			return false;
+		if (null != uniqKey && !uniqKey.equals(message.getProperty(PROPERTY_UNIQ_KEY)))
+			return false;
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			String value = message.getProperty(entry.getKey());
+			if (null == value ? null != entry.getValue() : !value.equals(entry.getValue()))
+				return false;
+		}
+		if (tags.isEmpty())
+			return true;
+		Collection<String> messageTags = message.getTags();
+		for (String tag : messageTags) {
+			if (tags.contains(tag))
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "MessageQuery{topic=" + topic + ", bTimestamp=" + bTimestamp + ", eTimestamp=" + eTimestamp + ", key="
+				+ key + ", uniqKey=" + uniqKey + ", tags=" + tags + ", properties=" + properties + "}";
+	}
+}
@@ -0,0 +1,289 @@
+package org.apache.kafka.clients.enhance;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.FetchedBatches;
+import org.apache.kafka.clients.admin.RetrieveRecordsOptions;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RecordBatchTooLargeException;
+import org.apache.kafka.common.errors.RetriableException;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.Records;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * exports ranges of partitions as their raw record batches, still compressed, to segment files under
+ * dir/topic/partition. a segment is named by the base offset of its first batch like the log segments of the
+ * broker, and is rolled when it would grow past segmentBytes.
+ * <p>
+ * the partitions are streamed in parallel, every round fetches the next batches of up to maxPartitions partitions
+ * with one fetch request per leader broker. the complete batches of a fetch are written to the segment as one
+ * slice of the fetched buffer, they are neither parsed nor copied, and a file backed fetch is transferred by
+ * FileChannel#transferTo. the range of a partition is widened to the whole batches holding its first and last
+ * offsets, the export of a partition stops at the high watermark.
+ */
+public class TopicExporter {
+	private static final Logger logger = LoggerFactory.getLogger(TopicExporter.class);
+	static final String SEGMENT_SUFFIX = ".log";
+	public static final int DEFAULT_FETCH_BYTES = 1024 * 1024;
+	public static final int DEFAULT_SEGMENT_BYTES = 256 * 1024 * 1024;
+	public static final int DEFAULT_MAX_PARTITIONS = 16;
+	private static final int MAX_FETCH_BYTES = 64 * 1024 * 1024;
+	private static final int MAX_RETRIES = 3;
+
+	private final AdminClient adminClient;
+	private final File dir;
+	private int fetchBytes = DEFAULT_FETCH_BYTES;
+	private int segmentBytes = DEFAULT_SEGMENT_BYTES;
+	private int maxPartitions = DEFAULT_MAX_PARTITIONS;
+	private Integer timeoutMs = null;
+
+	public TopicExporter(AdminClient adminClient, File dir) {
+		this.adminClient = adminClient;
+		this.dir = dir;
+	}
+
+	public TopicExporter fetchBytes(int fetchBytes) {
+		this.fetchBytes = fetchBytes;
+		return this;
+	}
+
+	public TopicExporter segmentBytes(int segmentBytes) {
+		this.segmentBytes = segmentBytes;
+		return this;
+	}
+
+	public TopicExporter maxPartitions(int maxPartitions) {
+		this.maxPartitions = maxPartitions;
+		return this;
+	}
+
+	//the timeout of every fetch, null for the request timeout of the admin client.
+	public TopicExporter timeoutMs(Integer timeoutMs) {
+		this.timeoutMs = timeoutMs;
+		return this;
+	}
+
+	static File partitionDir(File dir, TopicPartition tp) {
+		return new File(new File(dir, tp.topic()), String.valueOf(tp.partition()));
+	}
+
+	static File[] segments(File partitionDir) {
+		File[] segments = partitionDir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		return null == segments ? new File[0] : segments;
+	}
+
+	static String segmentName(long baseOffset) {
+		return String.format("%020d%s", baseOffset, SEGMENT_SUFFIX);
+	}
+
+	/**
+	 * export the partitions from their start offsets up to their end offsets, exclusive. a partition without an end
+	 * offset is exported up to its high watermark at the first fetch. the directory of a partition must not have
+	 * segments already.
+	 */
+	public Map<TopicPartition, TransferResult> export(Map<TopicPartition, Long> startOffsets,
+			Map<TopicPartition, Long> endOffsets) throws InterruptedException {
+		Map<TopicPartition, TransferResult> results = new LinkedHashMap<>();
+		Deque<PartitionExport> pending = new ArrayDeque<>();
+		for (Map.Entry<TopicPartition, Long> entry : startOffsets.entrySet()) {
+			Long endOffset = endOffsets.get(entry.getKey());
+			pending.add(new PartitionExport(entry.getKey(), entry.getValue(), null == endOffset ? -1L : endOffset));
+			results.put(entry.getKey(), null);
+		}
+
+		List<PartitionExport> active = new ArrayList<>();
+		int retries = 0;
+		try {
+			while (!pending.isEmpty() || !active.isEmpty()) {
+				while (active.size() < maxPartitions && !pending.isEmpty()) {
+					PartitionExport export = pending.poll();
+					try {
+						export.open();
+						active.add(export);
+					} catch (IOException e) {
+						results.put(export.tp, export.close(e));
+					}
+				}
+				if (active.isEmpty())
+					continue;
+
+				Map<TopicPartition, Long> offsets = new HashMap<>();
+				int partitionBytes = fetchBytes;
+				for (PartitionExport export : active) {
+					offsets.put(export.tp, export.nextOffset);
+					partitionBytes = Math.max(partitionBytes, export.fetchBytes);
+				}
+				Map<TopicPartition, FetchedBatches> fetched;
+				try {
+					fetched = adminClient.retrieveBatchesByOffsets(offsets, partitionBytes,
+							new RetrieveRecordsOptions().timeoutMs(timeoutMs)).values().get();
+					retries = 0;
+				} catch (ExecutionException e) {
+					//the leaders are looked up again by the next fetch.
+					if (e.getCause() instanceof RetriableException && ++retries <= MAX_RETRIES) {
+						logger.warn("[TopicExporter] failed to fetch {} partitions, retry {}.", active.size(), retries, e.getCause());
+						continue;
+					}
+					for (PartitionExport export : active) {
+						results.put(export.tp, export.close(e.getCause()));
+					}
+					active.clear();
+					continue;
+				}
+
+				for (Iterator<PartitionExport> it = active.iterator(); it.hasNext(); ) {
+					PartitionExport export = it.next();
+					try {
+						if (export.write(fetched.get(export.tp))) {
+							results.put(export.tp, export.close(null));
+							it.remove();
+						}
+					} catch (IOException | RecordBatchTooLargeException e) {
+						results.put(export.tp, export.close(e));
+						it.remove();
+					}
+				}
+			}
+		} finally {
+			for (PartitionExport export : active) {
+				export.close(null);
+			}
+		}
+		return results;
+	}
+
+	private final class PartitionExport {
+		private final TopicPartition tp;
+		private final long startOffset;
+		private long endOffset;
+		private long nextOffset;
+		private int fetchBytes = TopicExporter.this.fetchBytes;
+		private File partitionDir;
+		private FileChannel segment;
+		private long segmentSize;
+		private long firstOffset = -1L;
+		private long batches;
+		private long bytes;
+
+		PartitionExport(TopicPartition tp, long startOffset, long endOffset) {
+			this.tp = tp;
+			this.startOffset = startOffset;
+			this.endOffset = endOffset;
+			this.nextOffset = startOffset;
+		}
+
+		void open() throws IOException {
+			partitionDir = partitionDir(dir, tp);
+			if (!partitionDir.isDirectory() && !partitionDir.mkdirs())
+				throw new IOException("failed to create the directory " + partitionDir + ".");
+			if (segments(partitionDir).length > 0)
+				throw new IOException("the directory " + partitionDir + " has segments already.");
+		}
+
+		//writes the complete batches of the fetch, true when the partition is exported.
+		boolean write(FetchedBatches fetched) throws IOException {
+			if (endOffset < 0)
+				endOffset = fetched.highWatermark();
+			if (nextOffset >= endOffset)
+				return true;
+
+			Records records = fetched.records();
+			int position = 0;
+			int length = 0;
+			long baseOffset = -1L;
+			for (RecordBatch batch : records.batches()) {
+				if (batch.lastOffset() < nextOffset) {
+					position += batch.sizeInBytes();
+					continue;
+				}
+				if (baseOffset < 0)
+					baseOffset = batch.baseOffset();
+				length += batch.sizeInBytes();
+				batches++;
+				nextOffset = batch.nextOffset();
+				if (nextOffset >= endOffset)
+					break;
+			}
+
+			if (0 == length) {
+				if (records.sizeInBytes() == 0)
+					return nextOffset >= fetched.highWatermark();
+				//the batch at the offset is cut by the fetch size.
+				if (fetchBytes >= MAX_FETCH_BYTES)
+					throw new RecordBatchTooLargeException("the batch of " + tp + " at offset " + nextOffset
+							+ " is larger than " + MAX_FETCH_BYTES + " bytes.");
+				fetchBytes = Math.min(MAX_FETCH_BYTES, fetchBytes * 2);
+				return false;
+			}
+
+			if (firstOffset < 0)
+				firstOffset = baseOffset;
+			if (null == segment || (segmentSize > 0 && segmentSize + length > segmentBytes)) {
+				roll(baseOffset);
+			}
+			long written = 0;
+			while (written < length) {
+				written += records.writeTo(segment, position + written, (int) (length - written));
+			}
+			segmentSize += length;
+			bytes += length;
+			return nextOffset >= endOffset;
+		}
+
+		private void roll(long baseOffset) throws IOException {
+			closeSegment();
+			segment = FileChannel.open(new File(partitionDir, segmentName(baseOffset)).toPath(),
+					StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			segmentSize = 0;
+		}
+
+		private void closeSegment() throws IOException {
+			if (null == segment)
+				return;
+			try {
+				segment.force(true);
+			} finally {
+				Utils.closeQuietly(segment, "segment of " + tp);
+				segment = null;
+			}
+		}
+
+		TransferResult close(Throwable error) {
+			try {
+				closeSegment();
+			} catch (IOException e) {
+				if (null == error)
+					error = e;
+			}
+			if (null != error) {
+				logger.warn("[TopicExporter] failed to export {} at offset {}.", tp, nextOffset, error);
+			} else {
+				logger.info("[TopicExporter] exported {} batches, {} bytes of {} from offset {} to {}.", batches, bytes,
+						tp, firstOffset, nextOffset);
+			}
+			return new TransferResult(tp, firstOffset < 0 ? startOffset : firstOffset, nextOffset, batches, bytes, error);
+		}
+	}
+}
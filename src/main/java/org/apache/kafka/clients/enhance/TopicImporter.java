@@ -0,0 +1,270 @@
+package org.apache.kafka.clients.enhance;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AppendBatchesOptions;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RetriableException;
+import org.apache.kafka.common.record.ControlRecordType;
+import org.apache.kafka.common.record.DefaultRecordBatch;
+import org.apache.kafka.common.record.FileLogInputStream.FileChannelRecordBatch;
+import org.apache.kafka.common.record.FileRecords;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MutableRecordBatch;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * imports the segments written by TopicExporter into a topic with the same number of partitions, the batches are
+ * appended as they are, without being decompressed or recompressed. the broker assigns them new offsets, and keeps
+ * their timestamps unless the topic uses LogAppendTime.
+ * <p>
+ * the partitions are replayed in parallel, every round appends the next batch of up to maxPartitions partitions with
+ * one produce request per leader broker, a produce request takes one batch of a partition. the control batches
+ * aren't imported, nor the batches of the transactions which were aborted or aren't completed in the export, and
+ * the producer ids of the rest are cleared as the target has no producer state for them. a batch is appended again
+ * when its request fails, so the import is at least once.
+ */
+public class TopicImporter {
+	private static final Logger logger = LoggerFactory.getLogger(TopicImporter.class);
+	public static final int DEFAULT_MAX_PARTITIONS = 16;
+	private static final int MAX_RETRIES = 3;
+
+	private final AdminClient adminClient;
+	private final File dir;
+	private int maxPartitions = DEFAULT_MAX_PARTITIONS;
+	private Integer timeoutMs = null;
+	private short acks = -1;
+
+	public TopicImporter(AdminClient adminClient, File dir) {
+		this.adminClient = adminClient;
+		this.dir = dir;
+	}
+
+	public TopicImporter maxPartitions(int maxPartitions) {
+		this.maxPartitions = maxPartitions;
+		return this;
+	}
+
+	//the timeout of every produce request, null for the request timeout of the admin client.
+	public TopicImporter timeoutMs(Integer timeoutMs) {
+		this.timeoutMs = timeoutMs;
+		return this;
+	}
+
+	public TopicImporter acks(short acks) {
+		this.acks = acks;
+		return this;
+	}
+
+	/**
+	 * import the exported partitions of the source topic into the partitions of the target topic with the same
+	 * numbers, the results are keyed by the target partitions.
+	 */
+	public Map<TopicPartition, TransferResult> importTopic(String sourceTopic, String targetTopic) throws InterruptedException {
+		File[] partitionDirs = new File(dir, sourceTopic).listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isDirectory() && file.getName().matches("\\d+");
+			}
+		});
+		if (null == partitionDirs)
+			throw new IllegalArgumentException("topic [" + sourceTopic + "] isn't exported to " + dir + ".");
+		Map<TopicPartition, TransferResult> results = new LinkedHashMap<>();
+		Deque<PartitionImport> pending = new ArrayDeque<>();
+		for (File partitionDir : partitionDirs) {
+			TopicPartition tp = new TopicPartition(targetTopic, Integer.parseInt(partitionDir.getName()));
+			pending.add(new PartitionImport(tp, partitionDir));
+			results.put(tp, null);
+		}
+
+		AppendBatchesOptions options = new AppendBatchesOptions().timeoutMs(timeoutMs).acks(acks);
+		List<PartitionImport> active = new ArrayList<>();
+		try {
+			while (!pending.isEmpty() || !active.isEmpty()) {
+				while (active.size() < maxPartitions && !pending.isEmpty()) {
+					PartitionImport partitionImport = pending.poll();
+					try {
+						partitionImport.open();
+						active.add(partitionImport);
+					} catch (IOException e) {
+						results.put(partitionImport.tp, partitionImport.close(e));
+					}
+				}
+
+				Map<TopicPartition, MemoryRecords> batches = new HashMap<>();
+				for (Iterator<PartitionImport> it = active.iterator(); it.hasNext(); ) {
+					PartitionImport partitionImport = it.next();
+					try {
+						MemoryRecords batch = partitionImport.nextBatch();
+						if (null != batch) {
+							batches.put(partitionImport.tp, batch);
+							continue;
+						}
+						results.put(partitionImport.tp, partitionImport.close(null));
+					} catch (IOException e) {
+						results.put(partitionImport.tp, partitionImport.close(e));
+					}
+					it.remove();
+				}
+				if (batches.isEmpty())
+					continue;
+
+				Map<TopicPartition, KafkaFuture<Long>> appended = adminClient.appendBatches(batches, options).values();
+				for (Iterator<PartitionImport> it = active.iterator(); it.hasNext(); ) {
+					PartitionImport partitionImport = it.next();
+					try {
+						partitionImport.appended(appended.get(partitionImport.tp).get());
+					} catch (ExecutionException e) {
+						//the leaders are looked up again by the next request.
+						if (e.getCause() instanceof RetriableException && ++partitionImport.retries <= MAX_RETRIES) {
+							logger.warn("[TopicImporter] failed to append a batch to {}, retry {}.", partitionImport.tp,
+									partitionImport.retries, e.getCause());
+							continue;
+						}
+						results.put(partitionImport.tp, partitionImport.close(e.getCause()));
+						it.remove();
+					}
+				}
+			}
+		} finally {
+			for (PartitionImport partitionImport : active) {
+				partitionImport.close(null);
+			}
+		}
+		return results;
+	}
+
+	private static final class PartitionImport {
+		private final TopicPartition tp;
+		private final File partitionDir;
+		//the markers of the transactions by producer id, true for a commit.
+		private final Map<Long, TreeMap<Long, Boolean>> markers = new HashMap<>();
+		private final Deque<File> segments = new ArrayDeque<>();
+		private FileRecords segment;
+		private Iterator<FileChannelRecordBatch> segmentBatches;
+		private MemoryRecords batch;
+		private int retries;
+		private long startOffset = -1L;
+		private long endOffset = -1L;
+		private long batches;
+		private long bytes;
+
+		PartitionImport(TopicPartition tp, File partitionDir) {
+			this.tp = tp;
+			this.partitionDir = partitionDir;
+		}
+
+		//reads the transaction markers of all the segments first, as a marker is written after its batches.
+		void open() throws IOException {
+			File[] files = TopicExporter.segments(partitionDir);
+			Arrays.sort(files);
+			for (File file : files) {
+				FileRecords records = FileRecords.open(file, false);
+				try {
+					for (FileChannelRecordBatch recordBatch : records.batches()) {
+						if (!recordBatch.isControlBatch())
+							continue;
+						Record record = recordBatch.iterator().next();
+						ControlRecordType type = ControlRecordType.parse(record.key());
+						if (type == ControlRecordType.COMMIT || type == ControlRecordType.ABORT) {
+							TreeMap<Long, Boolean> producerMarkers = markers.get(recordBatch.producerId());
+							if (null == producerMarkers) {
+								producerMarkers = new TreeMap<>();
+								markers.put(recordBatch.producerId(), producerMarkers);
+							}
+							producerMarkers.put(recordBatch.baseOffset(), type == ControlRecordType.COMMIT);
+						}
+					}
+				} finally {
+					records.close();
+				}
+				segments.add(file);
+			}
+		}
+
+		//the batch to append, the same one until it is appended, null when all the segments are imported.
+		MemoryRecords nextBatch() throws IOException {
+			while (null == batch) {
+				if (null == segmentBatches || !segmentBatches.hasNext()) {
+					closeSegment();
+					if (segments.isEmpty())
+						return null;
+					segment = FileRecords.open(segments.poll(), false);
+					segmentBatches = segment.batches().iterator();
+					continue;
+				}
+				FileChannelRecordBatch recordBatch = segmentBatches.next();
+				if (recordBatch.isControlBatch() || (recordBatch.isTransactional() && !isCommitted(recordBatch)))
+					continue;
+				ByteBuffer buffer = ByteBuffer.allocate(recordBatch.sizeInBytes());
+				recordBatch.writeTo(buffer);
+				buffer.flip();
+				batch = MemoryRecords.readableRecords(buffer);
+				for (MutableRecordBatch mutableBatch : batch.batches()) {
+					if (mutableBatch instanceof DefaultRecordBatch)
+						((DefaultRecordBatch) mutableBatch).clearProducerState();
+				}
+			}
+			return batch;
+		}
+
+		//true if the first marker of the producer after the batch is a commit.
+		private boolean isCommitted(FileChannelRecordBatch recordBatch) {
+			TreeMap<Long, Boolean> producerMarkers = markers.get(recordBatch.producerId());
+			if (null == producerMarkers)
+				return false;
+			Map.Entry<Long, Boolean> marker = producerMarkers.ceilingEntry(recordBatch.lastOffset());
+			return null != marker && marker.getValue();
+		}
+
+		void appended(long baseOffset) {
+			for (MutableRecordBatch appendedBatch : batch.batches()) {
+				if (startOffset < 0)
+					startOffset = baseOffset;
+				endOffset = baseOffset + appendedBatch.lastOffset() - appendedBatch.baseOffset() + 1;
+			}
+			batches++;
+			bytes += batch.sizeInBytes();
+			batch = null;
+			retries = 0;
+		}
+
+		private void closeSegment() {
+			if (null != segment) {
+				Utils.closeQuietly(segment, "segment of " + tp);
+				segment = null;
+				segmentBatches = null;
+			}
+		}
+
+		TransferResult close(Throwable error) {
+			closeSegment();
+			if (null != error) {
+				logger.warn("[TopicImporter] failed to import {} from {}.", tp, partitionDir, error);
+			} else {
+				logger.info("[TopicImporter] imported {} batches, {} bytes to {} from offset {} to {}.", batches, bytes, tp,
+						startOffset, endOffset);
+			}
+			return new TransferResult(tp, startOffset, endOffset, batches, bytes, error);
+		}
+	}
+}
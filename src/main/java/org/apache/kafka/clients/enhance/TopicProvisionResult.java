@@ -0,0 +1,52 @@
+package org.apache.kafka.clients.enhance;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * the result of a topic in AdminOperator#provisionTopics, the changes which were applied and the error if any of
+ * them failed.
+ */
+public class TopicProvisionResult {
+	public enum Change {
+		CREATED, PARTITIONS_INCREASED, CONFIGS_ALTERED
+	}
+
+	private final String topic;
+	private final Set<Change> changes;
+	private final Throwable error;
+
+	public TopicProvisionResult(String topic, Set<Change> changes, Throwable error) {
+		this.topic = topic;
+		this.changes = changes.isEmpty() ? Collections.<Change>emptySet()
+				: Collections.unmodifiableSet(EnumSet.copyOf(changes));
+		this.error = error;
+	}
+
+	public String topic() {
+		return topic;
+	}
+
+	public Set<Change> changes() {
+		return changes;
+	}
+
+	public Throwable error() {
+		return error;
+	}
+
+	public boolean isSuccess() {
+		return null == error;
+	}
+
+	//true if the topic was already in the desired state.
+	public boolean isUnchanged() {
+		return null == error && changes.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "TopicProvisionResult{topic='" + topic + "', changes=" + changes + ", error=" + error + "}";
+	}
+}
@@ -0,0 +1,89 @@
+package org.apache.kafka.clients.enhance;
+
+import org.apache.kafka.clients.enhance.consumer.DelayedMessageTopic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.kafka.clients.enhance.ExtMessageDef.DLQ_TOPIC_PREFFIX;
+import static org.apache.kafka.clients.enhance.ExtMessageDef.RETRY_TOPIC_PREFFIX;
+
+/**
+ * the desired state of a topic for AdminOperator#provisionTopics.
+ * <p>
+ * a missing topic is created, an existing topic gets more partitions if it has fewer and the configs which differ.
+ * the partitions of a topic can't be decreased and its replicas aren't changed, a spec asking for it is left as is.
+ */
+public class TopicSpec {
+	private final String name;
+	private final int partitions;
+	private final short replicas;
+	private final Map<String, String> configs = new HashMap<>();
+
+	public TopicSpec(String name, int partitions, short replicas) {
+		if (null == name || name.isEmpty()) {
+			throw new IllegalArgumentException("name of topic spec is empty.");
+		}
+		if (partitions <= 0 || replicas <= 0) {
+			throw new IllegalArgumentException("partitions and replicas of topic [" + name + "] must be positive.");
+		}
+		this.name = name;
+		this.partitions = partitions;
+		this.replicas = replicas;
+	}
+
+	public TopicSpec config(String name, String value) {
+		this.configs.put(name, value);
+		return this;
+	}
+
+	public TopicSpec configs(Map<String, String> configs) {
+		if (null != configs) {
+			this.configs.putAll(configs);
+		}
+		return this;
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public int partitions() {
+		return partitions;
+	}
+
+	public short replicas() {
+		return replicas;
+	}
+
+	public Map<String, String> configs() {
+		return Collections.unmodifiableMap(configs);
+	}
+
+	//the topics of all the delay levels.
+	public static List<TopicSpec> delayedTopics(int partitions, short replicas) {
+		List<TopicSpec> specs = new ArrayList<>();
+		for (int level = 1; level <= DelayedMessageTopic.values().length; level++) {
+			specs.add(new TopicSpec(DelayedMessageTopic.getDelayedTopicNameByLevel(level, null, null), partitions,
+					replicas));
+		}
+		return specs;
+	}
+
+	//the retry and dead letter topics of the consumer group.
+	public static List<TopicSpec> groupTopics(String groupId, int partitions, short replicas) {
+		List<TopicSpec> specs = new ArrayList<>(2);
+		specs.add(new TopicSpec(Utility.normalizeTopicName(RETRY_TOPIC_PREFFIX + groupId), partitions, replicas));
+		specs.add(new TopicSpec(Utility.normalizeTopicName(DLQ_TOPIC_PREFFIX + groupId), partitions, replicas));
+		return specs;
+	}
+
+	@Override
+	public String toString() {
+		return "TopicSpec{name='" + name + "', partitions=" + partitions + ", replicas=" + replicas + ", configs="
+				+ configs + "}";
+	}
+}
@@ -0,0 +1,61 @@
+package org.apache.kafka.clients.enhance;
+
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * the result of a partition in TopicExporter#export and TopicImporter#importTopic. the offsets are the range of
+ * the transferred batches in the written partition, endOffset is exclusive.
+ */
+public class TransferResult {
+	private final TopicPartition partition;
+	private final long startOffset;
+	private final long endOffset;
+	private final long batches;
+	private final long bytes;
+	private final Throwable error;
+
+	public TransferResult(TopicPartition partition, long startOffset, long endOffset, long batches, long bytes,
+			Throwable error) {
+		this.partition = partition;
+		this.startOffset = startOffset;
+		this.endOffset = endOffset;
+		this.batches = batches;
+		this.bytes = bytes;
+		this.error = error;
+	}
+
+	public TopicPartition partition() {
+		return partition;
+	}
+
+	public long startOffset() {
+		return startOffset;
+	}
+
+	public long endOffset() {
+		return endOffset;
+	}
+
+	public long batches() {
+		return batches;
+	}
+
+	public long bytes() {
+		return bytes;
+	}
+
+	public Throwable error() {
+		return error;
+	}
+
+	//false if the partition stopped on an error, the batches before it were transferred.
+	public boolean isSuccess() {
+		return null == error;
+	}
+
+	@Override
+	public String toString() {
+		return "TransferResult{partition=" + partition + ", startOffset=" + startOffset + ", endOffset=" + endOffset
+				+ ", batches=" + batches + ", bytes=" + bytes + ", error=" + error + "}";
+	}
+}
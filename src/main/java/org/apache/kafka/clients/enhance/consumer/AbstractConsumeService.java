@@ -8,6 +8,9 @@ import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.utils.Time;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,14 +20,17 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import static org.apache.kafka.clients.enhance.ExtMessageDef.MAX_DELAY_TIME_LEVEL;
 import static org.apache.kafka.clients.enhance.ExtMessageDef.PROPERTY_DELAY_RESEND_TOPIC;
+import static org.apache.kafka.clients.enhance.ExtMessageDef.PROPERTY_ORIGIN_MESSAGE_ID;
+import static org.apache.kafka.clients.enhance.ExtMessageDef.PROPERTY_UNIQ_KEY;
 
 public abstract class AbstractConsumeService<K> implements ConsumeService<K> {
 	protected static final Logger logger = LoggerFactory.getLogger(AbstractConsumeService.class);
 	protected static final long SEND_MESSAGE_BACK_WAIT_TIMEOUT_MS = 3000L;
+	protected static final long DRAIN_PROGRESS_LOG_INTERVAL_MS = 1000L;
 
 	private final ThreadPoolExecutor execTaskService;
 	private final ArrayBlockingQueue<Runnable> taskQueue;
-	private final ScheduledExecutorService scheduleExecTaskService;
+	private final ScheduledThreadPoolExecutor scheduleExecTaskService;
 	protected final ClientThreadFactory clientThreadFactory = new ClientThreadFactory("consume-service-thread-pool");
 	protected final KafkaPollMessageService<K> pollService;
 	protected ShutdownableThread dispatchService;
@@ -37,7 +43,12 @@ public abstract class AbstractConsumeService<K> implements ConsumeService<K> {
 	protected final PartitionDataManager<K, ExtMessage<K>> partitionDataManager;
 
 	protected final ConsumeClientContext<K> clientContext;
+	protected final ConsumeServiceMetrics serviceMetrics;
+	//null if deduplication isn't enabled.
+	protected final MessageDeduplicator<K> messageDeduplicator;
 	protected volatile boolean isRunning = false;
+	protected volatile boolean isDraining = false;
+	private volatile long drainStartMs = -1L;
 
 	public AbstractConsumeService(final EnhanceConsumer<K> safeConsumer,
 			final KafkaProducer<K, ExtMessage<K>> innerSender, final ConsumeClientContext<K> clientContext) {
@@ -45,15 +56,20 @@ public abstract class AbstractConsumeService<K> implements ConsumeService<K> {
 		this.innerSender = innerSender;
 		this.clientContext = clientContext;
 		this.partitionDataManager = new PartitionDataManager<>();
+		this.messageDeduplicator = clientContext.isDeduplicationEnabled() ? new MessageDeduplicator<K>(
+				clientContext.dedupWindowMs(), clientContext.dedupExpectedKeys(), clientContext.dedupMaxExactKeys(),
+				clientContext.dropDuplicatedMessage(), Time.SYSTEM) : null;
 		this.pollService = new KafkaPollMessageService("kafka-poll-message-service", safeConsumer, partitionDataManager,
-				clientContext, syncLock);
+				clientContext, syncLock, messageDeduplicator);
 		this.taskQueue = new ArrayBlockingQueue<>(clientContext.consumeQueueSize(), true);
 		//[default resetStrategy] is RejectedStrategy, need process RejectedException.
 		int coreThreadNum = clientContext.consumeThreadNum();
 		this.execTaskService = new ThreadPoolExecutor(coreThreadNum, coreThreadNum << 1L, 1000 * 15,//
 				TimeUnit.MILLISECONDS, this.taskQueue, clientThreadFactory);
 
-		this.scheduleExecTaskService = Executors.newSingleThreadScheduledExecutor(clientThreadFactory);
+		this.scheduleExecTaskService = new ScheduledThreadPoolExecutor(1, clientThreadFactory);
+		//delayed retries are dropped on shutdown, they mustn't hold the drain until they are due.
+		this.scheduleExecTaskService.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
 
 		switch (clientContext.consumeModel()) {
 			case GROUP_BROADCASTING:
@@ -67,6 +83,46 @@ public abstract class AbstractConsumeService<K> implements ConsumeService<K> {
 				break;
 		}
 
+		this.serviceMetrics = new ConsumeServiceMetrics(safeConsumer.kafkaMetrics());
+		registerDrainMetrics();
+		if (null != messageDeduplicator) {
+			messageDeduplicator.registerMetrics(serviceMetrics);
+		}
+	}
+
+	MessageDeduplicator<K> messageDeduplicator() {
+		return messageDeduplicator;
+	}
+
+	private void registerDrainMetrics() {
+		serviceMetrics.addGauge("drain-in-progress", "1 if the consume service is draining before shutdown, otherwise 0",
+				new Measurable() {
+					@Override
+					public double measure(MetricConfig config, long now) {
+						return isDraining ? 1 : 0;
+					}
+				});
+		serviceMetrics.addGauge("drain-time-ms", "The time the current drain has taken", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				long startMs = drainStartMs;
+				return (isDraining && startMs > 0) ? now - startMs : 0;
+			}
+		});
+		serviceMetrics.addGauge("pending-tasks", "The number of consume tasks which are queued or executing",
+				new Measurable() {
+					@Override
+					public double measure(MetricConfig config, long now) {
+						return taskQueue.size() + execTaskService.getActiveCount();
+					}
+				});
+		serviceMetrics.addGauge("buffered-records", "The number of records which are buffered and not acked yet",
+				new Measurable() {
+					@Override
+					public double measure(MetricConfig config, long now) {
+						return partitionDataManager.bufferedRecordCount();
+					}
+				});
 	}
 
 	@Override
@@ -106,24 +162,15 @@ public abstract class AbstractConsumeService<K> implements ConsumeService<K> {
 		syncLock.lock();
 		try {
 			if (isRunning) {
-				pollService.shutdown();
-				dispatchService.shutdown();
-
-				this.taskQueue.clear();
 				if (0 >= timeout) {
 					logger.debug("[AbstractConsumeService] is isRunning at once.");
+					pollService.shutdown();
+					dispatchService.shutdown();
+					this.taskQueue.clear();
 					this.execTaskService.shutdownNow();
 					this.scheduleExecTaskService.shutdownNow();
 				} else {
-					logger.debug("[AbstractConsumeService] awaitTermination for [{}] ms.", unit.toMillis(timeout));
-					this.execTaskService.shutdown();
-					this.scheduleExecTaskService.shutdown();
-					try {
-						this.execTaskService.awaitTermination(timeout, unit);
-						this.scheduleExecTaskService.awaitTermination(timeout, unit);
-					} catch (InterruptedException e) {
-						logger.warn("[AbstractConsumeService] interrupted exception. due to ", e);
-					}
+					drain(timeout, unit);
 				}
 
 				offsetPersistor.shutdown();
@@ -132,10 +179,77 @@ public abstract class AbstractConsumeService<K> implements ConsumeService<K> {
 		} catch (Throwable e) {
 			logger.warn("[AbstractConsumeService] close error. due to ", e);
 		} finally {
+			isDraining = false;
+			serviceMetrics.close();
 			syncLock.unlock();
 		}
 	}
 
+	/**
+	 * stop polling and dispatching, then let the dispatched and queued tasks finish before the deadline.
+	 * the records which aren't acked in time are redelivered after restart, since only contiguous acks are committed.
+	 */
+	private void drain(long timeout, TimeUnit unit) {
+		long startMs = System.currentTimeMillis();
+		long deadlineMs = startMs + unit.toMillis(timeout);
+		drainStartMs = startMs;
+		isDraining = true;
+		logger.info("[AbstractConsumeService] start draining, timeout = [{}] ms.", unit.toMillis(timeout));
+
+		pollService.shutdown();
+		try {
+			safeConsumer.pause(safeConsumer.assignment());
+		} catch (Exception ex) {
+			logger.warn("[AbstractConsumeService] pause partitions error when draining. due to ", ex);
+		}
+		dispatchService.shutdown();
+
+		//delayed retries are dropped and redelivered after restart, a retry being dispatched finishes.
+		this.scheduleExecTaskService.shutdown();
+		awaitDrained(this.scheduleExecTaskService, deadlineMs);
+		this.scheduleExecTaskService.shutdownNow();
+
+		this.execTaskService.shutdown();
+		if (!awaitDrained(this.execTaskService, deadlineMs)) {
+			logger.warn("[AbstractConsumeService] drain timeout, [{}] tasks are interrupted or dropped.",
+					taskQueue.size() + execTaskService.getActiveCount());
+			this.execTaskService.shutdownNow();
+		}
+
+		try {
+			innerSender.flush();
+		} catch (Exception ex) {
+			logger.warn("[AbstractConsumeService] flush retry messages error when draining. due to ", ex);
+		}
+		logger.info("[AbstractConsumeService] drain completed in [{}] ms, [{}] records haven't been acked.",
+				System.currentTimeMillis() - startMs, partitionDataManager.bufferedRecordCount());
+	}
+
+	private boolean awaitDrained(ExecutorService executor, long deadlineMs) {
+		try {
+			long remainingMs = deadlineMs - System.currentTimeMillis();
+			while (remainingMs > 0) {
+				if (executor.awaitTermination(Math.min(remainingMs, DRAIN_PROGRESS_LOG_INTERVAL_MS),
+						TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+				logger.info("[AbstractConsumeService] draining, pending tasks = [{}], buffered records = [{}].",
+						taskQueue.size() + execTaskService.getActiveCount(),
+						partitionDataManager.bufferedRecordCount());
+				remainingMs = deadlineMs - System.currentTimeMillis();
+			}
+			return executor.isTerminated();
+		} catch (InterruptedException e) {
+			logger.warn("[AbstractConsumeService] interrupted exception. due to ", e);
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	public boolean isDraining() {
+		return isDraining;
+	}
+
 	@Override
 	public void updateCoreThreadNum(int coreThreadNum) {
 		try {
@@ -172,6 +286,10 @@ public abstract class AbstractConsumeService<K> implements ConsumeService<K> {
 			logger.warn("sendMessageBack error. due to topic[{}] is null or msg[{}] is null.", topic, msg);
 			return false;
 		}
+		//keep the id of the original message, so the retried message can be traced.
+		if (null == msg.getProperty(PROPERTY_ORIGIN_MESSAGE_ID) && null != msg.getProperty(PROPERTY_UNIQ_KEY)) {
+			msg.addProperty(PROPERTY_ORIGIN_MESSAGE_ID, msg.getProperty(PROPERTY_UNIQ_KEY));
+		}
 		ProducerRecord<K, ExtMessage<K>> record = null;
 		if (1 <= delayLevel && MAX_DELAY_TIME_LEVEL >= delayLevel) {
 			String delayedTopic = getDelayedTopicName(delayLevel);
@@ -335,6 +453,10 @@ public abstract class AbstractConsumeService<K> implements ConsumeService<K> {
 
 	public void dispatchTaskLater(final AbstractConsumeTaskRequest<K> requestTask, final long timeout,
 			final TimeUnit unit) {
+		if (scheduleExecTaskService.isShutdown()) {
+			logger.info("consume service is closing, task [{}] will be redelivered after restart.", requestTask);
+			return;
+		}
 		try {
 			scheduleExecTaskService.schedule(new Runnable() {
 				@Override
@@ -342,6 +464,11 @@ public abstract class AbstractConsumeService<K> implements ConsumeService<K> {
 					try {
 						dispatchTaskAtOnce(requestTask);
 					} catch (Exception ex1) {
+						if (execTaskService.isShutdown()) {
+							logger.info("consume service is closing, task [{}] will be redelivered after restart.",
+									requestTask);
+							return;
+						}
 						logger.warn(
 								"dispatchTaskAtOnce() failed, because partition is full. invoke dispatchTaskLater().",
 								ex1);
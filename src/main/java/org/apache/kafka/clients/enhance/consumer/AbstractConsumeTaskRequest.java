@@ -37,6 +37,13 @@ public abstract class AbstractConsumeTaskRequest<K> implements Callable<ConsumeT
 
 	public abstract void processConsumeStatus(ConsumeStatus status);
 
+	protected void markConsumed(ExtMessage<K> message) {
+		MessageDeduplicator<K> deduplicator = consumeService.messageDeduplicator();
+		if (null != deduplicator) {
+			deduplicator.markConsumed(message);
+		}
+	}
+
 	public long getTaskCreatedTime() {
 		return taskCreatedTime;
 	}
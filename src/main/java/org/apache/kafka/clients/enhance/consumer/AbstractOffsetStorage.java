@@ -139,15 +139,17 @@ public abstract class AbstractOffsetStorage<K> implements ConsumerRebalanceListe
 				needCommitOffset.put(tp, newOffset);
 			}
 		}
-		//when filter exec, should fixed the commit offset when partitionData is empty
+		//when filter exec, should fixed the commit offset when partitionData is empty.
+		//the consumer position may be ahead of the batches waiting in the prefetch queue, so it isn't used here.
 		if (!clientContext.messageFilter().isPermitAll()) {
-			Set<TopicPartition> emptyPartitions = partitionDataManager.getEmptyPartitionData();
-			for (TopicPartition tp : emptyPartitions) {
-				long pullPosition = safeConsumer.position(tp);
+			Map<TopicPartition, Long> savedOffsets = partitionDataManager.savedOffsetsOfEmptyPartitions();
+			for (Map.Entry<TopicPartition, Long> entry : savedOffsets.entrySet()) {
+				TopicPartition tp = entry.getKey();
+				long savedOffset = entry.getValue();
 				OffsetAndMetadata tmpOffset = commitedOffsetSnapshot.get(tp);
-				if (null == tmpOffset || tmpOffset.offset() < pullPosition) {
-					logger.debug("commit filter offset to server.tp=[{}], offset=[{}]", tp, tmpOffset);
-					OffsetAndMetadata newCommitOffset = new OffsetAndMetadata(pullPosition);
+				if (null == tmpOffset || tmpOffset.offset() < savedOffset) {
+					logger.debug("commit filter offset to server.tp=[{}], offset=[{}]", tp, savedOffset);
+					OffsetAndMetadata newCommitOffset = new OffsetAndMetadata(savedOffset);
 					commitedOffsetSnapshot.put(tp, newCommitOffset);
 					needCommitOffset.put(tp, newCommitOffset);
 				}
@@ -158,10 +160,11 @@ public abstract class AbstractOffsetStorage<K> implements ConsumerRebalanceListe
 
 	@Override
 	public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
-		//persist all partition offsets
+		//update partition Manager status, wait for in-flight records for a while
+		partitionDataManager.updateOnPartitionsRevoked(partitions, clientContext.rebalanceDrainTimeoutMs());
 
-		//update partition Manager status
-		partitionDataManager.updateOnPartitionsRevoked(partitions);
+		//persist all partition offsets
+		storeAllOffsetMeta();
 	}
 
 	@Override
@@ -216,8 +219,15 @@ public abstract class AbstractOffsetStorage<K> implements ConsumerRebalanceListe
 			RESET_FROM_TIMESTAMP.timestamp(INVALID_TIMESTAMP);
 		}
 
-		//update partition Manager status
-		partitionDataManager.updateOnPartitionsAssigned(partitions);
+		//update partition Manager status, retained partitions continue fetching from where they stopped.
+		Map<TopicPartition, Long> resumeOffsets = partitionDataManager.updateOnPartitionsAssigned(partitions);
+		for (Map.Entry<TopicPartition, Long> entry : resumeOffsets.entrySet()) {
+			try {
+				safeConsumer.seek(entry.getKey(), entry.getValue());
+			} catch (Exception ex) {
+				logger.warn("[onPartitionsAssigned] resume retained partition [{}] failed. due to", entry.getKey(), ex);
+			}
+		}
 
 	}
 
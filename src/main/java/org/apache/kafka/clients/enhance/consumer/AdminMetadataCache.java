@@ -0,0 +1,257 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.DescribeClusterResult;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.enhance.ClientThreadFactory;
+import org.apache.kafka.clients.enhance.ClusterDescription;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.config.types.Password;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * caches the topic and cluster metadata of the admin operations, shared by the consumers in the process which
+ * connect to the same cluster with the same client id and security configs, so they are authorized alike.
+ * <p>
+ * concurrent lookups of the same key wait on one in-flight request, which runs in the thread that misses first.
+ * an entry is served for ttlMs, after half of it the entry is refreshed in background while it is still served.
+ * a topic which doesn't exist is cached for absentTtlMs, so a topic created by another client is found soon.
+ * failed lookups aren't cached, and a topic is invalidated when an operation on it fails or creates it.
+ * the loaders get the admin client to use, a background refresh uses the client of a consumer which isn't released.
+ */
+class AdminMetadataCache {
+	private static final Logger logger = LoggerFactory.getLogger(AdminMetadataCache.class);
+	static final long DEFAULT_TTL_MS = 30 * 1000L;
+	static final long DEFAULT_ABSENT_TTL_MS = 5 * 1000L;
+	private static final String CLUSTER_KEY = "";
+
+	//the configs which decide what the cluster authorizes the consumer to describe.
+	private static final String[] IDENTITY_CONFIG_PREFIXES = {CommonClientConfigs.CLIENT_ID_CONFIG,
+			CommonClientConfigs.SECURITY_PROTOCOL_CONFIG, "sasl.", "ssl."};
+
+	//guarded by itself, a cache is released by the last consumer of it.
+	private static final Map<String, AdminMetadataCache> CACHES = new HashMap<>();
+
+	private final String clusterKey;
+	private final long ttlMs;
+	private final long absentTtlMs;
+	private final Time time;
+	final ConcurrentMap<String, Entry<TopicDescription>> topics = new ConcurrentHashMap<>();
+	final ConcurrentMap<String, Entry<ClusterDescription>> cluster = new ConcurrentHashMap<>();
+	private final ExecutorService refresher;
+	private final AtomicLong requests = new AtomicLong();
+	//the admin clients of the consumers which hold the cache, the writers hold CACHES.
+	final List<AdminClient> adminClients = new CopyOnWriteArrayList<>();
+
+	AdminMetadataCache(String clusterKey, long ttlMs, long absentTtlMs, Time time) {
+		this.clusterKey = clusterKey;
+		this.ttlMs = ttlMs;
+		this.absentTtlMs = absentTtlMs;
+		this.time = time;
+		this.refresher = Executors.newSingleThreadExecutor(new ClientThreadFactory("kafka-admin-metadata-refresher-"));
+	}
+
+	static AdminMetadataCache acquire(Collection<String> bootstrapServers, Map<String, ?> configs,
+			AdminClient adminClient) {
+		String clusterKey = clusterKey(bootstrapServers, configs);
+		synchronized (CACHES) {
+			AdminMetadataCache cache = CACHES.get(clusterKey);
+			if (null == cache) {
+				cache = new AdminMetadataCache(clusterKey, DEFAULT_TTL_MS, DEFAULT_ABSENT_TTL_MS, Time.SYSTEM);
+				CACHES.put(clusterKey, cache);
+			}
+			cache.adminClients.add(adminClient);
+			return cache;
+		}
+	}
+
+	static String clusterKey(Collection<String> bootstrapServers, Map<String, ?> configs) {
+		Map<String, String> identity = new TreeMap<>();
+		for (Map.Entry<String, ?> config : configs.entrySet()) {
+			for (String prefix : IDENTITY_CONFIG_PREFIXES) {
+				if (config.getKey().startsWith(prefix)) {
+					Object value = config.getValue();
+					identity.put(config.getKey(),
+							value instanceof Password ? ((Password) value).value() : String.valueOf(value));
+					break;
+				}
+			}
+		}
+		return String.valueOf(bootstrapServers) + identity;
+	}
+
+	//called by the consumer before its admin client is closed.
+	void release(AdminClient adminClient) {
+		synchronized (CACHES) {
+			adminClients.remove(adminClient);
+			if (!adminClients.isEmpty())
+				return;
+			if (CACHES.get(clusterKey) == this) {
+				CACHES.remove(clusterKey);
+			}
+		}
+		refresher.shutdownNow();
+	}
+
+	//null if the topic doesn't exist.
+	TopicDescription describeTopic(AdminClient adminClient, final String topic, final long timeoutMs)
+			throws Exception {
+		return get(topics, topic, adminClient, new Loader<TopicDescription>() {
+			@Override
+			public TopicDescription load(AdminClient adminClient) throws Exception {
+				try {
+					return adminClient.describeTopics(Collections.singletonList(topic)).all()
+							.get(timeoutMs, TimeUnit.MILLISECONDS).get(topic);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof UnknownTopicOrPartitionException)
+						return null;
+					throw e;
+				}
+			}
+		}, timeoutMs);
+	}
+
+	ClusterDescription describeCluster(AdminClient adminClient, final long timeoutMs) throws Exception {
+		return get(cluster, CLUSTER_KEY, adminClient, new Loader<ClusterDescription>() {
+			@Override
+			public ClusterDescription load(AdminClient adminClient) throws Exception {
+				DescribeClusterResult result = adminClient.describeCluster();
+				Collection<Node> nodes = result.nodes().get(timeoutMs, TimeUnit.MILLISECONDS);
+				String clusterId = result.clusterId().get(timeoutMs, TimeUnit.MILLISECONDS);
+				Node controller = result.controller().get(timeoutMs, TimeUnit.MILLISECONDS);
+				return new ClusterDescription(nodes, controller, clusterId);
+			}
+		}, timeoutMs);
+	}
+
+	void invalidateTopic(String topic) {
+		topics.remove(topic);
+	}
+
+	//the number of requests sent to the brokers.
+	long requests() {
+		return requests.get();
+	}
+
+	//the lookup loads with the admin client of the caller, the loader mustn't keep it.
+	<T> T get(final ConcurrentMap<String, Entry<T>> entries, final String key, AdminClient adminClient,
+			final Loader<T> loader, long timeoutMs) throws Exception {
+		long now = time.milliseconds();
+		Entry<T> entry = entries.get(key);
+		if (null != entry && entry.isExpired(now)) {
+			entries.remove(key, entry);
+			entry = null;
+		}
+		if (null == entry) {
+			Entry<T> created = new Entry<>(loader, adminClient);
+			entry = entries.putIfAbsent(key, created);
+			if (null == entry) {
+				entry = created;
+				requests.incrementAndGet();
+				created.task.run();
+			}
+		} else if (entry.shouldRefresh(now) && entry.refreshing.compareAndSet(false, true)) {
+			refresh(entries, key, entry, loader);
+		}
+		try {
+			return entry.task.get(timeoutMs, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			entries.remove(key, entry);
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		} catch (TimeoutException e) {
+			throw new org.apache.kafka.common.errors.TimeoutException("timed out waiting for the metadata of " + key);
+		}
+	}
+
+	private <T> void refresh(final ConcurrentMap<String, Entry<T>> entries, final String key, final Entry<T> stale,
+			final Loader<T> loader) {
+		try {
+			refresher.execute(new Runnable() {
+				@Override
+				public void run() {
+					//any held admin client describes the same, the one of the caller may be closed by now.
+					AdminClient adminClient = liveAdminClient();
+					if (null == adminClient) {
+						stale.refreshing.set(false);
+						return;
+					}
+					Entry<T> refreshed = new Entry<>(loader, adminClient);
+					requests.incrementAndGet();
+					refreshed.task.run();
+					try {
+						refreshed.task.get();
+						entries.replace(key, stale, refreshed);
+					} catch (Exception e) {
+						logger.debug("[AdminMetadataCache] failed to refresh metadata of [{}], invalidate it.", key, e);
+						entries.remove(key, stale);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			stale.refreshing.set(false);
+		}
+	}
+
+	private AdminClient liveAdminClient() {
+		//iterates a snapshot, a concurrent release doesn't fail it.
+		for (AdminClient adminClient : adminClients) {
+			return adminClient;
+		}
+		return null;
+	}
+
+	interface Loader<T> {
+		T load(AdminClient adminClient) throws Exception;
+	}
+
+	final class Entry<T> {
+		private final FutureTask<T> task;
+		private final AtomicBoolean refreshing = new AtomicBoolean(false);
+		private volatile long loadedMs = -1L;
+		private volatile boolean absent;
+
+		Entry(final Loader<T> loader, final AdminClient adminClient) {
+			this.task = new FutureTask<>(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					T value = loader.load(adminClient);
+					absent = null == value;
+					loadedMs = time.milliseconds();
+					return value;
+				}
+			});
+		}
+
+		boolean isExpired(long now) {
+			return loadedMs >= 0 && now - loadedMs >= (absent ? absentTtlMs : ttlMs);
+		}
+
+		boolean shouldRefresh(long now) {
+			return loadedMs >= 0 && !absent && now - loadedMs >= ttlMs / 2;
+		}
+	}
+}
@@ -107,12 +107,16 @@ public class ConcurrentConsumeTaskRequest<K> extends AbstractConsumeTaskRequest<
 							DelayedMessageTopic.SYS_DELAYED_TOPIC_5S.getDurationMs(), TimeUnit.MILLISECONDS);
 				}
 
-				for (ExtMessage<K> message : messages) {
+				for (int idx = 0; idx < messageSize; idx++) {
+					ExtMessage<K> message = messages.get(idx);
 					if (localRetryRecords.isEmpty()) {
 						offsets.add(message.getOffset());
 					} else if (!localRetryRecords.contains(message)) {
 						offsets.add(message.getOffset());
 					}
+					if (handlerContext.getStatusByBatchIndex(idx)) {
+						markConsumed(message);
+					}
 				}
 				logger.trace("start commitoffsets ---------------> " + offsets);
 				manager.commitOffsets(topicPartition, offsets);
@@ -120,6 +124,7 @@ public class ConcurrentConsumeTaskRequest<K> extends AbstractConsumeTaskRequest<
 			case CONSUME_SUCCESS:
 				for (ExtMessage<K> message : messages) {
 					offsets.add(message.getOffset());
+					markConsumed(message);
 				}
 				logger.trace("start commitoffsets ---------------> " + offsets);
 				manager.commitOffsets(topicPartition, offsets);
@@ -28,6 +28,12 @@ public final class ConsumeClientContext<K> {
 	public static final long DEFAULT_OFFSET_STORE_INTERVALS = 5000L;
 	public static final long CLIENT_RETRY_BACKOFF_MS = 3000L;
 	public static final long DEFAULT_MAX_MESSAGE_DEAL_TIME_MS = 60 * 60 * 1000L;
+	public static final long DEFAULT_REBALANCE_DRAIN_TIMEOUT_MS = 3000L;
+	public static final int DEFAULT_MAX_PREFETCH_BATCHES = 4;
+	public static final int DEFAULT_FILTER_PARALLELISM = 1;
+	public static final long DEFAULT_DEDUP_WINDOW_MS = 10 * 60 * 1000L;
+	public static final long DEFAULT_DEDUP_EXPECTED_KEYS = 10000000L;
+	public static final int DEFAULT_DEDUP_MAX_EXACT_KEYS = 100000;
 
 	private final Map<String, Object> innerConsumeConfig = new HashMap<>();
 	private final Map<String, Object> innerProducerConfig = new HashMap<>();
@@ -50,6 +56,14 @@ public final class ConsumeClientContext<K> {
 	private long pollMessageAwaitTimeoutMs = TIME_WAIT_FOR_POLL_REC_MS;
 	private long clientTaskRetryBackoffMs = CLIENT_RETRY_BACKOFF_MS;
 	private long maxMessageDealTimeMs = DEFAULT_MAX_MESSAGE_DEAL_TIME_MS;
+	private long rebalanceDrainTimeoutMs = DEFAULT_REBALANCE_DRAIN_TIMEOUT_MS;
+	private int maxPrefetchBatches = DEFAULT_MAX_PREFETCH_BATCHES;
+	private int filterParallelism = DEFAULT_FILTER_PARALLELISM;
+	private boolean deduplicationEnabled = false;
+	private long dedupWindowMs = DEFAULT_DEDUP_WINDOW_MS;
+	private long dedupExpectedKeys = DEFAULT_DEDUP_EXPECTED_KEYS;
+	private int dedupMaxExactKeys = DEFAULT_DEDUP_MAX_EXACT_KEYS;
+	private boolean dropDuplicatedMessage = true;
 
 	private Serializer<K> keySerializer = null;
 
@@ -79,6 +93,20 @@ public final class ConsumeClientContext<K> {
 		return maxMessageDealTimeMs;
 	}
 
+	//how long the rebalance waits for in-flight handlers before committing, keep it far below max.poll.interval.ms
+	public ConsumeClientContext rebalanceDrainTimeoutMs(long drainTime, TimeUnit unit) {
+		try {
+			rebalanceDrainTimeoutMs = unit.toMillis(drainTime);
+		} catch (Exception ex) {
+			logger.warn("setting rebalanceDrainTimeoutMs time failed, use default value. due to ", ex);
+		}
+		return this;
+	}
+
+	public long rebalanceDrainTimeoutMs() {
+		return rebalanceDrainTimeoutMs;
+	}
+
 	public ConsumeClientContext addConsumeHook(ConsumeMessageHook<K> consumeHook) {
 		if (null != consumeHook) {
 			consumeHooks.addConsumeMessageHook(consumeHook);
@@ -136,6 +164,67 @@ public final class ConsumeClientContext<K> {
 		return pollMessageAwaitTimeoutMs;
 	}
 
+	//the number of polled batches which can wait for filtering and saving, partitions are paused beyond it.
+	public ConsumeClientContext maxPrefetchBatches(int maxPrefetchBatches) {
+		this.maxPrefetchBatches = (maxPrefetchBatches < 1) ? 1 : maxPrefetchBatches;
+		return this;
+	}
+
+	public int maxPrefetchBatches() {
+		return maxPrefetchBatches;
+	}
+
+	//the number of threads evaluating message filter, 1 means filtering in the save stage thread only.
+	//the filter is called concurrently if it is larger than 1, so it must be thread safe.
+	public ConsumeClientContext filterParallelism(int filterParallelism) {
+		this.filterParallelism = (filterParallelism < 1) ? 1 : filterParallelism;
+		return this;
+	}
+
+	public int filterParallelism() {
+		return filterParallelism;
+	}
+
+	//drop the messages consumed successfully in the window, expectedKeys is the number of messages in the window.
+	public ConsumeClientContext messageDeduplication(long windowMs, long expectedKeys) {
+		this.deduplicationEnabled = true;
+		this.dedupWindowMs = (windowMs <= 0) ? DEFAULT_DEDUP_WINDOW_MS : windowMs;
+		this.dedupExpectedKeys = (expectedKeys <= 0) ? DEFAULT_DEDUP_EXPECTED_KEYS : expectedKeys;
+		return this;
+	}
+
+	public boolean isDeduplicationEnabled() {
+		return deduplicationEnabled;
+	}
+
+	public long dedupWindowMs() {
+		return dedupWindowMs;
+	}
+
+	public long dedupExpectedKeys() {
+		return dedupExpectedKeys;
+	}
+
+	//the number of recent keys kept exactly, bloom filter hits beyond them are only flagged.
+	public ConsumeClientContext dedupMaxExactKeys(int dedupMaxExactKeys) {
+		this.dedupMaxExactKeys = (dedupMaxExactKeys < 1) ? DEFAULT_DEDUP_MAX_EXACT_KEYS : dedupMaxExactKeys;
+		return this;
+	}
+
+	public int dedupMaxExactKeys() {
+		return dedupMaxExactKeys;
+	}
+
+	//if false, the duplicated messages are delivered with PROPERTY_POSSIBLE_DUPLICATED instead of being dropped.
+	public ConsumeClientContext dropDuplicatedMessage(boolean dropDuplicatedMessage) {
+		this.dropDuplicatedMessage = dropDuplicatedMessage;
+		return this;
+	}
+
+	public boolean dropDuplicatedMessage() {
+		return dropDuplicatedMessage;
+	}
+
 	public ConsumeClientContext offsetStoreIntervals(long storeIntervalsMs) {
 		this.offsetStoreIntervals = storeIntervalsMs;
 		return this;
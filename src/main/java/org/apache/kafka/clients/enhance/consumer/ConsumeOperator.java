@@ -2,6 +2,7 @@ package org.apache.kafka.clients.enhance.consumer;
 
 import org.apache.kafka.clients.enhance.AbstractExtMessageFilter;
 import org.apache.kafka.clients.enhance.ClientOperator;
+import org.apache.kafka.clients.enhance.consumer.listener.ConcurrentMessageHandler;
 import org.apache.kafka.clients.enhance.consumer.listener.ConsumeMessageHook;
 import org.apache.kafka.clients.enhance.consumer.listener.MessageHandler;
 import org.apache.kafka.common.TopicPartition;
@@ -44,6 +45,9 @@ public interface ConsumeOperator<K> extends ClientOperator {
 
 	void registerHandler(MessageHandler<K, ?> handler);
 
+	//register handlers for different tags, e.g. 'tagA||tagB' or '*'. the topic is fetched once for all of them.
+	void registerHandler(String tagExpression, ConcurrentMessageHandler<K> handler);
+
 	void addConsumeHook(ConsumeMessageHook<K> consumeHook);
 
 }
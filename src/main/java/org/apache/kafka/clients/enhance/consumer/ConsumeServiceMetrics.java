@@ -0,0 +1,54 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * metrics of the push consumer's consume service, registered in the metrics registry of the inner kafka consumer.
+ */
+class ConsumeServiceMetrics {
+	private static final Logger logger = LoggerFactory.getLogger(ConsumeServiceMetrics.class);
+	static final String METRIC_GROUP_NAME = "consume-service-metrics";
+
+	private final Metrics metrics;
+	private final List<MetricName> registeredMetrics = new ArrayList<>();
+
+	ConsumeServiceMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	Metrics registry() {
+		return metrics;
+	}
+
+	void addGauge(String name, String description, Measurable measurable) {
+		if (null == metrics)
+			return;
+		MetricName metricName = metrics.metricName(name, METRIC_GROUP_NAME, description);
+		try {
+			metrics.addMetric(metricName, measurable);
+			synchronized (registeredMetrics) {
+				registeredMetrics.add(metricName);
+			}
+		} catch (IllegalArgumentException e) {
+			logger.info("[ConsumeServiceMetrics] metric [{}] has been registered.", name);
+		}
+	}
+
+	void close() {
+		if (null == metrics)
+			return;
+		synchronized (registeredMetrics) {
+			for (MetricName metricName : registeredMetrics) {
+				metrics.removeMetric(metricName);
+			}
+			registeredMetrics.clear();
+		}
+	}
+}
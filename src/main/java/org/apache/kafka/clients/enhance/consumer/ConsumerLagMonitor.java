@@ -0,0 +1,430 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.FetchOffsetOptions;
+import org.apache.kafka.clients.admin.KafkaAdminClient;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.enhance.ClientOperator;
+import org.apache.kafka.clients.enhance.ClientThreadFactory;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.requests.ListOffsetRequest;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * monitors the lag of a consumer group and publishes it in the metrics registry, group "consumer-lag-metrics".
+ * <p>
+ * every interval the committed offsets of the group are fetched by one request to the coordinator, the end offsets
+ * of the committed partitions by one ListOffsets request per leader broker, and the timestamps of the first
+ * unconsumed messages by one fetch request per leader broker, so the cost is O(brokers) requests whatever the
+ * number of partitions. the lag in time is the age of the first unconsumed message, 0 when the partition is caught up.
+ * <p>
+ * the gauges are registered when the monitor is created and removed by shutdown, which also closes the owned admin
+ * client and metrics, so a monitor can't be started again after it is shutdown.
+ */
+public class ConsumerLagMonitor implements ClientOperator {
+	private static final Logger logger = LoggerFactory.getLogger(ConsumerLagMonitor.class);
+	static final String METRIC_GROUP_NAME = "consumer-lag-metrics";
+	public static final long DEFAULT_INTERVAL_MS = 30 * 1000L;
+	public static final int DEFAULT_TIMEOUT_MS = 10 * 1000;
+	public static final int DEFAULT_TIMESTAMP_FETCH_BYTES = 16 * 1024;
+	static final int MAX_TIMESTAMP_FETCH_BYTES = 1024 * 1024;
+
+	private final String groupId;
+	private final AdminClient adminClient;
+	private final boolean ownsAdminClient;
+	private final Metrics metrics;
+	private final boolean ownsMetrics;
+	private final String clientId;
+	private final Time time = Time.SYSTEM;
+	private long intervalMs = DEFAULT_INTERVAL_MS;
+	private int timeoutMs = DEFAULT_TIMEOUT_MS;
+	private int timestampFetchBytes = DEFAULT_TIMESTAMP_FETCH_BYTES;
+
+	private final ConcurrentMap<TopicPartition, PartitionLag> lags = new ConcurrentHashMap<>();
+	//guarded by itself.
+	private final Map<TopicPartition, List<MetricName>> partitionMetrics = new HashMap<>();
+	private final List<MetricName> groupMetrics = new ArrayList<>();
+	private final Object lock = new Object();
+	private ScheduledExecutorService executor;
+	private volatile boolean isRunning;
+	private volatile boolean isClosed;
+	private volatile boolean isSuspended;
+
+	public ConsumerLagMonitor(Map<String, Object> configs, String groupId) {
+		this(KafkaAdminClient.create(configs), true, new Metrics(), true, groupId,
+				(String) configs.get(ConsumerConfig.CLIENT_ID_CONFIG));
+	}
+
+	public ConsumerLagMonitor(Properties properties, String groupId) {
+		this(KafkaAdminClient.create(properties), true, new Metrics(), true, groupId,
+				properties.getProperty(ConsumerConfig.CLIENT_ID_CONFIG));
+	}
+
+	//the admin client and the metrics are shared, they aren't closed by the monitor.
+	public ConsumerLagMonitor(AdminClient adminClient, Metrics metrics, String groupId) {
+		this(adminClient, false, metrics, false, groupId, null);
+	}
+
+	private ConsumerLagMonitor(AdminClient adminClient, boolean ownsAdminClient, Metrics metrics, boolean ownsMetrics,
+			String groupId, String clientId) {
+		if (null == groupId || groupId.isEmpty()) {
+			throw new IllegalArgumentException("group id of lag monitor is empty.");
+		}
+		this.adminClient = adminClient;
+		this.ownsAdminClient = ownsAdminClient;
+		this.metrics = metrics;
+		this.ownsMetrics = ownsMetrics;
+		this.groupId = groupId;
+		this.clientId = null == clientId ? "lag-monitor-" + groupId : clientId;
+		addGroupGauges();
+	}
+
+	public ConsumerLagMonitor intervalMs(long intervalMs) {
+		this.intervalMs = intervalMs;
+		return this;
+	}
+
+	public ConsumerLagMonitor timeoutMs(int timeoutMs) {
+		this.timeoutMs = timeoutMs;
+		return this;
+	}
+
+	//the bytes fetched per partition for the timestamp, doubled within the interval for larger batches.
+	public ConsumerLagMonitor timestampFetchBytes(int timestampFetchBytes) {
+		this.timestampFetchBytes = timestampFetchBytes;
+		return this;
+	}
+
+	public String groupId() {
+		return groupId;
+	}
+
+	public Metrics metrics() {
+		return metrics;
+	}
+
+	//the lag of the committed partitions of the group at the last update.
+	public Map<TopicPartition, PartitionLag> lags() {
+		return Collections.unmodifiableMap(lags);
+	}
+
+	public long totalLag() {
+		long total = 0L;
+		for (PartitionLag lag : lags.values()) {
+			total += lag.lag();
+		}
+		return total;
+	}
+
+	/**
+	 * fetches the offsets and updates the lag of every committed partition, the partitions which are no longer
+	 * committed by the group are removed.
+	 */
+	void update() throws Exception {
+		FetchOffsetOptions options = new FetchOffsetOptions().timeoutMs(timeoutMs);
+		Map<TopicPartition, OffsetAndMetadata> committed = adminClient.fetchCommittedOffsets(groupId, options).values()
+				.get();
+		Map<TopicPartition, Long> latest = new HashMap<>();
+		for (TopicPartition tp : committed.keySet()) {
+			latest.put(tp, ListOffsetRequest.LATEST_TIMESTAMP);
+		}
+		Map<TopicPartition, Long> endOffsets = latest.isEmpty() ? Collections.<TopicPartition, Long>emptyMap()
+				: adminClient.fetchOffsetsByTimes(latest, options).values().get();
+
+		Map<TopicPartition, Long> lagging = new HashMap<>();
+		for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : committed.entrySet()) {
+			Long endOffset = endOffsets.get(entry.getKey());
+			if (null != endOffset && endOffset > entry.getValue().offset()) {
+				lagging.put(entry.getKey(), entry.getValue().offset());
+			}
+		}
+		Map<TopicPartition, Long> timestamps = fetchTimestamps(lagging, options);
+
+		long now = time.milliseconds();
+		for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : committed.entrySet()) {
+			TopicPartition tp = entry.getKey();
+			Long endOffset = endOffsets.get(tp);
+			if (null == endOffset || endOffset < 0)
+				continue;
+			long committedOffset = entry.getValue().offset();
+			long lagMs = 0L;
+			if (lagging.containsKey(tp)) {
+				Long timestamp = timestamps.get(tp);
+				PartitionLag last = lags.get(tp);
+				if (null == timestamp) {
+					//the batch is too large to fetch, keep the last lag in time.
+					lagMs = null == last ? -1L : last.lagMs();
+				} else if (timestamp >= 0) {
+					lagMs = Math.max(0L, now - timestamp);
+				}
+			}
+			lags.put(tp, new PartitionLag(committedOffset, endOffset, lagMs, now));
+			addPartitionGauges(tp);
+		}
+		for (TopicPartition tp : new ArrayList<>(lags.keySet())) {
+			if (!committed.containsKey(tp)) {
+				lags.remove(tp);
+				removePartitionGauges(tp);
+			}
+		}
+	}
+
+	//one fetch per leader broker, the partitions whose batch is larger than the fetch size are fetched again.
+	private Map<TopicPartition, Long> fetchTimestamps(Map<TopicPartition, Long> offsets, FetchOffsetOptions options)
+			throws Exception {
+		Map<TopicPartition, Long> timestamps = new HashMap<>();
+		Map<TopicPartition, Long> remaining = offsets;
+		int fetchBytes = timestampFetchBytes;
+		while (!remaining.isEmpty()) {
+			timestamps.putAll(adminClient.fetchTimestampsAtOffsets(remaining, fetchBytes, options).values().get());
+			if (fetchBytes >= MAX_TIMESTAMP_FETCH_BYTES)
+				break;
+			Map<TopicPartition, Long> missing = new HashMap<>();
+			for (Map.Entry<TopicPartition, Long> entry : remaining.entrySet()) {
+				if (!timestamps.containsKey(entry.getKey())) {
+					missing.put(entry.getKey(), entry.getValue());
+				}
+			}
+			remaining = missing;
+			fetchBytes = Math.min(MAX_TIMESTAMP_FETCH_BYTES, fetchBytes * 2);
+		}
+		return timestamps;
+	}
+
+	private void addGroupGauges() {
+		Map<String, String> tags = Collections.singletonMap("group", groupId);
+		addGauge(groupMetrics, "records-lag-sum", "The total lag of the group in records.", tags, new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return totalLag();
+			}
+		});
+		addGauge(groupMetrics, "records-lag-max", "The max lag in records of a partition of the group.", tags,
+				new Measurable() {
+					@Override
+					public double measure(MetricConfig config, long now) {
+						long max = 0L;
+						for (PartitionLag lag : lags.values()) {
+							max = Math.max(max, lag.lag());
+						}
+						return max;
+					}
+				});
+		addGauge(groupMetrics, "records-lag-ms-max", "The max age of the first unconsumed message of the group.", tags,
+				new Measurable() {
+					@Override
+					public double measure(MetricConfig config, long now) {
+						long max = 0L;
+						for (PartitionLag lag : lags.values()) {
+							max = Math.max(max, lag.lagMs());
+						}
+						return max;
+					}
+				});
+	}
+
+	private void addPartitionGauges(final TopicPartition tp) {
+		synchronized (partitionMetrics) {
+			if (partitionMetrics.containsKey(tp))
+				return;
+			Map<String, String> tags = new LinkedHashMap<>();
+			tags.put("group", groupId);
+			tags.put("topic", tp.topic());
+			tags.put("partition", String.valueOf(tp.partition()));
+			List<MetricName> names = new ArrayList<>(2);
+			addGauge(names, "records-lag", "The lag of the partition in records.", tags, new Measurable() {
+				@Override
+				public double measure(MetricConfig config, long now) {
+					PartitionLag lag = lags.get(tp);
+					return null == lag ? 0 : lag.lag();
+				}
+			});
+			addGauge(names, "records-lag-ms", "The age of the first unconsumed message of the partition.", tags,
+					new Measurable() {
+						@Override
+						public double measure(MetricConfig config, long now) {
+							PartitionLag lag = lags.get(tp);
+							return null == lag ? 0 : lag.lagMs();
+						}
+					});
+			partitionMetrics.put(tp, names);
+		}
+	}
+
+	private void removePartitionGauges(TopicPartition tp) {
+		synchronized (partitionMetrics) {
+			List<MetricName> names = partitionMetrics.remove(tp);
+			if (null != names) {
+				for (MetricName name : names) {
+					metrics.removeMetric(name);
+				}
+			}
+		}
+	}
+
+	private void addGauge(List<MetricName> names, String name, String description, Map<String, String> tags,
+			Measurable measurable) {
+		MetricName metricName = metrics.metricName(name, METRIC_GROUP_NAME, description, tags);
+		try {
+			metrics.addMetric(metricName, measurable);
+			names.add(metricName);
+		} catch (IllegalArgumentException e) {
+			logger.info("[ConsumerLagMonitor] metric [{}] of [{}] has been registered.", name, tags);
+		}
+	}
+
+	@Override
+	public String clientId() {
+		return clientId;
+	}
+
+	@Override
+	public void start() {
+		synchronized (lock) {
+			if (isClosed) {
+				throw new KafkaException("ConsumerLagMonitor of group " + groupId
+						+ " has been shutdown, it can't be restarted.");
+			}
+			if (isRunning) {
+				logger.info("ConsumerLagMonitor has been started.");
+				return;
+			}
+			ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1,
+					new ClientThreadFactory("kafka-consumer-lag-monitor-"));
+			scheduledExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					if (isSuspended)
+						return;
+					try {
+						update();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (Exception e) {
+						logger.warn("[ConsumerLagMonitor] failed to update the lag of group [{}].", groupId, e);
+					}
+				}
+			}, 0L, intervalMs, TimeUnit.MILLISECONDS);
+			this.executor = scheduledExecutor;
+			isRunning = true;
+			logger.info("ConsumerLagMonitor is started, group = [{}], interval = {} ms.", groupId, intervalMs);
+		}
+	}
+
+	@Override
+	public void shutdownNow() {
+		shutdown(0, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void shutdown(long timeout, TimeUnit unit) {
+		synchronized (lock) {
+			if (isClosed) {
+				logger.info("ConsumerLagMonitor has been shutdown.");
+				return;
+			}
+			isClosed = true;
+			if (isRunning) {
+				isRunning = false;
+				executor.shutdownNow();
+				try {
+					executor.awaitTermination(timeout, unit);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				executor = null;
+			}
+			synchronized (partitionMetrics) {
+				for (TopicPartition tp : new ArrayList<>(partitionMetrics.keySet())) {
+					removePartitionGauges(tp);
+				}
+			}
+			for (MetricName name : groupMetrics) {
+				metrics.removeMetric(name);
+			}
+			groupMetrics.clear();
+			lags.clear();
+			if (ownsAdminClient) {
+				adminClient.close(Math.max(0L, unit.toMillis(timeout)), TimeUnit.MILLISECONDS);
+			}
+			if (ownsMetrics) {
+				metrics.close();
+			}
+			logger.info("ConsumerLagMonitor has been closed, group = [{}].", groupId);
+		}
+	}
+
+	@Override
+	public void suspend() {
+		isSuspended = true;
+	}
+
+	@Override
+	public void resume() {
+		isSuspended = false;
+	}
+
+	/**
+	 * the lag of a partition, lagMs is -1 when the first unconsumed message couldn't be fetched yet.
+	 */
+	public static final class PartitionLag {
+		private final long committedOffset;
+		private final long endOffset;
+		private final long lagMs;
+		private final long updateMs;
+
+		PartitionLag(long committedOffset, long endOffset, long lagMs, long updateMs) {
+			this.committedOffset = committedOffset;
+			this.endOffset = endOffset;
+			this.lagMs = lagMs;
+			this.updateMs = updateMs;
+		}
+
+		public long committedOffset() {
+			return committedOffset;
+		}
+
+		public long endOffset() {
+			return endOffset;
+		}
+
+		public long lag() {
+			return Math.max(0L, endOffset - committedOffset);
+		}
+
+		public long lagMs() {
+			return lagMs;
+		}
+
+		public long updateMs() {
+			return updateMs;
+		}
+
+		@Override
+		public String toString() {
+			return "PartitionLag{committedOffset=" + committedOffset + ", endOffset=" + endOffset + ", lagMs=" + lagMs
+					+ ", updateMs=" + updateMs + "}";
+		}
+	}
+}
@@ -6,12 +6,15 @@ import org.apache.kafka.clients.enhance.*;
 import org.apache.kafka.clients.enhance.consumer.listener.ConsumeMessageHook;
 import org.apache.kafka.clients.enhance.consumer.listener.ConsumeMessageHooks;
 import org.apache.kafka.clients.enhance.exception.KafkaAdminException;
-import org.apache.kafka.common.Node;
+import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.TopicPartitionInfo;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.requests.IsolationLevel;
 import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.utils.CloseableIterator;
+import org.apache.kafka.common.utils.Time;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,8 +30,15 @@ import static org.apache.kafka.clients.enhance.ExtMessageDef.INVALID_OFFSET_VALU
  */
 class EnhanceConsumer<K> extends KafkaConsumer<K, ExtMessage<K>> implements AdminOperator<K> {
 	private static final Logger log = LoggerFactory.getLogger(EnhanceConsumer.class);
+	public static final long DEFAULT_KEY_SEARCH_WINDOW_MS = 24 * 60 * 60 * 1000L;
+	public static final int DEFAULT_KEY_SEARCH_MAX_MESSAGES = 100;
 	private AdminClient adminClient;
+	private AdminMetadataCache metadataCache;
+	private boolean metadataCacheReleased;
 	private final ReentrantLock acLock = new ReentrantLock();
+	private volatile MessageIndexService<K> messageIndex;
+	private volatile long keySearchWindowMs = DEFAULT_KEY_SEARCH_WINDOW_MS;
+	private volatile int keySearchMaxMessages = DEFAULT_KEY_SEARCH_MAX_MESSAGES;
 	private final ReentrantLock kcLock = new ReentrantLock();
 
 	public EnhanceConsumer(Map<String, Object> configs) {
@@ -51,6 +61,9 @@ class EnhanceConsumer<K> extends KafkaConsumer<K, ExtMessage<K>> implements Admi
 
 	private void initAdminClient() {
 		adminClient = KafkaAdminClient.create(this.getConsumerConfig().originals());
+		metadataCache = AdminMetadataCache.acquire(
+				this.getConsumerConfig().getList(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG),
+				this.getConsumerConfig().originals(), adminClient);
 	}
 
 	@Override
@@ -155,32 +168,26 @@ class EnhanceConsumer<K> extends KafkaConsumer<K, ExtMessage<K>> implements Admi
 
 	@Override
 	public TopicDescription describeTopic(String topic, long timeout) {
-		acLock.lock();
+		//not serialized by acLock, concurrent lookups of the topic share one request in the cache.
 		try {
-			DescribeTopicsResult result = adminClient.describeTopics(Arrays.asList(topic));
-			return result.all().get(timeout, TimeUnit.MILLISECONDS).get(topic);
+			TopicDescription description = metadataCache.describeTopic(adminClient, topic, timeout);
+			if (null == description) {
+				log.info("describe topic [{}] failed, the topic isn't exists.", topic);
+			}
+			return description;
 		} catch (Exception ex) {
-			log.info("describe topic [{}] failed, the topic isn't exists.", topic);
+			log.info("describe topic [{}] failed, caused by [{}].", topic, ex);
 			return null;
-		} finally {
-			acLock.unlock();
 		}
 	}
 
 	@Override
 	public ClusterDescription describeCluster(long timeout) {
-		acLock.lock();
 		try {
-			DescribeClusterResult result = adminClient.describeCluster();
-			Collection<Node> nodes = result.nodes().get(timeout, TimeUnit.MILLISECONDS);
-			String clusterId = result.clusterId().get(timeout, TimeUnit.MILLISECONDS);
-			Node controller = result.controller().get(timeout, TimeUnit.MILLISECONDS);
-			return new ClusterDescription(nodes, controller, clusterId);
+			return metadataCache.describeCluster(adminClient, timeout);
 		} catch (Exception ex) {
 			log.warn("describe cluster failed, caused by [{}].", ex);
 			return null;
-		} finally {
-			acLock.unlock();
 		}
 	}
 
@@ -211,6 +218,7 @@ class EnhanceConsumer<K> extends KafkaConsumer<K, ExtMessage<K>> implements Admi
 			log.error("createTopic for topic [{}] failed, caused by [{}].", newTopic, ex);
 			return false;
 		} finally {
+			metadataCache.invalidateTopic(newTopic);
 			acLock.unlock();
 		}
 	}
@@ -222,17 +230,68 @@ class EnhanceConsumer<K> extends KafkaConsumer<K, ExtMessage<K>> implements Admi
 
 	@Override
 	public boolean createTopic(String newTopic) {
-		acLock.lock();
 		try {
-			DescribeClusterResult result = adminClient.describeCluster();
-			int bNum = result.nodes().get().size();
+			int bNum = metadataCache.describeCluster(adminClient, this.requestTimeoutMs).getNodes().size();
 			short repNum = (short) ((bNum > 3) ? 3 : bNum);
 			return this.createTopic(newTopic, bNum << 1L, repNum);
 		} catch (Exception ex) {
 			log.error("createTopic for topic [{}] failed, caused by [{}].", newTopic, ex);
 			return false;
+		}
+	}
+
+	@Override
+	public Map<String, TopicProvisionResult> provisionTopics(Collection<TopicSpec> specs, long timeout)
+			throws KafkaAdminException {
+		try {
+			return new TopicProvisioner(adminClient, TopicProvisioner.DEFAULT_BATCH_SIZE,
+					TopicProvisioner.DEFAULT_MAX_IN_FLIGHT, Time.SYSTEM).provision(specs, timeout);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new KafkaAdminException(ex);
 		} finally {
-			acLock.unlock();
+			for (TopicSpec spec : specs) {
+				metadataCache.invalidateTopic(spec.name());
+			}
+		}
+	}
+
+	@Override
+	public Collection<GroupListing> listGroups(long timeout) throws KafkaAdminException {
+		try {
+			return adminClient.listGroups(new ListGroupsOptions().timeoutMs((int) timeout)).listings().get();
+		} catch (Exception ex) {
+			log.error("listGroups failed, caused by [{}].", ex);
+			throw new KafkaAdminException(ex);
+		}
+	}
+
+	@Override
+	public Map<String, GroupDescription> describeGroups(Collection<String> groupIds, long timeout)
+			throws KafkaAdminException {
+		try {
+			DescribeGroupsResult result = adminClient.describeGroups(groupIds,
+					new DescribeGroupsOptions().timeoutMs((int) timeout));
+			Map<String, GroupDescription> descriptions = new HashMap<>();
+			for (Map.Entry<String, KafkaFuture<GroupDescription>> entry : result.values().entrySet()) {
+				descriptions.put(entry.getKey(), entry.getValue().get());
+			}
+			return descriptions;
+		} catch (Exception ex) {
+			log.error("describeGroups for groups {} failed, caused by [{}].", groupIds, ex);
+			throw new KafkaAdminException(ex);
+		}
+	}
+
+	@Override
+	public Map<TopicPartition, OffsetAndMetadata> fetchCommittedOffsets(String groupId, long timeout)
+			throws KafkaAdminException {
+		try {
+			return adminClient.fetchCommittedOffsets(groupId, new FetchOffsetOptions().timeoutMs((int) timeout))
+					.values().get();
+		} catch (Exception ex) {
+			log.error("fetchCommittedOffsets for group [{}] failed, caused by [{}].", groupId, ex);
+			throw new KafkaAdminException(ex);
 		}
 	}
 
@@ -240,6 +299,9 @@ class EnhanceConsumer<K> extends KafkaConsumer<K, ExtMessage<K>> implements Admi
 	public long searchOffset(TopicPartition tp, long timestamp) {
 		if (null == tp)
 			return INVALID_OFFSET_VALUE;
+		long indexedOffset = indexedOffsetForTime(tp, timestamp);
+		if (indexedOffset >= 0)
+			return indexedOffset;
 
 		acLock.lock();
 		try {
@@ -317,11 +379,14 @@ class EnhanceConsumer<K> extends KafkaConsumer<K, ExtMessage<K>> implements Admi
 	@Override
 	public List<ExtMessage<K>> queryMessages(TopicPartition tp, long bTimestamp, int size) throws KafkaAdminException {
 		List<ExtMessage<K>> messages = new ArrayList<>();
+		long indexedOffset = indexedOffsetForTime(tp, bTimestamp);
 		acLock.lock();
 		try {
 			RetrieveRecordsOptions options = new RetrieveRecordsOptions();
 			options.timeoutMs((int) this.requestTimeoutMs);
-			RetrieveRecordsResult<K, ExtMessage<K>> result = adminClient
+			RetrieveRecordsResult<K, ExtMessage<K>> result = indexedOffset >= 0 ? adminClient
+					.retrieveMessagesByOffset(tp, indexedOffset, size, this.keyDeserializer, this.valueDeserializer,
+							options) : adminClient
 					.retrieveMessagesByTimeSpan(tp, bTimestamp, size, this.keyDeserializer, this.valueDeserializer,
 							options);
 			for (ConsumerRecord<K, ExtMessage<K>> record : result.values().get()) {
@@ -329,6 +394,7 @@ class EnhanceConsumer<K> extends KafkaConsumer<K, ExtMessage<K>> implements Admi
 			}
 		} catch (Exception e) {
 			log.error("queryMessages for TopicPartition [{}] failed, caused by [{}].", tp, e);
+			metadataCache.invalidateTopic(tp.topic());
 			throw new KafkaAdminException(e);
 		} finally {
 			acLock.unlock();
@@ -336,6 +402,176 @@ class EnhanceConsumer<K> extends KafkaConsumer<K, ExtMessage<K>> implements Admi
 		return messages;
 	}
 
+	/**
+	 * answers searchOffset, queryMessages and the queries by key from the local index, the queries which
+	 * aren't covered by the index go to the brokers. the index service is started and shutdown by the caller.
+	 */
+	public void messageIndex(MessageIndexService<K> messageIndex) {
+		this.messageIndex = messageIndex;
+	}
+
+	/**
+	 * bounds the searches of the queries by key which aren't answered by the index to the messages stored in the
+	 * last windowMs, at most maxMessages are returned. a windowMs of 0 disables the search, so the queries
+	 * return only what the index has.
+	 */
+	public void keySearch(long windowMs, int maxMessages) {
+		this.keySearchWindowMs = windowMs;
+		this.keySearchMaxMessages = maxMessages;
+	}
+
+	private long indexedOffsetForTime(TopicPartition tp, long timestamp) {
+		MessageIndexService<K> index = this.messageIndex;
+		return null == index ? INVALID_OFFSET_VALUE : index.offsetForTime(tp, timestamp);
+	}
+
+	@Override
+	public List<ExtMessage<K>> viewMessagesByKey(String topic, K key) throws KafkaAdminException {
+		MessageIndexService<K> index = this.messageIndex;
+		if (null != index && index.isIndexed(topic)) {
+			List<ExtMessage<K>> messages = viewIndexedMessages(index.offsetsForKey(topic, key), key, null);
+			if (!messages.isEmpty()) {
+				return messages;
+			}
+		}
+		MessageQuery<K> query = keySearchQuery(topic);
+		return null == query ? Collections.<ExtMessage<K>>emptyList() : searchAll(query.key(key));
+	}
+
+	@Override
+	public ExtMessage<K> viewMessageByUniqKey(String topic, String uniqKey) throws KafkaAdminException {
+		MessageIndexService<K> index = this.messageIndex;
+		List<ExtMessage<K>> messages = null;
+		if (null != index && index.isIndexed(topic)) {
+			messages = viewIndexedMessages(index.offsetsForUniqKey(topic, uniqKey), null, uniqKey);
+		}
+		if (null == messages || messages.isEmpty()) {
+			MessageQuery<K> query = keySearchQuery(topic);
+			if (null == query)
+				return null;
+			messages = searchAll(query.uniqKey(uniqKey).maxMessages(1));
+		}
+		return messages.isEmpty() ? null : messages.get(0);
+	}
+
+	//the search of the recent messages, null if it is disabled.
+	private MessageQuery<K> keySearchQuery(String topic) {
+		long windowMs = this.keySearchWindowMs;
+		if (windowMs <= 0)
+			return null;
+		long now = Time.SYSTEM.milliseconds();
+		return new MessageQuery<K>(topic, Math.max(0L, now - windowMs), Long.MAX_VALUE).maxMessages(keySearchMaxMessages);
+	}
+
+	//the index may return the records of other keys with the same hash, they are filtered out.
+	private List<ExtMessage<K>> viewIndexedMessages(Map<TopicPartition, List<Long>> offsets, K key, String uniqKey) {
+		List<ExtMessage<K>> messages = new ArrayList<>();
+		for (Map.Entry<TopicPartition, List<Long>> entry : offsets.entrySet()) {
+			for (Long offset : entry.getValue()) {
+				ExtMessage<K> message = viewMessageAt(entry.getKey(), offset);
+				if (null == message)
+					continue;
+				if (null != key && !key.equals(message.getMsgKey()))
+					continue;
+				if (null != uniqKey && !uniqKey.equals(message.getProperty(ExtMessageDef.PROPERTY_UNIQ_KEY)))
+					continue;
+				messages.add(message);
+			}
+		}
+		Collections.sort(messages, new Comparator<ExtMessage<K>>() {
+			@Override
+			public int compare(ExtMessage<K> m1, ExtMessage<K> m2) {
+				return Long.compare(m1.getStoreTimeMs(), m2.getStoreTimeMs());
+			}
+		});
+		return messages;
+	}
+
+	//the batch containing the offset is fetched, the records before the offset are skipped.
+	private ExtMessage<K> viewMessageAt(TopicPartition tp, long offset) {
+		ScanRecordsOptions options = new ScanRecordsOptions().fetchMaxBytes(MessageQuery.DEFAULT_FETCH_BYTES)
+				.prefetchFetches(1);
+		options.timeoutMs((int) this.requestTimeoutMs);
+		try (MessageScanner<K, ExtMessage<K>> scanner = adminClient
+				.scanMessagesByOffset(tp, offset, offset + 1, this.keyDeserializer, this.valueDeserializer, options)) {
+			if (!scanner.hasNext())
+				return null;
+			ConsumerRecord<K, ExtMessage<K>> record = scanner.next();
+			return ExtMessageUtils.updateByRecord(record.value(), record);
+		} catch (Exception e) {
+			log.error("viewMessage for TopicPartition [{}] at [{}] failed, caused by [{}].", tp, offset, e);
+			throw new KafkaAdminException(e);
+		}
+	}
+
+	private List<ExtMessage<K>> searchAll(MessageQuery<K> query) {
+		List<ExtMessage<K>> messages = new ArrayList<>();
+		try (CloseableIterator<ExtMessage<K>> iterator = searchMessages(query)) {
+			while (iterator.hasNext()) {
+				messages.add(iterator.next());
+			}
+		} catch (KafkaAdminException e) {
+			throw e;
+		} catch (Exception e) {
+			log.error("searchMessages [{}] failed, caused by [{}].", query, e);
+			throw new KafkaAdminException(e);
+		}
+		return messages;
+	}
+
+	@Override
+	public CloseableIterator<ExtMessage<K>> searchMessages(final MessageQuery<K> query) throws KafkaAdminException {
+		TopicDescription description = describeTopic(query.topic(), this.requestTimeoutMs);
+		if (null == description) {
+			throw new KafkaAdminException("topic [" + query.topic() + "] isn't exists.");
+		}
+		List<TopicPartition> partitions = new ArrayList<>();
+		for (TopicPartitionInfo partitionInfo : description.partitions()) {
+			partitions.add(new TopicPartition(query.topic(), partitionInfo.partition()));
+		}
+		ScanRecordsOptions options = new ScanRecordsOptions().fetchMaxBytes(query.fetchBytes())
+				.maxBufferedBytes(query.maxBufferedBytes());
+		options.timeoutMs((int) this.requestTimeoutMs);
+		final CloseableIterator<ConsumerRecord<K, ExtMessage<K>>> records;
+		//not serialized by acLock, the requests of concurrent searches are multiplexed by the admin client.
+		try {
+			records = adminClient.searchMessages(partitions, query.bTimestamp(), query.eTimestamp(),
+					this.keyDeserializer, this.valueDeserializer, query, options);
+		} catch (Exception e) {
+			log.error("searchMessages [{}] failed, caused by [{}].", query, e);
+			metadataCache.invalidateTopic(query.topic());
+			throw new KafkaAdminException(e);
+		}
+		return new CloseableIterator<ExtMessage<K>>() {
+			private int returned = 0;
+
+			@Override
+			public boolean hasNext() {
+				return returned < query.maxMessages() && records.hasNext();
+			}
+
+			@Override
+			public ExtMessage<K> next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				ConsumerRecord<K, ExtMessage<K>> record = records.next();
+				returned++;
+				return ExtMessageUtils.updateByRecord(record.value(), record);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void close() {
+				records.close();
+			}
+		};
+	}
+
 	@Override
 	public ConsumerRecords<K, ExtMessage<K>> poll(long timeout) {
 		ConsumerRecords<K, ExtMessage<K>> records = null;
@@ -546,6 +782,7 @@ class EnhanceConsumer<K> extends KafkaConsumer<K, ExtMessage<K>> implements Admi
 			super.close();
 		} finally {
 			kcLock.unlock();
+			releaseMetadataCache();
 		}
 	}
 
@@ -556,6 +793,14 @@ class EnhanceConsumer<K> extends KafkaConsumer<K, ExtMessage<K>> implements Admi
 			super.close(timeout, timeUnit);
 		} finally {
 			kcLock.unlock();
+			releaseMetadataCache();
+		}
+	}
+
+	private synchronized void releaseMetadataCache() {
+		if (!metadataCacheReleased) {
+			metadataCacheReleased = true;
+			metadataCache.release(adminClient);
 		}
 	}
 
@@ -0,0 +1,391 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.DescribeGroupsOptions;
+import org.apache.kafka.clients.admin.FetchOffsetOptions;
+import org.apache.kafka.clients.admin.GroupDescription;
+import org.apache.kafka.clients.admin.GroupListing;
+import org.apache.kafka.clients.admin.KafkaAdminClient;
+import org.apache.kafka.clients.admin.ListGroupsOptions;
+import org.apache.kafka.clients.admin.MemberDescription;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.enhance.ClientOperator;
+import org.apache.kafka.clients.enhance.ClientThreadFactory;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a cached view of the groups of a cluster, the groups, their members, assignments and committed offsets are
+ * served from memory and refreshed in background, so dashboards can poll many groups without sending requests.
+ * <p>
+ * every interval the groups are described by one DescribeGroups request per coordinator. the group list is taken
+ * by one ListGroups request per broker every listIntervalMs, unless the groups are given. the committed offsets
+ * take one request per group, so they are refreshed incrementally: at most maxOffsetFetches groups per interval,
+ * the groups whose state or assignment changed first, then the groups with the oldest offsets.
+ * <p>
+ * shutdown closes the owned admin client, so an inspector can't be started again after it is shutdown.
+ */
+public class GroupInspector implements ClientOperator {
+	private static final Logger logger = LoggerFactory.getLogger(GroupInspector.class);
+	public static final long DEFAULT_INTERVAL_MS = 5 * 1000L;
+	public static final long DEFAULT_LIST_INTERVAL_MS = 60 * 1000L;
+	public static final int DEFAULT_TIMEOUT_MS = 10 * 1000;
+	public static final int DEFAULT_MAX_OFFSET_FETCHES = 50;
+	private static final String DEAD_STATE = "Dead";
+
+	private final AdminClient adminClient;
+	private final boolean ownsAdminClient;
+	private final String clientId;
+	private final Time time;
+	private long intervalMs = DEFAULT_INTERVAL_MS;
+	private long listIntervalMs = DEFAULT_LIST_INTERVAL_MS;
+	private int timeoutMs = DEFAULT_TIMEOUT_MS;
+	private int maxOffsetFetches = DEFAULT_MAX_OFFSET_FETCHES;
+	private volatile Set<String> watchedGroups;
+
+	private final ConcurrentMap<String, GroupView> views = new ConcurrentHashMap<>();
+	private Set<String> listedGroups = Collections.emptySet();
+	private long listedMs = -1L;
+	private final Object lock = new Object();
+	private ScheduledExecutorService executor;
+	private volatile boolean isRunning;
+	private volatile boolean isClosed;
+	private volatile boolean isSuspended;
+
+	public GroupInspector(Map<String, Object> configs) {
+		this(KafkaAdminClient.create(configs), true, (String) configs.get(ConsumerConfig.CLIENT_ID_CONFIG), Time.SYSTEM);
+	}
+
+	public GroupInspector(Properties properties) {
+		this(KafkaAdminClient.create(properties), true, properties.getProperty(ConsumerConfig.CLIENT_ID_CONFIG),
+				Time.SYSTEM);
+	}
+
+	//the admin client is shared, it isn't closed by the inspector.
+	public GroupInspector(AdminClient adminClient) {
+		this(adminClient, false, null, Time.SYSTEM);
+	}
+
+	GroupInspector(AdminClient adminClient, boolean ownsAdminClient, String clientId, Time time) {
+		this.adminClient = adminClient;
+		this.ownsAdminClient = ownsAdminClient;
+		this.clientId = null == clientId ? "group-inspector" : clientId;
+		this.time = time;
+	}
+
+	public GroupInspector intervalMs(long intervalMs) {
+		this.intervalMs = intervalMs;
+		return this;
+	}
+
+	public GroupInspector listIntervalMs(long listIntervalMs) {
+		this.listIntervalMs = listIntervalMs;
+		return this;
+	}
+
+	public GroupInspector timeoutMs(int timeoutMs) {
+		this.timeoutMs = timeoutMs;
+		return this;
+	}
+
+	//the max number of groups whose committed offsets are fetched per interval.
+	public GroupInspector maxOffsetFetches(int maxOffsetFetches) {
+		this.maxOffsetFetches = maxOffsetFetches;
+		return this;
+	}
+
+	//inspects the given groups only instead of listing the groups of the cluster, null for all the groups.
+	public GroupInspector watch(Collection<String> groupIds) {
+		this.watchedGroups = null == groupIds ? null : Collections.unmodifiableSet(new HashSet<>(groupIds));
+		return this;
+	}
+
+	//the view of the group at the last refresh, null if it isn't described yet.
+	public GroupView group(String groupId) {
+		return views.get(groupId);
+	}
+
+	public Map<String, GroupView> groups() {
+		return Collections.unmodifiableMap(new HashMap<>(views));
+	}
+
+	/**
+	 * describes the groups and fetches the committed offsets of the groups which need them most. a group which
+	 * fails keeps its last view with the error.
+	 */
+	void refresh() throws InterruptedException {
+		long now = time.milliseconds();
+		Set<String> groupIds = watchedGroups;
+		if (null == groupIds) {
+			groupIds = listGroups(now);
+		}
+		views.keySet().retainAll(groupIds);
+		if (groupIds.isEmpty())
+			return;
+
+		Map<String, KafkaFuture<GroupDescription>> described = adminClient.describeGroups(groupIds,
+				new DescribeGroupsOptions().timeoutMs(timeoutMs)).values();
+		List<GroupView> changed = new ArrayList<>();
+		List<GroupView> unchanged = new ArrayList<>();
+		for (Map.Entry<String, KafkaFuture<GroupDescription>> entry : described.entrySet()) {
+			GroupView last = views.get(entry.getKey());
+			GroupView view;
+			try {
+				GroupDescription description = entry.getValue().get();
+				if (null == last) {
+					view = new GroupView(description, Collections.<TopicPartition, OffsetAndMetadata>emptyMap(), now, -1L,
+							null);
+					changed.add(view);
+				} else {
+					view = new GroupView(description, last.committedOffsets, now, last.offsetsMs, null);
+					if (isSameState(last.description, description))
+						unchanged.add(view);
+					else
+						changed.add(view);
+				}
+			} catch (ExecutionException e) {
+				logger.warn("[GroupInspector] failed to describe group [{}].", entry.getKey(), e.getCause());
+				if (null == last)
+					continue;
+				view = new GroupView(last.description, last.committedOffsets, last.describedMs, last.offsetsMs,
+						e.getCause());
+			}
+			views.put(entry.getKey(), view);
+		}
+		fetchOffsets(offsetCandidates(changed, unchanged), now);
+	}
+
+	private Set<String> listGroups(long now) throws InterruptedException {
+		if (listedMs >= 0 && now - listedMs < listIntervalMs)
+			return listedGroups;
+		try {
+			Set<String> groupIds = new HashSet<>();
+			for (GroupListing listing : adminClient.listGroups(new ListGroupsOptions().timeoutMs(timeoutMs)).listings()
+					.get()) {
+				groupIds.add(listing.groupId());
+			}
+			listedGroups = groupIds;
+			listedMs = now;
+		} catch (ExecutionException e) {
+			//the last listed groups are described, the list is taken again at the next refresh.
+			logger.warn("[GroupInspector] failed to list groups.", e.getCause());
+		}
+		return listedGroups;
+	}
+
+	//the changed groups first, then the groups with the oldest offsets, the dead groups have no offsets.
+	private List<GroupView> offsetCandidates(List<GroupView> changed, List<GroupView> unchanged) {
+		Collections.sort(unchanged, new Comparator<GroupView>() {
+			@Override
+			public int compare(GroupView o1, GroupView o2) {
+				return Long.compare(o1.offsetsMs, o2.offsetsMs);
+			}
+		});
+		List<GroupView> candidates = new ArrayList<>(maxOffsetFetches);
+		for (List<GroupView> group : Arrays.asList(changed, unchanged)) {
+			for (GroupView view : group) {
+				if (candidates.size() >= maxOffsetFetches)
+					return candidates;
+				if (!DEAD_STATE.equals(view.description.state()))
+					candidates.add(view);
+			}
+		}
+		return candidates;
+	}
+
+	//the fetches are sent together, the requests to the same coordinator are pipelined by the admin client.
+	private void fetchOffsets(List<GroupView> candidates, long now) throws InterruptedException {
+		FetchOffsetOptions options = new FetchOffsetOptions().timeoutMs(timeoutMs);
+		Map<String, KafkaFuture<Map<TopicPartition, OffsetAndMetadata>>> fetches = new HashMap<>();
+		for (GroupView view : candidates) {
+			fetches.put(view.groupId(), adminClient.fetchCommittedOffsets(view.groupId(), options).values());
+		}
+		for (GroupView view : candidates) {
+			try {
+				Map<TopicPartition, OffsetAndMetadata> offsets = fetches.get(view.groupId()).get();
+				views.replace(view.groupId(), view, new GroupView(view.description,
+						Collections.unmodifiableMap(offsets), view.describedMs, now, null));
+			} catch (ExecutionException e) {
+				logger.warn("[GroupInspector] failed to fetch the offsets of group [{}].", view.groupId(), e.getCause());
+				views.replace(view.groupId(), view, new GroupView(view.description, view.committedOffsets,
+						view.describedMs, view.offsetsMs, e.getCause()));
+			}
+		}
+	}
+
+	//true if the group has the same state, protocol and members with the same assignments.
+	static boolean isSameState(GroupDescription last, GroupDescription current) {
+		if (!last.state().equals(current.state()) || !last.protocol().equals(current.protocol())
+				|| last.members().size() != current.members().size())
+			return false;
+		Map<String, List<TopicPartition>> assignments = new HashMap<>();
+		for (MemberDescription member : last.members()) {
+			assignments.put(member.memberId(), member.assignment());
+		}
+		for (MemberDescription member : current.members()) {
+			List<TopicPartition> assignment = assignments.get(member.memberId());
+			if (null == assignment || !assignment.equals(member.assignment()))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String clientId() {
+		return clientId;
+	}
+
+	@Override
+	public void start() {
+		synchronized (lock) {
+			if (isClosed) {
+				throw new KafkaException("GroupInspector has been shutdown, it can't be restarted.");
+			}
+			if (isRunning) {
+				logger.info("GroupInspector has been started.");
+				return;
+			}
+			ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1,
+					new ClientThreadFactory("kafka-group-inspector-")) {
+				//the views are cleared after the last refresh, which may still be running when shutdown returns.
+				@Override
+				protected void terminated() {
+					views.clear();
+					listedGroups = Collections.emptySet();
+					listedMs = -1L;
+				}
+			};
+			scheduledExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					if (isSuspended)
+						return;
+					try {
+						refresh();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} catch (Exception e) {
+						logger.warn("[GroupInspector] failed to refresh the groups.", e);
+					}
+				}
+			}, 0L, intervalMs, TimeUnit.MILLISECONDS);
+			this.executor = scheduledExecutor;
+			isRunning = true;
+			logger.info("GroupInspector is started, interval = {} ms.", intervalMs);
+		}
+	}
+
+	@Override
+	public void shutdownNow() {
+		shutdown(0, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void shutdown(long timeout, TimeUnit unit) {
+		synchronized (lock) {
+			if (isClosed) {
+				logger.info("GroupInspector has been shutdown.");
+				return;
+			}
+			isClosed = true;
+			if (isRunning) {
+				isRunning = false;
+				executor.shutdownNow();
+				try {
+					executor.awaitTermination(timeout, unit);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				executor = null;
+			}
+			if (ownsAdminClient) {
+				adminClient.close(Math.max(0L, unit.toMillis(timeout)), TimeUnit.MILLISECONDS);
+			}
+			logger.info("GroupInspector has been closed.");
+		}
+	}
+
+	@Override
+	public void suspend() {
+		isSuspended = true;
+	}
+
+	@Override
+	public void resume() {
+		isSuspended = false;
+	}
+
+	/**
+	 * the view of a group, offsetsMs is -1 until the committed offsets are fetched. error is the failure of the
+	 * last refresh, the description and the offsets are then the ones of the refresh before.
+	 */
+	public static final class GroupView {
+		private final GroupDescription description;
+		private final Map<TopicPartition, OffsetAndMetadata> committedOffsets;
+		private final long describedMs;
+		private final long offsetsMs;
+		private final Throwable error;
+
+		GroupView(GroupDescription description, Map<TopicPartition, OffsetAndMetadata> committedOffsets,
+				long describedMs, long offsetsMs, Throwable error) {
+			this.description = description;
+			this.committedOffsets = committedOffsets;
+			this.describedMs = describedMs;
+			this.offsetsMs = offsetsMs;
+			this.error = error;
+		}
+
+		public String groupId() {
+			return description.groupId();
+		}
+
+		public GroupDescription description() {
+			return description;
+		}
+
+		public Map<TopicPartition, OffsetAndMetadata> committedOffsets() {
+			return committedOffsets;
+		}
+
+		public long describedMs() {
+			return describedMs;
+		}
+
+		public long offsetsMs() {
+			return offsetsMs;
+		}
+
+		public Throwable error() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return "GroupView{description=" + description + ", committedOffsets=" + committedOffsets + ", describedMs="
+					+ describedMs + ", offsetsMs=" + offsetsMs + ", error=" + error + "}";
+		}
+	}
+}
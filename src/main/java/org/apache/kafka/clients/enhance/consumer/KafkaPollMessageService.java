@@ -3,6 +3,7 @@ package org.apache.kafka.clients.enhance.consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.enhance.AbstractExtMessageFilter;
+import org.apache.kafka.clients.enhance.ClientThreadFactory;
 import org.apache.kafka.clients.enhance.ExtMessage;
 import org.apache.kafka.clients.enhance.ShutdownableThread;
 import org.apache.kafka.common.KafkaException;
@@ -11,30 +12,67 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static org.apache.kafka.clients.enhance.ExtMessageDef.INVALID_OFFSET_VALUE;
 
 class KafkaPollMessageService<K> extends ShutdownableThread {
 	private final static Logger logger = LoggerFactory.getLogger(KafkaPollMessageService.class);
+	final static int FILTER_CHUNK_SIZE = 256;
 
 	private final EnhanceConsumer<K> safeConsumer;
 	private final PartitionDataManager<K, ExtMessage<K>> partitionDataManager;
 	private final ConsumeClientContext<K> clientContext;
 	private final ReentrantLock consumeServiceLock;
+	private final ArrayBlockingQueue<PrefetchedRecords<K>> prefetchQueue;
+	private final SaveMessageService saveService;
+	private final MessageDeduplicator<K> messageDeduplicator;
+	//evaluates message filter in parallel, created when a filter which isn't permitAll is used at first.
+	private final Object filterServiceLock = new Object();
+	private ExecutorService filterService;
+	private boolean isFilterServiceClosed = false;
+	//partitions paused by this service because of backpressure, user suspending isn't included.
+	private final Set<TopicPartition> backpressurePaused = new HashSet<>();
 
 	private volatile boolean isRunning = false;
 	private volatile boolean isSuspend = false;
 
 	public KafkaPollMessageService(String serviceName, EnhanceConsumer<K> safeConsumer,
 			PartitionDataManager<K, ExtMessage<K>> partitionDataManager, ConsumeClientContext<K> clientContext,
-			ReentrantLock consumeServiceLock) {
+			ReentrantLock consumeServiceLock, MessageDeduplicator<K> messageDeduplicator) {
 		super(serviceName);
+		this.messageDeduplicator = messageDeduplicator;
 		this.safeConsumer = safeConsumer;
 		this.clientContext = clientContext;
 		this.partitionDataManager = partitionDataManager;
 		this.consumeServiceLock = consumeServiceLock;
+		this.prefetchQueue = new ArrayBlockingQueue<>(clientContext.maxPrefetchBatches());
+		this.saveService = new SaveMessageService(serviceName + "-save-stage");
+	}
+
+	//null if filter parallelism is 1 or the service has been shutdown.
+	private ExecutorService filterService() {
+		if (clientContext.filterParallelism() <= 1)
+			return null;
+		synchronized (filterServiceLock) {
+			if (null == filterService && !isFilterServiceClosed) {
+				filterService = Executors.newFixedThreadPool(clientContext.filterParallelism(),
+						new ClientThreadFactory(getName() + "-filter-"));
+			}
+			return filterService;
+		}
+	}
+
+	//records polled in one round, and the epochs of their partition data at polling time.
+	private static final class PrefetchedRecords<K> {
+		private final ConsumerRecords<K, ExtMessage<K>> records;
+		private final Map<TopicPartition, Long> epochs;
+
+		private PrefetchedRecords(ConsumerRecords<K, ExtMessage<K>> records, Map<TopicPartition, Long> epochs) {
+			this.records = records;
+			this.epochs = epochs;
+		}
 	}
 
 	public void stopPollingMessage() {
@@ -53,6 +91,7 @@ class KafkaPollMessageService<K> extends ShutdownableThread {
 		consumeServiceLock.lock();
 		try {
 			safeConsumer.resume(safeConsumer.assignment());
+			backpressurePaused.clear();
 			isSuspend = false;
 		} catch (Exception ex) {
 			logger.warn("KafkaPollMessageService resume polling message error. due to ", ex);
@@ -61,44 +100,37 @@ class KafkaPollMessageService<K> extends ShutdownableThread {
 		}
 	}
 
+	//poll stage: the lock is only held during polling, filtering and saving are done by the save stage.
 	@Override
 	public void doWork() {
 		while (isRunning) {
 			try {
 				if (!isSuspend && consumeServiceLock
 						.tryLock(clientContext.pollMessageAwaitTimeoutMs(), TimeUnit.MILLISECONDS)) {
+					PrefetchedRecords<K> prefetched = null;
 					try {
-						ConsumerRecords<K, ExtMessage<K>> records = safeConsumer
-								.poll(clientContext.pollMessageAwaitTimeoutMs());
-						logger.debug("KafkaPollMessageService retrieve no messages [{}] and records count {}.",
-								records.isEmpty(), records.count());
-						//filter messages
-						Map<TopicPartition, Long> highWaterMarks = new HashMap<>();
-						ConsumerRecords<K, ExtMessage<K>> filterMessages = filterMessage(records,
-								clientContext.messageFilter(), highWaterMarks);
-						Set<TopicPartition> needPausePartitions = partitionDataManager
-								.saveConsumerRecords(filterMessages, highWaterMarks);
-
-						Set<TopicPartition> pausedPartitions = safeConsumer.paused();
-						if (!pausedPartitions.isEmpty()) {
-							Set<TopicPartition> needResumePartitions = new HashSet<>();
-							for (TopicPartition tp : pausedPartitions) {
-								if (!needPausePartitions.contains(tp)) {
-									needResumePartitions.add(tp);
-								}
+						if (!isSuspend) {
+							updateBackpressurePaused();
+							ConsumerRecords<K, ExtMessage<K>> records = safeConsumer
+									.poll(clientContext.pollMessageAwaitTimeoutMs());
+							logger.debug("KafkaPollMessageService retrieve no messages [{}] and records count {}.",
+									records.isEmpty(), records.count());
+							if (!records.isEmpty()) {
+								prefetched = new PrefetchedRecords<>(records,
+										partitionDataManager.partitionEpochs(records.partitions()));
 							}
-							if (!needResumePartitions.isEmpty()) {
-								safeConsumer.resume(needResumePartitions);
-							}
-						}
-						if (null != needPausePartitions && !needPausePartitions.isEmpty()) {
-							safeConsumer.pause(needPausePartitions);
 						}
 					} catch (Throwable t) {
 						logger.warn("KafkaPollMessageService error. due to ", t);
 					} finally {
 						consumeServiceLock.unlock();
 					}
+					if (null != prefetched) {
+						while (isRunning && !prefetchQueue
+								.offer(prefetched, clientContext.pollMessageAwaitTimeoutMs(), TimeUnit.MILLISECONDS)) {
+							logger.debug("KafkaPollMessageService prefetch queue is full, wait for save stage.");
+						}
+					}
 				} else {
 					TimeUnit.MILLISECONDS.sleep(clientContext.pollMessageAwaitTimeoutMs());
 				}
@@ -109,7 +141,71 @@ class KafkaPollMessageService<K> extends ShutdownableThread {
 		}
 	}
 
-	private ConsumerRecords<K, ExtMessage<K>> filterMessage(ConsumerRecords<K, ExtMessage<K>> records,
+	//pause the partitions whose records couldn't be saved, and all partitions if the prefetch queue is full.
+	//the consumer keeps polling, so the group membership isn't affected by slow handlers.
+	private void updateBackpressurePaused() {
+		Set<TopicPartition> needPausePartitions = (prefetchQueue.remainingCapacity() == 0) ? new HashSet<>(
+				safeConsumer.assignment()) : partitionDataManager.pendingSavePartitions();
+		Set<TopicPartition> pausedPartitions = safeConsumer.paused();
+
+		List<TopicPartition> toPause = new ArrayList<>();
+		for (TopicPartition tp : needPausePartitions) {
+			if (!pausedPartitions.contains(tp)) {
+				toPause.add(tp);
+			}
+		}
+		List<TopicPartition> toResume = new ArrayList<>();
+		for (TopicPartition tp : backpressurePaused) {
+			if (!needPausePartitions.contains(tp) && pausedPartitions.contains(tp)) {
+				toResume.add(tp);
+			}
+		}
+
+		if (!toResume.isEmpty()) {
+			safeConsumer.resume(toResume);
+		}
+		if (!toPause.isEmpty()) {
+			safeConsumer.pause(toPause);
+		}
+		backpressurePaused.clear();
+		backpressurePaused.addAll(needPausePartitions);
+	}
+
+	//save stage: filter the prefetched records and put them into partition data asynchronously.
+	private class SaveMessageService extends ShutdownableThread {
+
+		SaveMessageService(String name) {
+			super(name);
+		}
+
+		@Override
+		public void doWork() {
+			try {
+				PrefetchedRecords<K> prefetched = prefetchQueue
+						.poll(clientContext.pollMessageAwaitTimeoutMs(), TimeUnit.MILLISECONDS);
+				if (null == prefetched) {
+					//retry the records which couldn't be saved last time.
+					partitionDataManager.saveConsumerRecords(null, Collections.<TopicPartition, Long>emptyMap());
+					return;
+				}
+				Map<TopicPartition, Long> highWaterMarks = new HashMap<>();
+				ConsumerRecords<K, ExtMessage<K>> filterMessages = filterMessage(prefetched.records,
+						clientContext.messageFilter(), highWaterMarks);
+				if (null != messageDeduplicator) {
+					filterMessages = messageDeduplicator.deduplicate(filterMessages, highWaterMarks);
+				}
+				partitionDataManager.saveConsumerRecords(filterMessages, highWaterMarks, prefetched.epochs);
+			} catch (InterruptedException e) {
+				logger.info("KafkaPollMessageService save stage is interrupted.");
+				Thread.currentThread().interrupt();
+			} catch (Throwable t) {
+				logger.warn("KafkaPollMessageService save stage error. due to ", t);
+			}
+		}
+	}
+
+	//the filter is called by the filter threads concurrently if filter parallelism is larger than 1.
+	ConsumerRecords<K, ExtMessage<K>> filterMessage(ConsumerRecords<K, ExtMessage<K>> records,
 			AbstractExtMessageFilter<K> filter, Map<TopicPartition, Long> highWaterMarks) {
 		if (null == records || records.isEmpty())
 			return records;
@@ -117,25 +213,89 @@ class KafkaPollMessageService<K> extends ShutdownableThread {
 			return records;
 		}
 
-		Map<TopicPartition, List<ConsumerRecord<K, ExtMessage<K>>>> filterRecords = new HashMap<>(records.count());
 		Set<TopicPartition> tps = records.partitions();
+		Map<TopicPartition, List<ConsumerRecord<K, ExtMessage<K>>>> filterRecords = new HashMap<>(tps.size());
+		ExecutorService filterService = (records.count() <= FILTER_CHUNK_SIZE) ? null : filterService();
+		if (null == filterService) {
+			for (TopicPartition tp : tps) {
+				List<ConsumerRecord<K, ExtMessage<K>>> partitionRecords = records.records(tp);
+				highWaterMarks.put(tp, maxOffset(partitionRecords));
+				filterRecords.put(tp, filterChunk(filter, partitionRecords));
+			}
+			return new ConsumerRecords<>(filterRecords);
+		}
+
+		//split every partition into chunks, the results of chunks are joined in submitting order,
+		//so the order of records in one partition is kept.
+		Map<TopicPartition, List<Future<List<ConsumerRecord<K, ExtMessage<K>>>>>> futures = new HashMap<>(tps.size());
 		for (TopicPartition tp : tps) {
-			ArrayList<ConsumerRecord<K, ExtMessage<K>>> filterRecordsByPartition = new ArrayList<>();
 			List<ConsumerRecord<K, ExtMessage<K>>> partitionRecords = records.records(tp);
-			long maxOffsetInPartition = INVALID_OFFSET_VALUE;
-			for (ConsumerRecord<K, ExtMessage<K>> partitionRecord : partitionRecords) {
-				maxOffsetInPartition = Math.max(maxOffsetInPartition,partitionRecord.offset());
-				if (filter.canDeliveryMessage(partitionRecord.value(), partitionRecord.headers())) {
-					filterRecordsByPartition.add(partitionRecord);
-				}
+			highWaterMarks.put(tp, maxOffset(partitionRecords));
+			List<Future<List<ConsumerRecord<K, ExtMessage<K>>>>> chunkFutures = new ArrayList<>();
+			for (int from = 0; from < partitionRecords.size(); from += FILTER_CHUNK_SIZE) {
+				List<ConsumerRecord<K, ExtMessage<K>>> chunk = partitionRecords
+						.subList(from, Math.min(from + FILTER_CHUNK_SIZE, partitionRecords.size()));
+				chunkFutures.add(filterService.submit(new FilterChunkTask(filter, chunk)));
 			}
-			highWaterMarks.put(tp, maxOffsetInPartition);
-			filterRecords.put(tp, filterRecordsByPartition);
+			futures.put(tp, chunkFutures);
 		}
 
+		for (Map.Entry<TopicPartition, List<Future<List<ConsumerRecord<K, ExtMessage<K>>>>>> entry : futures
+				.entrySet()) {
+			ArrayList<ConsumerRecord<K, ExtMessage<K>>> filterRecordsByPartition = new ArrayList<>();
+			for (Future<List<ConsumerRecord<K, ExtMessage<K>>>> chunkFuture : entry.getValue()) {
+				filterRecordsByPartition.addAll(awaitChunk(chunkFuture));
+			}
+			filterRecords.put(entry.getKey(), filterRecordsByPartition);
+		}
 		return new ConsumerRecords<>(filterRecords);
 	}
 
+	private List<ConsumerRecord<K, ExtMessage<K>>> awaitChunk(Future<List<ConsumerRecord<K, ExtMessage<K>>>> chunkFuture) {
+		try {
+			return chunkFuture.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new KafkaException("filtering message is interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new KafkaException("filtering message failed.", e.getCause());
+		}
+	}
+
+	private static <K> long maxOffset(List<ConsumerRecord<K, ExtMessage<K>>> partitionRecords) {
+		long maxOffsetInPartition = INVALID_OFFSET_VALUE;
+		for (ConsumerRecord<K, ExtMessage<K>> partitionRecord : partitionRecords) {
+			maxOffsetInPartition = Math.max(maxOffsetInPartition, partitionRecord.offset());
+		}
+		return maxOffsetInPartition;
+	}
+
+	private static <K> List<ConsumerRecord<K, ExtMessage<K>>> filterChunk(AbstractExtMessageFilter<K> filter,
+			List<ConsumerRecord<K, ExtMessage<K>>> chunk) {
+		ArrayList<ConsumerRecord<K, ExtMessage<K>>> filtered = new ArrayList<>(chunk.size());
+		for (ConsumerRecord<K, ExtMessage<K>> partitionRecord : chunk) {
+			if (filter.canDeliveryMessage(partitionRecord.value(), partitionRecord.headers())) {
+				filtered.add(partitionRecord);
+			}
+		}
+		return filtered;
+	}
+
+	private class FilterChunkTask implements Callable<List<ConsumerRecord<K, ExtMessage<K>>>> {
+		private final AbstractExtMessageFilter<K> filter;
+		private final List<ConsumerRecord<K, ExtMessage<K>>> chunk;
+
+		FilterChunkTask(AbstractExtMessageFilter<K> filter, List<ConsumerRecord<K, ExtMessage<K>>> chunk) {
+			this.filter = filter;
+			this.chunk = chunk;
+		}
+
+		@Override
+		public List<ConsumerRecord<K, ExtMessage<K>>> call() throws Exception {
+			return filterChunk(filter, chunk);
+		}
+	}
+
 	@Override
 	public void start() {
 		if (!isRunning) {
@@ -143,6 +303,7 @@ class KafkaPollMessageService<K> extends ShutdownableThread {
 				if (!isRunning) {
 					isRunning = true;
 					try {
+						saveService.start();
 						super.start();
 					} catch (Exception e) {
 						logger.warn("start KafkaPollMessageService service error. due to ", e);
@@ -165,11 +326,22 @@ class KafkaPollMessageService<K> extends ShutdownableThread {
 					if (isAlive()) {
 						super.shutdown();
 					}
+					if (saveService.isAlive()) {
+						saveService.shutdown();
+					}
+					prefetchQueue.clear();
 				}
 			}
 		} else {
 			logger.info("KafkaPollMessageService has been shutdown.");
 		}
+		//released even if the service isn't started, since filterMessage may create it.
+		synchronized (filterServiceLock) {
+			isFilterServiceClosed = true;
+			if (null != filterService) {
+				filterService.shutdownNow();
+			}
+		}
 	}
 
 }
@@ -4,6 +4,7 @@ import org.apache.kafka.clients.enhance.AbstractExtMessageFilter;
 import org.apache.kafka.clients.enhance.ExtMessage;
 import org.apache.kafka.clients.enhance.ExtMessageEncoder;
 import org.apache.kafka.clients.enhance.Utility;
+import org.apache.kafka.clients.enhance.consumer.listener.ConcurrentMessageHandler;
 import org.apache.kafka.clients.enhance.consumer.listener.ConsumeMessageHook;
 import org.apache.kafka.clients.enhance.consumer.listener.MessageHandler;
 import org.apache.kafka.clients.enhance.exception.KafkaConsumeException;
@@ -173,10 +174,10 @@ public class KafkaPushConsumer<K> implements ConsumeOperator<K> {
 					consumeService.shutdown(timeout, unit);
 				}
 				if (null != safeConsumer) {
-					safeConsumer.close(timeout, TimeUnit.MILLISECONDS);
+					safeConsumer.close(timeout, unit);
 				}
 				if (null != innerSender) {
-					innerSender.close(timeout, TimeUnit.MILLISECONDS);
+					innerSender.close(timeout, unit);
 				}
 				isRunning = false;
 			} finally {
@@ -296,6 +297,28 @@ public class KafkaPushConsumer<K> implements ConsumeOperator<K> {
 		this.clientContext.messageHandler(handler);
 	}
 
+	@Override
+	@SuppressWarnings("unchecked")
+	public void registerHandler(String tagExpression, ConcurrentMessageHandler<K> handler) {
+		lock.lock();
+		try {
+			MessageHandler<K, ?> currentHandler = this.clientContext.messageHandler();
+			TagRoutingMessageHandler<K> routingHandler;
+			if (currentHandler instanceof TagRoutingMessageHandler) {
+				routingHandler = (TagRoutingMessageHandler<K>) currentHandler;
+			} else if (null == currentHandler) {
+				routingHandler = new TagRoutingMessageHandler<>();
+				this.clientContext.messageHandler(routingHandler);
+			} else {
+				throw new KafkaConsumeException(
+						"a message handler without tags has been registered, couldn't register handlers by tags.");
+			}
+			routingHandler.addHandler(tagExpression, handler);
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	@Override
 	public void addConsumeHook(ConsumeMessageHook<K> consumeHook) {
 		clientContext.addConsumeHook(consumeHook);
@@ -0,0 +1,229 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.common.utils.MappedByteBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * maps the hashes of keys of a topic to the partitions and offsets of the records, in memory mapped segment files.
+ * <p>
+ * a segment is an open addressing hash table with linear probing, layout: [int entries][int slots]
+ * [long max timestamp][slots...], a slot is [long hash][long offset][int partition + 1][int reserved], a zero
+ * partition marks an empty slot. a new segment is created when the load factor reaches 0.75, the oldest segments
+ * are deleted beyond maxSegments or when their records are expired. the hashes are 64 bits, so a lookup may return
+ * a position of another key, the caller verifies.
+ * <p>
+ * thread safe, written by the indexing thread and read by the lookups.
+ */
+class KeyIndexLog {
+	private static final Logger logger = LoggerFactory.getLogger(KeyIndexLog.class);
+	static final String SEGMENT_SUFFIX = ".keyindex";
+	static final int HEADER_SIZE = 16;
+	static final int SLOT_SIZE = 24;
+	static final double MAX_LOAD_FACTOR = 0.75;
+
+	private final File dir;
+	private final int segmentSlots;
+	private final int maxSegments;
+	private final List<Segment> segments = new ArrayList<>();
+	private long nextSegmentId = 0L;
+
+	KeyIndexLog(File dir, int segmentSlots, int maxSegments) throws IOException {
+		if (Integer.bitCount(segmentSlots) != 1) {
+			throw new IllegalArgumentException("slots of key index segment must be a power of 2.");
+		}
+		this.dir = dir;
+		this.segmentSlots = segmentSlots;
+		this.maxSegments = maxSegments;
+		if (!dir.exists() && !dir.mkdirs()) {
+			throw new IOException("failed to create index directory " + dir);
+		}
+		File[] files = dir.listFiles();
+		if (null != files) {
+			Arrays.sort(files);
+			for (File file : files) {
+				String name = file.getName();
+				if (!name.endsWith(SEGMENT_SUFFIX))
+					continue;
+				long segmentId = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+				nextSegmentId = Math.max(nextSegmentId, segmentId + 1);
+				segments.add(new Segment(file, segmentSlots));
+			}
+		}
+	}
+
+	synchronized void put(long hash, int partition, long offset, long timestamp) throws IOException {
+		Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+		if (null == last || last.entries >= segmentSlots * MAX_LOAD_FACTOR) {
+			last = new Segment(new File(dir, String.format("%020d%s", nextSegmentId++, SEGMENT_SUFFIX)), segmentSlots);
+			segments.add(last);
+			while (segments.size() > maxSegments) {
+				segments.remove(0).delete();
+			}
+		}
+		last.put(hash, partition, offset, timestamp);
+	}
+
+	//deletes the oldest segments whose records are all before the given timestamp, the last segment is kept.
+	synchronized void deleteSegmentsBefore(long timestamp) {
+		while (segments.size() > 1 && segments.get(0).maxTimestamp() < timestamp) {
+			segments.remove(0).delete();
+		}
+	}
+
+	//the positions of the hash, [partition, offset] from the oldest to the newest.
+	synchronized List<long[]> lookup(long hash) {
+		Set<Position> positions = new LinkedHashSet<>();
+		for (Segment segment : segments) {
+			segment.lookup(hash, positions);
+		}
+		List<long[]> result = new ArrayList<>(positions.size());
+		for (Position position : positions) {
+			result.add(new long[] {position.partition, position.offset});
+		}
+		return result;
+	}
+
+	synchronized void flush() {
+		if (!segments.isEmpty()) {
+			segments.get(segments.size() - 1).buffer.force();
+		}
+	}
+
+	synchronized void close() {
+		for (Segment segment : segments) {
+			segment.close();
+		}
+		segments.clear();
+	}
+
+	//64 bits FNV-1a with the murmur3 finalizer, the kind separates the keys from the unique keys.
+	static long hash(byte kind, byte[] bytes) {
+		long hash = 0xcbf29ce484222325L;
+		hash = (hash ^ kind) * 0x100000001b3L;
+		for (byte b : bytes) {
+			hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private static final class Position {
+		final int partition;
+		final long offset;
+
+		Position(int partition, long offset) {
+			this.partition = partition;
+			this.offset = offset;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Position))
+				return false;
+			Position other = (Position) o;
+			return partition == other.partition && offset == other.offset;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * partition + (int) (offset ^ (offset >>> 32));
+		}
+	}
+
+	private static final class Segment {
+		private final File file;
+		private final int mask;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private int entries;
+
+		Segment(File file, int slots) throws IOException {
+			this.file = file;
+			this.mask = slots - 1;
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				long size = HEADER_SIZE + (long) slots * SLOT_SIZE;
+				raf.setLength(size);
+				this.channel = raf.getChannel();
+				this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			} catch (IOException e) {
+				raf.close();
+				throw e;
+			}
+			this.entries = buffer.getInt(0);
+			buffer.putInt(4, slots);
+		}
+
+		long maxTimestamp() {
+			return buffer.getLong(8);
+		}
+
+		void put(long hash, int partition, long offset, long timestamp) {
+			int slot = (int) hash & mask;
+			while (buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 16) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			int position = HEADER_SIZE + slot * SLOT_SIZE;
+			buffer.putLong(position, hash);
+			buffer.putLong(position + 8, offset);
+			//the partition is written last, a partially written slot is seen as empty.
+			buffer.putInt(position + 16, partition + 1);
+			buffer.putInt(0, ++entries);
+			if (timestamp > maxTimestamp()) {
+				buffer.putLong(8, timestamp);
+			}
+		}
+
+		void lookup(long hash, Set<Position> positions) {
+			int slot = (int) hash & mask;
+			int partition;
+			while ((partition = buffer.getInt(HEADER_SIZE + slot * SLOT_SIZE + 16)) != 0) {
+				int position = HEADER_SIZE + slot * SLOT_SIZE;
+				if (buffer.getLong(position) == hash) {
+					positions.add(new Position(partition - 1, buffer.getLong(position + 8)));
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		void close() {
+			try {
+				buffer.force();
+				channel.close();
+				MappedByteBuffers.unmap(file.getAbsolutePath(), buffer);
+			} catch (IOException e) {
+				logger.warn("[KeyIndexLog] failed to close segment [{}].", file, e);
+			}
+		}
+
+		void delete() {
+			try {
+				channel.close();
+				MappedByteBuffers.unmap(file.getAbsolutePath(), buffer);
+			} catch (IOException e) {
+				logger.warn("[KeyIndexLog] failed to close segment [{}].", file, e);
+			}
+			if (!file.delete()) {
+				logger.warn("[KeyIndexLog] failed to delete expired segment [{}].", file);
+			}
+		}
+	}
+}
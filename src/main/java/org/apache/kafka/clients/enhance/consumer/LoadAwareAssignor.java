@@ -0,0 +1,373 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.internals.AbstractPartitionAssignor;
+import org.apache.kafka.clients.enhance.consumer.PartitionLoadTracker.PartitionLoad;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.types.ArrayOf;
+import org.apache.kafka.common.protocol.types.Field;
+import org.apache.kafka.common.protocol.types.Schema;
+import org.apache.kafka.common.protocol.types.SchemaException;
+import org.apache.kafka.common.protocol.types.Struct;
+import org.apache.kafka.common.protocol.types.Type;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * assigns the partitions by their observed throughput instead of their count.
+ * <p>
+ * every member reports the partitions it owns with their byte and record rates in the subscription user data, the
+ * rates are measured by PartitionLoadInterceptor of the same client id, so client.id has to be set and the
+ * interceptor added to interceptor.classes. the leader keeps the partitions with their owners, places the orphaned
+ * partitions heaviest first on the least loaded member, then moves partitions from the overloaded members to the
+ * lighter ones until the members are within the imbalance tolerance or the movement budget of the rebalance is spent.
+ * partitions without a reported rate weigh as much as the average partition, without any rates the members are
+ * balanced by partition count.
+ */
+public class LoadAwareAssignor extends AbstractPartitionAssignor implements Configurable {
+	private static final Logger logger = LoggerFactory.getLogger(LoadAwareAssignor.class);
+
+	//the share of the partitions that may move from their owner to balance the load in one rebalance.
+	public static final String MAX_MOVEMENT_RATIO_CONFIG = "load.aware.max.movement.ratio";
+	//how far a member may be over the average load before its partitions are moved.
+	public static final String IMBALANCE_TOLERANCE_CONFIG = "load.aware.imbalance.tolerance";
+	//the cost of a record in bytes on top of its size.
+	public static final String RECORD_COST_BYTES_CONFIG = "load.aware.record.cost.bytes";
+
+	static final double DEFAULT_MAX_MOVEMENT_RATIO = 0.2;
+	static final double DEFAULT_IMBALANCE_TOLERANCE = 0.1;
+	static final double DEFAULT_RECORD_COST_BYTES = 64.0;
+	//the least weight of a partition relative to the average one, so idle partitions are still spread by count.
+	private static final double MIN_WEIGHT_RATIO = 0.01;
+
+	private static final short USER_DATA_VERSION = 0;
+	private static final String VERSION_KEY_NAME = "version";
+	private static final String TOPICS_KEY_NAME = "topics";
+	private static final String TOPIC_KEY_NAME = "topic";
+	private static final String PARTITIONS_KEY_NAME = "partitions";
+	private static final String PARTITION_KEY_NAME = "partition";
+	private static final String BYTES_RATE_KEY_NAME = "bytes_rate";
+	private static final String RECORDS_RATE_KEY_NAME = "records_rate";
+
+	private static final Schema PARTITION_LOAD = new Schema(
+			new Field(PARTITION_KEY_NAME, Type.INT32),
+			new Field(BYTES_RATE_KEY_NAME, Type.INT64),
+			new Field(RECORDS_RATE_KEY_NAME, Type.INT64));
+	private static final Schema TOPIC_LOAD = new Schema(
+			new Field(TOPIC_KEY_NAME, Type.STRING),
+			new Field(PARTITIONS_KEY_NAME, new ArrayOf(PARTITION_LOAD)));
+	private static final Schema LOAD_AWARE_USER_DATA = new Schema(
+			new Field(VERSION_KEY_NAME, Type.INT16),
+			new Field(TOPICS_KEY_NAME, new ArrayOf(TOPIC_LOAD)));
+
+	private final Time time;
+	private String clientId;
+	private double maxMovementRatio = DEFAULT_MAX_MOVEMENT_RATIO;
+	private double imbalanceTolerance = DEFAULT_IMBALANCE_TOLERANCE;
+	private double recordCostBytes = DEFAULT_RECORD_COST_BYTES;
+	private List<TopicPartition> memberAssignment = Collections.emptyList();
+
+	public LoadAwareAssignor() {
+		this(Time.SYSTEM);
+	}
+
+	LoadAwareAssignor(Time time) {
+		this.time = time;
+	}
+
+	@Override
+	public void configure(Map<String, ?> configs) {
+		Object clientId = configs.get(ConsumerConfig.CLIENT_ID_CONFIG);
+		this.clientId = null == clientId ? null : String.valueOf(clientId);
+		maxMovementRatio = doubleConfig(configs, MAX_MOVEMENT_RATIO_CONFIG, DEFAULT_MAX_MOVEMENT_RATIO);
+		imbalanceTolerance = doubleConfig(configs, IMBALANCE_TOLERANCE_CONFIG, DEFAULT_IMBALANCE_TOLERANCE);
+		recordCostBytes = doubleConfig(configs, RECORD_COST_BYTES_CONFIG, DEFAULT_RECORD_COST_BYTES);
+		if (null == this.clientId || this.clientId.isEmpty()) {
+			logger.warn("[LoadAwareAssignor] client.id isn't set, the partitions are assigned without their loads.");
+		}
+	}
+
+	private static double doubleConfig(Map<String, ?> configs, String key, double defaultValue) {
+		Object value = configs.get(key);
+		if (null == value)
+			return defaultValue;
+		try {
+			return Double.parseDouble(String.valueOf(value));
+		} catch (NumberFormatException e) {
+			logger.warn("[LoadAwareAssignor] invalid value [{}] of [{}], using [{}].", value, key, defaultValue);
+			return defaultValue;
+		}
+	}
+
+	LoadAwareAssignor maxMovementRatio(double maxMovementRatio) {
+		this.maxMovementRatio = maxMovementRatio;
+		return this;
+	}
+
+	LoadAwareAssignor imbalanceTolerance(double imbalanceTolerance) {
+		this.imbalanceTolerance = imbalanceTolerance;
+		return this;
+	}
+
+	@Override
+	public String name() {
+		return "load-aware";
+	}
+
+	@Override
+	public Subscription subscription(Set<String> topics) {
+		PartitionLoadTracker tracker = PartitionLoadTracker.get(clientId);
+		Map<TopicPartition, PartitionLoad> loads = null == tracker ? Collections.<TopicPartition, PartitionLoad>emptyMap()
+				: tracker.loads(time.milliseconds());
+		return new Subscription(new ArrayList<>(topics), serializeLoads(memberAssignment, loads));
+	}
+
+	@Override
+	public void onAssignment(Assignment assignment) {
+		memberAssignment = assignment.partitions();
+		PartitionLoadTracker tracker = PartitionLoadTracker.get(clientId);
+		if (null != tracker) {
+			tracker.assigned(memberAssignment, time.milliseconds());
+		}
+	}
+
+	@Override
+	public Map<String, List<TopicPartition>> assign(Map<String, Integer> partitionsPerTopic,
+			Map<String, Subscription> subscriptions) {
+		//the members in a stable order, so every leader plans the same.
+		Map<String, Subscription> members = new TreeMap<>(subscriptions);
+		Map<TopicPartition, List<String>> candidates = new LinkedHashMap<>();
+		for (Map.Entry<String, Subscription> member : members.entrySet()) {
+			for (String topic : member.getValue().topics()) {
+				Integer numPartitions = partitionsPerTopic.get(topic);
+				if (null == numPartitions)
+					continue;
+				for (TopicPartition tp : partitions(topic, numPartitions)) {
+					List<String> memberIds = candidates.get(tp);
+					if (null == memberIds) {
+						memberIds = new ArrayList<>();
+						candidates.put(tp, memberIds);
+					}
+					memberIds.add(member.getKey());
+				}
+			}
+		}
+
+		//the first member claiming a partition keeps it.
+		Map<TopicPartition, String> owners = new HashMap<>();
+		Map<TopicPartition, Double> loads = new HashMap<>();
+		for (Map.Entry<String, Subscription> member : members.entrySet()) {
+			Map<TopicPartition, PartitionLoad> reported;
+			try {
+				reported = deserializeLoads(member.getValue().userData());
+			} catch (SchemaException e) {
+				logger.warn("[LoadAwareAssignor] ignore the invalid loads of member [{}].", member.getKey(), e);
+				continue;
+			}
+			for (Map.Entry<TopicPartition, PartitionLoad> entry : reported.entrySet()) {
+				TopicPartition tp = entry.getKey();
+				List<String> memberIds = candidates.get(tp);
+				if (null == memberIds || !memberIds.contains(member.getKey()) || owners.containsKey(tp))
+					continue;
+				owners.put(tp, member.getKey());
+				PartitionLoad load = entry.getValue();
+				if (null != load) {
+					loads.put(tp, load.bytesRate + load.recordsRate * recordCostBytes);
+				}
+			}
+		}
+		int maxMovements = (int) Math.ceil(maxMovementRatio * candidates.size());
+		return balance(members.keySet(), candidates, owners, weights(candidates.keySet(), loads), maxMovements,
+				imbalanceTolerance);
+	}
+
+	//the known loads with the average one filled in for the unknown partitions.
+	static Map<TopicPartition, Double> weights(Collection<TopicPartition> partitions, Map<TopicPartition, Double> loads) {
+		double total = 0;
+		int known = 0;
+		for (TopicPartition tp : partitions) {
+			Double load = loads.get(tp);
+			if (null != load) {
+				total += load;
+				known++;
+			}
+		}
+		double average = known > 0 && total > 0 ? total / known : 1.0;
+		double minWeight = average * MIN_WEIGHT_RATIO;
+		Map<TopicPartition, Double> weights = new HashMap<>();
+		for (TopicPartition tp : partitions) {
+			Double load = loads.get(tp);
+			weights.put(tp, Math.max(minWeight, null == load ? average : load));
+		}
+		return weights;
+	}
+
+	/**
+	 * bin-packs the partitions onto the members, keeping the owned partitions and moving at most maxMovements of them.
+	 */
+	static Map<String, List<TopicPartition>> balance(Collection<String> memberIds,
+			Map<TopicPartition, List<String>> candidates, Map<TopicPartition, String> owners,
+			final Map<TopicPartition, Double> weights, int maxMovements, double imbalanceTolerance) {
+		final Map<String, List<TopicPartition>> assignment = new HashMap<>();
+		final Map<String, Double> memberLoads = new HashMap<>();
+		for (String memberId : memberIds) {
+			assignment.put(memberId, new ArrayList<TopicPartition>());
+			memberLoads.put(memberId, 0.0);
+		}
+
+		List<TopicPartition> orphans = new ArrayList<>();
+		for (TopicPartition tp : candidates.keySet()) {
+			String owner = owners.get(tp);
+			if (null == owner) {
+				orphans.add(tp);
+			} else {
+				assign(assignment, memberLoads, weights, owner, tp);
+			}
+		}
+
+		//heaviest first onto the least loaded member, ties go to the member with fewer partitions.
+		Collections.sort(orphans, new Comparator<TopicPartition>() {
+			@Override
+			public int compare(TopicPartition o1, TopicPartition o2) {
+				return Double.compare(weights.get(o2), weights.get(o1));
+			}
+		});
+		for (TopicPartition tp : orphans) {
+			String target = null;
+			for (String memberId : candidates.get(tp)) {
+				if (null == target || memberLoads.get(memberId) < memberLoads.get(target)
+						|| (memberLoads.get(memberId).equals(memberLoads.get(target))
+						&& assignment.get(memberId).size() < assignment.get(target).size())) {
+					target = memberId;
+				}
+			}
+			assign(assignment, memberLoads, weights, target, tp);
+		}
+
+		double total = 0;
+		for (double memberLoad : memberLoads.values()) {
+			total += memberLoad;
+		}
+		double limit = memberIds.isEmpty() ? 0 : total / memberIds.size() * (1 + imbalanceTolerance);
+
+		List<String> byLoad = new ArrayList<>(memberIds);
+		Comparator<String> heaviestFirst = new Comparator<String>() {
+			@Override
+			public int compare(String o1, String o2) {
+				return Double.compare(memberLoads.get(o2), memberLoads.get(o1));
+			}
+		};
+		int movements = 0;
+		while (movements < maxMovements) {
+			Collections.sort(byLoad, heaviestFirst);
+			boolean moved = false;
+			for (String source : byLoad) {
+				double sourceLoad = memberLoads.get(source);
+				if (sourceLoad <= limit)
+					break;
+				//the move that lowers the larger of the two loads the most.
+				TopicPartition bestPartition = null;
+				String bestTarget = null;
+				double bestPeak = sourceLoad;
+				for (TopicPartition tp : assignment.get(source)) {
+					double weight = weights.get(tp);
+					for (String target : candidates.get(tp)) {
+						double peak = Math.max(sourceLoad - weight, memberLoads.get(target) + weight);
+						if (!target.equals(source) && peak < bestPeak) {
+							bestPeak = peak;
+							bestPartition = tp;
+							bestTarget = target;
+						}
+					}
+				}
+				if (null != bestPartition) {
+					assignment.get(source).remove(bestPartition);
+					memberLoads.put(source, sourceLoad - weights.get(bestPartition));
+					assign(assignment, memberLoads, weights, bestTarget, bestPartition);
+					moved = true;
+					break;
+				}
+			}
+			if (!moved)
+				break;
+			movements++;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("[LoadAwareAssignor] assigned [{}] partitions, [{}] orphaned, [{}] moved, member loads [{}].",
+					candidates.size(), orphans.size(), movements, memberLoads);
+		}
+		return assignment;
+	}
+
+	private static void assign(Map<String, List<TopicPartition>> assignment, Map<String, Double> memberLoads,
+			Map<TopicPartition, Double> weights, String memberId, TopicPartition tp) {
+		assignment.get(memberId).add(tp);
+		memberLoads.put(memberId, memberLoads.get(memberId) + weights.get(tp));
+	}
+
+	//the owned partitions with their rates rounded up, -1 for a partition without a rate yet.
+	static ByteBuffer serializeLoads(Collection<TopicPartition> owned, Map<TopicPartition, PartitionLoad> loads) {
+		Map<String, List<Struct>> topics = new TreeMap<>();
+		for (TopicPartition tp : owned) {
+			List<Struct> partitions = topics.get(tp.topic());
+			if (null == partitions) {
+				partitions = new ArrayList<>();
+				topics.put(tp.topic(), partitions);
+			}
+			PartitionLoad load = loads.get(tp);
+			Struct partition = new Struct(PARTITION_LOAD);
+			partition.set(PARTITION_KEY_NAME, tp.partition());
+			partition.set(BYTES_RATE_KEY_NAME, null == load ? -1L : (long) Math.ceil(load.bytesRate));
+			partition.set(RECORDS_RATE_KEY_NAME, null == load ? -1L : (long) Math.ceil(load.recordsRate));
+			partitions.add(partition);
+		}
+		List<Struct> topicLoads = new ArrayList<>();
+		for (Map.Entry<String, List<Struct>> entry : topics.entrySet()) {
+			Struct topicLoad = new Struct(TOPIC_LOAD);
+			topicLoad.set(TOPIC_KEY_NAME, entry.getKey());
+			topicLoad.set(PARTITIONS_KEY_NAME, entry.getValue().toArray());
+			topicLoads.add(topicLoad);
+		}
+		Struct struct = new Struct(LOAD_AWARE_USER_DATA);
+		struct.set(VERSION_KEY_NAME, USER_DATA_VERSION);
+		struct.set(TOPICS_KEY_NAME, topicLoads.toArray());
+		ByteBuffer buffer = ByteBuffer.allocate(LOAD_AWARE_USER_DATA.sizeOf(struct));
+		LOAD_AWARE_USER_DATA.write(buffer, struct);
+		buffer.flip();
+		return buffer;
+	}
+
+	//the owned partitions of a member, mapped to null if the member has no rate for it.
+	static Map<TopicPartition, PartitionLoad> deserializeLoads(ByteBuffer buffer) {
+		Map<TopicPartition, PartitionLoad> loads = new LinkedHashMap<>();
+		if (null == buffer || !buffer.hasRemaining())
+			return loads;
+		Struct struct = LOAD_AWARE_USER_DATA.read(buffer.duplicate());
+		for (Object topicObj : struct.getArray(TOPICS_KEY_NAME)) {
+			Struct topicLoad = (Struct) topicObj;
+			String topic = topicLoad.getString(TOPIC_KEY_NAME);
+			for (Object partitionObj : topicLoad.getArray(PARTITIONS_KEY_NAME)) {
+				Struct partition = (Struct) partitionObj;
+				long bytesRate = partition.getLong(BYTES_RATE_KEY_NAME);
+				long recordsRate = partition.getLong(RECORDS_RATE_KEY_NAME);
+				loads.put(new TopicPartition(topic, partition.getInt(PARTITION_KEY_NAME)),
+						bytesRate < 0 || recordsRate < 0 ? null : new PartitionLoad(bytesRate, recordsRate));
+			}
+		}
+		return loads;
+	}
+}
@@ -0,0 +1,280 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.apache.kafka.clients.enhance.ExtMessageDef.*;
+
+/**
+ * drops or flags the messages which have been consumed successfully in the dedup window.
+ * <p>
+ * the key of a message is UNIQ_KEY, or origin topic/partition/offset and retry count for retried messages,
+ * or topic/partition/offset if UNIQ_KEY isn't set.
+ * keys are recorded after the messages are acked, so the messages which are never handled aren't dropped.
+ * a time segmented bloom filter remembers all keys of the window in bounded memory, and an exact LRU of
+ * recent keys confirms the hits. only confirmed hits are dropped, bloom-only hits may be false positive,
+ * they are delivered with PROPERTY_POSSIBLE_DUPLICATED.
+ */
+class MessageDeduplicator<K> {
+	private static final Logger logger = LoggerFactory.getLogger(MessageDeduplicator.class);
+	static final int SEGMENT_NUM = 4;
+	static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+	private final long windowMs;
+	private final long segmentDurationMs;
+	private final boolean dropDuplicated;
+	private final Time time;
+	private final BloomSegment[] segments = new BloomSegment[SEGMENT_NUM];
+	private volatile int currentSegment = 0;
+	private volatile long currentSegmentStartMs;
+	private final Object rotateLock = new Object();
+	private final LinkedHashMap<String, Long> recentKeys;
+
+	private final AtomicLong duplicatedCount = new AtomicLong(0L);
+	private final AtomicLong possibleDuplicatedCount = new AtomicLong(0L);
+	private final AtomicLong uniqueCount = new AtomicLong(0L);
+
+	MessageDeduplicator(long windowMs, long expectedKeysInWindow, final int maxExactKeys, boolean dropDuplicated,
+			Time time) {
+		this.windowMs = windowMs;
+		this.segmentDurationMs = Math.max(1L, windowMs / SEGMENT_NUM);
+		this.dropDuplicated = dropDuplicated;
+		this.time = time;
+		long keysPerSegment = Math.max(1L, expectedKeysInWindow / SEGMENT_NUM);
+		for (int i = 0; i < SEGMENT_NUM; i++) {
+			segments[i] = new BloomSegment(keysPerSegment, FALSE_POSITIVE_PROBABILITY);
+		}
+		this.currentSegmentStartMs = time.milliseconds();
+		this.recentKeys = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > maxExactKeys;
+			}
+		};
+		logger.info("[MessageDeduplicator] dedup window [{}] ms, bloom filter size [{}] bytes, exact keys [{}].",
+				windowMs, segments[0].sizeInBytes() * SEGMENT_NUM, maxExactKeys);
+	}
+
+	static <K> String dedupKey(ExtMessage<K> message) {
+		String realTopic = message.getProperty(PROPERTY_REAL_TOPIC);
+		if (null != realTopic) {
+			return realTopic + "-" + message.getProperty(PROPERTY_REAL_PARTITION_ID) + "-" + message
+					.getProperty(PROPERTY_REAL_OFFSET) + "#" + message.getRetryCount();
+		}
+		String uniqKey = message.getProperty(PROPERTY_UNIQ_KEY);
+		if (null != uniqKey) {
+			return uniqKey;
+		}
+		return message.getTopic() + "-" + message.getPartion() + "-" + message.getOffset();
+	}
+
+	//called by the save stage, the returned records don't contain the confirmed duplicates.
+	//high water marks are filled for the partitions whose tail records are dropped.
+	ConsumerRecords<K, ExtMessage<K>> deduplicate(ConsumerRecords<K, ExtMessage<K>> records,
+			Map<TopicPartition, Long> highWaterMarks) {
+		if (null == records || records.isEmpty())
+			return records;
+		rotateIfNeeded();
+		long now = time.milliseconds();
+		Map<TopicPartition, List<ConsumerRecord<K, ExtMessage<K>>>> uniqueRecords = new HashMap<>();
+		for (TopicPartition tp : records.partitions()) {
+			List<ConsumerRecord<K, ExtMessage<K>>> partitionRecords = records.records(tp);
+			List<ConsumerRecord<K, ExtMessage<K>>> uniqueByPartition = new ArrayList<>(partitionRecords.size());
+			long maxOffsetInPartition = INVALID_OFFSET_VALUE;
+			for (ConsumerRecord<K, ExtMessage<K>> record : partitionRecords) {
+				maxOffsetInPartition = Math.max(maxOffsetInPartition, record.offset());
+				ExtMessage<K> message = record.value();
+				String key = dedupKey(message);
+				if (!mightContain(key)) {
+					uniqueCount.incrementAndGet();
+					uniqueByPartition.add(record);
+				} else if (isRecentKey(key, now)) {
+					duplicatedCount.incrementAndGet();
+					if (dropDuplicated) {
+						logger.debug("[MessageDeduplicator] drop duplicated message, key = [{}].", key);
+					} else {
+						message.addProperty(PROPERTY_POSSIBLE_DUPLICATED, Boolean.TRUE.toString());
+						uniqueByPartition.add(record);
+					}
+				} else {
+					possibleDuplicatedCount.incrementAndGet();
+					message.addProperty(PROPERTY_POSSIBLE_DUPLICATED, Boolean.TRUE.toString());
+					uniqueByPartition.add(record);
+				}
+			}
+			if (!highWaterMarks.containsKey(tp)) {
+				highWaterMarks.put(tp, maxOffsetInPartition);
+			}
+			uniqueRecords.put(tp, uniqueByPartition);
+		}
+		return new ConsumerRecords<>(uniqueRecords);
+	}
+
+	//called after the message is consumed successfully.
+	void markConsumed(ExtMessage<K> message) {
+		rotateIfNeeded();
+		String key = dedupKey(message);
+		long hash1 = hash64(key);
+		segments[currentSegment].put(hash1, mix(hash1));
+		synchronized (recentKeys) {
+			recentKeys.put(key, time.milliseconds());
+		}
+	}
+
+	private boolean mightContain(String key) {
+		long hash1 = hash64(key);
+		long hash2 = mix(hash1);
+		for (BloomSegment segment : segments) {
+			if (segment.mightContain(hash1, hash2))
+				return true;
+		}
+		return false;
+	}
+
+	//64 bits FNV-1a, String.hashCode collides too often at tens of millions of keys.
+	static long hash64(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	private static long mix(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 32;
+		h *= 0xC2B2AE3D27D4EB4FL;
+		return h ^ (h >>> 29);
+	}
+
+	private boolean isRecentKey(String key, long now) {
+		synchronized (recentKeys) {
+			Long consumedMs = recentKeys.get(key);
+			if (null == consumedMs) {
+				return false;
+			}
+			if (now - consumedMs > windowMs) {
+				recentKeys.remove(key);
+				return false;
+			}
+			return true;
+		}
+	}
+
+	//the oldest segment is cleared and reused when the current one is older than a segment duration.
+	private void rotateIfNeeded() {
+		long now = time.milliseconds();
+		if (now - currentSegmentStartMs < segmentDurationMs)
+			return;
+		synchronized (rotateLock) {
+			if (now - currentSegmentStartMs >= windowMs) {
+				//idle for more than a window, all keys are expired.
+				for (BloomSegment segment : segments) {
+					segment.clear();
+				}
+				currentSegmentStartMs = now;
+				return;
+			}
+			while (now - currentSegmentStartMs >= segmentDurationMs) {
+				int next = (currentSegment + 1) % SEGMENT_NUM;
+				segments[next].clear();
+				currentSegment = next;
+				currentSegmentStartMs += segmentDurationMs;
+			}
+		}
+	}
+
+	void registerMetrics(ConsumeServiceMetrics serviceMetrics) {
+		serviceMetrics.addGauge("dedup-hit-total", "The number of messages confirmed as duplicated", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return duplicatedCount.get();
+			}
+		});
+		serviceMetrics.addGauge("dedup-possible-hit-total",
+				"The number of messages which may be duplicated, they are delivered with a flag", new Measurable() {
+					@Override
+					public double measure(MetricConfig config, long now) {
+						return possibleDuplicatedCount.get();
+					}
+				});
+		serviceMetrics.addGauge("dedup-miss-total", "The number of messages which are not duplicated",
+				new Measurable() {
+					@Override
+					public double measure(MetricConfig config, long now) {
+						return uniqueCount.get();
+					}
+				});
+	}
+
+	long duplicatedCount() {
+		return duplicatedCount.get();
+	}
+
+	long possibleDuplicatedCount() {
+		return possibleDuplicatedCount.get();
+	}
+
+	long uniqueCount() {
+		return uniqueCount.get();
+	}
+
+	//bloom filter with double hashing, bits are set without locking.
+	static final class BloomSegment {
+		private final AtomicLongArray bits;
+		private final long bitSize;
+		private final int hashNum;
+
+		BloomSegment(long expectedKeys, double fpp) {
+			long size = (long) Math.ceil(-expectedKeys * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+			this.bitSize = Math.max(64L, (size + 63) & ~63L);
+			this.bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, bitSize >>> 6));
+			this.hashNum = Math.max(1, (int) Math.round((double) bitSize / expectedKeys * Math.log(2)));
+		}
+
+		void put(long hash1, long hash2) {
+			for (int i = 0; i < hashNum; i++) {
+				long bitIdx = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitSize;
+				int wordIdx = (int) (bitIdx >>> 6);
+				long mask = 1L << bitIdx;
+				long word;
+				do {
+					word = bits.get(wordIdx);
+					if ((word & mask) != 0)
+						break;
+				} while (!bits.compareAndSet(wordIdx, word, word | mask));
+			}
+		}
+
+		boolean mightContain(long hash1, long hash2) {
+			for (int i = 0; i < hashNum; i++) {
+				long bitIdx = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitSize;
+				if ((bits.get((int) (bitIdx >>> 6)) & (1L << bitIdx)) == 0)
+					return false;
+			}
+			return true;
+		}
+
+		void clear() {
+			for (int i = 0; i < bits.length(); i++) {
+				bits.set(i, 0L);
+			}
+		}
+
+		long sizeInBytes() {
+			return (long) bits.length() * 8;
+		}
+	}
+}
@@ -0,0 +1,400 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.enhance.ClientOperator;
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.enhance.ExtMessageEncoder;
+import org.apache.kafka.clients.enhance.ShutdownableThread;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.kafka.clients.enhance.ExtMessageDef.PROPERTY_UNIQ_KEY;
+
+/**
+ * a local index of topics built by a tailing consumer, so the lookups by time, key and UNIQ_KEY don't scan or
+ * round trip to the brokers.
+ * <p>
+ * the consumer is assigned all the partitions of the topics without a group, and continues from the indexed offsets
+ * after restart. every partition has a TimeIndexLog under indexDir/topic/partition, every topic a KeyIndexLog of
+ * the record keys and UNIQ_KEYs under indexDir/topic/keys. the lookups return -1 or nothing when the index doesn't cover the
+ * query, the caller falls back to the brokers. new partitions are found every partitionRefreshMs. the segments whose
+ * records are older than retentionMs are deleted.
+ */
+public class MessageIndexService<K> implements ClientOperator {
+	private static final Logger logger = LoggerFactory.getLogger(MessageIndexService.class);
+	public static final int DEFAULT_TIME_SEGMENT_ENTRIES = 64 * 1024;
+	public static final int DEFAULT_KEY_SEGMENT_SLOTS = 256 * 1024;
+	public static final int DEFAULT_MAX_KEY_SEGMENTS = 64;
+	public static final long DEFAULT_PARTITION_REFRESH_MS = 60 * 1000L;
+	public static final long DEFAULT_RETENTION_MS = 7 * 24 * 60 * 60 * 1000L;
+	static final byte KIND_KEY = 0;
+	static final byte KIND_UNIQ_KEY = 1;
+	private static final long POLL_TIMEOUT_MS = 100L;
+	private static final long FLUSH_INTERVAL_MS = 5000L;
+	private static final long RETENTION_CHECK_INTERVAL_MS = 60 * 1000L;
+
+	private final Map<String, Object> consumerConfig;
+	private final Serializer<K> keySerializer;
+	private final File indexDir;
+	private final Set<String> topics;
+	private int timeSegmentEntries = DEFAULT_TIME_SEGMENT_ENTRIES;
+	private int keySegmentSlots = DEFAULT_KEY_SEGMENT_SLOTS;
+	private int maxKeySegments = DEFAULT_MAX_KEY_SEGMENTS;
+	private long partitionRefreshMs = DEFAULT_PARTITION_REFRESH_MS;
+	private long retentionMs = DEFAULT_RETENTION_MS;
+	private final Time time = Time.SYSTEM;
+
+	private final ConcurrentMap<TopicPartition, TimeIndexLog> timeIndexes = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, KeyIndexLog> keyIndexes = new ConcurrentHashMap<>();
+	private final Object lock = new Object();
+	private IndexService indexService;
+	private volatile boolean isRunning;
+	private volatile boolean isSuspended;
+
+	public MessageIndexService(Map<String, Object> configs, Class<K> cls, String indexDir, Collection<String> topics) {
+		this.consumerConfig = new HashMap<>(configs);
+		this.keySerializer = Serdes.serdeFrom(cls).serializer();
+		this.indexDir = new File(indexDir);
+		this.topics = new HashSet<>(topics);
+	}
+
+	public MessageIndexService(Properties properties, Class<K> cls, String indexDir, Collection<String> topics) {
+		this(propertiesToMap(properties), cls, indexDir, topics);
+	}
+
+	private static Map<String, Object> propertiesToMap(Properties properties) {
+		Map<String, Object> configs = new HashMap<>();
+		for (String name : properties.stringPropertyNames()) {
+			configs.put(name, properties.getProperty(name));
+		}
+		return configs;
+	}
+
+	public MessageIndexService<K> timeSegmentEntries(int timeSegmentEntries) {
+		this.timeSegmentEntries = timeSegmentEntries;
+		return this;
+	}
+
+	//must be a power of 2, a segment is keySegmentSlots * 24 bytes.
+	public MessageIndexService<K> keySegment(int keySegmentSlots, int maxKeySegments) {
+		this.keySegmentSlots = keySegmentSlots;
+		this.maxKeySegments = maxKeySegments;
+		return this;
+	}
+
+	public MessageIndexService<K> partitionRefreshMs(long partitionRefreshMs) {
+		this.partitionRefreshMs = partitionRefreshMs;
+		return this;
+	}
+
+	//the index of the records older than retentionMs is deleted, like the records by the brokers. -1 keeps it forever.
+	public MessageIndexService<K> retentionMs(long retentionMs) {
+		this.retentionMs = retentionMs;
+		return this;
+	}
+
+	public boolean isIndexed(String topic) {
+		return topics.contains(topic);
+	}
+
+	/**
+	 * the first offset of the partition whose timestamp is at least the given one, -1 if the timestamp isn't in the
+	 * indexed range of the partition.
+	 */
+	public long offsetForTime(TopicPartition tp, long timestamp) {
+		TimeIndexLog timeIndex = timeIndexes.get(tp);
+		return null == timeIndex ? -1L : timeIndex.lookup(timestamp);
+	}
+
+	//the next offset of the partition to index, -1 if it isn't indexed.
+	public long indexedOffset(TopicPartition tp) {
+		TimeIndexLog timeIndex = timeIndexes.get(tp);
+		return null == timeIndex ? -1L : timeIndex.indexedOffset();
+	}
+
+	//the offsets of the records with the key, may contain records of other keys with the same hash.
+	public Map<TopicPartition, List<Long>> offsetsForKey(String topic, K key) {
+		if (null == key)
+			return Collections.emptyMap();
+		return lookup(topic, KeyIndexLog.hash(KIND_KEY, keySerializer.serialize(topic, key)));
+	}
+
+	//the offsets of the records with the UNIQ_KEY, may contain records of other keys with the same hash.
+	public Map<TopicPartition, List<Long>> offsetsForUniqKey(String topic, String uniqKey) {
+		if (null == uniqKey)
+			return Collections.emptyMap();
+		return lookup(topic, KeyIndexLog.hash(KIND_UNIQ_KEY, Utils.utf8(uniqKey)));
+	}
+
+	private Map<TopicPartition, List<Long>> lookup(String topic, long hash) {
+		KeyIndexLog keyIndex = keyIndexes.get(topic);
+		if (null == keyIndex)
+			return Collections.emptyMap();
+		Map<TopicPartition, List<Long>> offsets = new HashMap<>();
+		for (long[] position : keyIndex.lookup(hash)) {
+			TopicPartition tp = new TopicPartition(topic, (int) position[0]);
+			List<Long> partitionOffsets = offsets.get(tp);
+			if (null == partitionOffsets) {
+				partitionOffsets = new ArrayList<>();
+				offsets.put(tp, partitionOffsets);
+			}
+			partitionOffsets.add(position[1]);
+		}
+		return offsets;
+	}
+
+	@Override
+	public String clientId() {
+		Object clientId = consumerConfig.get(ConsumerConfig.CLIENT_ID_CONFIG);
+		return null == clientId ? null : clientId.toString();
+	}
+
+	@Override
+	public void start() {
+		synchronized (lock) {
+			if (isRunning) {
+				logger.info("MessageIndexService has been started.");
+				return;
+			}
+			Map<String, Object> config = new HashMap<>(consumerConfig);
+			//the partitions are assigned, the indexed offsets are kept in the index instead of the group.
+			config.remove(ConsumerConfig.GROUP_ID_CONFIG);
+			config.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+			Object clientId = config.get(ConsumerConfig.CLIENT_ID_CONFIG);
+			if (null != clientId) {
+				config.put(ConsumerConfig.CLIENT_ID_CONFIG, clientId + "-indexer");
+			}
+			try {
+				for (String topic : topics) {
+					keyIndexes.put(topic, new KeyIndexLog(new File(new File(indexDir, topic), "keys"), keySegmentSlots, maxKeySegments));
+				}
+			} catch (IOException e) {
+				closeIndexes();
+				throw new KafkaException("failed to open message index in " + indexDir, e);
+			}
+			KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(config, new ByteArrayDeserializer(),
+					new ByteArrayDeserializer());
+			indexService = new IndexService("kafka-message-indexer-" + clientId(), consumer);
+			indexService.start();
+			isRunning = true;
+			logger.info("MessageIndexService is started, index of {} in [{}].", topics, indexDir);
+		}
+	}
+
+	@Override
+	public void shutdownNow() {
+		shutdown(0, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void shutdown(long timeout, TimeUnit unit) {
+		synchronized (lock) {
+			if (!isRunning) {
+				logger.info("MessageIndexService has been shutdown.");
+				return;
+			}
+			isRunning = false;
+			indexService.initiateShutdown();
+			indexService.consumer.wakeup();
+			indexService.awaitShutdown();
+			indexService.consumer.close(Math.max(0L, unit.toMillis(timeout)), TimeUnit.MILLISECONDS);
+			closeIndexes();
+		}
+	}
+
+	@Override
+	public void suspend() {
+		isSuspended = true;
+	}
+
+	@Override
+	public void resume() {
+		isSuspended = false;
+	}
+
+	private void closeIndexes() {
+		for (TimeIndexLog timeIndex : timeIndexes.values()) {
+			timeIndex.close();
+		}
+		timeIndexes.clear();
+		for (KeyIndexLog keyIndex : keyIndexes.values()) {
+			keyIndex.close();
+		}
+		keyIndexes.clear();
+	}
+
+	private void flushIndexes() {
+		for (TimeIndexLog timeIndex : timeIndexes.values()) {
+			timeIndex.flush();
+		}
+		for (KeyIndexLog keyIndex : keyIndexes.values()) {
+			keyIndex.flush();
+		}
+	}
+
+	private void deleteExpiredIndexes(long timestamp) {
+		for (TimeIndexLog timeIndex : timeIndexes.values()) {
+			timeIndex.deleteSegmentsBefore(timestamp);
+		}
+		for (KeyIndexLog keyIndex : keyIndexes.values()) {
+			keyIndex.deleteSegmentsBefore(timestamp);
+		}
+	}
+
+	private class IndexService extends ShutdownableThread {
+		private final KafkaConsumer<byte[], byte[]> consumer;
+		private final ExtMessageEncoder<K> encoder = new ExtMessageEncoder<>();
+		private long nextRefreshMs = 0L;
+		private long nextFlushMs = 0L;
+		private long nextRetentionCheckMs = 0L;
+
+		IndexService(String name, KafkaConsumer<byte[], byte[]> consumer) {
+			//not interruptible, an interrupt would close the channels of the mapped segments.
+			super(name, true, false);
+			this.consumer = consumer;
+		}
+
+		@Override
+		public void doWork() {
+			try {
+				long now = time.milliseconds();
+				if (now >= nextRefreshMs) {
+					assignPartitions();
+					nextRefreshMs = now + partitionRefreshMs;
+				}
+				if (isSuspended || consumer.assignment().isEmpty()) {
+					Thread.sleep(POLL_TIMEOUT_MS);
+					return;
+				}
+				ConsumerRecords<byte[], byte[]> records = consumer.poll(POLL_TIMEOUT_MS);
+				boolean isIndexFailed = false;
+				for (TopicPartition tp : records.partitions()) {
+					try {
+						index(tp, records.records(tp));
+					} catch (IOException e) {
+						logger.warn("[MessageIndexService] failed to write message index of [{}], index it again.", tp, e);
+						rewind(tp);
+						isIndexFailed = true;
+					}
+				}
+				if (isIndexFailed) {
+					Thread.sleep(POLL_TIMEOUT_MS);
+				}
+				if (now >= nextFlushMs) {
+					flushIndexes();
+					nextFlushMs = now + FLUSH_INTERVAL_MS;
+				}
+				if (retentionMs >= 0 && now >= nextRetentionCheckMs) {
+					deleteExpiredIndexes(now - retentionMs);
+					nextRetentionCheckMs = now + RETENTION_CHECK_INTERVAL_MS;
+				}
+			} catch (WakeupException e) {
+				//shutdown.
+			} catch (InterruptedException e) {
+				//shutdown.
+			} catch (IOException e) {
+				logger.warn("[MessageIndexService] failed to write message index.", e);
+			} catch (KafkaException e) {
+				logger.warn("[MessageIndexService] failed to consume messages to index.", e);
+			}
+		}
+
+		private void index(TopicPartition tp, List<ConsumerRecord<byte[], byte[]>> records) throws IOException {
+			TimeIndexLog timeIndex = timeIndexes.get(tp);
+			KeyIndexLog keyIndex = keyIndexes.get(tp.topic());
+			long nextOffset = -1L;
+			for (ConsumerRecord<byte[], byte[]> record : records) {
+				timeIndex.append(record.timestamp(), record.offset());
+				if (null != record.key()) {
+					keyIndex.put(KeyIndexLog.hash(KIND_KEY, record.key()), tp.partition(), record.offset(),
+							record.timestamp());
+				}
+				String uniqKey = uniqKey(record);
+				if (null != uniqKey) {
+					keyIndex.put(KeyIndexLog.hash(KIND_UNIQ_KEY, Utils.utf8(uniqKey)), tp.partition(), record.offset(),
+							record.timestamp());
+				}
+				nextOffset = record.offset() + 1;
+			}
+			if (nextOffset >= 0) {
+				timeIndex.checkpoint(nextOffset);
+			}
+		}
+
+		//the records after the last checkpoint are fetched again, so a failed write never leaves a gap in the index.
+		//the entries written before the failure are written twice, the lookups skip the duplicated ones.
+		private void rewind(TopicPartition tp) {
+			long indexedOffset = timeIndexes.get(tp).indexedOffset();
+			if (indexedOffset >= 0) {
+				consumer.seek(tp, indexedOffset);
+			} else {
+				consumer.seekToBeginning(Collections.singletonList(tp));
+			}
+		}
+
+		//a value which isn't an ExtMessage is indexed by time and key only.
+		private String uniqKey(ConsumerRecord<byte[], byte[]> record) {
+			if (null == record.value())
+				return null;
+			try {
+				ExtMessage<K> message = encoder.deserialize(record.topic(), record.value());
+				return null == message ? null : message.getProperty(PROPERTY_UNIQ_KEY);
+			} catch (RuntimeException e) {
+				return null;
+			}
+		}
+
+		private void assignPartitions() throws IOException {
+			Set<TopicPartition> assignment = new HashSet<>(consumer.assignment());
+			List<TopicPartition> added = new ArrayList<>();
+			for (String topic : topics) {
+				List<PartitionInfo> partitions = consumer.partitionsFor(topic);
+				if (null == partitions)
+					continue;
+				for (PartitionInfo partitionInfo : partitions) {
+					TopicPartition tp = new TopicPartition(topic, partitionInfo.partition());
+					if (assignment.add(tp)) {
+						added.add(tp);
+						timeIndexes.put(tp, new TimeIndexLog(
+								new File(new File(indexDir, topic), String.valueOf(tp.partition())), timeSegmentEntries));
+					}
+				}
+			}
+			if (added.isEmpty())
+				return;
+			consumer.assign(assignment);
+			List<TopicPartition> unindexed = new ArrayList<>();
+			for (TopicPartition tp : added) {
+				long indexedOffset = timeIndexes.get(tp).indexedOffset();
+				if (indexedOffset >= 0) {
+					consumer.seek(tp, indexedOffset);
+				} else {
+					unindexed.add(tp);
+				}
+			}
+			if (!unindexed.isEmpty()) {
+				consumer.seekToBeginning(unindexed);
+			}
+			logger.info("[MessageIndexService] index partitions {}.", added);
+		}
+	}
+}
@@ -53,6 +53,7 @@ public class OrdinalConsumeTaskRequest<K> extends AbstractConsumeTaskRequest<K>
 				try {
 					for (ExtMessage<K> message : messages) {
 						offsets.add(message.getOffset());
+						markConsumed(message);
 					}
 					logger.trace("start commitoffsets ---------------> " + offsets);
 					manager.commitOffsets(topicPartition, offsets);
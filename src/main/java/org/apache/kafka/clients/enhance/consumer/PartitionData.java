@@ -23,6 +23,8 @@ import static org.apache.kafka.clients.enhance.ExtMessageDef.INVALID_OFFSET_VALU
 public class PartitionData<K, V> {
 	private static final Logger logger = LoggerFactory.getLogger(PartitionData.class);
 	static final long SLIDING_WINDOWS_FULL_AWAIT_TIMOUT_MS = 200L;
+	//epochs are unique in the process, a partition data created again after revoking never reuses one.
+	private static final AtomicLong EPOCH_GENERATOR = new AtomicLong(0L);
 
 	private final TopicPartition tp;
 	private final TreeMap<Long, ConsumerRecord<K, V>> slidingWindow;
@@ -33,12 +35,15 @@ public class PartitionData<K, V> {
 	private final AtomicLong highWaterMarkInWindow = new AtomicLong(INVALID_OFFSET_VALUE);
 	private final AtomicLong pullRecordHighWaterMark = new AtomicLong(INVALID_OFFSET_VALUE);
 	private final AtomicLong lastAckOffset = new AtomicLong(INVALID_OFFSET_VALUE);
+	//increased when the partition data is cleared, records polled before that are stale.
+	private final AtomicLong epoch = new AtomicLong(EPOCH_GENERATOR.incrementAndGet());
 
 	private final Time kafkaTime = Time.SYSTEM;
 	private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
 	private final ReentrantReadWriteLock.WriteLock wLock = rwLock.writeLock();
 	private final ReentrantReadWriteLock.ReadLock rLock = rwLock.readLock();
 	private final Condition winFullLock = wLock.newCondition();
+	private final Condition inflightDrainedLock = wLock.newCondition();
 
 	private volatile boolean isValid = true;
 	private volatile long lastPutMessageTimestamp;
@@ -98,12 +103,30 @@ public class PartitionData<K, V> {
 		return recCnt;
 	}
 
+	public long epoch() {
+		return epoch.get();
+	}
+
 	public int putRecords(List<ConsumerRecord<K, V>> records, final long pullHighWaterMark)
 			throws InterruptedException, PartitionDataFullException {
+		return putRecords(records, pullHighWaterMark, epoch.get());
+	}
+
+	//records which were polled before the partition data is cleared (seek or rebalance) will be dropped.
+	//the pull high water mark only takes effect when all records are put, an empty list just moves it forward.
+	public int putRecords(List<ConsumerRecord<K, V>> records, final long pullHighWaterMark, final long expectedEpoch)
+			throws InterruptedException, PartitionDataFullException {
 		int recCnt = 0;
-		if (null == records || records.isEmpty())
+		if (null == records || (records.isEmpty() && INVALID_OFFSET_VALUE == pullHighWaterMark))
 			return recCnt;
 		wLock.lockInterruptibly();
+		if (expectedEpoch != epoch.get()) {
+			logger.debug("[PartitionData-putRecords] tp = [{}] drop [{}] stale records, epoch = [{}], expected = [{}].",
+					tp, records.size(), epoch.get(), expectedEpoch);
+			wLock.unlock();
+			return recCnt;
+		}
+		boolean isAllPut = false;
 		try {
 			for (int fromIdx = 0; fromIdx < records.size(); fromIdx++) {
 				ConsumerRecord<K, V> record = records.get(fromIdx);
@@ -124,14 +147,18 @@ public class PartitionData<K, V> {
 				}
 			}
 			slidingWindowSize.addAndGet(recCnt);
+			isAllPut = true;
 			return recCnt;
 		} finally {
-			long maxOffsetInWindow = slidingWindow.lastKey().longValue();
-			if (highWaterMarkInWindow.get() < maxOffsetInWindow) {
-				highWaterMarkInWindow.set(maxOffsetInWindow);
+			if (!slidingWindow.isEmpty()) {
+				long maxOffsetInWindow = slidingWindow.lastKey().longValue();
+				if (highWaterMarkInWindow.get() < maxOffsetInWindow) {
+					highWaterMarkInWindow.set(maxOffsetInWindow);
+				}
 			}
-			pullRecordHighWaterMark
-					.set(Utility.max(highWaterMarkInWindow.get(), pullRecordHighWaterMark.get(), pullHighWaterMark));
+			//the records filtered out before the unsaved ones mustn't be treated as pulled.
+			pullRecordHighWaterMark.set(Utility.max(highWaterMarkInWindow.get(), pullRecordHighWaterMark.get(),
+					isAllPut ? pullHighWaterMark : INVALID_OFFSET_VALUE));
 			/*logger.debug("[putRecords] tp = " + tp + "\t takeCursor=" + takeCursor.get() + "\t highWaterMarkInWindow = " + highWaterMarkInWindow.get()
 					+ "\t lastAckOffset=" + lastAckOffset.get() + "\t winSize=" + slidingWindowSize.get());*/
 			lastPutMessageTimestamp = kafkaTime.milliseconds();
@@ -153,6 +180,9 @@ public class PartitionData<K, V> {
 			if (removeCnt > 0 && slidingWindowSize.get() < PartitionDataManager.MAX_SIZE_SLIDING_WINDOWS) {
 				winFullLock.signalAll();
 			}
+			if (removeCnt > 0 && !hasInflightMessage()) {
+				inflightDrainedLock.signalAll();
+			}
 			if (slidingWindow.isEmpty()) {
 				long partitionMaxPutOffset = pullRecordHighWaterMark.get();
 				long tmpMaxOffset = (partitionMaxPutOffset > offset) ? partitionMaxPutOffset : offset;
@@ -185,6 +215,9 @@ public class PartitionData<K, V> {
 			if (removeCnt > 0 && slidingWindowSize.get() < PartitionDataManager.MAX_SIZE_SLIDING_WINDOWS) {
 				winFullLock.signalAll();
 			}
+			if (removeCnt > 0 && !hasInflightMessage()) {
+				inflightDrainedLock.signalAll();
+			}
 			if (slidingWindow.isEmpty()) {
 				long tmpMaxOffset = maxOffset(offsets);
 				long partitionMaxPutOffset = pullRecordHighWaterMark.get();
@@ -294,6 +327,56 @@ public class PartitionData<K, V> {
 		return (slidingWindowSize.get() > 0) && takeCursor.get() <= highWaterMarkInWindow.get();
 	}
 
+	//the records which have been dispatched to handlers but haven't been acked. must be called with lock held.
+	private boolean hasInflightMessage() {
+		long cursor = takeCursor.get();
+		return !slidingWindow.isEmpty() && INVALID_OFFSET_VALUE != cursor
+				&& slidingWindow.firstKey().longValue() < cursor;
+	}
+
+	/**
+	 * wait until all dispatched records have been acked or the timeout is elapsed.
+	 *
+	 * @return true if there is no in-flight record any more.
+	 */
+	public boolean awaitInflightDrained(long timeoutMs) throws InterruptedException {
+		long remainingNs = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		wLock.lockInterruptibly();
+		try {
+			while (hasInflightMessage()) {
+				if (remainingNs <= 0L) {
+					logger.info(
+							"[PartitionData-awaitInflightDrained] tp = [{}] still has in-flight records, lastAckOffset = [{}], takeCursor = [{}].",
+							tp, lastAckOffset.get(), takeCursor.get());
+					return false;
+				}
+				remainingNs = inflightDrainedLock.awaitNanos(remainingNs);
+			}
+			return true;
+		} finally {
+			wLock.unlock();
+		}
+	}
+
+	//the offset which the consumer should continue fetching from, records before it have been put into the window.
+	public long nextFetchOffset() {
+		long pulledOffset = pullRecordHighWaterMark.get();
+		return (INVALID_OFFSET_VALUE == pulledOffset) ? INVALID_OFFSET_VALUE : pulledOffset + 1L;
+	}
+
+	//the offset after the last record put into or filtered out of the window, valid only if the window is empty.
+	//unlike the consumer position, records which are polled but not saved yet are never skipped.
+	public long savedOffsetIfEmpty() {
+		rLock.lock();
+		try {
+			if (!slidingWindow.isEmpty())
+				return INVALID_OFFSET_VALUE;
+			return nextFetchOffset();
+		} finally {
+			rLock.unlock();
+		}
+	}
+
 	private boolean isPartitionRecord(ConsumerRecord<K, V> record) {
 		return record.topic().equals(tp.topic()) && record.partition() == tp.partition();
 	}
@@ -308,7 +391,11 @@ public class PartitionData<K, V> {
 
 			takeCursor.set(INVALID_OFFSET_VALUE);
 			highWaterMarkInWindow.set(INVALID_OFFSET_VALUE);
+			pullRecordHighWaterMark.set(INVALID_OFFSET_VALUE);
 			lastAckOffset.set(INVALID_OFFSET_VALUE);
+			epoch.set(EPOCH_GENERATOR.incrementAndGet());
+			winFullLock.signalAll();
+			inflightDrainedLock.signalAll();
 		} finally {
 			wLock.unlock();
 		}
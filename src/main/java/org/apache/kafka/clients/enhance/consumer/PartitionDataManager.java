@@ -19,51 +19,88 @@ public class PartitionDataManager<K, V> {
 	final static int MAX_OFFSET_INTERVALS = 2000;
 	final static int MAX_SIZE_SLIDING_WINDOWS = 1024;
 	private final ConcurrentHashMap<TopicPartition, PartitionData<K, V>> patitionDatas = new ConcurrentHashMap<>();
-	private final ConcurrentHashMap<TopicPartition, List<ConsumerRecord<K, V>>> saveFailedRecords = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<TopicPartition, PendingRecords<K, V>> saveFailedRecords = new ConcurrentHashMap<>();
+
+	//the records which couldn't be saved since the window is full, and the epoch of partition data they belong to.
+	private static final class PendingRecords<K, V> {
+		private final long epoch;
+		private final List<ConsumerRecord<K, V>> records = new ArrayList<>();
+		//the max polled offset of the batches the records come from, including the filtered out records.
+		private long highWaterMark = INVALID_OFFSET_VALUE;
+
+		private PendingRecords(long epoch) {
+			this.epoch = epoch;
+		}
+	}
 
 	//before kafkaclient rebalanced, the function will be called.
-	public void updateOnPartitionsRevoked(final Collection<TopicPartition> partitions) {
+	//stop dispatching and wait for in-flight handlers, so that the final commit covers every acked record.
+	//the partition data is kept here, since most of partitions will be assigned back to this member.
+	public void updateOnPartitionsRevoked(final Collection<TopicPartition> partitions, long drainTimeoutMs) {
 		logger.info("[PartitionDataManager] called by client rebalance onPartitionsRevoked ...");
-		saveFailedRecords.clear();
-		if (null != partitions && !partitions.isEmpty()) {
-			for (TopicPartition tp : patitionDatas.keySet()) {
-				PartitionData<?, ?> pd = patitionDatas.get(tp);
-				if (null != pd) {
-					pd.setValid(false);
-				} else {
-					partitions.remove(tp);
-					logger.info("[PartitionDataManager] partition data not exists for tp [{}].", tp);
+		if (null == partitions || partitions.isEmpty())
+			return;
+
+		for (TopicPartition tp : partitions) {
+			PartitionData<K, V> pd = patitionDatas.get(tp);
+			if (null != pd) {
+				pd.setValid(false);
+			} else {
+				logger.info("[PartitionDataManager] partition data not exists for tp [{}].", tp);
+			}
+		}
+
+		long deadlineMs = System.currentTimeMillis() + drainTimeoutMs;
+		for (TopicPartition tp : partitions) {
+			PartitionData<K, V> pd = patitionDatas.get(tp);
+			if (null == pd)
+				continue;
+			try {
+				if (!pd.awaitInflightDrained(Math.max(0L, deadlineMs - System.currentTimeMillis()))) {
+					logger.info("[PartitionDataManager] in-flight records of tp [{}] aren't drained in [{}] ms.", tp,
+							drainTimeoutMs);
 				}
+			} catch (InterruptedException e) {
+				logger.warn("[PartitionDataManager] wait for in-flight records is interrupted.");
+				Thread.currentThread().interrupt();
+				return;
 			}
 		}
 	}
 
 	//after kafkaclient rebalanced, the function will be called.
-	public boolean updateOnPartitionsAssigned(final Collection<TopicPartition> partitions) {
+	//partitions which stay assigned keep their window, cursors and in-flight tasks, only the revoked ones are dropped.
+	//return the next fetch offset of the retained partitions, the consumer should continue fetching from there.
+	public Map<TopicPartition, Long> updateOnPartitionsAssigned(final Collection<TopicPartition> partitions) {
 		logger.info("[PartitionDataManager] called by client rebalance OnPartitionsAssigned ...");
-		saveFailedRecords.clear();
-		if (null != partitions && !partitions.isEmpty()) {
-			Set<TopicPartition> keys = patitionDatas.keySet();
-			keys.removeAll(partitions);
-			for (TopicPartition tp : keys) {
-				PartitionData<?, ?> pd = patitionDatas.remove(tp);
+		Set<TopicPartition> assigned = (null == partitions) ? Collections.<TopicPartition>emptySet()
+				: new HashSet<>(partitions);
+
+		for (TopicPartition tp : patitionDatas.keySet()) {
+			if (!assigned.contains(tp)) {
+				PartitionData<K, V> pd = patitionDatas.remove(tp);
+				saveFailedRecords.remove(tp);
 				if (null != pd) {
 					pd.clear();
 				}
+				logger.info("[PartitionDataManager] tp [{}] has been revoked, partition data is dropped.", tp);
 			}
+		}
 
-			for (TopicPartition tp : partitions) {
-				if (patitionDatas.containsKey(tp)) {
-					PartitionData<K, V> pd = patitionDatas.get(tp);
-					pd.clear();
-					pd.setValid(true);
-				} else {
-					patitionDatas.putIfAbsent(tp, new PartitionData<K, V>(tp));
+		Map<TopicPartition, Long> resumeOffsets = new HashMap<>();
+		for (TopicPartition tp : assigned) {
+			PartitionData<K, V> pd = patitionDatas.get(tp);
+			if (null == pd) {
+				patitionDatas.putIfAbsent(tp, new PartitionData<K, V>(tp));
+			} else {
+				pd.setValid(true);
+				long nextFetchOffset = pd.nextFetchOffset();
+				if (INVALID_OFFSET_VALUE != nextFetchOffset) {
+					resumeOffsets.put(tp, nextFetchOffset);
 				}
 			}
 		}
-
-		return true;
+		return resumeOffsets;
 	}
 
 	public Set<TopicPartition> getEmptyPartitionData() {
@@ -77,10 +114,31 @@ public class PartitionDataManager<K, V> {
 		return emptyDataPartition;
 	}
 
+	//the offsets to commit for the partitions whose window is empty, filtered out records are committed as well.
+	//records which are polled but still waiting for the save stage aren't covered, so they are never skipped.
+	public Map<TopicPartition, Long> savedOffsetsOfEmptyPartitions() {
+		Map<TopicPartition, Long> savedOffsets = new HashMap<>();
+		for (Map.Entry<TopicPartition, PartitionData<K, V>> entry : patitionDatas.entrySet()) {
+			long savedOffset = entry.getValue().savedOffsetIfEmpty();
+			if (INVALID_OFFSET_VALUE != savedOffset && !saveFailedRecords.containsKey(entry.getKey())) {
+				savedOffsets.put(entry.getKey(), savedOffset);
+			}
+		}
+		return savedOffsets;
+	}
+
 	public Set<TopicPartition> getAssignedPartition() {
 		return patitionDatas.keySet();
 	}
 
+	public long bufferedRecordCount() {
+		long count = 0L;
+		for (PartitionData<K, V> pd : patitionDatas.values()) {
+			count += pd.getWinSize();
+		}
+		return count;
+	}
+
 	public Map<TopicPartition, OffsetAndMetadata> latestAckOffsets() {
 		Map<TopicPartition, OffsetAndMetadata> commitOffsets = new HashMap<>();
 		for (TopicPartition tp : patitionDatas.keySet()) {
@@ -96,16 +154,45 @@ public class PartitionDataManager<K, V> {
 		return commitOffsets;
 	}
 
+	//must be called right after polling and before the consumer is seeked or rebalanced again.
+	public Map<TopicPartition, Long> partitionEpochs(Collection<TopicPartition> partitions) {
+		Map<TopicPartition, Long> epochs = new HashMap<>();
+		for (TopicPartition tp : partitions) {
+			PartitionData<K, V> pd = patitionDatas.get(tp);
+			if (null != pd) {
+				epochs.put(tp, pd.epoch());
+			}
+		}
+		return epochs;
+	}
+
+	public Set<TopicPartition> pendingSavePartitions() {
+		return new HashSet<>(saveFailedRecords.keySet());
+	}
+
 	public Set<TopicPartition> saveConsumerRecords(ConsumerRecords<K, V> records, Map<TopicPartition, Long> highWaterMarks) throws InterruptedException {
+		return saveConsumerRecords(records, highWaterMarks, null);
+	}
+
+	//if epochs is specified, the records of partitions which have been cleared or revoked after polling are dropped.
+	public Set<TopicPartition> saveConsumerRecords(ConsumerRecords<K, V> records, Map<TopicPartition, Long> highWaterMarks,
+			Map<TopicPartition, Long> epochs) throws InterruptedException {
 		//save current messages from latest polled message.
 		if (null != records && !records.isEmpty()) {
 			for (TopicPartition tp : records.partitions()) {
-				if (!patitionDatas.containsKey(tp)) {
+				if (null == epochs && !patitionDatas.containsKey(tp)) {
 					patitionDatas.putIfAbsent(tp, new PartitionData<K, V>(tp));
 				}
 				PartitionData<K, V> partitionData = patitionDatas.get(tp);
+				Long expectedEpoch = (null == epochs) ? null : epochs.get(tp);
+				if (null == partitionData || (null != epochs && null == expectedEpoch)) {
+					logger.debug("[PartitionDataManager] tp [{}] isn't assigned any more, drop polled records.", tp);
+					continue;
+				}
 				List<ConsumerRecord<K, V>> recordsByPartition = records.records(tp);
-				savePartitionData(tp, partitionData, recordsByPartition, highWaterMarks.containsKey(tp) ? highWaterMarks.get(tp) : INVALID_OFFSET_VALUE);
+				savePartitionData(tp, partitionData, recordsByPartition,
+						highWaterMarks.containsKey(tp) ? highWaterMarks.get(tp) : INVALID_OFFSET_VALUE,
+						(null == expectedEpoch) ? partitionData.epoch() : expectedEpoch);
 			}
 		}
 		//save last rest records.
@@ -117,23 +204,31 @@ public class PartitionDataManager<K, V> {
 		if (saveFailedRecords.isEmpty())
 			return;
 		for (TopicPartition tp : saveFailedRecords.keySet()) {
-			List<ConsumerRecord<K, V>> lastRestRecords = saveFailedRecords.remove(tp);
-
-			if (!patitionDatas.containsKey(tp)) {
-				logger.warn("[PartitionDataManager] saveLastRestPartitionData not contains topicPartition [{}].", tp);
-				patitionDatas.putIfAbsent(tp, new PartitionData<K, V>(tp));
-			}
+			PendingRecords<K, V> lastRestRecords = saveFailedRecords.remove(tp);
 			PartitionData<K, V> partitionData = patitionDatas.get(tp);
-			savePartitionData(tp, partitionData, lastRestRecords, INVALID_OFFSET_VALUE);
+			if (null == lastRestRecords || null == partitionData) {
+				logger.info("[PartitionDataManager] saveLastRestPartitionData not contains topicPartition [{}].", tp);
+				continue;
+			}
+			savePartitionData(tp, partitionData, lastRestRecords.records, lastRestRecords.highWaterMark,
+					lastRestRecords.epoch);
 		}
 	}
 
 	private boolean savePartitionData(final TopicPartition tp, final PartitionData<K, V> partitionData,
-			final List<ConsumerRecord<K, V>> recordsByPartition, long highWaterMark) throws InterruptedException {
-		if (null == recordsByPartition || recordsByPartition.isEmpty())
+			final List<ConsumerRecord<K, V>> recordsByPartition, long highWaterMark, long expectedEpoch)
+			throws InterruptedException {
+		if (null == recordsByPartition)
 			return true;
+		//keep the order of the partition, the records behind the unsaved ones wait for them.
+		PendingRecords<K, V> pending = saveFailedRecords.get(tp);
+		if (null != pending && pending.epoch == expectedEpoch) {
+			pending.records.addAll(recordsByPartition);
+			pending.highWaterMark = Math.max(pending.highWaterMark, highWaterMark);
+			return false;
+		}
 		try {
-			int saveNum = partitionData.putRecords(recordsByPartition, highWaterMark);
+			int saveNum = partitionData.putRecords(recordsByPartition, highWaterMark, expectedEpoch);
 			logger.debug("[PartitionDataManager] the number of records is [{}], save successful records is [{}].",
 					recordsByPartition.size(), saveNum);
 			return true;
@@ -144,15 +239,11 @@ public class PartitionDataManager<K, V> {
 			logger.info("[PartitionDataManager] Partition[{}] data is full. the partition will be paused", tp);
 			if (e.getFromIdx() >= 0L) {
 				List<ConsumerRecord<K, V>> notSavedRecords = recordsByPartition
-						.subList(e.getFromIdx(), recordsByPartition.size() - 1);
-				if (saveFailedRecords.containsKey(tp)) {
-					saveFailedRecords.get(tp).addAll(notSavedRecords);
-				} else {
-					List<ConsumerRecord<K, V>> oldRecords = saveFailedRecords.putIfAbsent(tp, notSavedRecords);
-					if (null != oldRecords && !oldRecords.isEmpty()) {
-						saveFailedRecords.get(tp).addAll(oldRecords);
-					}
-				}
+						.subList(e.getFromIdx(), recordsByPartition.size());
+				pending = new PendingRecords<>(expectedEpoch);
+				pending.records.addAll(notSavedRecords);
+				pending.highWaterMark = highWaterMark;
+				saveFailedRecords.put(tp, pending);
 				logger.debug(
 						"[PartitionDataManager] the number of the records which need be saved is [{}]. not saved record's num is [{}].",
 						recordsByPartition.size(), notSavedRecords.size());
@@ -185,12 +276,13 @@ public class PartitionDataManager<K, V> {
 
 	public void commitOffset(TopicPartition tp, long offset) {
 		PartitionData<K, V> pd = patitionDatas.get(tp);
-		if (null != pd && pd.isValid()) {
+		if (null != pd) {
 			pd.removeRecord(offset);
 		}
 	}
 
 	public void resetPartitionData(TopicPartition tp) {
+		saveFailedRecords.remove(tp);
 		PartitionData<K, V> pd = patitionDatas.get(tp);
 		if (null != pd) {
 			pd.resetPartition();
@@ -198,6 +290,7 @@ public class PartitionDataManager<K, V> {
 	}
 
 	public void resetAllPartitionData() {
+		saveFailedRecords.clear();
 		for (PartitionData<K, V> pd : patitionDatas.values()) {
 			if (null != pd) {
 				pd.resetPartition();
@@ -0,0 +1,54 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerInterceptor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Time;
+
+import java.util.Map;
+
+/**
+ * measures the byte and record rates of the consumed partitions for LoadAwareAssignor, configured together with it
+ * by interceptor.classes. the bytes are the serialized sizes of the keys and values.
+ */
+public class PartitionLoadInterceptor<K, V> implements ConsumerInterceptor<K, V> {
+	private final Time time = Time.SYSTEM;
+	private String clientId;
+	private PartitionLoadTracker tracker;
+
+	@Override
+	public void configure(Map<String, ?> configs) {
+		clientId = String.valueOf(configs.get(ConsumerConfig.CLIENT_ID_CONFIG));
+		tracker = PartitionLoadTracker.acquire(clientId);
+	}
+
+	@Override
+	public ConsumerRecords<K, V> onConsume(ConsumerRecords<K, V> records) {
+		long now = time.milliseconds();
+		for (TopicPartition tp : records.partitions()) {
+			long bytes = 0L;
+			int count = 0;
+			for (ConsumerRecord<K, V> record : records.records(tp)) {
+				bytes += Math.max(0, record.serializedKeySize()) + Math.max(0, record.serializedValueSize());
+				count++;
+			}
+			tracker.record(tp, count, bytes, now);
+		}
+		return records;
+	}
+
+	@Override
+	public void onCommit(Map<TopicPartition, OffsetAndMetadata> offsets) {
+	}
+
+	@Override
+	public void close() {
+		if (null != tracker) {
+			PartitionLoadTracker.release(clientId);
+			tracker = null;
+		}
+	}
+}
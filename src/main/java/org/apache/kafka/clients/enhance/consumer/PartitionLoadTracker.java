@@ -0,0 +1,147 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * tracks the byte and record rates of the partitions a consumer owns, fed by PartitionLoadInterceptor and read by
+ * LoadAwareAssignor of the same client id.
+ * <p>
+ * the rates are averaged over windows of windowMs and smoothed across windows by an exponentially weighted moving
+ * average. a partition has no rate until it was owned for minWindowMs, an owned partition without records has a
+ * rate of 0.
+ */
+final class PartitionLoadTracker {
+	static final long DEFAULT_WINDOW_MS = 30 * 1000L;
+	static final long MIN_WINDOW_MS = 1000L;
+	private static final double ALPHA = 0.5;
+
+	//guarded by itself, the tracker is released by the last interceptor of the client.
+	private static final Map<String, PartitionLoadTracker> TRACKERS = new HashMap<>();
+
+	private final long windowMs;
+	private final Map<TopicPartition, PartitionRate> rates = new HashMap<>();
+	private int references;
+
+	PartitionLoadTracker(long windowMs) {
+		this.windowMs = windowMs;
+	}
+
+	static PartitionLoadTracker acquire(String clientId) {
+		synchronized (TRACKERS) {
+			PartitionLoadTracker tracker = TRACKERS.get(clientId);
+			if (null == tracker) {
+				tracker = new PartitionLoadTracker(DEFAULT_WINDOW_MS);
+				TRACKERS.put(clientId, tracker);
+			}
+			tracker.references++;
+			return tracker;
+		}
+	}
+
+	static void release(String clientId) {
+		synchronized (TRACKERS) {
+			PartitionLoadTracker tracker = TRACKERS.get(clientId);
+			if (null != tracker && --tracker.references <= 0) {
+				TRACKERS.remove(clientId);
+			}
+		}
+	}
+
+	//the tracker of the client, null if no interceptor of the client tracks the loads.
+	static PartitionLoadTracker get(String clientId) {
+		synchronized (TRACKERS) {
+			return null == clientId ? null : TRACKERS.get(clientId);
+		}
+	}
+
+	//starts tracking the newly owned partitions and forgets the revoked ones.
+	synchronized void assigned(Collection<TopicPartition> partitions, long nowMs) {
+		Set<TopicPartition> owned = new HashSet<>(partitions);
+		rates.keySet().retainAll(owned);
+		for (TopicPartition tp : owned) {
+			if (!rates.containsKey(tp)) {
+				rates.put(tp, new PartitionRate(nowMs));
+			}
+		}
+	}
+
+	synchronized void record(TopicPartition tp, long records, long bytes, long nowMs) {
+		PartitionRate rate = rates.get(tp);
+		if (null == rate) {
+			rate = new PartitionRate(nowMs);
+			rates.put(tp, rate);
+		}
+		rate.roll(nowMs, windowMs);
+		rate.windowRecords += records;
+		rate.windowBytes += bytes;
+	}
+
+	//the loads of the partitions which have a rate.
+	synchronized Map<TopicPartition, PartitionLoad> loads(long nowMs) {
+		Map<TopicPartition, PartitionLoad> loads = new HashMap<>();
+		for (Map.Entry<TopicPartition, PartitionRate> entry : rates.entrySet()) {
+			PartitionRate rate = entry.getValue();
+			rate.roll(nowMs, windowMs);
+			if (rate.bytesRate >= 0) {
+				loads.put(entry.getKey(), new PartitionLoad(rate.bytesRate, rate.recordsRate));
+				continue;
+			}
+			long elapsedMs = nowMs - rate.windowStartMs;
+			if (elapsedMs >= MIN_WINDOW_MS) {
+				loads.put(entry.getKey(), new PartitionLoad(rate.windowBytes * 1000.0 / elapsedMs,
+						rate.windowRecords * 1000.0 / elapsedMs));
+			}
+		}
+		return loads;
+	}
+
+	private static final class PartitionRate {
+		private long windowStartMs;
+		private long windowRecords;
+		private long windowBytes;
+		private double bytesRate = -1;
+		private double recordsRate = -1;
+
+		PartitionRate(long nowMs) {
+			this.windowStartMs = nowMs;
+		}
+
+		//closes the window when it is over, the idle windows in between are averaged into it.
+		void roll(long nowMs, long windowMs) {
+			long elapsedMs = nowMs - windowStartMs;
+			if (elapsedMs < windowMs)
+				return;
+			double windowBytesRate = windowBytes * 1000.0 / elapsedMs;
+			double windowRecordsRate = windowRecords * 1000.0 / elapsedMs;
+			bytesRate = bytesRate < 0 ? windowBytesRate : ALPHA * windowBytesRate + (1 - ALPHA) * bytesRate;
+			recordsRate = recordsRate < 0 ? windowRecordsRate : ALPHA * windowRecordsRate + (1 - ALPHA) * recordsRate;
+			windowStartMs = nowMs;
+			windowRecords = 0;
+			windowBytes = 0;
+		}
+	}
+
+	/**
+	 * the observed load of a partition in bytes and records per second.
+	 */
+	static final class PartitionLoad {
+		final double bytesRate;
+		final double recordsRate;
+
+		PartitionLoad(double bytesRate, double recordsRate) {
+			this.bytesRate = bytesRate;
+			this.recordsRate = recordsRate;
+		}
+
+		@Override
+		public String toString() {
+			return "PartitionLoad{bytesRate=" + bytesRate + ", recordsRate=" + recordsRate + "}";
+		}
+	}
+}
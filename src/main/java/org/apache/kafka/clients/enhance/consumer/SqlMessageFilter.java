@@ -0,0 +1,839 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.enhance.AbstractExtMessageFilter;
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.enhance.ExtMessageDef;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.utils.Utils;
+
+import java.util.*;
+
+/**
+ * filter messages by a SQL-92 like expression over message properties and record headers, for example
+ * {@code region = 'eu' AND amount > 100 AND TAGS IN ('a', 'b')}.
+ * <p>
+ * supported syntax: AND, OR, NOT, parentheses, =, <>, !=, <, <=, >, >=, [NOT] IN, [NOT] BETWEEN,
+ * IS [NOT] NULL, TRUE and FALSE. keywords are case insensitive, property names are not.
+ * an identifier is looked up in message properties first, then in record headers.
+ * TAGS (or TAG) matches if any tag of the message matches. numbers may have a fraction and an exponent, as 1.5e-3.
+ * <p>
+ * it follows the three valued logic of SQL-92: a comparison over a missing or non numeric value is UNKNOWN,
+ * NOT UNKNOWN is UNKNOWN, and a message is delivered only if the expression is TRUE. so neither
+ * {@code x = 'a'} nor {@code NOT (x = 'a')} matches a message without x, use IS NULL to test missing properties.
+ * <p>
+ * the expression is compiled once into a tree of conditions, comparisons between literals are folded
+ * and nested AND/OR are flattened. the tree isn't changed after compiling, so the filter is thread safe.
+ */
+public class SqlMessageFilter<K> extends AbstractExtMessageFilter<K> {
+	private static final char TAG_SEP = ExtMessageDef.PROPERTY_SEP.charAt(0);
+
+	private final String expression;
+	private final Condition condition;
+
+	public SqlMessageFilter(String expression) {
+		this.expression = expression;
+		if (null == expression || expression.trim().isEmpty()) {
+			this.condition = Constant.TRUE;
+		} else {
+			this.condition = new Parser(expression).parse();
+		}
+		this.permitAll = (condition == Constant.TRUE);
+	}
+
+	@Override
+	public boolean canDeliveryMessage(ExtMessage<K> message, Headers headers) {
+		return permitAll || condition.evaluate(message, headers) == Truth.TRUE;
+	}
+
+	public String expression() {
+		return expression;
+	}
+
+	@Override
+	public String toString() {
+		return "SqlMessageFilter{" + condition + "}";
+	}
+
+	enum Truth {
+		FALSE, TRUE, UNKNOWN;
+
+		static Truth of(boolean value) {
+			return value ? TRUE : FALSE;
+		}
+	}
+
+	interface Condition {
+		Truth evaluate(ExtMessage<?> message, Headers headers);
+	}
+
+	static String lookup(String name, ExtMessage<?> message, Headers headers) {
+		String value = message.getProperty(name);
+		if (null == value && null != headers) {
+			Header header = headers.lastHeader(name);
+			if (null != header && null != header.value()) {
+				value = Utils.utf8(header.value());
+			}
+		}
+		return value;
+	}
+
+	//returns NaN if the property is missing or isn't a number.
+	static double lookupNumber(String name, ExtMessage<?> message, Headers headers) {
+		String value = lookup(name, message, headers);
+		return null == value ? Double.NaN : parseNumber(value);
+	}
+
+	//returns NaN if the value isn't a number. integers are parsed without Double.parseDouble.
+	static double parseNumber(String value) {
+		int len = value.length();
+		if (len == 0) {
+			return Double.NaN;
+		}
+		int idx = 0;
+		char c = value.charAt(0);
+		boolean negative = (c == '-');
+		if (c == '-' || c == '+') {
+			idx = 1;
+		}
+		if (idx < len && len - idx <= 18) {
+			long result = 0L;
+			for (; idx < len; idx++) {
+				c = value.charAt(idx);
+				if (c < '0' || c > '9')
+					break;
+				result = result * 10 + (c - '0');
+			}
+			if (idx == len) {
+				return negative ? -result : result;
+			}
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	//checks the joined tags without splitting them.
+	static boolean containsTag(String tags, String tag) {
+		int from = 0;
+		int len = tags.length();
+		while (from <= len) {
+			int end = tags.indexOf(TAG_SEP, from);
+			if (end < 0) {
+				end = len;
+			}
+			if (end - from == tag.length() && tags.regionMatches(from, tag, 0, tag.length())) {
+				return true;
+			}
+			from = end + 1;
+		}
+		return false;
+	}
+
+	private static boolean isTagsIdentifier(String name) {
+		return ExtMessageDef.PROPERTY_TAGS.equalsIgnoreCase(name) || "TAG".equalsIgnoreCase(name);
+	}
+
+	private enum Constant implements Condition {
+		TRUE, FALSE;
+
+		@Override
+		public Truth evaluate(ExtMessage<?> message, Headers headers) {
+			return this == TRUE ? Truth.TRUE : Truth.FALSE;
+		}
+	}
+
+	private static final class And implements Condition {
+		private final Condition[] conditions;
+
+		And(Condition[] conditions) {
+			this.conditions = conditions;
+		}
+
+		//FALSE if any is FALSE, otherwise UNKNOWN if any is UNKNOWN.
+		@Override
+		public Truth evaluate(ExtMessage<?> message, Headers headers) {
+			Truth result = Truth.TRUE;
+			for (Condition condition : conditions) {
+				Truth truth = condition.evaluate(message, headers);
+				if (truth == Truth.FALSE)
+					return Truth.FALSE;
+				if (truth == Truth.UNKNOWN)
+					result = Truth.UNKNOWN;
+			}
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return "AND" + Arrays.toString(conditions);
+		}
+	}
+
+	private static final class Or implements Condition {
+		private final Condition[] conditions;
+
+		Or(Condition[] conditions) {
+			this.conditions = conditions;
+		}
+
+		//TRUE if any is TRUE, otherwise UNKNOWN if any is UNKNOWN.
+		@Override
+		public Truth evaluate(ExtMessage<?> message, Headers headers) {
+			Truth result = Truth.FALSE;
+			for (Condition condition : conditions) {
+				Truth truth = condition.evaluate(message, headers);
+				if (truth == Truth.TRUE)
+					return Truth.TRUE;
+				if (truth == Truth.UNKNOWN)
+					result = Truth.UNKNOWN;
+			}
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return "OR" + Arrays.toString(conditions);
+		}
+	}
+
+	private static final class Not implements Condition {
+		private final Condition condition;
+
+		Not(Condition condition) {
+			this.condition = condition;
+		}
+
+		@Override
+		public Truth evaluate(ExtMessage<?> message, Headers headers) {
+			Truth truth = condition.evaluate(message, headers);
+			if (truth == Truth.UNKNOWN)
+				return Truth.UNKNOWN;
+			return truth == Truth.TRUE ? Truth.FALSE : Truth.TRUE;
+		}
+
+		@Override
+		public String toString() {
+			return "NOT(" + condition + ")";
+		}
+	}
+
+	private static final class IsNull implements Condition {
+		private final String name;
+		private final boolean negate;
+
+		IsNull(String name, boolean negate) {
+			this.name = name;
+			this.negate = negate;
+		}
+
+		@Override
+		public Truth evaluate(ExtMessage<?> message, Headers headers) {
+			return Truth.of((null == lookup(name, message, headers)) != negate);
+		}
+
+		@Override
+		public String toString() {
+			return name + (negate ? " IS NOT NULL" : " IS NULL");
+		}
+	}
+
+	private static final class StringEquals implements Condition {
+		private final String name;
+		private final String literal;
+		private final boolean negate;
+
+		StringEquals(String name, String literal, boolean negate) {
+			this.name = name;
+			this.literal = literal;
+			this.negate = negate;
+		}
+
+		@Override
+		public Truth evaluate(ExtMessage<?> message, Headers headers) {
+			String value = lookup(name, message, headers);
+			return null == value ? Truth.UNKNOWN : Truth.of(literal.equals(value) != negate);
+		}
+
+		@Override
+		public String toString() {
+			return name + (negate ? " <> '" : " = '") + literal + "'";
+		}
+	}
+
+	private static final class StringIn implements Condition {
+		private final String name;
+		private final Set<String> literals;
+		private final boolean negate;
+
+		StringIn(String name, Set<String> literals, boolean negate) {
+			this.name = name;
+			this.literals = literals;
+			this.negate = negate;
+		}
+
+		@Override
+		public Truth evaluate(ExtMessage<?> message, Headers headers) {
+			String value = lookup(name, message, headers);
+			return null == value ? Truth.UNKNOWN : Truth.of(literals.contains(value) != negate);
+		}
+
+		@Override
+		public String toString() {
+			return name + (negate ? " NOT IN " : " IN ") + literals;
+		}
+	}
+
+	private static final class TagsIn implements Condition {
+		private final String[] literals;
+		private final boolean negate;
+
+		TagsIn(String[] literals, boolean negate) {
+			this.literals = literals;
+			this.negate = negate;
+		}
+
+		@Override
+		public Truth evaluate(ExtMessage<?> message, Headers headers) {
+			String tags = message.getProperty(ExtMessageDef.PROPERTY_TAGS);
+			if (null == tags)
+				return Truth.UNKNOWN;
+			for (String literal : literals) {
+				if (containsTag(tags, literal))
+					return Truth.of(!negate);
+			}
+			return Truth.of(negate);
+		}
+
+		@Override
+		public String toString() {
+			return "TAGS" + (negate ? " NOT IN " : " IN ") + Arrays.toString(literals);
+		}
+	}
+
+	private static final int OP_EQ = 0;
+	private static final int OP_NE = 1;
+	private static final int OP_LT = 2;
+	private static final int OP_LE = 3;
+	private static final int OP_GT = 4;
+	private static final int OP_GE = 5;
+	private static final String[] OP_SYMBOLS = { "=", "<>", "<", "<=", ">", ">=" };
+
+	private static boolean compareNumber(double value, int op, double literal) {
+		switch (op) {
+		case OP_EQ:
+			return value == literal;
+		case OP_NE:
+			return value != literal;
+		case OP_LT:
+			return value < literal;
+		case OP_LE:
+			return value <= literal;
+		case OP_GT:
+			return value > literal;
+		default:
+			return value >= literal;
+		}
+	}
+
+	private static final class NumberCompare implements Condition {
+		private final String name;
+		private final int op;
+		private final double literal;
+
+		NumberCompare(String name, int op, double literal) {
+			this.name = name;
+			this.op = op;
+			this.literal = literal;
+		}
+
+		@Override
+		public Truth evaluate(ExtMessage<?> message, Headers headers) {
+			double number = lookupNumber(name, message, headers);
+			return Double.isNaN(number) ? Truth.UNKNOWN : Truth.of(compareNumber(number, op, literal));
+		}
+
+		@Override
+		public String toString() {
+			return name + " " + OP_SYMBOLS[op] + " " + literal;
+		}
+	}
+
+	private static final class NumberIn implements Condition {
+		private final String name;
+		private final double[] sortedLiterals;
+		private final boolean negate;
+
+		NumberIn(String name, double[] sortedLiterals, boolean negate) {
+			this.name = name;
+			this.sortedLiterals = sortedLiterals;
+			this.negate = negate;
+		}
+
+		@Override
+		public Truth evaluate(ExtMessage<?> message, Headers headers) {
+			double number = lookupNumber(name, message, headers);
+			return Double.isNaN(number) ? Truth.UNKNOWN
+					: Truth.of((Arrays.binarySearch(sortedLiterals, number) >= 0) != negate);
+		}
+
+		@Override
+		public String toString() {
+			return name + (negate ? " NOT IN " : " IN ") + Arrays.toString(sortedLiterals);
+		}
+	}
+
+	private static final class NumberBetween implements Condition {
+		private final String name;
+		private final double low;
+		private final double high;
+		private final boolean negate;
+
+		NumberBetween(String name, double low, double high, boolean negate) {
+			this.name = name;
+			this.low = low;
+			this.high = high;
+			this.negate = negate;
+		}
+
+		@Override
+		public Truth evaluate(ExtMessage<?> message, Headers headers) {
+			double number = lookupNumber(name, message, headers);
+			return Double.isNaN(number) ? Truth.UNKNOWN : Truth.of((number >= low && number <= high) != negate);
+		}
+
+		@Override
+		public String toString() {
+			return name + (negate ? " NOT BETWEEN " : " BETWEEN ") + low + " AND " + high;
+		}
+	}
+
+	private enum TokenType {
+		IDENTIFIER, STRING, NUMBER, OPERATOR, LEFT_PAREN, RIGHT_PAREN, COMMA, END
+	}
+
+	private static final class Token {
+		private final TokenType type;
+		private final String text;
+		private final int position;
+
+		Token(TokenType type, String text, int position) {
+			this.type = type;
+			this.text = text;
+			this.position = position;
+		}
+
+		boolean isKeyword(String keyword) {
+			return type == TokenType.IDENTIFIER && keyword.equalsIgnoreCase(text);
+		}
+	}
+
+	//operand of a comparison, an identifier or a literal.
+	private static final class Operand {
+		private final TokenType type;
+		private final String text;
+		private final double number;
+
+		Operand(TokenType type, String text, double number) {
+			this.type = type;
+			this.text = text;
+			this.number = number;
+		}
+	}
+
+	private static final class Parser {
+		private final String expression;
+		private final List<Token> tokens;
+		private int current = 0;
+
+		Parser(String expression) {
+			this.expression = expression;
+			this.tokens = tokenize(expression);
+		}
+
+		Condition parse() {
+			Condition condition = parseOr();
+			if (peek().type != TokenType.END) {
+				throw error("unexpected token '" + peek().text + "'", peek());
+			}
+			return condition;
+		}
+
+		private Condition parseOr() {
+			List<Condition> conditions = new ArrayList<>();
+			conditions.add(parseAnd());
+			while (acceptKeyword("OR")) {
+				conditions.add(parseAnd());
+			}
+			return or(conditions);
+		}
+
+		private Condition parseAnd() {
+			List<Condition> conditions = new ArrayList<>();
+			conditions.add(parseNot());
+			while (acceptKeyword("AND")) {
+				conditions.add(parseNot());
+			}
+			return and(conditions);
+		}
+
+		private Condition parseNot() {
+			if (acceptKeyword("NOT")) {
+				return not(parseNot());
+			}
+			return parsePredicate();
+		}
+
+		private Condition parsePredicate() {
+			Token token = peek();
+			if (token.type == TokenType.LEFT_PAREN) {
+				current++;
+				Condition condition = parseOr();
+				expect(TokenType.RIGHT_PAREN);
+				return condition;
+			}
+			if (acceptKeyword("TRUE")) {
+				return Constant.TRUE;
+			}
+			if (acceptKeyword("FALSE")) {
+				return Constant.FALSE;
+			}
+
+			Operand left = parseOperand();
+			if (left.type == TokenType.IDENTIFIER) {
+				if (acceptKeyword("IS")) {
+					boolean negate = acceptKeyword("NOT");
+					if (!acceptKeyword("NULL")) {
+						throw error("NULL is expected", peek());
+					}
+					return new IsNull(left.text, negate);
+				}
+				boolean negate = acceptKeyword("NOT");
+				if (acceptKeyword("IN")) {
+					return in(left.text, parseLiteralList(), negate, token);
+				}
+				if (acceptKeyword("BETWEEN")) {
+					double low = parseNumberLiteral();
+					if (!acceptKeyword("AND")) {
+						throw error("AND is expected", peek());
+					}
+					double high = parseNumberLiteral();
+					return new NumberBetween(left.text, low, high, negate);
+				}
+				if (negate) {
+					throw error("IN or BETWEEN is expected", peek());
+				}
+			}
+			Token opToken = expect(TokenType.OPERATOR);
+			Operand right = parseOperand();
+			return compare(left, toOp(opToken), right, token);
+		}
+
+		private Operand parseOperand() {
+			Token token = peek();
+			switch (token.type) {
+			case IDENTIFIER:
+				current++;
+				return new Operand(token.type,
+						isTagsIdentifier(token.text) ? ExtMessageDef.PROPERTY_TAGS : token.text, Double.NaN);
+			case STRING:
+				current++;
+				return new Operand(token.type, token.text, Double.NaN);
+			case NUMBER:
+				current++;
+				return new Operand(token.type, token.text, parseNumber(token.text));
+			default:
+				throw error("identifier or literal is expected", token);
+			}
+		}
+
+		private double parseNumberLiteral() {
+			return parseNumber(expect(TokenType.NUMBER).text);
+		}
+
+		private List<Operand> parseLiteralList() {
+			expect(TokenType.LEFT_PAREN);
+			List<Operand> literals = new ArrayList<>();
+			do {
+				Operand literal = parseOperand();
+				if (literal.type == TokenType.IDENTIFIER) {
+					throw error("literal is expected in IN list", tokens.get(current - 1));
+				}
+				literals.add(literal);
+			} while (accept(TokenType.COMMA));
+			expect(TokenType.RIGHT_PAREN);
+			return literals;
+		}
+
+		private Condition in(String name, List<Operand> literals, boolean negate, Token token) {
+			TokenType literalType = literals.get(0).type;
+			for (Operand literal : literals) {
+				if (literal.type != literalType) {
+					throw error("literals in IN list must have the same type", token);
+				}
+			}
+			if (literalType == TokenType.STRING) {
+				Set<String> values = new LinkedHashSet<>();
+				for (Operand literal : literals) {
+					values.add(literal.text);
+				}
+				if (isTagsIdentifier(name)) {
+					return new TagsIn(values.toArray(new String[values.size()]), negate);
+				}
+				if (values.size() == 1) {
+					return new StringEquals(name, values.iterator().next(), negate);
+				}
+				return new StringIn(name, new HashSet<>(values), negate);
+			}
+			if (isTagsIdentifier(name)) {
+				throw error("tags can only be compared with string", token);
+			}
+			double[] values = new double[literals.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = literals.get(i).number;
+			}
+			if (values.length == 1) {
+				return new NumberCompare(name, negate ? OP_NE : OP_EQ, values[0]);
+			}
+			Arrays.sort(values);
+			return new NumberIn(name, values, negate);
+		}
+
+		private Condition compare(Operand left, int op, Operand right, Token token) {
+			if (left.type != TokenType.IDENTIFIER && right.type != TokenType.IDENTIFIER) {
+				//both sides are literals, fold it.
+				if (left.type != right.type) {
+					throw error("can't compare string with number", token);
+				}
+				if (left.type == TokenType.NUMBER) {
+					return compareNumber(left.number, op, right.number) ? Constant.TRUE : Constant.FALSE;
+				}
+				checkStringOp(op, token);
+				return (left.text.equals(right.text) == (op == OP_EQ)) ? Constant.TRUE : Constant.FALSE;
+			}
+			if (left.type == TokenType.IDENTIFIER && right.type == TokenType.IDENTIFIER) {
+				throw error("comparing two properties isn't supported", token);
+			}
+			if (left.type != TokenType.IDENTIFIER) {
+				return compare(right, swap(op), left, token);
+			}
+
+			if (right.type == TokenType.STRING) {
+				checkStringOp(op, token);
+				if (isTagsIdentifier(left.text)) {
+					return new TagsIn(new String[] { right.text }, op == OP_NE);
+				}
+				return new StringEquals(left.text, right.text, op == OP_NE);
+			}
+			if (isTagsIdentifier(left.text)) {
+				throw error("tags can only be compared with string", token);
+			}
+			return new NumberCompare(left.text, op, right.number);
+		}
+
+		private void checkStringOp(int op, Token token) {
+			if (op != OP_EQ && op != OP_NE) {
+				throw error("string only supports = and <>", token);
+			}
+		}
+
+		private Condition and(List<Condition> conditions) {
+			List<Condition> flatten = new ArrayList<>();
+			for (Condition condition : conditions) {
+				if (condition == Constant.FALSE) {
+					return Constant.FALSE;
+				} else if (condition instanceof And) {
+					flatten.addAll(Arrays.asList(((And) condition).conditions));
+				} else if (condition != Constant.TRUE) {
+					flatten.add(condition);
+				}
+			}
+			if (flatten.isEmpty()) {
+				return Constant.TRUE;
+			}
+			return (flatten.size() == 1) ? flatten.get(0) : new And(flatten.toArray(new Condition[flatten.size()]));
+		}
+
+		private Condition or(List<Condition> conditions) {
+			List<Condition> flatten = new ArrayList<>();
+			for (Condition condition : conditions) {
+				if (condition == Constant.TRUE) {
+					return Constant.TRUE;
+				} else if (condition instanceof Or) {
+					flatten.addAll(Arrays.asList(((Or) condition).conditions));
+				} else if (condition != Constant.FALSE) {
+					flatten.add(condition);
+				}
+			}
+			if (flatten.isEmpty()) {
+				return Constant.FALSE;
+			}
+			return (flatten.size() == 1) ? flatten.get(0) : new Or(flatten.toArray(new Condition[flatten.size()]));
+		}
+
+		private Condition not(Condition condition) {
+			if (condition == Constant.TRUE) {
+				return Constant.FALSE;
+			} else if (condition == Constant.FALSE) {
+				return Constant.TRUE;
+			} else if (condition instanceof Not) {
+				return ((Not) condition).condition;
+			}
+			return new Not(condition);
+		}
+
+		private int toOp(Token token) {
+			switch (token.text) {
+			case "=":
+				return OP_EQ;
+			case "<>":
+			case "!=":
+				return OP_NE;
+			case "<":
+				return OP_LT;
+			case "<=":
+				return OP_LE;
+			case ">":
+				return OP_GT;
+			case ">=":
+				return OP_GE;
+			default:
+				throw error("unknown operator '" + token.text + "'", token);
+			}
+		}
+
+		private int swap(int op) {
+			switch (op) {
+			case OP_LT:
+				return OP_GT;
+			case OP_LE:
+				return OP_GE;
+			case OP_GT:
+				return OP_LT;
+			case OP_GE:
+				return OP_LE;
+			default:
+				return op;
+			}
+		}
+
+		private Token peek() {
+			return tokens.get(current);
+		}
+
+		private boolean accept(TokenType type) {
+			if (peek().type == type) {
+				current++;
+				return true;
+			}
+			return false;
+		}
+
+		private boolean acceptKeyword(String keyword) {
+			if (peek().isKeyword(keyword)) {
+				current++;
+				return true;
+			}
+			return false;
+		}
+
+		private Token expect(TokenType type) {
+			Token token = peek();
+			if (token.type != type) {
+				throw error(type + " is expected", token);
+			}
+			current++;
+			return token;
+		}
+
+		private IllegalArgumentException error(String message, Token token) {
+			return new IllegalArgumentException(
+					String.format("invalid filter expression [%s] at %d: %s.", expression, token.position, message));
+		}
+
+		private static List<Token> tokenize(String expression) {
+			List<Token> tokens = new ArrayList<>();
+			int len = expression.length();
+			int idx = 0;
+			while (idx < len) {
+				char c = expression.charAt(idx);
+				int start = idx;
+				if (Character.isWhitespace(c)) {
+					idx++;
+				} else if (c == '(') {
+					tokens.add(new Token(TokenType.LEFT_PAREN, "(", idx++));
+				} else if (c == ')') {
+					tokens.add(new Token(TokenType.RIGHT_PAREN, ")", idx++));
+				} else if (c == ',') {
+					tokens.add(new Token(TokenType.COMMA, ",", idx++));
+				} else if (c == '\'') {
+					//'' is an escaped quote in string literal.
+					StringBuilder literal = new StringBuilder();
+					idx++;
+					while (true) {
+						if (idx >= len) {
+							throw new IllegalArgumentException(String.format(
+									"invalid filter expression [%s] at %d: string isn't closed.", expression, start));
+						}
+						char sc = expression.charAt(idx++);
+						if (sc == '\'') {
+							if (idx < len && expression.charAt(idx) == '\'') {
+								literal.append('\'');
+								idx++;
+							} else {
+								break;
+							}
+						} else {
+							literal.append(sc);
+						}
+					}
+					tokens.add(new Token(TokenType.STRING, literal.toString(), start));
+				} else if (Character.isDigit(c) || ((c == '-' || c == '+' || c == '.') && idx + 1 < len && Character
+						.isDigit(expression.charAt(idx + 1)))) {
+					idx++;
+					while (idx < len) {
+						char nc = expression.charAt(idx);
+						if (Character.isDigit(nc) || nc == '.') {
+							idx++;
+						} else if (nc == 'e' || nc == 'E') {
+							//the exponent may be signed, as 1e-5.
+							idx++;
+							if (idx < len && (expression.charAt(idx) == '-' || expression.charAt(idx) == '+')) {
+								idx++;
+							}
+						} else {
+							break;
+						}
+					}
+					String number = expression.substring(start, idx);
+					if (Double.isNaN(parseNumber(number))) {
+						throw new IllegalArgumentException(String.format(
+								"invalid filter expression [%s] at %d: invalid number '%s'.", expression, start,
+								number));
+					}
+					tokens.add(new Token(TokenType.NUMBER, number, start));
+				} else if (c == '=' || c == '<' || c == '>' || c == '!') {
+					idx++;
+					if (idx < len && (expression.charAt(idx) == '=' || (c == '<' && expression.charAt(idx) == '>'))) {
+						idx++;
+					}
+					tokens.add(new Token(TokenType.OPERATOR, expression.substring(start, idx), start));
+				} else if (Character.isLetter(c) || c == '_') {
+					idx++;
+					while (idx < len && (Character.isLetterOrDigit(expression.charAt(idx))
+							|| expression.charAt(idx) == '_' || expression.charAt(idx) == '.')) {
+						idx++;
+					}
+					tokens.add(new Token(TokenType.IDENTIFIER, expression.substring(start, idx), start));
+				} else {
+					throw new IllegalArgumentException(String.format(
+							"invalid filter expression [%s] at %d: unexpected character '%s'.", expression, idx, c));
+				}
+			}
+			tokens.add(new Token(TokenType.END, "<end>", len));
+			return tokens;
+		}
+	}
+}
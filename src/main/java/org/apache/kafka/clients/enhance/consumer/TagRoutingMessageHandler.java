@@ -0,0 +1,210 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.enhance.consumer.listener.ConcurrentConsumeContext;
+import org.apache.kafka.clients.enhance.consumer.listener.ConcurrentMessageHandler;
+import org.apache.kafka.clients.enhance.consumer.listener.ConsumeStatus;
+import org.apache.kafka.clients.enhance.exception.KafkaConsumeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * dispatch messages of one consumer to several handlers by tags, so that the topic is fetched only once.
+ * <p>
+ * a tag expression is '*' or tags separated by '||', e.g. 'tagA||tagB'.
+ * every message is routed to the handlers interested in any of its tags and to the '*' handlers,
+ * messages without any interested handler are acked directly.
+ * the batch is acked after all matching handlers finish, a message is retried if any of its handlers asks for
+ * retrying, the retried message is delivered to all of its handlers again.
+ */
+public class TagRoutingMessageHandler<K> implements ConcurrentMessageHandler<K> {
+	private static final Logger logger = LoggerFactory.getLogger(TagRoutingMessageHandler.class);
+	public static final String TAG_EXPRESSION_ALL = "*";
+	public static final String TAG_EXPRESSION_SEP = "||";
+
+	private final Object lock = new Object();
+	private volatile RoutingIndex<K> index = new RoutingIndex<>(Collections.<Route<K>>emptyList());
+
+	private static final class Route<K> {
+		private final Set<String> tags;
+		private final ConcurrentMessageHandler<K> handler;
+
+		Route(Set<String> tags, ConcurrentMessageHandler<K> handler) {
+			this.tags = tags;
+			this.handler = handler;
+		}
+	}
+
+	//immutable inverted index from tag to the positions of interested handlers, rebuilt on registering.
+	private static final class RoutingIndex<K> {
+		private final List<Route<K>> routes;
+		private final Map<String, int[]> handlersByTag = new HashMap<>();
+		private final int[] wildcardHandlers;
+
+		RoutingIndex(List<Route<K>> routes) {
+			this.routes = routes;
+			Map<String, List<Integer>> tagIndex = new HashMap<>();
+			List<Integer> wildcards = new ArrayList<>();
+			for (int pos = 0; pos < routes.size(); pos++) {
+				Route<K> route = routes.get(pos);
+				if (route.tags.isEmpty()) {
+					wildcards.add(pos);
+					continue;
+				}
+				for (String tag : route.tags) {
+					List<Integer> positions = tagIndex.get(tag);
+					if (null == positions) {
+						positions = new ArrayList<>();
+						tagIndex.put(tag, positions);
+					}
+					positions.add(pos);
+				}
+			}
+			for (Map.Entry<String, List<Integer>> entry : tagIndex.entrySet()) {
+				handlersByTag.put(entry.getKey(), toArray(entry.getValue()));
+			}
+			this.wildcardHandlers = toArray(wildcards);
+		}
+
+		private static int[] toArray(List<Integer> positions) {
+			int[] array = new int[positions.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = positions.get(i);
+			}
+			return array;
+		}
+
+		void route(ExtMessage<K> message, BitSet matchedHandlers) {
+			for (int pos : wildcardHandlers) {
+				matchedHandlers.set(pos);
+			}
+			for (String tag : message.getTags()) {
+				int[] positions = handlersByTag.get(tag);
+				if (null != positions) {
+					for (int pos : positions) {
+						matchedHandlers.set(pos);
+					}
+				}
+			}
+		}
+	}
+
+	public void addHandler(String tagExpression, ConcurrentMessageHandler<K> handler) {
+		if (null == handler) {
+			throw new KafkaConsumeException("message handler couldn't be null.");
+		}
+		Route<K> route = new Route<>(parseTagExpression(tagExpression), handler);
+		synchronized (lock) {
+			List<Route<K>> routes = new ArrayList<>(index.routes);
+			routes.add(route);
+			index = new RoutingIndex<>(Collections.unmodifiableList(routes));
+		}
+		logger.info("[TagRoutingMessageHandler] handler [{}] is registered for tags [{}].", handler, tagExpression);
+	}
+
+	public int handlerCount() {
+		return index.routes.size();
+	}
+
+	static Set<String> parseTagExpression(String tagExpression) {
+		if (null == tagExpression || tagExpression.trim().isEmpty() || TAG_EXPRESSION_ALL
+				.equals(tagExpression.trim())) {
+			return Collections.emptySet();
+		}
+		Set<String> tags = new HashSet<>();
+		int from = 0;
+		while (from <= tagExpression.length()) {
+			int end = tagExpression.indexOf(TAG_EXPRESSION_SEP, from);
+			if (end < 0) {
+				end = tagExpression.length();
+			}
+			String tag = tagExpression.substring(from, end).trim();
+			if (!tag.isEmpty()) {
+				tags.add(tag);
+			}
+			from = end + TAG_EXPRESSION_SEP.length();
+		}
+		if (tags.isEmpty()) {
+			throw new KafkaConsumeException("invalid tag expression [" + tagExpression + "].");
+		}
+		return Collections.unmodifiableSet(tags);
+	}
+
+	@Override
+	public ConsumeStatus consumeMessage(List<ExtMessage<K>> messages, ConcurrentConsumeContext consumeContext)
+			throws InterruptedException {
+		RoutingIndex<K> currentIndex = this.index;
+		int handlerNum = currentIndex.routes.size();
+
+		//positions of the messages in the batch, grouped by handler.
+		List<List<Integer>> batchesByHandler = new ArrayList<>(handlerNum);
+		for (int pos = 0; pos < handlerNum; pos++) {
+			batchesByHandler.add(null);
+		}
+		BitSet matchedHandlers = new BitSet(handlerNum);
+		for (int idx = 0; idx < messages.size(); idx++) {
+			matchedHandlers.clear();
+			currentIndex.route(messages.get(idx), matchedHandlers);
+			for (int pos = matchedHandlers.nextSetBit(0); pos >= 0; pos = matchedHandlers.nextSetBit(pos + 1)) {
+				List<Integer> batch = batchesByHandler.get(pos);
+				if (null == batch) {
+					batch = new ArrayList<>();
+					batchesByHandler.set(pos, batch);
+				}
+				batch.add(idx);
+			}
+		}
+
+		BitSet failedMessages = new BitSet(messages.size());
+		int delayLevel = Integer.MIN_VALUE;
+		for (int pos = 0; pos < handlerNum; pos++) {
+			List<Integer> batch = batchesByHandler.get(pos);
+			if (null == batch)
+				continue;
+			List<ExtMessage<K>> handlerMessages = new ArrayList<>(batch.size());
+			for (int idx : batch) {
+				handlerMessages.add(messages.get(idx));
+			}
+			ConcurrentConsumeContext handlerContext = new ConcurrentConsumeContext(
+					consumeContext.getTopicPartition(), consumeContext.getBeginOffset(), batch.size());
+			ConsumeStatus status = consumeByHandler(currentIndex.routes.get(pos).handler, handlerMessages,
+					handlerContext);
+			if (ConsumeStatus.CONSUME_RETRY_LATER == status) {
+				for (int i = 0; i < batch.size(); i++) {
+					if (!handlerContext.getStatusByBatchIndex(i)) {
+						failedMessages.set(batch.get(i));
+					}
+				}
+				if (handlerContext.isValidDelayLevel()) {
+					delayLevel = Math.max(delayLevel, handlerContext.getDelayLevelAtReconsume());
+				}
+			}
+		}
+
+		if (failedMessages.isEmpty()) {
+			return ConsumeStatus.CONSUME_SUCCESS;
+		}
+		for (int idx = 0; idx < messages.size(); idx++) {
+			consumeContext.updateConsumeStatusInBatch(idx, !failedMessages.get(idx));
+		}
+		if (Integer.MIN_VALUE != delayLevel) {
+			consumeContext.setDelayLevelAtReconsume(delayLevel);
+		}
+		return ConsumeStatus.CONSUME_RETRY_LATER;
+	}
+
+	private ConsumeStatus consumeByHandler(ConcurrentMessageHandler<K> handler, List<ExtMessage<K>> messages,
+			ConcurrentConsumeContext handlerContext) throws InterruptedException {
+		try {
+			ConsumeStatus status = handler.consumeMessage(Collections.unmodifiableList(messages), handlerContext);
+			return (null == status) ? ConsumeStatus.CONSUME_SUCCESS : status;
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Throwable t) {
+			logger.warn("[TagRoutingMessageHandler] handler [{}] execute failed. due to ", handler, t);
+			return ConsumeStatus.CONSUME_RETRY_LATER;
+		}
+	}
+}
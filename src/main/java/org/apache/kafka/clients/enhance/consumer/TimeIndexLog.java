@@ -0,0 +1,220 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.common.utils.MappedByteBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * maps the timestamps of a partition to offsets in memory mapped segment files.
+ * <p>
+ * an entry [long timestamp][long offset] is appended when a record has a larger timestamp than all the records
+ * before it, so the first entry whose timestamp is at least t is the first offset whose timestamp is at least t,
+ * which is what ListOffsets returns. segment layout: [long indexed offset][int entries][int reserved][entries...],
+ * the indexed offset is the next offset to index, the consumer continues from it after restart.
+ * <p>
+ * thread safe, written by the indexing thread and read by the lookups.
+ */
+class TimeIndexLog {
+	private static final Logger logger = LoggerFactory.getLogger(TimeIndexLog.class);
+	static final String SEGMENT_SUFFIX = ".timeindex";
+	static final int HEADER_SIZE = 16;
+	static final int ENTRY_SIZE = 16;
+
+	private final File dir;
+	private final int segmentEntries;
+	private final List<Segment> segments = new ArrayList<>();
+	private long maxTimestamp = Long.MIN_VALUE;
+
+	TimeIndexLog(File dir, int segmentEntries) throws IOException {
+		this.dir = dir;
+		this.segmentEntries = segmentEntries;
+		if (!dir.exists() && !dir.mkdirs()) {
+			throw new IOException("failed to create index directory " + dir);
+		}
+		File[] files = dir.listFiles();
+		if (null != files) {
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+					segments.add(new Segment(file, segmentEntries));
+				}
+			}
+		}
+		Segment last = lastSegment();
+		if (null != last && last.entries > 0) {
+			maxTimestamp = last.timestamp(last.entries - 1);
+		}
+	}
+
+	//the next offset to index, -1 if nothing is indexed.
+	synchronized long indexedOffset() {
+		Segment last = lastSegment();
+		return null == last ? -1L : last.indexedOffset();
+	}
+
+	synchronized void append(long timestamp, long offset) throws IOException {
+		if (timestamp <= maxTimestamp)
+			return;
+		Segment last = lastSegment();
+		if (null == last || last.entries >= segmentEntries) {
+			long indexedOffset = null == last ? offset : last.indexedOffset();
+			last = new Segment(new File(dir, String.format("%020d%s", offset, SEGMENT_SUFFIX)), segmentEntries);
+			last.checkpoint(indexedOffset);
+			segments.add(last);
+		}
+		last.append(timestamp, offset);
+		maxTimestamp = timestamp;
+	}
+
+	synchronized void checkpoint(long nextOffset) throws IOException {
+		Segment last = lastSegment();
+		if (null == last) {
+			last = new Segment(new File(dir, String.format("%020d%s", nextOffset, SEGMENT_SUFFIX)), segmentEntries);
+			segments.add(last);
+		}
+		last.checkpoint(nextOffset);
+	}
+
+	/**
+	 * the first indexed offset whose timestamp is at least the given one, -1 if the timestamp isn't covered by the
+	 * indexed records, i.e. not after the first indexed timestamp or after the last one.
+	 */
+	synchronized long lookup(long timestamp) {
+		if (segments.isEmpty() || segments.get(0).entries == 0 || timestamp > maxTimestamp
+				|| timestamp <= segments.get(0).timestamp(0))
+			return -1L;
+		int low = 0;
+		int high = segments.size() - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			Segment segment = segments.get(mid);
+			if (segment.entries == 0 || segment.timestamp(segment.entries - 1) < timestamp)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return segments.get(low).lookup(timestamp);
+	}
+
+	//deletes the oldest segments whose timestamps are all before the given one, the last segment is kept.
+	synchronized void deleteSegmentsBefore(long timestamp) {
+		while (segments.size() > 1) {
+			Segment first = segments.get(0);
+			if (first.entries > 0 && first.timestamp(first.entries - 1) >= timestamp)
+				break;
+			segments.remove(0).delete();
+		}
+	}
+
+	synchronized long maxTimestamp() {
+		return maxTimestamp;
+	}
+
+	synchronized void flush() {
+		Segment last = lastSegment();
+		if (null != last) {
+			last.buffer.force();
+		}
+	}
+
+	synchronized void close() {
+		for (Segment segment : segments) {
+			segment.close();
+		}
+		segments.clear();
+	}
+
+	private Segment lastSegment() {
+		return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+	}
+
+	private static final class Segment {
+		private final File file;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private int entries;
+
+		Segment(File file, int segmentEntries) throws IOException {
+			this.file = file;
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				long size = HEADER_SIZE + (long) segmentEntries * ENTRY_SIZE;
+				raf.setLength(size);
+				this.channel = raf.getChannel();
+				this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			} catch (IOException e) {
+				raf.close();
+				throw e;
+			}
+			this.entries = Math.min(Math.max(0, buffer.getInt(8)), segmentEntries);
+		}
+
+		long indexedOffset() {
+			return buffer.getLong(0);
+		}
+
+		long timestamp(int entry) {
+			return buffer.getLong(HEADER_SIZE + entry * ENTRY_SIZE);
+		}
+
+		long offset(int entry) {
+			return buffer.getLong(HEADER_SIZE + entry * ENTRY_SIZE + 8);
+		}
+
+		void append(long timestamp, long offset) {
+			int position = HEADER_SIZE + entries * ENTRY_SIZE;
+			buffer.putLong(position, timestamp);
+			buffer.putLong(position + 8, offset);
+			//the count is written last, a partially written entry isn't seen.
+			buffer.putInt(8, ++entries);
+		}
+
+		void checkpoint(long nextOffset) {
+			buffer.putLong(0, nextOffset);
+		}
+
+		long lookup(long timestamp) {
+			int low = 0;
+			int high = entries - 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (timestamp(mid) < timestamp)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return offset(low);
+		}
+
+		void close() {
+			try {
+				buffer.force();
+				channel.close();
+				MappedByteBuffers.unmap(file.getAbsolutePath(), buffer);
+			} catch (IOException e) {
+				logger.warn("[TimeIndexLog] failed to close segment [{}].", file, e);
+			}
+		}
+
+		void delete() {
+			try {
+				channel.close();
+				MappedByteBuffers.unmap(file.getAbsolutePath(), buffer);
+			} catch (IOException e) {
+				logger.warn("[TimeIndexLog] failed to close segment [{}].", file, e);
+			}
+			if (!file.delete()) {
+				logger.warn("[TimeIndexLog] failed to delete expired segment [{}].", file);
+			}
+		}
+	}
+}
@@ -0,0 +1,287 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AlterConfigsOptions;
+import org.apache.kafka.clients.admin.Config;
+import org.apache.kafka.clients.admin.ConfigEntry;
+import org.apache.kafka.clients.admin.CreatePartitionsOptions;
+import org.apache.kafka.clients.admin.CreateTopicsOptions;
+import org.apache.kafka.clients.admin.DescribeConfigsOptions;
+import org.apache.kafka.clients.admin.DescribeTopicsOptions;
+import org.apache.kafka.clients.admin.NewPartitions;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.clients.enhance.TopicProvisionResult;
+import org.apache.kafka.clients.enhance.TopicProvisionResult.Change;
+import org.apache.kafka.clients.enhance.TopicSpec;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.config.ConfigResource;
+import org.apache.kafka.common.errors.InvalidConfigurationException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * brings the topics to the desired state with as few requests as it can.
+ * <p>
+ * the current state is read by one DescribeTopics request, and one DescribeConfigs request for the existing topics
+ * with configs in their specs. the missing topics are created, the partitions increased and the configs altered by
+ * batches of batchSize topics, at most maxInFlight batches are in flight at a time. alterConfigs replaces the
+ * configs of a topic, so the overrides which aren't in the spec are sent again, a topic with a sensitive override
+ * which isn't in the spec fails, since its value can't be read.
+ */
+class TopicProvisioner {
+	private static final Logger logger = LoggerFactory.getLogger(TopicProvisioner.class);
+	static final int DEFAULT_BATCH_SIZE = 50;
+	static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+	private final AdminClient adminClient;
+	private final int batchSize;
+	private final int maxInFlight;
+	private final Time time;
+
+	TopicProvisioner(AdminClient adminClient, int batchSize, int maxInFlight, Time time) {
+		this.adminClient = adminClient;
+		this.batchSize = batchSize;
+		this.maxInFlight = maxInFlight;
+		this.time = time;
+	}
+
+	Map<String, TopicProvisionResult> provision(Collection<TopicSpec> specs, long timeoutMs) throws InterruptedException {
+		Map<String, TopicSpec> desired = new LinkedHashMap<>();
+		for (TopicSpec spec : specs) {
+			if (null != desired.put(spec.name(), spec)) {
+				throw new IllegalArgumentException("topic [" + spec.name() + "] is specified more than once.");
+			}
+		}
+		Progress progress = new Progress(time.milliseconds() + timeoutMs);
+		if (desired.isEmpty())
+			return progress.results(desired.keySet());
+
+		Map<String, KafkaFuture<TopicDescription>> described = adminClient.describeTopics(desired.keySet(),
+				new DescribeTopicsOptions().timeoutMs(progress.remainingMs())).values();
+		Map<String, TopicDescription> existing = new HashMap<>();
+		List<NewTopic> creates = new ArrayList<>();
+		for (TopicSpec spec : desired.values()) {
+			try {
+				existing.put(spec.name(), progress.await(described.get(spec.name())));
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof UnknownTopicOrPartitionException) {
+					NewTopic newTopic = new NewTopic(spec.name(), spec.partitions(), spec.replicas());
+					creates.add(newTopic.configs(spec.configs().isEmpty() ? null : spec.configs()));
+				} else {
+					progress.fail(spec.name(), e.getCause());
+				}
+			}
+		}
+
+		Map<String, NewPartitions> increases = new LinkedHashMap<>();
+		Map<ConfigResource, KafkaFuture<Config>> configs = describeConfigs(desired, existing, progress);
+		Map<ConfigResource, Config> alters = new LinkedHashMap<>();
+		for (Map.Entry<String, TopicDescription> entry : existing.entrySet()) {
+			TopicSpec spec = desired.get(entry.getKey());
+			int partitions = entry.getValue().partitions().size();
+			if (partitions < spec.partitions()) {
+				increases.put(spec.name(), NewPartitions.increaseTo(spec.partitions()));
+			} else if (partitions > spec.partitions()) {
+				logger.info("[TopicProvisioner] topic [{}] has {} partitions, more than {} of the spec.", spec.name(),
+						partitions, spec.partitions());
+			}
+			ConfigResource resource = new ConfigResource(ConfigResource.Type.TOPIC, spec.name());
+			KafkaFuture<Config> current = configs.get(resource);
+			if (null == current)
+				continue;
+			try {
+				Config altered = alteredConfig(progress.await(current), spec.configs());
+				if (null != altered) {
+					alters.put(resource, altered);
+				}
+			} catch (ExecutionException e) {
+				progress.fail(spec.name(), e.getCause());
+			} catch (InvalidConfigurationException e) {
+				progress.fail(spec.name(), e);
+			}
+		}
+
+		send(creates, increases, alters, progress);
+		logger.info("[TopicProvisioner] provisioned {} topics, created {}, increased partitions of {}, altered configs of {}.",
+				desired.size(), creates.size(), increases.size(), alters.size());
+		return progress.results(desired.keySet());
+	}
+
+	private Map<ConfigResource, KafkaFuture<Config>> describeConfigs(Map<String, TopicSpec> desired,
+			Map<String, TopicDescription> existing, Progress progress) {
+		List<ConfigResource> resources = new ArrayList<>();
+		for (String topic : existing.keySet()) {
+			if (!desired.get(topic).configs().isEmpty()) {
+				resources.add(new ConfigResource(ConfigResource.Type.TOPIC, topic));
+			}
+		}
+		if (resources.isEmpty())
+			return new HashMap<>();
+		return adminClient.describeConfigs(resources, new DescribeConfigsOptions().timeoutMs(progress.remainingMs()))
+				.values();
+	}
+
+	/**
+	 * the current overrides with the desired configs, null if the topic has them already. the values of sensitive
+	 * overrides aren't described, so they can't be sent again, the spec must list them or the topic isn't altered.
+	 */
+	static Config alteredConfig(Config current, Map<String, String> desired) {
+		boolean changed = false;
+		for (Map.Entry<String, String> entry : desired.entrySet()) {
+			ConfigEntry currentEntry = current.get(entry.getKey());
+			if (null == currentEntry || currentEntry.isDefault() || !entry.getValue().equals(currentEntry.value())) {
+				changed = true;
+				break;
+			}
+		}
+		if (!changed)
+			return null;
+		Map<String, ConfigEntry> entries = new LinkedHashMap<>();
+		for (ConfigEntry entry : current.entries()) {
+			if (entry.isDefault() || entry.isReadOnly())
+				continue;
+			if (entry.isSensitive()) {
+				if (!desired.containsKey(entry.name())) {
+					throw new InvalidConfigurationException("sensitive config [" + entry.name()
+							+ "] would be removed by altering the configs, it must be in the spec.");
+				}
+				continue;
+			}
+			entries.put(entry.name(), new ConfigEntry(entry.name(), entry.value()));
+		}
+		for (Map.Entry<String, String> entry : desired.entrySet()) {
+			entries.put(entry.getKey(), new ConfigEntry(entry.getKey(), entry.getValue()));
+		}
+		return new Config(entries.values());
+	}
+
+	//sends the batches in a window of maxInFlight, the oldest batch is waited on before the next is sent.
+	private void send(List<NewTopic> creates, Map<String, NewPartitions> increases, Map<ConfigResource, Config> alters,
+			Progress progress) throws InterruptedException {
+		Deque<Batch> inFlight = new ArrayDeque<>();
+		for (int from = 0; from < creates.size(); from += batchSize) {
+			List<NewTopic> batch = creates.subList(from, Math.min(creates.size(), from + batchSize));
+			await(inFlight, progress);
+			inFlight.add(new Batch(Change.CREATED, adminClient.createTopics(batch,
+					new CreateTopicsOptions().timeoutMs(progress.remainingMs())).values()));
+		}
+		for (Map<String, NewPartitions> batch : split(increases)) {
+			await(inFlight, progress);
+			inFlight.add(new Batch(Change.PARTITIONS_INCREASED, adminClient.createPartitions(batch,
+					new CreatePartitionsOptions().timeoutMs(progress.remainingMs())).values()));
+		}
+		for (Map<ConfigResource, Config> batch : split(alters)) {
+			await(inFlight, progress);
+			Map<String, KafkaFuture<Void>> futures = new HashMap<>();
+			for (Map.Entry<ConfigResource, KafkaFuture<Void>> entry : adminClient.alterConfigs(batch,
+					new AlterConfigsOptions().timeoutMs(progress.remainingMs())).values().entrySet()) {
+				futures.put(entry.getKey().name(), entry.getValue());
+			}
+			inFlight.add(new Batch(Change.CONFIGS_ALTERED, futures));
+		}
+		while (!inFlight.isEmpty()) {
+			progress.complete(inFlight.poll());
+		}
+	}
+
+	private void await(Deque<Batch> inFlight, Progress progress) throws InterruptedException {
+		while (inFlight.size() >= maxInFlight) {
+			progress.complete(inFlight.poll());
+		}
+	}
+
+	private <T, V> List<Map<T, V>> split(Map<T, V> values) {
+		List<Map<T, V>> batches = new ArrayList<>();
+		Map<T, V> batch = null;
+		for (Map.Entry<T, V> entry : values.entrySet()) {
+			if (null == batch || batch.size() >= batchSize) {
+				batch = new LinkedHashMap<>();
+				batches.add(batch);
+			}
+			batch.put(entry.getKey(), entry.getValue());
+		}
+		return batches;
+	}
+
+	private static final class Batch {
+		private final Change change;
+		private final Map<String, KafkaFuture<Void>> futures;
+
+		Batch(Change change, Map<String, KafkaFuture<Void>> futures) {
+			this.change = change;
+			this.futures = futures;
+		}
+	}
+
+	private final class Progress {
+		private final long deadlineMs;
+		private final Map<String, Set<Change>> changes = new HashMap<>();
+		private final Map<String, Throwable> errors = new HashMap<>();
+
+		Progress(long deadlineMs) {
+			this.deadlineMs = deadlineMs;
+		}
+
+		int remainingMs() {
+			return (int) Math.max(0L, Math.min(Integer.MAX_VALUE, deadlineMs - time.milliseconds()));
+		}
+
+		<T> T await(KafkaFuture<T> future) throws ExecutionException, InterruptedException {
+			try {
+				return future.get(remainingMs(), TimeUnit.MILLISECONDS);
+			} catch (java.util.concurrent.TimeoutException e) {
+				throw new ExecutionException(new TimeoutException("timed out provisioning topics."));
+			}
+		}
+
+		void complete(Batch batch) throws InterruptedException {
+			for (Map.Entry<String, KafkaFuture<Void>> entry : batch.futures.entrySet()) {
+				try {
+					await(entry.getValue());
+					Set<Change> topicChanges = changes.get(entry.getKey());
+					if (null == topicChanges) {
+						topicChanges = EnumSet.noneOf(Change.class);
+						changes.put(entry.getKey(), topicChanges);
+					}
+					topicChanges.add(batch.change);
+				} catch (ExecutionException e) {
+					fail(entry.getKey(), e.getCause());
+				}
+			}
+		}
+
+		void fail(String topic, Throwable error) {
+			logger.warn("[TopicProvisioner] failed to provision topic [{}].", topic, error);
+			if (!errors.containsKey(topic)) {
+				errors.put(topic, error);
+			}
+		}
+
+		Map<String, TopicProvisionResult> results(Collection<String> topics) {
+			Map<String, TopicProvisionResult> results = new LinkedHashMap<>();
+			for (String topic : topics) {
+				Set<Change> topicChanges = changes.get(topic);
+				results.put(topic, new TopicProvisionResult(topic,
+						null == topicChanges ? EnumSet.noneOf(Change.class) : topicChanges, errors.get(topic)));
+			}
+			return results;
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.enhance.ClientThreadFactory;
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.enhance.ExtMessageEncoder;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionRatioEstimator;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.SimpleRecord;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * chooses the compression codec of a topic from the candidates by the messages sent to it.
+ * <p>
+ * every sample interval the messages of the topic are collected until there are sampleBytes of them, then the
+ * sample is compressed as a record batch with every candidate in the background. the ratio of a codec is tracked by
+ * CompressionRatioEstimator, which the accumulator also uses to size the batches, and the compress time per byte
+ * by a moving average. the codec with the least compress time plus transfer time per byte at the bandwidth is used
+ * for the batches created afterwards, it must be 10% better than the current one to avoid flapping.
+ */
+class AdaptiveCompressionPolicy<K> {
+	private static final Logger logger = LoggerFactory.getLogger(AdaptiveCompressionPolicy.class);
+	static final String METRIC_GROUP_NAME = "adaptive-compression-metrics";
+	static final double SWITCH_THRESHOLD = 0.9;
+	static final double CPU_COST_WEIGHT = 0.3;
+	static final int MAX_SAMPLE_RECORDS = 1024;
+
+	private final List<CompressionType> candidates;
+	private final double transferNsPerByte;
+	private final int sampleBytes;
+	private final long sampleIntervalMs;
+	private final Serializer<K> keySerializer;
+	private final ExtMessageEncoder<K> encoder = new ExtMessageEncoder<>();
+	private final Time time;
+	private final ConcurrentMap<String, TopicState> topicStates = new ConcurrentHashMap<>();
+	private final ExecutorService executor;
+	private final AtomicLong switchCount = new AtomicLong();
+
+	private volatile ProducerShards<?> shards;
+	private Metrics metrics;
+	private final List<MetricName> registeredMetrics = new ArrayList<>();
+
+	AdaptiveCompressionPolicy(ProducerClientContext<K> context, Time time) {
+		this.candidates = new ArrayList<>(context.compressionCandidates());
+		this.transferNsPerByte = TimeUnit.SECONDS.toNanos(1) / (double) context.compressionBandwidthBytes();
+		this.sampleBytes = context.compressionSampleBytes();
+		this.sampleIntervalMs = context.compressionSampleIntervalMs();
+		this.keySerializer = context.keySerializer();
+		this.time = time;
+		for (String topic : context.adaptiveCompressionTopics()) {
+			topicStates.put(topic, new TopicState(context.compressionType()));
+		}
+		this.executor = Executors.newSingleThreadExecutor(new ClientThreadFactory("kafka-producer-compression-"));
+	}
+
+	void attach(ProducerShards<?> shards) {
+		this.shards = shards;
+		this.metrics = shards.kafkaMetrics();
+		registerMetrics();
+	}
+
+	//called on the send path, cheap unless the topic is being sampled.
+	void sample(ProducerRecord<K, ExtMessage<K>> record) {
+		final TopicState state = topicStates.get(record.topic());
+		if (null == state || time.milliseconds() < state.nextSampleMs)
+			return;
+		byte[] key = null == record.key() || null == keySerializer ? null
+				: keySerializer.serialize(record.topic(), record.key());
+		byte[] value = encoder.serialize(record.topic(), record.value());
+		final List<SimpleRecord> sample;
+		synchronized (state) {
+			if (state.evaluating)
+				return;
+			state.sample.add(new SimpleRecord(0L, key, value));
+			state.sampleBytes += value.length + (null == key ? 0 : key.length);
+			if (state.sampleBytes < sampleBytes && state.sample.size() < MAX_SAMPLE_RECORDS)
+				return;
+			sample = state.sample;
+			state.sample = new ArrayList<>();
+			state.sampleBytes = 0;
+			state.evaluating = true;
+			state.nextSampleMs = time.milliseconds() + sampleIntervalMs;
+		}
+		final String topic = record.topic();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						evaluate(topic, sample);
+					} catch (Exception e) {
+						logger.warn("[AdaptiveCompressionPolicy] failed to evaluate compression of [{}].", topic, e);
+					} finally {
+						synchronized (state) {
+							state.evaluating = false;
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			synchronized (state) {
+				state.evaluating = false;
+			}
+		}
+	}
+
+	//compresses the sample with every candidate and switches the codec of the topic if a better one is found.
+	CompressionType evaluate(String topic, List<SimpleRecord> sample) {
+		TopicState state = topicStates.get(topic);
+		int rawSize = compressedSize(sample, CompressionType.NONE);
+		CompressionType best = state.current;
+		double bestCost = Double.MAX_VALUE;
+		double currentCost = Double.MAX_VALUE;
+		for (CompressionType type : candidates) {
+			long startNs = System.nanoTime();
+			int size;
+			try {
+				size = compressedSize(sample, type);
+			} catch (Throwable e) {
+				//the codec library may be missing at runtime.
+				logger.warn("[AdaptiveCompressionPolicy] codec [{}] isn't available, skip it.", type.name, e);
+				continue;
+			}
+			double nsPerByte = (System.nanoTime() - startNs) / (double) rawSize;
+			Double lastNsPerByte = state.cpuNsPerByte.get(type);
+			nsPerByte = null == lastNsPerByte ? nsPerByte
+					: lastNsPerByte * (1 - CPU_COST_WEIGHT) + nsPerByte * CPU_COST_WEIGHT;
+			state.cpuNsPerByte.put(type, nsPerByte);
+
+			float ratio = 1.0f;
+			if (type != CompressionType.NONE) {
+				float observedRatio = (float) size / rawSize;
+				if (state.evaluations == 0) {
+					CompressionRatioEstimator.setEstimation(topic, type, observedRatio);
+					ratio = observedRatio;
+				} else {
+					ratio = CompressionRatioEstimator.updateEstimation(topic, type, observedRatio);
+				}
+			}
+			double cost = nsPerByte + ratio * transferNsPerByte;
+			if (cost < bestCost) {
+				bestCost = cost;
+				best = type;
+			}
+			if (type == state.current) {
+				currentCost = cost;
+			}
+		}
+		state.evaluations++;
+		if (best != state.current && bestCost < currentCost * SWITCH_THRESHOLD) {
+			logger.debug("[AdaptiveCompressionPolicy] switch compression of [{}] from [{}] to [{}], cost [{}] -> [{}] ns/byte.",
+					topic, state.current.name, best.name, currentCost, bestCost);
+			state.current = best;
+			switchCount.incrementAndGet();
+			ProducerShards<?> currentShards = shards;
+			if (null != currentShards) {
+				currentShards.compressionType(topic, best);
+			}
+		}
+		return state.current;
+	}
+
+	private static int compressedSize(List<SimpleRecord> sample, CompressionType type) {
+		MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), RecordBatch.CURRENT_MAGIC_VALUE,
+				type, TimestampType.CREATE_TIME, 0L);
+		for (SimpleRecord record : sample) {
+			builder.append(record);
+		}
+		return builder.build().sizeInBytes();
+	}
+
+	CompressionType compressionType(String topic) {
+		TopicState state = topicStates.get(topic);
+		return null == state ? null : state.current;
+	}
+
+	private void registerMetrics() {
+		if (null == metrics)
+			return;
+		addGauge(metrics.metricName("compression-switch-total", METRIC_GROUP_NAME,
+				"The number of times the codec of a topic is switched"), new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return switchCount.get();
+			}
+		});
+		for (Map.Entry<String, TopicState> entry : topicStates.entrySet()) {
+			final TopicState state = entry.getValue();
+			addGauge(metrics.metricName("compression-type-id", METRIC_GROUP_NAME,
+					"The id of the codec chosen for the topic", "topic", entry.getKey()), new Measurable() {
+				@Override
+				public double measure(MetricConfig config, long now) {
+					return state.current.id;
+				}
+			});
+		}
+	}
+
+	private void addGauge(MetricName metricName, Measurable measurable) {
+		try {
+			metrics.addMetric(metricName, measurable);
+			registeredMetrics.add(metricName);
+		} catch (IllegalArgumentException e) {
+			logger.info("[AdaptiveCompressionPolicy] metric [{}] has been registered.", metricName.name());
+		}
+	}
+
+	void close() {
+		executor.shutdownNow();
+		if (null == metrics)
+			return;
+		for (MetricName metricName : registeredMetrics) {
+			metrics.removeMetric(metricName);
+		}
+		registeredMetrics.clear();
+	}
+
+	private static final class TopicState {
+		volatile CompressionType current;
+		volatile long nextSampleMs;
+		//guarded by the state.
+		List<SimpleRecord> sample = new ArrayList<>();
+		int sampleBytes;
+		boolean evaluating;
+		//accessed by the evaluating thread only.
+		int evaluations;
+		final Map<CompressionType, Double> cpuNsPerByte = new ConcurrentHashMap<>();
+
+		TopicState(CompressionType current) {
+			this.current = current;
+		}
+	}
+}
@@ -0,0 +1,350 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.errors.InterruptException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * limits the sending of a KafkaEnhanceProducer before the buffer memory is full.
+ * <p>
+ * the number of unacked messages is limited by a window, which is adjusted in the AIMD way every interval:
+ * when the average ack latency beyond linger.ms is above the target, the broker throttles the producer or sends time out,
+ * the window is halved and linger.ms is doubled to make larger batches, otherwise the window grows by about one
+ * per round trip and linger.ms goes back step by step.
+ * topics with a rate limit pass a token bucket first. senders which can't get a permit in max.block.ms fail fast
+ * with a TimeoutException instead of piling up in the buffer pool.
+ */
+class AdaptiveSendController {
+	private static final Logger logger = LoggerFactory.getLogger(AdaptiveSendController.class);
+	static final String METRIC_GROUP_NAME = "send-controller-metrics";
+	static final long ADJUST_INTERVAL_MS = 100L;
+
+	private final boolean windowEnabled;
+	private final int minWindow;
+	private final int maxWindow;
+	private final long targetLatencyMs;
+	private final long minLingerMs;
+	private final long maxLingerMs;
+	private final long maxBlockMs;
+	private final Time time;
+	private final Map<String, TokenBucket> topicBuckets = new HashMap<>();
+
+	private final Object windowLock = new Object();
+	private int window;
+	private int inFlight;
+	private volatile long lingerMs;
+
+	//stats of the current interval.
+	private final AtomicLong latencySumMs = new AtomicLong();
+	private final AtomicLong ackedNum = new AtomicLong();
+	private final AtomicLong timeoutNum = new AtomicLong();
+	private final AtomicBoolean adjusting = new AtomicBoolean(false);
+	private volatile long lastAdjustMs;
+	private volatile double lastLatencyAvgMs;
+	private volatile double lastThrottleTimeMs;
+
+	private final AtomicLong windowDecreaseCount = new AtomicLong();
+	private final AtomicLong rateLimitedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	private volatile ProducerShards<?> shards;
+	private Metrics metrics;
+	private final List<MetricName> registeredMetrics = new ArrayList<>();
+
+	AdaptiveSendController(ProducerClientContext<?> context, Time time) {
+		this.windowEnabled = context.isAdaptiveSendEnabled();
+		this.minWindow = context.minInFlightMessages();
+		this.maxWindow = context.maxInFlightMessages();
+		this.targetLatencyMs = context.targetSendLatencyMs();
+		this.minLingerMs = context.minLingerMs();
+		this.maxLingerMs = context.maxLingerMs();
+		this.maxBlockMs = context.maxBlockMs();
+		this.time = time;
+		this.window = maxWindow;
+		this.lingerMs = minLingerMs;
+		this.lastAdjustMs = time.milliseconds();
+		for (Map.Entry<String, Double> entry : context.topicRateLimits().entrySet()) {
+			topicBuckets.put(entry.getKey(), new TokenBucket(entry.getValue(), time));
+		}
+	}
+
+	//the controller reads the throttle time of the shards and updates their linger.ms.
+	void attach(ProducerShards<?> shards) {
+		this.shards = shards;
+		if (windowEnabled) {
+			shards.lingerMs(lingerMs);
+		}
+		this.metrics = shards.kafkaMetrics();
+		registerMetrics();
+	}
+
+	//called before a message of the topic is sent, onAcked must be called once if it returns normally.
+	void acquire(String topic) {
+		acquire(topic, 1);
+	}
+
+	//called before a batch of messages of the topic is sent, the permits are got at once, so a batch never holds some
+	//of them while waiting for the rest. a batch larger than the window or the rate limit burst gets fewer permits,
+	//the caller sends that many messages and acquires again for the rest.
+	//return the number of permits got, onAcked must be called once for each of them if it returns normally.
+	int acquire(String topic, int num) {
+		long deadlineMs = time.milliseconds() + maxBlockMs;
+		int permits = windowEnabled ? Math.min(num, window()) : num;
+		TokenBucket bucket = topicBuckets.get(topic);
+		if (null != bucket) {
+			permits = Math.min(permits, bucket.maxBurst());
+			long waitMs = bucket.reserve(permits, maxBlockMs);
+			if (waitMs < 0) {
+				rejectedCount.incrementAndGet();
+				throw new TimeoutException("Send rate of topic " + topic + " exceeds the limit for " + maxBlockMs + " ms.");
+			}
+			if (waitMs > 0) {
+				rateLimitedCount.incrementAndGet();
+				time.sleep(waitMs);
+			}
+		}
+		if (!windowEnabled)
+			return permits;
+		synchronized (windowLock) {
+			long remainingMs = deadlineMs - time.milliseconds();
+			//the window may be decreased while waiting, the permits are capped at it again.
+			while (inFlight + Math.min(permits, window) > window) {
+				if (remainingMs <= 0) {
+					rejectedCount.incrementAndGet();
+					throw new TimeoutException("Failed to get a send permit after " + maxBlockMs + " ms, in flight = "
+							+ inFlight + ", window = " + window + ".");
+				}
+				try {
+					windowLock.wait(remainingMs);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptException(e);
+				}
+				remainingMs = deadlineMs - time.milliseconds();
+			}
+			permits = Math.min(permits, window);
+			inFlight += permits;
+			return permits;
+		}
+	}
+
+	//releases the permit of a message which isn't sent, no latency is recorded for it.
+	void release() {
+		if (!windowEnabled)
+			return;
+		synchronized (windowLock) {
+			inFlight--;
+			windowLock.notifyAll();
+		}
+	}
+
+	//releases the permit when the message is acked or fails to be sent.
+	void onAcked(long sendMs, Exception exception) {
+		if (!windowEnabled)
+			return;
+		synchronized (windowLock) {
+			inFlight--;
+			windowLock.notifyAll();
+		}
+		long now = time.milliseconds();
+		latencySumMs.addAndGet(now - sendMs);
+		ackedNum.incrementAndGet();
+		if (exception instanceof TimeoutException) {
+			timeoutNum.incrementAndGet();
+		}
+		if (now - lastAdjustMs >= ADJUST_INTERVAL_MS && adjusting.compareAndSet(false, true)) {
+			try {
+				adjust(now);
+			} finally {
+				adjusting.set(false);
+			}
+		}
+	}
+
+	private void adjust(long now) {
+		long acked = ackedNum.getAndSet(0L);
+		long latencySum = latencySumMs.getAndSet(0L);
+		long timeouts = timeoutNum.getAndSet(0L);
+		lastAdjustMs = now;
+		if (acked == 0)
+			return;
+		double latencyAvgMs = latencySum / (double) acked;
+		ProducerShards<?> currentShards = shards;
+		double throttleTimeMs = null == currentShards ? 0 : currentShards.maxThrottleTimeMs();
+		lastLatencyAvgMs = latencyAvgMs;
+		lastThrottleTimeMs = throttleTimeMs;
+
+		//the latency added by linger itself isn't congestion.
+		boolean congested = latencyAvgMs - lingerMs > targetLatencyMs || throttleTimeMs > 0 || timeouts > 0;
+		long newLingerMs;
+		synchronized (windowLock) {
+			if (congested) {
+				window = Math.max(minWindow, window / 2);
+				windowDecreaseCount.incrementAndGet();
+				newLingerMs = Math.min(maxLingerMs, Math.max(1L, lingerMs * 2));
+			} else {
+				//about one more message per round trip of the window.
+				window = (int) Math.min(maxWindow, window + Math.max(1L, acked / window));
+				newLingerMs = Math.max(minLingerMs, lingerMs - 1);
+				windowLock.notifyAll();
+			}
+		}
+		if (newLingerMs != lingerMs) {
+			lingerMs = newLingerMs;
+			if (null != currentShards) {
+				currentShards.lingerMs(newLingerMs);
+			}
+		}
+		if (congested) {
+			logger.debug("[AdaptiveSendController] congested, latency avg = [{}] ms, throttle = [{}] ms, timeouts = [{}]"
+					+ ", window = [{}], linger = [{}] ms.", latencyAvgMs, throttleTimeMs, timeouts, window, lingerMs);
+		}
+	}
+
+	int window() {
+		synchronized (windowLock) {
+			return window;
+		}
+	}
+
+	int inFlight() {
+		synchronized (windowLock) {
+			return inFlight;
+		}
+	}
+
+	long lingerMs() {
+		return lingerMs;
+	}
+
+	private void registerMetrics() {
+		if (null == metrics)
+			return;
+		addGauge("send-window", "The max number of unacked messages", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return window();
+			}
+		});
+		addGauge("send-in-flight", "The number of unacked messages", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return inFlight();
+			}
+		});
+		addGauge("send-linger-ms", "The linger.ms chosen by the controller", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return lingerMs;
+			}
+		});
+		addGauge("send-latency-avg-ms", "The average ack latency of the last interval", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return lastLatencyAvgMs;
+			}
+		});
+		addGauge("send-throttle-time-ms", "The produce throttle time seen in the last interval", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return lastThrottleTimeMs;
+			}
+		});
+		addGauge("send-window-decrease-total", "The number of times the window is decreased", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return windowDecreaseCount.get();
+			}
+		});
+		addGauge("send-rate-limited-total", "The number of sends delayed by the topic rate limit", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return rateLimitedCount.get();
+			}
+		});
+		addGauge("send-rejected-total", "The number of sends failed to get a permit in max.block.ms",
+				new Measurable() {
+					@Override
+					public double measure(MetricConfig config, long now) {
+						return rejectedCount.get();
+					}
+				});
+	}
+
+	private void addGauge(String name, String description, Measurable measurable) {
+		MetricName metricName = metrics.metricName(name, METRIC_GROUP_NAME, description);
+		try {
+			metrics.addMetric(metricName, measurable);
+			registeredMetrics.add(metricName);
+		} catch (IllegalArgumentException e) {
+			logger.info("[AdaptiveSendController] metric [{}] has been registered.", name);
+		}
+	}
+
+	void close() {
+		if (null == metrics)
+			return;
+		for (MetricName metricName : registeredMetrics) {
+			metrics.removeMetric(metricName);
+		}
+		registeredMetrics.clear();
+	}
+
+	//permits are reserved ahead, the caller sleeps until its permit is due.
+	static final class TokenBucket {
+		private final double permitsPerMs;
+		private final double maxPermits;
+		private final Time time;
+		private double permits;
+		private long lastRefillMs;
+
+		TokenBucket(double permitsPerSecond, Time time) {
+			this.permitsPerMs = permitsPerSecond / TimeUnit.SECONDS.toMillis(1);
+			//allow a burst of one second.
+			this.maxPermits = Math.max(1.0, permitsPerSecond);
+			this.time = time;
+			this.permits = maxPermits;
+			this.lastRefillMs = time.milliseconds();
+		}
+
+		//the max number of permits reserved at once.
+		int maxBurst() {
+			return (int) maxPermits;
+		}
+
+		//ms to wait for the permit, -1 if it can't be got in maxWaitMs.
+		long reserve(long maxWaitMs) {
+			return reserve(1, maxWaitMs);
+		}
+
+		//ms to wait for the num permits, -1 if they can't be got in maxWaitMs.
+		synchronized long reserve(int num, long maxWaitMs) {
+			long now = time.milliseconds();
+			permits = Math.min(maxPermits, permits + (now - lastRefillMs) * permitsPerMs);
+			lastRefillMs = now;
+			if (permits >= num) {
+				permits -= num;
+				return 0L;
+			}
+			long waitMs = (long) Math.ceil((num - permits) / permitsPerMs);
+			if (waitMs > maxWaitMs)
+				return -1L;
+			permits -= num;
+			return waitMs;
+		}
+	}
+}
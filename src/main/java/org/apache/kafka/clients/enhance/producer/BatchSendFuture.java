@@ -0,0 +1,84 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * completes when the callbacks of all messages in the batch have been called, a single latch is waited on
+ * instead of one future per message.
+ */
+class BatchSendFuture<K> implements Future<BatchSendResult<K>> {
+	private final RecordMetadata[] metadatas;
+	private final Exception[] exceptions;
+	private final AtomicIntegerArray completedFlags;
+	private final AtomicInteger remaining;
+	private final CountDownLatch completed = new CountDownLatch(1);
+	private final BatchSendResult<K> result;
+
+	BatchSendFuture(List<ExtMessage<K>> messages) {
+		this.metadatas = new RecordMetadata[messages.size()];
+		this.exceptions = new Exception[messages.size()];
+		this.completedFlags = new AtomicIntegerArray(messages.size());
+		this.remaining = new AtomicInteger(messages.size());
+		this.result = new BatchSendResult<>(messages, metadatas, exceptions);
+		if (messages.isEmpty()) {
+			completed.countDown();
+		}
+	}
+
+	//the callback of the message at idx, only the first call completes the message.
+	Callback callback(final int idx) {
+		return new Callback() {
+			@Override
+			public void onCompletion(RecordMetadata metadata, Exception exception) {
+				if (!completedFlags.compareAndSet(idx, 0, 1))
+					return;
+				metadatas[idx] = metadata;
+				exceptions[idx] = exception;
+				//the decrement publishes the writes above to the thread which waits on the latch.
+				if (remaining.decrementAndGet() == 0) {
+					completed.countDown();
+				}
+			}
+		};
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return completed.getCount() == 0;
+	}
+
+	@Override
+	public BatchSendResult<K> get() throws InterruptedException {
+		completed.await();
+		return result;
+	}
+
+	@Override
+	public BatchSendResult<K> get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		if (!completed.await(timeout, unit)) {
+			throw new TimeoutException("Timeout after waiting for " + TimeUnit.MILLISECONDS.convert(timeout, unit)
+					+ " ms, " + remaining.get() + " messages are not completed.");
+		}
+		return result;
+	}
+}
@@ -0,0 +1,65 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * per message results of a batch sending, indexed in the order of the messages passed to
+ * {@link ProduceOperator#sendMessages}.
+ */
+public class BatchSendResult<K> {
+	private final List<ExtMessage<K>> messages;
+	private final RecordMetadata[] metadatas;
+	private final Exception[] exceptions;
+
+	BatchSendResult(List<ExtMessage<K>> messages, RecordMetadata[] metadatas, Exception[] exceptions) {
+		this.messages = Collections.unmodifiableList(messages);
+		this.metadatas = metadatas;
+		this.exceptions = exceptions;
+	}
+
+	public int size() {
+		return messages.size();
+	}
+
+	public ExtMessage<K> message(int idx) {
+		return messages.get(idx);
+	}
+
+	//null if the message fails to be sent.
+	public RecordMetadata metadata(int idx) {
+		return metadatas[idx];
+	}
+
+	//null if the message is sent successfully.
+	public Exception exception(int idx) {
+		return exceptions[idx];
+	}
+
+	public boolean isAllSuccess() {
+		for (Exception exception : exceptions) {
+			if (null != exception)
+				return false;
+		}
+		return true;
+	}
+
+	public List<ExtMessage<K>> failedMessages() {
+		List<ExtMessage<K>> failedMessages = new ArrayList<>();
+		for (int idx = 0; idx < exceptions.length; idx++) {
+			if (null != exceptions[idx]) {
+				failedMessages.add(messages.get(idx));
+			}
+		}
+		return failedMessages;
+	}
+
+	@Override
+	public String toString() {
+		return "BatchSendResult{" + "size=" + size() + ", failed=" + failedMessages().size() + '}';
+	}
+}
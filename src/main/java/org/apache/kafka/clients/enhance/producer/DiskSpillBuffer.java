@@ -0,0 +1,471 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.enhance.ExtMessageEncoder;
+import org.apache.kafka.clients.enhance.ShutdownableThread;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.errors.RetriableException;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * spills the records which can't be buffered by the producer to a local SpillLog, and sends them again
+ * when the buffer memory is available.
+ * <p>
+ * a record is spilled when the available buffer memory of a shard is below the threshold, or when there are
+ * spilled records not yet drained, so a record isn't sent before the records spilled ahead of it. the drain thread
+ * sends the spilled records in the order of the log with up to MAX_IN_FLIGHT_RECORDS in flight, a record is removed
+ * from the log only after it is acked and all the records before it have been removed. a record failed with a
+ * retriable error is sent again, a record failed with any other error is dropped.
+ * the order within a partition isn't guaranteed: a record sent again may be written after the later records of its
+ * partition which were in flight at the same time, as the producer retries do with more than one request in flight.
+ * the futures of spilled records complete when the drained records are acked, records recovered from a previous
+ * run have no future. on close, the drained records are acked or failed while the producers are closed, the records
+ * which aren't acked by then are kept on disk and their futures fail.
+ */
+class DiskSpillBuffer<K> {
+	private static final Logger logger = LoggerFactory.getLogger(DiskSpillBuffer.class);
+	static final String METRIC_GROUP_NAME = "spill-buffer-metrics";
+	static final long DRAIN_BACKOFF_MS = 100L;
+	static final int MAX_IN_FLIGHT_RECORDS = 1000;
+
+	private final SpillLog spillLog;
+	private final ProducerShards<K> producers;
+	private final Serializer<K> keySerializer;
+	private final Deserializer<K> keyDeserializer;
+	private final ExtMessageEncoder<K> encoder = new ExtMessageEncoder<>();
+	private final long thresholdBytes;
+	private final DrainService drainService;
+	private final Object lock = new Object();
+
+	//sequences of the records in the log, used to find the futures of the drained records.
+	private long appendSequence;
+	private long drainSequence = 0L;
+	private final AtomicLong pendingRecords = new AtomicLong();
+	private final ConcurrentMap<Long, SpilledFuture> spilledFutures = new ConcurrentHashMap<>();
+	//the records sent by the drain thread and not committed yet, in the order of the log, guarded by lock.
+	private final Deque<DrainedRecord> inFlightRecords = new ArrayDeque<>();
+	private boolean closed = false;
+
+	private final AtomicLong spilledBytes = new AtomicLong();
+	private final AtomicLong spilledRecords = new AtomicLong();
+	private final AtomicLong drainedRecords = new AtomicLong();
+	private final AtomicLong rejectedRecords = new AtomicLong();
+	private Metrics metrics;
+	private final List<MetricName> registeredMetrics = new ArrayList<>();
+
+	DiskSpillBuffer(ProducerClientContext<K> context, ProducerShards<K> producers, String clientId) throws IOException {
+		this.spillLog = new SpillLog(new File(context.spillDir()), context.spillSegmentBytes(), context.maxSpillBytes());
+		this.producers = producers;
+		this.keySerializer = context.keySerializer();
+		this.keyDeserializer = context.keyDeserializer();
+		this.thresholdBytes = context.spillThresholdBytes();
+		this.appendSequence = spillLog.pendingRecords();
+		this.pendingRecords.set(spillLog.pendingRecords());
+		this.drainService = new DrainService("kafka-producer-spill-drain-" + clientId);
+		this.drainService.start();
+		this.metrics = producers.kafkaMetrics();
+		registerMetrics();
+	}
+
+	boolean shouldSpill() {
+		return pendingRecords.get() > 0 || producers.minBufferAvailableBytes() < thresholdBytes;
+	}
+
+	//null if the record can't be spilled within the disk limit, or the buffer is closed.
+	Future<RecordMetadata> spill(ProducerRecord<K, ExtMessage<K>> record, Callback callback) {
+		byte[] payload = encode(record);
+		SpilledFuture future = new SpilledFuture(callback);
+		synchronized (lock) {
+			if (closed) {
+				return null;
+			}
+			try {
+				if (!spillLog.append(payload)) {
+					rejectedRecords.incrementAndGet();
+					return null;
+				}
+			} catch (IOException e) {
+				throw new KafkaException("failed to spill record to disk.", e);
+			}
+			spilledFutures.put(appendSequence++, future);
+			pendingRecords.incrementAndGet();
+			lock.notifyAll();
+		}
+		spilledBytes.addAndGet(payload.length + SpillLog.RECORD_OVERHEAD);
+		spilledRecords.incrementAndGet();
+		return future;
+	}
+
+	//[topic][key or -1][timestamp or -1][value]
+	private byte[] encode(ProducerRecord<K, ExtMessage<K>> record) {
+		byte[] topic = Utils.utf8(record.topic());
+		byte[] key = null == record.key() ? null : keySerializer.serialize(record.topic(), record.key());
+		byte[] value = encoder.serialize(record.topic(), record.value());
+		ByteBuffer buffer = ByteBuffer.allocate(2 + topic.length + 4 + (null == key ? 0 : key.length) + 8 + value.length);
+		buffer.putShort((short) topic.length).put(topic);
+		if (null == key) {
+			buffer.putInt(-1);
+		} else {
+			buffer.putInt(key.length).put(key);
+		}
+		buffer.putLong(null == record.timestamp() ? -1L : record.timestamp());
+		buffer.put(value);
+		return buffer.array();
+	}
+
+	private ProducerRecord<K, ExtMessage<K>> decode(byte[] payload) {
+		ByteBuffer buffer = ByteBuffer.wrap(payload);
+		byte[] topicBytes = new byte[buffer.getShort()];
+		buffer.get(topicBytes);
+		String topic = Utils.utf8(topicBytes);
+		int keySize = buffer.getInt();
+		K key = null;
+		if (keySize >= 0) {
+			byte[] keyBytes = new byte[keySize];
+			buffer.get(keyBytes);
+			key = keyDeserializer.deserialize(topic, keyBytes);
+		}
+		long timestamp = buffer.getLong();
+		byte[] value = new byte[buffer.remaining()];
+		buffer.get(value);
+		ExtMessage<K> message = encoder.deserialize(topic, value);
+		message.setMsgKey(key);
+		return new ProducerRecord<>(topic, null, timestamp < 0 ? null : timestamp, key, message);
+	}
+
+	long pendingRecords() {
+		return pendingRecords.get();
+	}
+
+	//stops sending spilled records, the records in flight are still acked until the producers are closed.
+	void stopDraining() {
+		drainService.initiateShutdown();
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+		drainService.awaitShutdown();
+	}
+
+	//called after the producers are closed, so every drained record has been acked or failed.
+	//the acked records at the head of the log are removed, the others are kept on disk and sent again after restart.
+	void close() {
+		stopDraining();
+		List<DrainedRecord> committed = new ArrayList<>();
+		List<SpilledFuture> unsentFutures;
+		synchronized (lock) {
+			//acks arriving from now on are ignored.
+			closed = true;
+			commitCompleted(committed, true);
+			spillLog.close();
+			inFlightRecords.clear();
+			unsentFutures = new ArrayList<>(spilledFutures.values());
+			spilledFutures.clear();
+		}
+		for (DrainedRecord record : committed) {
+			drainedRecords.incrementAndGet();
+			if (null != record.future) {
+				record.future.complete(record.metadata, null);
+			}
+		}
+		if (!unsentFutures.isEmpty()) {
+			KafkaException exception = new KafkaException(
+					"spill buffer is closed before the record is sent, it is kept on disk and sent after restart.");
+			for (SpilledFuture future : unsentFutures) {
+				future.complete(null, exception);
+			}
+		}
+		if (null != metrics) {
+			for (MetricName metricName : registeredMetrics) {
+				metrics.removeMetric(metricName);
+			}
+			registeredMetrics.clear();
+		}
+		if (pendingRecords.get() > 0) {
+			logger.info("[DiskSpillBuffer] [{}] spilled records are left on disk, they are sent after restart.",
+					pendingRecords.get());
+		}
+	}
+
+	private void registerMetrics() {
+		if (null == metrics)
+			return;
+		addGauge("spill-bytes-total", "The bytes of records spilled to disk", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return spilledBytes.get();
+			}
+		});
+		addGauge("spill-records-total", "The number of records spilled to disk", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return spilledRecords.get();
+			}
+		});
+		addGauge("spill-drained-records-total", "The number of spilled records sent again", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return drainedRecords.get();
+			}
+		});
+		addGauge("spill-rejected-records-total", "The number of records not spilled due to the disk limit",
+				new Measurable() {
+					@Override
+					public double measure(MetricConfig config, long now) {
+						return rejectedRecords.get();
+					}
+				});
+		addGauge("spill-pending-records", "The number of spilled records not yet sent", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				return pendingRecords.get();
+			}
+		});
+		addGauge("spill-pending-bytes", "The bytes of spilled records not yet sent", new Measurable() {
+			@Override
+			public double measure(MetricConfig config, long now) {
+				synchronized (lock) {
+					return spillLog.pendingBytes();
+				}
+			}
+		});
+	}
+
+	private void addGauge(String name, String description, Measurable measurable) {
+		MetricName metricName = metrics.metricName(name, METRIC_GROUP_NAME, description);
+		try {
+			metrics.addMetric(metricName, measurable);
+			registeredMetrics.add(metricName);
+		} catch (IllegalArgumentException e) {
+			logger.info("[DiskSpillBuffer] metric [{}] has been registered.", name);
+		}
+	}
+
+	//removes the completed records at the head from the log, the order of the log is kept. must be called with lock held.
+	//if isClosing, a failed record is kept as well, since it may fail only because the producers are closed.
+	private void commitCompleted(List<DrainedRecord> committed, boolean isClosing) {
+		while (!inFlightRecords.isEmpty()) {
+			DrainedRecord record = inFlightRecords.peekFirst();
+			if (!record.completed || record.isRetriable() || (isClosing && null != record.exception))
+				return;
+			try {
+				spillLog.commit();
+			} catch (IOException e) {
+				logger.warn("[DiskSpillBuffer] failed to commit drained record.", e);
+				return;
+			}
+			inFlightRecords.pollFirst();
+			spilledFutures.remove(drainSequence++);
+			pendingRecords.decrementAndGet();
+			committed.add(record);
+		}
+	}
+
+	//a drained record waiting for its ack, it is the callback of the send.
+	private final class DrainedRecord implements Callback {
+		private final byte[] payload;
+		private final SpilledFuture future;
+		private boolean completed = false;
+		private RecordMetadata metadata;
+		private Exception exception;
+
+		DrainedRecord(byte[] payload, SpilledFuture future) {
+			this.payload = payload;
+			this.future = future;
+		}
+
+		@Override
+		public void onCompletion(RecordMetadata recordMetadata, Exception e) {
+			synchronized (lock) {
+				if (closed || completed)
+					return;
+				metadata = recordMetadata;
+				exception = e;
+				completed = true;
+				lock.notifyAll();
+			}
+		}
+
+		boolean isRetriable() {
+			return completed && exception instanceof RetriableException;
+		}
+	}
+
+	//not interruptible, an interrupt would close the channels of the mapped segments.
+	private class DrainService extends ShutdownableThread {
+
+		DrainService(String name) {
+			super(name, true, false);
+		}
+
+		@Override
+		public void doWork() {
+			List<DrainedRecord> committed = new ArrayList<>();
+			List<DrainedRecord> retries = new ArrayList<>();
+			List<DrainedRecord> sends = new ArrayList<>();
+			synchronized (lock) {
+				commitCompleted(committed, false);
+				for (DrainedRecord record : inFlightRecords) {
+					if (record.isRetriable()) {
+						record.completed = false;
+						record.exception = null;
+						retries.add(record);
+					}
+				}
+				if (retries.isEmpty() && producers.minBufferAvailableBytes() >= thresholdBytes) {
+					readRecords(sends);
+				}
+				if (committed.isEmpty() && retries.isEmpty() && sends.isEmpty()) {
+					try {
+						lock.wait(DRAIN_BACKOFF_MS);
+					} catch (InterruptedException e) {
+						//ignore
+					}
+					return;
+				}
+			}
+
+			for (DrainedRecord record : committed) {
+				if (null != record.exception) {
+					logger.warn("[DiskSpillBuffer] drop spilled record which fails to be sent.", record.exception);
+				} else {
+					drainedRecords.incrementAndGet();
+				}
+				if (null != record.future) {
+					record.future.complete(record.metadata, record.exception);
+				}
+			}
+			if (!retries.isEmpty()) {
+				backoff();
+				send(retries);
+			}
+			send(sends);
+		}
+
+		private void readRecords(List<DrainedRecord> sends) {
+			while (inFlightRecords.size() < MAX_IN_FLIGHT_RECORDS) {
+				byte[] payload;
+				try {
+					payload = spillLog.next();
+				} catch (IOException e) {
+					logger.warn("[DiskSpillBuffer] failed to read spilled record.", e);
+					return;
+				}
+				if (null == payload)
+					return;
+				DrainedRecord record = new DrainedRecord(payload,
+						spilledFutures.get(drainSequence + inFlightRecords.size()));
+				inFlightRecords.addLast(record);
+				sends.add(record);
+			}
+		}
+
+		private void send(List<DrainedRecord> records) {
+			for (DrainedRecord record : records) {
+				try {
+					producers.send(decode(record.payload), record);
+				} catch (RuntimeException e) {
+					//a retriable error is sent again, the others drop the record instead of blocking the others.
+					record.onCompletion(null, e);
+				}
+			}
+		}
+
+		private void backoff() {
+			try {
+				Thread.sleep(DRAIN_BACKOFF_MS);
+			} catch (InterruptedException e) {
+				//ignore
+			}
+		}
+	}
+
+	static final class SpilledFuture implements Future<RecordMetadata> {
+		private final Callback userCallback;
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		private final CountDownLatch completed = new CountDownLatch(1);
+		private volatile RecordMetadata metadata;
+		private volatile Exception exception;
+
+		SpilledFuture(Callback userCallback) {
+			this.userCallback = userCallback;
+		}
+
+		//only the first completion is applied.
+		void complete(RecordMetadata recordMetadata, Exception e) {
+			if (!done.compareAndSet(false, true))
+				return;
+			metadata = recordMetadata;
+			exception = e;
+			completed.countDown();
+			if (null != userCallback) {
+				userCallback.onCompletion(recordMetadata, e);
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return completed.getCount() == 0;
+		}
+
+		@Override
+		public RecordMetadata get() throws InterruptedException, ExecutionException {
+			completed.await();
+			return result();
+		}
+
+		@Override
+		public RecordMetadata get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			if (!completed.await(timeout, unit)) {
+				throw new TimeoutException("Timeout after waiting for " + TimeUnit.MILLISECONDS.convert(timeout, unit)
+						+ " ms, the spilled record isn't sent.");
+			}
+			return result();
+		}
+
+		private RecordMetadata result() throws ExecutionException {
+			if (null != exception) {
+				throw new ExecutionException(exception);
+			}
+			return metadata;
+		}
+	}
+}
@@ -2,28 +2,40 @@ package org.apache.kafka.clients.enhance.producer;
 
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.enhance.MessageIdGenerator;
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Time;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.apache.kafka.clients.enhance.ExtMessageDef.PROPERTY_UNIQ_KEY;
 
 public class KafkaEnhanceProducer<K> implements ProduceOperator<K> {
 	private static final Logger logger = LoggerFactory.getLogger(KafkaEnhanceProducer.class);
 
 	private final ProducerClientContext<K> clientContext = new ProducerClientContext<>();
-	private KafkaProducerProxy<K> innerProducer;
+	private ProducerShards<K> innerProducer;
+	private AdaptiveSendController sendController;
+	private AdaptiveCompressionPolicy<K> compressionPolicy;
+	private DiskSpillBuffer<K> spillBuffer;
 
 	private Object lock = new Object();
 	private volatile boolean isRunning;
@@ -37,6 +49,7 @@ public class KafkaEnhanceProducer<K> implements ProduceOperator<K> {
 		clientContext.producerConfig(configs);
 		if (null != cls) {
 			clientContext.keySerializer(Serdes.serdeFrom(cls).serializer());
+			clientContext.keyDeserializer(Serdes.serdeFrom(cls).deserializer());
 		}
 	}
 
@@ -48,6 +61,7 @@ public class KafkaEnhanceProducer<K> implements ProduceOperator<K> {
 		clientContext.producerConfig(properties);
 		if (null != cls) {
 			clientContext.keySerializer(Serdes.serdeFrom(cls).serializer());
+			clientContext.keyDeserializer(Serdes.serdeFrom(cls).deserializer());
 		}
 	}
 
@@ -101,7 +115,8 @@ public class KafkaEnhanceProducer<K> implements ProduceOperator<K> {
 	@Override
 	public Future<RecordMetadata> sendMessage(ExtMessage<K> message) {
 		if (isRunning && null != innerProducer) {
-			return innerProducer.send(new ProducerRecord<>(message.getTopic(), message.getMsgKey(), message));
+			stampUniqKey(message);
+			return send(new ProducerRecord<>(message.getTopic(), message.getMsgKey(), message), null);
 		} else {
 			throw new KafkaException("KafkaEnhanceProducer service hasn't been started.");
 		}
@@ -110,12 +125,149 @@ public class KafkaEnhanceProducer<K> implements ProduceOperator<K> {
 	@Override
 	public Future<RecordMetadata> sendMessage(ExtMessage<K> message, Callback callback) {
 		if (isRunning && null != innerProducer) {
-			return innerProducer.send(new ProducerRecord<>(message.getTopic(), message.getMsgKey(), message), callback);
+			stampUniqKey(message);
+			return send(new ProducerRecord<>(message.getTopic(), message.getMsgKey(), message), callback);
 		} else {
 			throw new KafkaException("KafkaEnhanceProducer service hasn't been started.");
 		}
 	}
 
+	@Override
+	public Future<BatchSendResult<K>> sendMessages(Collection<ExtMessage<K>> messages) {
+		if (isRunning && null != innerProducer) {
+			List<ExtMessage<K>> batch = new ArrayList<>(messages);
+			BatchSendFuture<K> future = new BatchSendFuture<>(batch);
+			DiskSpillBuffer<K> spill = this.spillBuffer;
+			if (null != spill && spill.shouldSpill()) {
+				//keep the order with the spilled records.
+				for (int idx = 0; idx < batch.size(); idx++) {
+					try {
+						sendMessage(batch.get(idx), future.callback(idx));
+					} catch (RuntimeException e) {
+						for (int unsent = idx; unsent < batch.size(); unsent++) {
+							future.callback(unsent).onCompletion(null, e);
+						}
+						throw e;
+					}
+				}
+				return future;
+			}
+			List<ProducerRecord<K, ExtMessage<K>>> records = new ArrayList<>(batch.size());
+			AdaptiveSendController controller = this.sendController;
+			AdaptiveCompressionPolicy<K> compression = this.compressionPolicy;
+			for (int idx = 0; idx < batch.size(); idx++) {
+				ExtMessage<K> message = batch.get(idx);
+				stampUniqKey(message);
+				ProducerRecord<K, ExtMessage<K>> record = new ProducerRecord<>(message.getTopic(), message.getMsgKey(),
+						message);
+				if (null != compression) {
+					compression.sample(record);
+				}
+				records.add(record);
+			}
+			if (null == controller) {
+				List<Callback> callbacks = new ArrayList<>(batch.size());
+				for (int idx = 0; idx < batch.size(); idx++) {
+					callbacks.add(future.callback(idx));
+				}
+				innerProducer.sendBatch(records, callbacks);
+				return future;
+			}
+			//the permits are got for a run of one topic at once, capped at the window and the rate limit burst,
+			//so a batch is sent in chunks as large as the controller allows.
+			int from = 0;
+			while (from < records.size()) {
+				String topic = records.get(from).topic();
+				int runEnd = from + 1;
+				while (runEnd < records.size() && topic.equals(records.get(runEnd).topic())) {
+					runEnd++;
+				}
+				int permits;
+				try {
+					permits = controller.acquire(topic, runEnd - from);
+				} catch (RuntimeException e) {
+					for (int unsent = from; unsent < batch.size(); unsent++) {
+						future.callback(unsent).onCompletion(null, e);
+					}
+					throw e;
+				}
+				int to = from + permits;
+				//after the permits are acquired, so the latency doesn't include the wait for them.
+				long sendMs = Time.SYSTEM.milliseconds();
+				List<Callback> callbacks = new ArrayList<>(permits);
+				for (int idx = from; idx < to; idx++) {
+					callbacks.add(controlledCallback(controller, sendMs, future.callback(idx)));
+				}
+				try {
+					//if it throws, the records of the chunk which aren't sent have been failed, which releases their permits.
+					innerProducer.sendBatch(records.subList(from, to), callbacks);
+				} catch (RuntimeException e) {
+					for (int unsent = to; unsent < batch.size(); unsent++) {
+						future.callback(unsent).onCompletion(null, e);
+					}
+					throw e;
+				}
+				from = to;
+			}
+			return future;
+		} else {
+			throw new KafkaException("KafkaEnhanceProducer service hasn't been started.");
+		}
+	}
+
+	private Future<RecordMetadata> send(ProducerRecord<K, ExtMessage<K>> record, Callback callback) {
+		DiskSpillBuffer<K> spill = this.spillBuffer;
+		if (null != spill && spill.shouldSpill()) {
+			Future<RecordMetadata> future = spill.spill(record, callback);
+			if (null != future) {
+				return future;
+			}
+		}
+		AdaptiveCompressionPolicy<K> compression = this.compressionPolicy;
+		if (null != compression) {
+			compression.sample(record);
+		}
+		AdaptiveSendController controller = this.sendController;
+		if (null == controller) {
+			return innerProducer.send(record, callback);
+		}
+		controller.acquire(record.topic());
+		long sendMs = Time.SYSTEM.milliseconds();
+		try {
+			return innerProducer.send(record, controlledCallback(controller, sendMs, callback));
+		} catch (RuntimeException e) {
+			controller.onAcked(sendMs, e);
+			throw e;
+		}
+	}
+
+	//releases the send permit before the user callback is called, only the first completion releases it.
+	private static Callback controlledCallback(final AdaptiveSendController controller, final long sendMs,
+			final Callback callback) {
+		if (null == controller) {
+			return callback;
+		}
+		return new Callback() {
+			private final AtomicBoolean completed = new AtomicBoolean(false);
+
+			@Override
+			public void onCompletion(RecordMetadata metadata, Exception exception) {
+				if (!completed.compareAndSet(false, true))
+					return;
+				controller.onAcked(sendMs, exception);
+				if (null != callback) {
+					callback.onCompletion(metadata, exception);
+				}
+			}
+		};
+	}
+
+	private void stampUniqKey(ExtMessage<K> message) {
+		if (clientContext.isUniqKeyEnabled() && null == message.getProperty(PROPERTY_UNIQ_KEY)) {
+			message.addProperty(PROPERTY_UNIQ_KEY, MessageIdGenerator.nextId());
+		}
+	}
+
 	@Override
 	public void addSendMessageHook(SendMessageHook<K> sendHook) {
 		synchronized (lock) {
@@ -126,6 +278,14 @@ public class KafkaEnhanceProducer<K> implements ProduceOperator<K> {
 		}
 	}
 
+	//metrics of all inner producers.
+	public Map<MetricName, Metric> metrics() {
+		if (isRunning && null != innerProducer) {
+			return innerProducer.metrics();
+		}
+		return Collections.emptyMap();
+	}
+
 	@Override
 	public String clientId() {
 		return clientContext.clientId();
@@ -136,7 +296,26 @@ public class KafkaEnhanceProducer<K> implements ProduceOperator<K> {
 		synchronized (lock) {
 			if (!isRunning) {
 				try {
-					this.innerProducer = new KafkaProducerProxy<>(clientContext.getProducerConfig());
+					this.innerProducer = new ProducerShards<>(clientContext.getProducerConfig(),
+							clientContext.keySerializer(), clientContext.producerShards());
+					if (clientContext.isSendControlEnabled()) {
+						this.sendController = new AdaptiveSendController(clientContext, Time.SYSTEM);
+						this.sendController.attach(this.innerProducer);
+					}
+					if (clientContext.isAdaptiveCompressionEnabled()) {
+						this.compressionPolicy = new AdaptiveCompressionPolicy<>(clientContext, Time.SYSTEM);
+						this.compressionPolicy.attach(this.innerProducer);
+					}
+					if (clientContext.isSpillEnabled()) {
+						if (null == clientContext.keySerializer() || null == clientContext.keyDeserializer()) {
+							throw new KafkaException("spill to disk needs the key serializer and deserializer.");
+						}
+						if (clientContext.isTransactionProducer()) {
+							throw new KafkaException(
+									"spilled records can't join transactions, don't spill to disk for transactional producers.");
+						}
+						this.spillBuffer = new DiskSpillBuffer<>(clientContext, this.innerProducer, clientId());
+					}
 					if (clientContext.isTransactionProducer()) {
 						this.innerProducer.initTransactions();
 						this.isTransaction = true;
@@ -147,9 +326,10 @@ public class KafkaEnhanceProducer<K> implements ProduceOperator<K> {
 					isRunning = true;
 				} catch (Exception ex) {
 					logger.warn("KafkaEnhanceProducer service fail to start. due to ", ex);
-					shutdownNow();
-					isRunning = false;
-					throw new KafkaException("start KafkaEnhanceProducer failed.");
+					//it isn't running yet, so shutdown won't close the components which have been created.
+					closeComponents(0, TimeUnit.MILLISECONDS);
+					isTransaction = false;
+					throw new KafkaException("start KafkaEnhanceProducer failed.", ex);
 				}
 			} else {
 				logger.info("KafkaEnhanceProducer service has been started.");
@@ -166,21 +346,41 @@ public class KafkaEnhanceProducer<K> implements ProduceOperator<K> {
 	public void shutdown(long timeout, TimeUnit unit) {
 		synchronized (lock) {
 			if (isRunning) {
-				if (null != this.innerProducer) {
-					try {
-						this.innerProducer.close(timeout, unit);
-						logger.info("KafkaEnhanceProducer has been closed. clientId = [{}].", clientId());
-					} catch (Exception e) {
-						logger.warn("KafkaEnhanceProducer throw exception when closed. due to ", e);
-					}
-					this.innerProducer = null;
-				}
+				closeComponents(timeout, unit);
 			} else {
 				logger.info("KafkaEnhanceProducer service has been shutdown.");
 			}
 		}
 	}
 
+	private void closeComponents(long timeout, TimeUnit unit) {
+		//the drained records in flight are acked while the producers are closed, the spill log is closed after that.
+		if (null != this.spillBuffer) {
+			this.spillBuffer.stopDraining();
+		}
+		if (null != this.sendController) {
+			this.sendController.close();
+			this.sendController = null;
+		}
+		if (null != this.compressionPolicy) {
+			this.compressionPolicy.close();
+			this.compressionPolicy = null;
+		}
+		if (null != this.innerProducer) {
+			try {
+				this.innerProducer.close(timeout, unit);
+				logger.info("KafkaEnhanceProducer has been closed. clientId = [{}].", clientId());
+			} catch (Exception e) {
+				logger.warn("KafkaEnhanceProducer throw exception when closed. due to ", e);
+			}
+			this.innerProducer = null;
+		}
+		if (null != this.spillBuffer) {
+			this.spillBuffer.close();
+			this.spillBuffer = null;
+		}
+	}
+
 	@Override
 	public void suspend() {
 		//since hard to process transaction message, don't implement it.
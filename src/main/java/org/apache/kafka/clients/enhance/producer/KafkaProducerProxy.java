@@ -2,25 +2,21 @@ package org.apache.kafka.clients.enhance.producer;
 
 import org.apache.kafka.clients.enhance.ExtMessage;
 import org.apache.kafka.clients.enhance.ExtMessageEncoder;
-import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
-import org.apache.kafka.clients.producer.ProducerRecord;
-import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionType;
 import org.apache.kafka.common.serialization.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.Future;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 class KafkaProducerProxy<K> extends KafkaProducer<K, ExtMessage<K>> {
 	private static final Logger logger = LoggerFactory.getLogger(KafkaProducerProxy.class);
 
-	private final ReentrantReadWriteLock hookLock = new ReentrantReadWriteLock();
-	private final ReentrantReadWriteLock.WriteLock hookWriteLock = hookLock.writeLock();
-	private final ReentrantReadWriteLock.ReadLock hookReadLock = hookLock.readLock();
+	//installed once at construction, hooks added later are copied into it, so the send path needs no lock.
+	private final SendMessageHooks<K> hooks = new SendMessageHooks<>();
 
 	public KafkaProducerProxy(Map<String, Object> configs) {
 		this(configs, null);
@@ -28,6 +24,7 @@ class KafkaProducerProxy<K> extends KafkaProducer<K, ExtMessage<K>> {
 
 	public KafkaProducerProxy(Map<String, Object> configs, Serializer<K> keySerializer) {
 		super(configs, keySerializer, new ExtMessageEncoder<K>());
+		installHooks();
 	}
 
 	public KafkaProducerProxy(Properties properties) {
@@ -36,42 +33,29 @@ class KafkaProducerProxy<K> extends KafkaProducer<K, ExtMessage<K>> {
 
 	public KafkaProducerProxy(Properties properties, Serializer<K> keySerializer) {
 		super(properties, keySerializer, new ExtMessageEncoder<K>());
+		installHooks();
 	}
 
-	void addProducerMessageHooks(SendMessageHooks<K> hooks) {
-		hookWriteLock.lock();
-		try {
-			if (null == this.interceptors) {
-				this.interceptors = hooks;
-			} else if (interceptors instanceof SendMessageHooks) {
-				((SendMessageHooks) this.interceptors).addSendMessageHook(hooks.getInterceptors());
-			} else {
-				hooks.addSendMessageHook(this.interceptors.getInterceptors());
-				this.interceptors = hooks;
-			}
-		} finally {
-			hookWriteLock.unlock();
+	private void installHooks() {
+		if (null != this.interceptors) {
+			hooks.addSendMessageHook(this.interceptors.getInterceptors());
 		}
+		this.interceptors = hooks;
+	}
 
+	void addProducerMessageHooks(SendMessageHooks<K> sendHooks) {
+		hooks.addSendMessageHooks(sendHooks);
 	}
 
-	@Override
-	public Future<RecordMetadata> send(ProducerRecord<K, ExtMessage<K>> record) {
-		hookReadLock.lock();
-		try {
-			return super.send(record);
-		} finally {
-			hookReadLock.unlock();
-		}
+	Metrics kafkaMetrics() {
+		return getMetrics();
 	}
 
-	@Override
-	public Future<RecordMetadata> send(ProducerRecord<K, ExtMessage<K>> record, Callback callback) {
-		hookReadLock.lock();
-		try {
-			return super.send(record, callback);
-		} finally {
-			hookReadLock.unlock();
-		}
+	void lingerMs(long lingerMs) {
+		updateLingerMs(lingerMs);
+	}
+
+	void compressionType(String topic, CompressionType type) {
+		updateCompressionType(topic, type);
 	}
 }
@@ -8,6 +8,7 @@ import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Future;
@@ -30,6 +31,9 @@ public interface ProduceOperator<K> extends ClientOperator {
 
 	Future<RecordMetadata> sendMessage(ExtMessage<K> message, Callback callback);
 
+	//messages are partitioned up front and appended per partition, the future completes when all of them are acked.
+	Future<BatchSendResult<K>> sendMessages(Collection<ExtMessage<K>> messages);
+
 	void addSendMessageHook(SendMessageHook<K> sendHook);
 
 }
@@ -2,21 +2,53 @@ package org.apache.kafka.clients.enhance.producer;
 
 import org.apache.kafka.clients.enhance.ExtMessageEncoder;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.serialization.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
 public final class ProducerClientContext<K> {
 	private static final Logger logger = LoggerFactory.getLogger(ProducerClientContext.class);
+	public static final long DEFAULT_MAX_ADAPTIVE_LINGER_MS = 50L;
+	public static final long DEFAULT_MAX_BLOCK_MS = 60000L;
+	public static final int DEFAULT_SPILL_SEGMENT_BYTES = 64 * 1024 * 1024;
+	public static final long DEFAULT_SPILL_THRESHOLD_BYTES = 16384L;
+	public static final long DEFAULT_COMPRESSION_BANDWIDTH_BYTES = 50 * 1024 * 1024L;
+	public static final int DEFAULT_COMPRESSION_SAMPLE_BYTES = 64 * 1024;
+	public static final long DEFAULT_COMPRESSION_SAMPLE_INTERVAL_MS = 30000L;
 	private final Map<String, Object> innerProducerConfig = new HashMap<>();
 	private final SendMessageHooks<K> hooks = new SendMessageHooks<>();
 
 	private Serializer<K> keySerializer = null;
+	private Deserializer<K> keyDeserializer = null;
+	private String spillDir = null;
+	private long maxSpillBytes;
+	private int spillSegmentBytes = DEFAULT_SPILL_SEGMENT_BYTES;
+	private long spillThresholdBytes = DEFAULT_SPILL_THRESHOLD_BYTES;
+	private volatile boolean uniqKeyEnabled = true;
+	private int producerShards = 1;
+	private boolean adaptiveSendEnabled = false;
+	private int minInFlightMessages;
+	private int maxInFlightMessages;
+	private long targetSendLatencyMs;
+	private long maxAdaptiveLingerMs = DEFAULT_MAX_ADAPTIVE_LINGER_MS;
+	private final Map<String, Double> topicRateLimits = new HashMap<>();
+	private final Set<String> adaptiveCompressionTopics = new HashSet<>();
+	private List<CompressionType> compressionCandidates = Arrays.asList(CompressionType.NONE, CompressionType.LZ4,
+			CompressionType.SNAPPY, CompressionType.GZIP);
+	private long compressionBandwidthBytes = DEFAULT_COMPRESSION_BANDWIDTH_BYTES;
+	private int compressionSampleBytes = DEFAULT_COMPRESSION_SAMPLE_BYTES;
+	private long compressionSampleIntervalMs = DEFAULT_COMPRESSION_SAMPLE_INTERVAL_MS;
 
 	public ProducerClientContext producerConfig(Map<String, Object> originalConfig) {
 		selectConfigItem(originalConfig);
@@ -88,6 +120,57 @@ public final class ProducerClientContext<K> {
 		return keySerializer;
 	}
 
+	//used to read the keys of the records spilled to disk.
+	public ProducerClientContext keyDeserializer(Deserializer<K> keyDeserializer) {
+		this.keyDeserializer = keyDeserializer;
+		return this;
+	}
+
+	public Deserializer<K> keyDeserializer() {
+		return keyDeserializer;
+	}
+
+	//records are spilled to the dir when the buffer memory is exhausted, and sent again when it is available.
+	public ProducerClientContext spillToDisk(String dir, long maxSpillBytes) {
+		if (maxSpillBytes <= 0) {
+			throw new IllegalArgumentException("max spill bytes must be positive.");
+		}
+		this.spillDir = dir;
+		this.maxSpillBytes = maxSpillBytes;
+		return this;
+	}
+
+	public ProducerClientContext spillSegmentBytes(int segmentBytes) {
+		this.spillSegmentBytes = segmentBytes;
+		return this;
+	}
+
+	//records are spilled when the available buffer memory is below the threshold.
+	public ProducerClientContext spillThresholdBytes(long thresholdBytes) {
+		this.spillThresholdBytes = thresholdBytes;
+		return this;
+	}
+
+	public boolean isSpillEnabled() {
+		return null != spillDir;
+	}
+
+	public String spillDir() {
+		return spillDir;
+	}
+
+	public long maxSpillBytes() {
+		return maxSpillBytes;
+	}
+
+	public int spillSegmentBytes() {
+		return (int) Math.min(spillSegmentBytes, maxSpillBytes);
+	}
+
+	public long spillThresholdBytes() {
+		return spillThresholdBytes;
+	}
+
 	public ProducerClientContext transactionTimeoutMs(long timeoutMs) {
 		innerProducerConfig.put(ProducerConfig.TRANSACTION_TIMEOUT_CONFIG, String.valueOf(timeoutMs));
 		return this;
@@ -153,6 +236,157 @@ public final class ProducerClientContext<K> {
 		return this;
 	}
 
+	//stamp PROPERTY_UNIQ_KEY on the messages which don't have one, enabled by default.
+	public ProducerClientContext uniqKeyEnabled(boolean uniqKeyEnabled) {
+		this.uniqKeyEnabled = uniqKeyEnabled;
+		return this;
+	}
+
+	public boolean isUniqKeyEnabled() {
+		return uniqKeyEnabled;
+	}
+
+	//number of inner producers, each with its own accumulator and sender thread, records are routed by partition.
+	public ProducerClientContext producerShards(int shards) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("producer shards must be positive.");
+		}
+		this.producerShards = shards;
+		return this;
+	}
+
+	public int producerShards() {
+		return producerShards;
+	}
+
+	//limit unacked messages by a window between min and max, halved when the ack latency is above the target
+	//or the broker throttles, linger.ms is raised at the same time. see AdaptiveSendController.
+	public ProducerClientContext adaptiveSendControl(int minInFlightMessages, int maxInFlightMessages,
+			long targetLatencyMs) {
+		if (minInFlightMessages < 1 || maxInFlightMessages < minInFlightMessages || targetLatencyMs <= 0) {
+			throw new IllegalArgumentException("invalid adaptive send control settings.");
+		}
+		this.adaptiveSendEnabled = true;
+		this.minInFlightMessages = minInFlightMessages;
+		this.maxInFlightMessages = maxInFlightMessages;
+		this.targetSendLatencyMs = targetLatencyMs;
+		return this;
+	}
+
+	//the upper bound of linger.ms raised by the adaptive send control, the lower bound is linger.ms.
+	public ProducerClientContext maxAdaptiveLingerMs(long maxLingerMs) {
+		this.maxAdaptiveLingerMs = maxLingerMs;
+		return this;
+	}
+
+	public ProducerClientContext topicRateLimit(String topic, double messagesPerSecond) {
+		if (messagesPerSecond <= 0) {
+			throw new IllegalArgumentException("rate limit must be positive.");
+		}
+		this.topicRateLimits.put(topic, messagesPerSecond);
+		return this;
+	}
+
+	//choose the codec of the topic from the candidates by sampling its messages, the codec with the least
+	//compress time plus transfer time per byte at the bandwidth wins. see AdaptiveCompressionPolicy.
+	public ProducerClientContext adaptiveCompression(String topic) {
+		this.adaptiveCompressionTopics.add(topic);
+		return this;
+	}
+
+	public ProducerClientContext compressionCandidates(CompressionType... candidates) {
+		if (candidates.length == 0) {
+			throw new IllegalArgumentException("compression candidates must not be empty.");
+		}
+		this.compressionCandidates = new ArrayList<>(Arrays.asList(candidates));
+		return this;
+	}
+
+	//the network bandwidth of the producer, a lower bandwidth prefers a higher compression ratio.
+	public ProducerClientContext compressionBandwidthBytes(long bytesPerSecond) {
+		if (bytesPerSecond <= 0) {
+			throw new IllegalArgumentException("bandwidth must be positive.");
+		}
+		this.compressionBandwidthBytes = bytesPerSecond;
+		return this;
+	}
+
+	public ProducerClientContext compressionSample(int sampleBytes, long sampleIntervalMs) {
+		if (sampleBytes <= 0 || sampleIntervalMs < 0) {
+			throw new IllegalArgumentException("invalid compression sample settings.");
+		}
+		this.compressionSampleBytes = sampleBytes;
+		this.compressionSampleIntervalMs = sampleIntervalMs;
+		return this;
+	}
+
+	public boolean isAdaptiveCompressionEnabled() {
+		return !adaptiveCompressionTopics.isEmpty();
+	}
+
+	Set<String> adaptiveCompressionTopics() {
+		return adaptiveCompressionTopics;
+	}
+
+	List<CompressionType> compressionCandidates() {
+		return compressionCandidates;
+	}
+
+	long compressionBandwidthBytes() {
+		return compressionBandwidthBytes;
+	}
+
+	int compressionSampleBytes() {
+		return compressionSampleBytes;
+	}
+
+	long compressionSampleIntervalMs() {
+		return compressionSampleIntervalMs;
+	}
+
+	CompressionType compressionType() {
+		Object type = innerProducerConfig.get(ProducerConfig.COMPRESSION_TYPE_CONFIG);
+		return null == type ? CompressionType.NONE : CompressionType.forName(String.valueOf(type));
+	}
+
+	public boolean isSendControlEnabled() {
+		return adaptiveSendEnabled || !topicRateLimits.isEmpty();
+	}
+
+	public boolean isAdaptiveSendEnabled() {
+		return adaptiveSendEnabled;
+	}
+
+	public int minInFlightMessages() {
+		return minInFlightMessages;
+	}
+
+	public int maxInFlightMessages() {
+		return maxInFlightMessages;
+	}
+
+	public long targetSendLatencyMs() {
+		return targetSendLatencyMs;
+	}
+
+	long minLingerMs() {
+		Object lingerMs = innerProducerConfig.get(ProducerConfig.LINGER_MS_CONFIG);
+		return null == lingerMs ? 0L : Long.parseLong(String.valueOf(lingerMs));
+	}
+
+	long maxLingerMs() {
+		return Math.max(minLingerMs(), maxAdaptiveLingerMs);
+	}
+
+	long maxBlockMs() {
+		Object maxBlockMs = innerProducerConfig.get(ProducerConfig.MAX_BLOCK_MS_CONFIG);
+		return null == maxBlockMs ? DEFAULT_MAX_BLOCK_MS : Long.parseLong(String.valueOf(maxBlockMs));
+	}
+
+	Map<String, Double> topicRateLimits() {
+		return topicRateLimits;
+	}
+
 	Map<String, Object> getProducerConfig() {
 		return this.innerProducerConfig;
 	}
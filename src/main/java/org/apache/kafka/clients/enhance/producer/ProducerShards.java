@@ -0,0 +1,334 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.KafkaMetric;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * owns the inner producers of a KafkaEnhanceProducer. with more than one shard, every shard has its own
+ * accumulator, buffer pool and sender thread, the partition of a record is chosen up front the same way as
+ * DefaultPartitioner, and all records of a partition go to the same shard, so the order in a partition is kept.
+ * <p>
+ * a commit can't be atomic across shards, and the partition chosen up front bypasses the partitioner of the
+ * inner producers, so transactional.id and a custom partitioner.class are rejected with more than one shard.
+ */
+class ProducerShards<K> {
+	private static final Logger logger = LoggerFactory.getLogger(ProducerShards.class);
+
+	private static final String PRODUCER_METRIC_GROUP = "producer-metrics";
+	private static final String PRODUCE_THROTTLE_TIME_AVG = "produce-throttle-time-avg";
+	private static final String BUFFER_AVAILABLE_BYTES = "buffer-available-bytes";
+
+	private final KafkaProducerProxy<K>[] producers;
+	private final Serializer<K> keySerializer;
+	private final ConcurrentMap<String, AtomicInteger> topicCounters = new ConcurrentHashMap<>();
+	private final KafkaMetric[] bufferAvailableMetrics;
+
+	@SuppressWarnings("unchecked")
+	ProducerShards(Map<String, Object> config, Serializer<K> keySerializer, int shardNum) {
+		if (shardNum > 1) {
+			validateShardConfig(config);
+		}
+		this.producers = new KafkaProducerProxy[shardNum];
+		try {
+			for (int idx = 0; idx < shardNum; idx++) {
+				producers[idx] = new KafkaProducerProxy<>(shardConfig(config, idx, shardNum));
+			}
+		} catch (RuntimeException e) {
+			close(0, TimeUnit.MILLISECONDS);
+			throw e;
+		}
+		this.keySerializer = shardNum > 1 ? keySerializer(config, keySerializer) : null;
+		this.bufferAvailableMetrics = new KafkaMetric[shardNum];
+		for (int idx = 0; idx < shardNum; idx++) {
+			Metrics metrics = producers[idx].kafkaMetrics();
+			bufferAvailableMetrics[idx] = metrics.metric(metrics.metricName(BUFFER_AVAILABLE_BYTES, PRODUCER_METRIC_GROUP));
+		}
+		if (shardNum > 1) {
+			logger.info("[ProducerShards] producer is sharded into [{}] inner producers.", shardNum);
+		}
+	}
+
+	private static void validateShardConfig(Map<String, Object> config) {
+		if (null != config.get(ProducerConfig.TRANSACTIONAL_ID_CONFIG)) {
+			throw new KafkaException("transactions can't be committed atomically across producer shards, "
+					+ "use a single shard for transactional producers.");
+		}
+		Object partitioner = config.get(ProducerConfig.PARTITIONER_CLASS_CONFIG);
+		if (null != partitioner && !DefaultPartitioner.class.getName().equals(partitioner instanceof Class ?
+				((Class<?>) partitioner).getName() : String.valueOf(partitioner))) {
+			throw new KafkaException("producer shards choose partitions as DefaultPartitioner does, partitioner ["
+					+ partitioner + "] can't be used with more than one shard.");
+		}
+	}
+
+	private static Map<String, Object> shardConfig(Map<String, Object> config, int idx, int shardNum) {
+		if (shardNum == 1)
+			return config;
+		Map<String, Object> shardConfig = new HashMap<>(config);
+		if (null != config.get(ProducerConfig.CLIENT_ID_CONFIG)) {
+			shardConfig.put(ProducerConfig.CLIENT_ID_CONFIG, config.get(ProducerConfig.CLIENT_ID_CONFIG) + "-shard-" + idx);
+		}
+		return shardConfig;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K> Serializer<K> keySerializer(Map<String, Object> config, Serializer<K> keySerializer) {
+		if (null != keySerializer)
+			return keySerializer;
+		Object serializerClass = config.get(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG);
+		try {
+			Serializer<K> serializer = serializerClass instanceof Class ?
+					Utils.newInstance((Class<Serializer<K>>) serializerClass) :
+					Utils.newInstance(String.valueOf(serializerClass), Serializer.class);
+			serializer.configure(config, true);
+			return serializer;
+		} catch (ClassNotFoundException e) {
+			throw new KafkaException("key serializer class [" + serializerClass + "] isn't found.", e);
+		}
+	}
+
+	int shardNum() {
+		return producers.length;
+	}
+
+	//the record with the partition chosen, routed to the shard which owns the partition.
+	private ProducerRecord<K, ExtMessage<K>> route(ProducerRecord<K, ExtMessage<K>> record) {
+		if (null != record.partition())
+			return record;
+		List<PartitionInfo> partitions = producers[0].partitionsFor(record.topic());
+		int numPartitions = partitions.size();
+		int partition;
+		byte[] keyBytes = null == record.key() ? null : keySerializer.serialize(record.topic(), record.key());
+		if (null == keyBytes) {
+			int nextValue = nextValue(record.topic());
+			List<PartitionInfo> availablePartitions = new ArrayList<>(numPartitions);
+			for (PartitionInfo info : partitions) {
+				if (null != info.leader())
+					availablePartitions.add(info);
+			}
+			if (availablePartitions.size() > 0) {
+				partition = availablePartitions.get(Utils.toPositive(nextValue) % availablePartitions.size()).partition();
+			} else {
+				partition = Utils.toPositive(nextValue) % numPartitions;
+			}
+		} else {
+			partition = Utils.toPositive(Utils.murmur2(keyBytes)) % numPartitions;
+		}
+		return new ProducerRecord<>(record.topic(), partition, record.timestamp(), record.key(), record.value(),
+				record.headers());
+	}
+
+	private int nextValue(String topic) {
+		AtomicInteger counter = topicCounters.get(topic);
+		if (null == counter) {
+			counter = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+			AtomicInteger currentCounter = topicCounters.putIfAbsent(topic, counter);
+			if (null != currentCounter) {
+				counter = currentCounter;
+			}
+		}
+		return counter.getAndIncrement();
+	}
+
+	private KafkaProducerProxy<K> shardOf(ProducerRecord<K, ExtMessage<K>> routedRecord) {
+		return producers[routedRecord.partition() % producers.length];
+	}
+
+	Future<RecordMetadata> send(ProducerRecord<K, ExtMessage<K>> record, Callback callback) {
+		if (producers.length == 1)
+			return producers[0].send(record, callback);
+		ProducerRecord<K, ExtMessage<K>> routedRecord = route(record);
+		return shardOf(routedRecord).send(routedRecord, callback);
+	}
+
+	//like KafkaProducer.sendBatch, if it throws, the callback of every record which isn't sent has been called.
+	List<Future<RecordMetadata>> sendBatch(List<ProducerRecord<K, ExtMessage<K>>> records, List<Callback> callbacks) {
+		if (producers.length == 1)
+			return producers[0].sendBatch(records, callbacks);
+
+		List<List<Integer>> indexesByShard = new ArrayList<>(producers.length);
+		List<List<ProducerRecord<K, ExtMessage<K>>>> recordsByShard = new ArrayList<>(producers.length);
+		List<List<Callback>> callbacksByShard = new ArrayList<>(producers.length);
+		for (int shard = 0; shard < producers.length; shard++) {
+			indexesByShard.add(new ArrayList<Integer>());
+			recordsByShard.add(new ArrayList<ProducerRecord<K, ExtMessage<K>>>());
+			callbacksByShard.add(new ArrayList<Callback>());
+		}
+		try {
+			for (int idx = 0; idx < records.size(); idx++) {
+				ProducerRecord<K, ExtMessage<K>> routedRecord = route(records.get(idx));
+				int shard = routedRecord.partition() % producers.length;
+				indexesByShard.get(shard).add(idx);
+				recordsByShard.get(shard).add(routedRecord);
+				callbacksByShard.get(shard).add(null == callbacks ? null : callbacks.get(idx));
+			}
+		} catch (RuntimeException e) {
+			failCallbacks(callbacks, e);
+			throw e;
+		}
+
+		List<Future<RecordMetadata>> futures = new ArrayList<>(
+				Collections.<Future<RecordMetadata>>nCopies(records.size(), null));
+		for (int shard = 0; shard < producers.length; shard++) {
+			List<Integer> indexes = indexesByShard.get(shard);
+			if (indexes.isEmpty())
+				continue;
+			List<Future<RecordMetadata>> shardFutures;
+			try {
+				shardFutures = producers[shard].sendBatch(recordsByShard.get(shard), callbacksByShard.get(shard));
+			} catch (RuntimeException e) {
+				for (int unsentShard = shard + 1; unsentShard < producers.length; unsentShard++) {
+					failCallbacks(callbacksByShard.get(unsentShard), e);
+				}
+				throw e;
+			}
+			for (int i = 0; i < indexes.size(); i++) {
+				futures.set(indexes.get(i), shardFutures.get(i));
+			}
+		}
+		return futures;
+	}
+
+	private static void failCallbacks(List<Callback> callbacks, Exception e) {
+		if (null == callbacks)
+			return;
+		for (Callback callback : callbacks) {
+			if (null != callback) {
+				callback.onCompletion(null, e);
+			}
+		}
+	}
+
+	void flush() {
+		for (KafkaProducerProxy<K> producer : producers) {
+			producer.flush();
+		}
+	}
+
+	List<PartitionInfo> partitionsFor(String topic) {
+		return producers[0].partitionsFor(topic);
+	}
+
+	//transactions only run with a single shard.
+	void initTransactions() {
+		producers[0].initTransactions();
+	}
+
+	void beginTransaction() {
+		producers[0].beginTransaction();
+	}
+
+	void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets, String groupId) {
+		producers[0].sendOffsetsToTransaction(offsets, groupId);
+	}
+
+	void commitTransaction() {
+		producers[0].commitTransaction();
+	}
+
+	void abortTransaction() {
+		producers[0].abortTransaction();
+	}
+
+	void addProducerMessageHooks(SendMessageHooks<K> hooks) {
+		for (KafkaProducerProxy<K> producer : producers) {
+			producer.addProducerMessageHooks(hooks);
+		}
+	}
+
+	//metrics of all shards, the shards are told apart by the client-id tag.
+	Map<MetricName, Metric> metrics() {
+		Map<MetricName, Metric> metrics = new HashMap<>();
+		for (KafkaProducerProxy<K> producer : producers) {
+			metrics.putAll(producer.metrics());
+		}
+		return Collections.unmodifiableMap(metrics);
+	}
+
+	//the registry of shard 0, where the metrics of the enhance producer are registered.
+	Metrics kafkaMetrics() {
+		return producers[0].kafkaMetrics();
+	}
+
+	void lingerMs(long lingerMs) {
+		for (KafkaProducerProxy<K> producer : producers) {
+			producer.lingerMs(lingerMs);
+		}
+	}
+
+	void compressionType(String topic, CompressionType type) {
+		for (KafkaProducerProxy<K> producer : producers) {
+			producer.compressionType(topic, type);
+		}
+	}
+
+	//the max of the average produce throttle time of all shards.
+	double maxThrottleTimeMs() {
+		double throttleTimeMs = 0;
+		for (KafkaProducerProxy<K> producer : producers) {
+			Metrics metrics = producer.kafkaMetrics();
+			double value = value(metrics.metric(metrics.metricName(PRODUCE_THROTTLE_TIME_AVG, PRODUCER_METRIC_GROUP)));
+			if (!Double.isNaN(value)) {
+				throttleTimeMs = Math.max(throttleTimeMs, value);
+			}
+		}
+		return throttleTimeMs;
+	}
+
+	//the least available buffer memory of the shards.
+	long minBufferAvailableBytes() {
+		double availableBytes = Long.MAX_VALUE;
+		for (KafkaMetric metric : bufferAvailableMetrics) {
+			double value = value(metric);
+			if (!Double.isNaN(value)) {
+				availableBytes = Math.min(availableBytes, value);
+			}
+		}
+		return (long) availableBytes;
+	}
+
+	//NaN if the metric is missing or not numeric.
+	private static double value(KafkaMetric metric) {
+		if (null == metric)
+			return Double.NaN;
+		Object value = metric.metricValue();
+		return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+	}
+
+	void close(long timeout, TimeUnit unit) {
+		for (KafkaProducerProxy<K> producer : producers) {
+			if (null != producer) {
+				try {
+					producer.close(timeout, unit);
+				} catch (Exception e) {
+					logger.warn("[ProducerShards] inner producer throw exception when closed. due to ", e);
+				}
+			}
+		}
+	}
+}
@@ -5,58 +5,179 @@ import org.apache.kafka.clients.producer.ProducerInterceptor;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.clients.producer.internals.ProducerInterceptors;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.RecordBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * the hook chain of the producer, hooks and interceptors are kept in immutable arrays which are replaced on
+ * every change, so the send path reads them without any lock.
+ * <p>
+ * hooks mutate the message in place and are called in a single pass, a new record is only created when a hook
+ * returns another message, the partition, timestamp and headers of the record are kept.
+ */
 public final class SendMessageHooks<K> extends ProducerInterceptors<K, ExtMessage<K>> {
+	private static final Logger logger = LoggerFactory.getLogger(SendMessageHooks.class);
+
+	private final Object lock = new Object();
+	private volatile ProducerInterceptor<K, ExtMessage<K>>[] producerInterceptors = newInterceptors(0);
+	private volatile SendMessageHook<K>[] sendHooks = newHooks(0);
 
 	public SendMessageHooks() {
-		super(new ArrayList<ProducerInterceptor<K, ExtMessage<K>>>());
+		super(Collections.<ProducerInterceptor<K, ExtMessage<K>>>emptyList());
 	}
 
 	public void addSendMessageHook(final SendMessageHook<K> hook) {
-		this.interceptors.add(new ProducerInterceptor<K, ExtMessage<K>>() {
-			@Override
-			public ProducerRecord<K, ExtMessage<K>> onSend(ProducerRecord<K, ExtMessage<K>> record) {
-				return new ProducerRecord<>(record.topic(), record.key(), hook.beforeSend(record.value()));
+		synchronized (lock) {
+			SendMessageHook<K>[] current = sendHooks;
+			for (SendMessageHook<K> sendHook : current) {
+				if (sendHook == hook)
+					return;
 			}
+			SendMessageHook<K>[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = hook;
+			sendHooks = updated;
+		}
+	}
 
-			@Override
-			public void onAcknowledgement(RecordMetadata metadata, Exception exception) {
-				hook.afterSend(metadata, exception);
+	public void addSendMessageHook(final ProducerInterceptor<K, ExtMessage<K>> interceptor) {
+		synchronized (lock) {
+			ProducerInterceptor<K, ExtMessage<K>>[] current = producerInterceptors;
+			for (ProducerInterceptor<K, ExtMessage<K>> pi : current) {
+				if (pi == interceptor)
+					return;
 			}
+			ProducerInterceptor<K, ExtMessage<K>>[] updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = interceptor;
+			producerInterceptors = updated;
+		}
+	}
+
+	public void addSendMessageHook(final List<ProducerInterceptor<K, ExtMessage<K>>> interceptors) {
+		for (ProducerInterceptor<K, ExtMessage<K>> pi : interceptors) {
+			addSendMessageHook(pi);
+		}
+	}
+
+	public void addSendMessageHooks(final SendMessageHooks<K> hooks) {
+		if (hooks == this)
+			return;
+		for (ProducerInterceptor<K, ExtMessage<K>> pi : hooks.producerInterceptors) {
+			addSendMessageHook(pi);
+		}
+		for (SendMessageHook<K> hook : hooks.sendHooks) {
+			addSendMessageHook(hook);
+		}
+	}
+
+	public void clearHooks() {
+		synchronized (lock) {
+			producerInterceptors = newInterceptors(0);
+			sendHooks = newHooks(0);
+		}
+	}
 
-			@Override
-			public void close() {
+	public boolean isEmpty() {
+		return producerInterceptors.length == 0 && sendHooks.length == 0;
+	}
 
+	@Override
+	public ProducerRecord<K, ExtMessage<K>> onSend(ProducerRecord<K, ExtMessage<K>> record) {
+		ProducerRecord<K, ExtMessage<K>> interceptRecord = record;
+		for (ProducerInterceptor<K, ExtMessage<K>> interceptor : producerInterceptors) {
+			try {
+				interceptRecord = interceptor.onSend(interceptRecord);
+			} catch (Exception e) {
+				logger.warn("[SendMessageHooks] interceptor onSend failed. topic = [{}].", record.topic(), e);
 			}
+		}
 
-			@Override
-			public void configure(Map<String, ?> configs) {
+		SendMessageHook<K>[] hooks = sendHooks;
+		if (hooks.length == 0 || null == interceptRecord)
+			return interceptRecord;
+		ExtMessage<K> origin = interceptRecord.value();
+		ExtMessage<K> message = origin;
+		for (SendMessageHook<K> hook : hooks) {
+			try {
+				ExtMessage<K> hooked = hook.beforeSend(message);
+				if (null != hooked) {
+					message = hooked;
+				}
+			} catch (Exception e) {
+				logger.warn("[SendMessageHooks] hook beforeSend failed. topic = [{}].", record.topic(), e);
+			}
+		}
+		if (message == origin)
+			return interceptRecord;
+		return new ProducerRecord<>(interceptRecord.topic(), interceptRecord.partition(), interceptRecord.timestamp(),
+				interceptRecord.key(), message, interceptRecord.headers());
+	}
 
+	@Override
+	public void onAcknowledgement(RecordMetadata metadata, Exception exception) {
+		for (ProducerInterceptor<K, ExtMessage<K>> interceptor : producerInterceptors) {
+			try {
+				interceptor.onAcknowledgement(metadata, exception);
+			} catch (Exception e) {
+				logger.warn("[SendMessageHooks] interceptor onAcknowledgement failed.", e);
 			}
-		});
+		}
+		for (SendMessageHook<K> hook : sendHooks) {
+			try {
+				hook.afterSend(metadata, exception);
+			} catch (Exception e) {
+				logger.warn("[SendMessageHooks] hook afterSend failed.", e);
+			}
+		}
 	}
 
-	public void addSendMessageHook(final ProducerInterceptor<K, ExtMessage<K>> interceptor) {
-		if (!interceptors.contains(interceptor)) {
-			interceptors.add(interceptor);
+	@Override
+	public void onSendError(ProducerRecord<K, ExtMessage<K>> record, TopicPartition interceptTopicPartition,
+			Exception exception) {
+		RecordMetadata metadata = null;
+		if (null != record || null != interceptTopicPartition) {
+			if (null == interceptTopicPartition) {
+				interceptTopicPartition = new TopicPartition(record.topic(),
+						null == record.partition() ? RecordMetadata.UNKNOWN_PARTITION : record.partition());
+			}
+			metadata = new RecordMetadata(interceptTopicPartition, -1, -1, RecordBatch.NO_TIMESTAMP,
+					Long.valueOf(-1L), -1, -1);
 		}
+		onAcknowledgement(metadata, exception);
 	}
 
-	public void addSendMessageHook(final List<ProducerInterceptor<K, ExtMessage<K>>> interceptors) {
-		for (ProducerInterceptor<K, ExtMessage<K>> pi : interceptors) {
-			addSendMessageHook(pi);
+	@Override
+	public void close() {
+		for (ProducerInterceptor<K, ExtMessage<K>> interceptor : producerInterceptors) {
+			try {
+				interceptor.close();
+			} catch (Exception e) {
+				logger.error("[SendMessageHooks] failed to close producer interceptor.", e);
+			}
 		}
 	}
 
-	public void clearHooks() {
-		this.interceptors.clear();
+	@Override
+	public List<ProducerInterceptor<K, ExtMessage<K>>> getInterceptors() {
+		return Collections.unmodifiableList(Arrays.asList(producerInterceptors));
 	}
 
-	public boolean isEmpty() {
-		return this.interceptors.isEmpty();
+	public List<SendMessageHook<K>> getSendMessageHooks() {
+		return Collections.unmodifiableList(Arrays.asList(sendHooks));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K> ProducerInterceptor<K, ExtMessage<K>>[] newInterceptors(int size) {
+		return new ProducerInterceptor[size];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K> SendMessageHook<K>[] newHooks(int size) {
+		return new SendMessageHook[size];
 	}
 }
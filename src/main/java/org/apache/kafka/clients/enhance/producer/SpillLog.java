@@ -0,0 +1,308 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.utils.Crc32C;
+import org.apache.kafka.common.utils.MappedByteBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * an append only log of byte records in memory mapped segment files, read in the order of appending.
+ * <p>
+ * segment layout: [int read position][int reserved][records...], a record is [int size][int crc32c][payload],
+ * a zero size marks the end of the written records, the files are zero filled when they are created.
+ * the read position is updated in the mapped header after every committed record, so a restarted producer
+ * continues with the records which weren't drained. fully read segments are deleted.
+ * <p>
+ * records are read ahead of the commit by next, so several of them can be in flight, they are committed in
+ * the same order once they are acked.
+ * <p>
+ * not thread safe, guarded by the caller.
+ */
+class SpillLog {
+	private static final Logger logger = LoggerFactory.getLogger(SpillLog.class);
+	static final String SEGMENT_SUFFIX = ".spill";
+	static final int HEADER_SIZE = 8;
+	static final int RECORD_OVERHEAD = 8;
+
+	private final File dir;
+	private final int segmentBytes;
+	private final long maxBytes;
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	private long nextSegmentId = 0L;
+	private long pendingBytes = 0L;
+	private long pendingRecords = 0L;
+
+	SpillLog(File dir, int segmentBytes, long maxBytes) throws IOException {
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		this.maxBytes = maxBytes;
+		if (!dir.exists() && !dir.mkdirs()) {
+			throw new IOException("failed to create spill directory " + dir);
+		}
+		recover();
+	}
+
+	private void recover() throws IOException {
+		File[] files = dir.listFiles();
+		if (null == files)
+			return;
+		Arrays.sort(files);
+		for (File file : files) {
+			String name = file.getName();
+			if (!name.endsWith(SEGMENT_SUFFIX))
+				continue;
+			long segmentId = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+			nextSegmentId = Math.max(nextSegmentId, segmentId + 1);
+			Segment segment = new Segment(file, (int) Math.max(file.length(), HEADER_SIZE));
+			if (segment.isFullyRead()) {
+				segment.delete();
+				continue;
+			}
+			segments.addLast(segment);
+			pendingBytes += segment.writePosition - segment.readPosition;
+			pendingRecords += segment.unreadRecords();
+		}
+		if (!segments.isEmpty()) {
+			logger.info("[SpillLog] recovered [{}] unsent records, [{}] bytes in [{}] segments from [{}].",
+					pendingRecords, pendingBytes, segments.size(), dir);
+		}
+	}
+
+	//false if the record can't be appended within the disk limit.
+	boolean append(byte[] payload) throws IOException {
+		int recordSize = RECORD_OVERHEAD + payload.length;
+		if (HEADER_SIZE + recordSize > segmentBytes) {
+			throw new KafkaException("record of " + payload.length + " bytes is larger than spill segment.");
+		}
+		Segment tail = segments.peekLast();
+		if (null == tail || !tail.hasRoom(recordSize)) {
+			if (segmentBytesOnDisk() + segmentBytes > maxBytes) {
+				return false;
+			}
+			if (null != tail) {
+				tail.flush();
+			}
+			tail = new Segment(new File(dir, String.format("%020d%s", nextSegmentId++, SEGMENT_SUFFIX)), segmentBytes);
+			segments.addLast(tail);
+		}
+		tail.append(payload);
+		pendingBytes += recordSize;
+		pendingRecords++;
+		return true;
+	}
+
+	//the oldest record which isn't committed, null if the log is empty.
+	byte[] peek() throws IOException {
+		Segment head = headSegment();
+		return null == head ? null : head.peek();
+	}
+
+	//the oldest record which isn't returned by next yet, null if all of them have been returned.
+	byte[] next() throws IOException {
+		headSegment();
+		for (Segment segment : segments) {
+			if (segment.hasUnsent()) {
+				return segment.next();
+			}
+		}
+		return null;
+	}
+
+	//marks the oldest record which isn't committed as drained.
+	void commit() throws IOException {
+		Segment head = headSegment();
+		if (null == head)
+			return;
+		int recordSize = head.commit();
+		pendingBytes -= recordSize;
+		pendingRecords--;
+	}
+
+	private Segment headSegment() throws IOException {
+		while (!segments.isEmpty()) {
+			Segment head = segments.peekFirst();
+			if (!head.isFullyRead())
+				return head;
+			//only the tail can still be written.
+			if (segments.size() == 1 && head.hasRoom(RECORD_OVERHEAD + 1))
+				return null;
+			segments.pollFirst().delete();
+		}
+		return null;
+	}
+
+	boolean isEmpty() {
+		return pendingRecords == 0;
+	}
+
+	long pendingBytes() {
+		return pendingBytes;
+	}
+
+	long pendingRecords() {
+		return pendingRecords;
+	}
+
+	int segmentNum() {
+		return segments.size();
+	}
+
+	private long segmentBytesOnDisk() {
+		long bytes = 0;
+		for (Segment segment : segments) {
+			bytes += segment.size;
+		}
+		return bytes;
+	}
+
+	void close() {
+		for (Segment segment : segments) {
+			segment.close();
+		}
+		segments.clear();
+	}
+
+	private static final class Segment {
+		private final File file;
+		private final int size;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private int readPosition;
+		private int sendPosition;
+		private int writePosition;
+
+		Segment(File file, int size) throws IOException {
+			this.file = file;
+			this.size = size;
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(size);
+				this.channel = raf.getChannel();
+				this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			} catch (IOException e) {
+				raf.close();
+				throw e;
+			}
+			this.readPosition = Math.max(HEADER_SIZE, buffer.getInt(0));
+			this.sendPosition = readPosition;
+			this.writePosition = scanWritePosition();
+		}
+
+		//the end of the valid records, a torn record at the tail is dropped.
+		private int scanWritePosition() {
+			int position = readPosition;
+			while (position + RECORD_OVERHEAD <= size) {
+				int payloadSize = buffer.getInt(position);
+				if (payloadSize <= 0 || position + RECORD_OVERHEAD + payloadSize > size)
+					break;
+				if (crc(position + RECORD_OVERHEAD, payloadSize) != buffer.getInt(position + 4)) {
+					logger.warn("[SpillLog] corrupted record at [{}] of [{}], the rest of the segment is dropped.",
+							position, file);
+					break;
+				}
+				position += RECORD_OVERHEAD + payloadSize;
+			}
+			return position;
+		}
+
+		private int crc(int position, int length) {
+			return (int) Crc32C.compute(buffer, position, length);
+		}
+
+		int unreadRecords() {
+			int records = 0;
+			for (int position = readPosition; position < writePosition; records++) {
+				position += RECORD_OVERHEAD + buffer.getInt(position);
+			}
+			return records;
+		}
+
+		boolean hasRoom(int recordSize) {
+			return writePosition + recordSize <= size;
+		}
+
+		boolean isFullyRead() {
+			return readPosition >= writePosition;
+		}
+
+		void append(byte[] payload) {
+			int position = writePosition;
+			ByteBuffer view = buffer.duplicate();
+			view.position(position + RECORD_OVERHEAD);
+			view.put(payload);
+			buffer.putInt(position + 4, crc(position + RECORD_OVERHEAD, payload.length));
+			//the size is written last, a partially written record is seen as the end.
+			buffer.putInt(position, payload.length);
+			writePosition = position + RECORD_OVERHEAD + payload.length;
+		}
+
+		boolean hasUnsent() {
+			return sendPosition < writePosition;
+		}
+
+		byte[] peek() {
+			return read(readPosition);
+		}
+
+		byte[] next() {
+			byte[] payload = read(sendPosition);
+			sendPosition += RECORD_OVERHEAD + payload.length;
+			return payload;
+		}
+
+		private byte[] read(int position) {
+			int payloadSize = buffer.getInt(position);
+			byte[] payload = new byte[payloadSize];
+			ByteBuffer view = buffer.duplicate();
+			view.position(position + RECORD_OVERHEAD);
+			view.get(payload);
+			return payload;
+		}
+
+		int commit() {
+			int recordSize = RECORD_OVERHEAD + buffer.getInt(readPosition);
+			readPosition += recordSize;
+			sendPosition = Math.max(sendPosition, readPosition);
+			buffer.putInt(0, readPosition);
+			return recordSize;
+		}
+
+		void flush() {
+			buffer.force();
+		}
+
+		//the buffer must not be accessed after it is unmapped.
+		void close() {
+			try {
+				buffer.force();
+				channel.close();
+				MappedByteBuffers.unmap(file.getAbsolutePath(), buffer);
+			} catch (IOException e) {
+				logger.warn("[SpillLog] failed to close segment [{}].", file, e);
+			}
+		}
+
+		void delete() {
+			try {
+				channel.close();
+				MappedByteBuffers.unmap(file.getAbsolutePath(), buffer);
+			} catch (IOException e) {
+				logger.warn("[SpillLog] failed to close segment [{}].", file, e);
+			}
+			if (!file.delete()) {
+				logger.warn("[SpillLog] failed to delete drained segment [{}].", file);
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.enhance.MessageIdGenerator;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.errors.OutOfOrderSequenceException;
+import org.apache.kafka.common.errors.ProducerFencedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import static org.apache.kafka.clients.enhance.ExtMessageDef.PROPERTY_UNIQ_KEY;
+
+/**
+ * a transactional producer leased from TransactionalProducerPool, used by one thread.
+ * <p>
+ * close returns the producer to the pool, an unfinished transaction is aborted first. a producer which is fenced
+ * or fails with a fatal error is closed instead of being returned.
+ */
+public final class TransactionalProducerLease<K> implements Closeable {
+	private static final Logger logger = LoggerFactory.getLogger(TransactionalProducerLease.class);
+
+	private final TransactionalProducerPool<K> pool;
+	private final TransactionalProducerPool.PooledProducer<K> pooled;
+	private final ProducerClientContext<K> clientContext;
+	private boolean inTransaction;
+	private boolean broken;
+	private boolean closed;
+
+	TransactionalProducerLease(TransactionalProducerPool<K> pool, TransactionalProducerPool.PooledProducer<K> pooled,
+			ProducerClientContext<K> clientContext) {
+		this.pool = pool;
+		this.pooled = pooled;
+		this.clientContext = clientContext;
+	}
+
+	public String transactionalId() {
+		return pooled.transactionalId;
+	}
+
+	public void beginTransaction() {
+		ensureOpen();
+		try {
+			pooled.producer.beginTransaction();
+			inTransaction = true;
+		} catch (KafkaException e) {
+			throw onError(e);
+		}
+	}
+
+	public Future<RecordMetadata> sendMessage(ExtMessage<K> message) {
+		return sendMessage(message, null);
+	}
+
+	public Future<RecordMetadata> sendMessage(ExtMessage<K> message, Callback callback) {
+		ensureOpen();
+		if (clientContext.isUniqKeyEnabled() && null == message.getProperty(PROPERTY_UNIQ_KEY)) {
+			message.addProperty(PROPERTY_UNIQ_KEY, MessageIdGenerator.nextId());
+		}
+		try {
+			return pooled.producer.send(new ProducerRecord<>(message.getTopic(), message.getMsgKey(), message), callback);
+		} catch (KafkaException e) {
+			throw onError(e);
+		}
+	}
+
+	public void sendGroupOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets, String groupId) {
+		ensureOpen();
+		try {
+			pooled.producer.sendOffsetsToTransaction(offsets, groupId);
+		} catch (KafkaException e) {
+			throw onError(e);
+		}
+	}
+
+	public void commitTransaction() {
+		ensureOpen();
+		try {
+			pooled.producer.commitTransaction();
+			inTransaction = false;
+		} catch (KafkaException e) {
+			throw onError(e);
+		}
+	}
+
+	public void abortTransaction() {
+		ensureOpen();
+		try {
+			pooled.producer.abortTransaction();
+			inTransaction = false;
+		} catch (KafkaException e) {
+			throw onError(e);
+		}
+	}
+
+	public void flush() {
+		ensureOpen();
+		pooled.producer.flush();
+	}
+
+	//fatal errors leave the producer unusable, it must not go back to the pool.
+	private KafkaException onError(KafkaException e) {
+		if (e instanceof ProducerFencedException || e instanceof OutOfOrderSequenceException
+				|| e instanceof AuthorizationException) {
+			logger.warn("[TransactionalProducerLease] producer of [{}] is broken, it will be closed.",
+					pooled.transactionalId, e);
+			broken = true;
+		}
+		return e;
+	}
+
+	private void ensureOpen() {
+		if (closed) {
+			throw new IllegalStateException("lease of " + pooled.transactionalId + " has been closed.");
+		}
+	}
+
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		if (inTransaction && !broken) {
+			try {
+				pooled.producer.abortTransaction();
+			} catch (Exception e) {
+				logger.warn("[TransactionalProducerLease] failed to abort transaction of [{}].", pooled.transactionalId, e);
+				broken = true;
+			}
+		}
+		pool.release(pooled.transactionalId, pooled, broken);
+	}
+}
@@ -0,0 +1,387 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.enhance.ClientOperator;
+import org.apache.kafka.clients.enhance.ClientThreadFactory;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.InterruptException;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * a pool of transactional producers, leased per task.
+ * <p>
+ * the transactional.id of a task is transactionalIdPrefix-taskKey, so a task always gets the same id, and the
+ * producer of a crashed or zombie instance with the id is fenced by initTransactions. the producers can be
+ * initialized ahead by warmUp, released producers are kept idle for the next lease of the same task.
+ * idle producers are closed when they are idle for idleTimeoutMs, or the least recently used ones when there are
+ * more than maxIdleProducers. at most maxProducers producers are open.
+ */
+public class TransactionalProducerPool<K> implements ClientOperator {
+	private static final Logger logger = LoggerFactory.getLogger(TransactionalProducerPool.class);
+	public static final int DEFAULT_MAX_PRODUCERS = 64;
+	public static final int DEFAULT_MAX_IDLE_PRODUCERS = 16;
+	public static final long DEFAULT_IDLE_TIMEOUT_MS = 10 * 60 * 1000L;
+	private static final long CLOSE_TIMEOUT_MS = 5000L;
+
+	private final ProducerClientContext<K> clientContext = new ProducerClientContext<>();
+	private final String transactionalIdPrefix;
+	private int maxProducers = DEFAULT_MAX_PRODUCERS;
+	private int maxIdleProducers = DEFAULT_MAX_IDLE_PRODUCERS;
+	private long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+	private final Time time = Time.SYSTEM;
+
+	private final Object lock = new Object();
+	//access order, the eldest is the least recently used.
+	private final LinkedHashMap<String, PooledProducer<K>> idleProducers = new LinkedHashMap<>(16, 0.75f, true);
+	private final Set<String> leasedIds = new HashSet<>();
+	private final Map<String, Future<PooledProducer<K>>> warmingProducers = new HashMap<>();
+	private ScheduledExecutorService executor;
+	private volatile boolean isRunning;
+
+	public TransactionalProducerPool(Map<String, Object> configs, Class<K> cls, String transactionalIdPrefix) {
+		clientContext.producerConfig(configs);
+		clientContext.keySerializer(Serdes.serdeFrom(cls).serializer());
+		this.transactionalIdPrefix = transactionalIdPrefix;
+	}
+
+	public TransactionalProducerPool(Properties properties, Class<K> cls, String transactionalIdPrefix) {
+		clientContext.producerConfig(properties);
+		clientContext.keySerializer(Serdes.serdeFrom(cls).serializer());
+		this.transactionalIdPrefix = transactionalIdPrefix;
+	}
+
+	public ProducerClientContext<K> producerSetting() {
+		return clientContext;
+	}
+
+	public TransactionalProducerPool<K> maxProducers(int maxProducers) {
+		this.maxProducers = maxProducers;
+		return this;
+	}
+
+	public TransactionalProducerPool<K> maxIdleProducers(int maxIdleProducers) {
+		this.maxIdleProducers = maxIdleProducers;
+		return this;
+	}
+
+	public TransactionalProducerPool<K> idleTimeoutMs(long idleTimeoutMs) {
+		this.idleTimeoutMs = idleTimeoutMs;
+		return this;
+	}
+
+	public String transactionalId(String taskKey) {
+		return transactionalIdPrefix + "-" + taskKey;
+	}
+
+	/**
+	 * lease the producer of the task, it is initialized here if it isn't warmed up.
+	 * a task can be leased once at a time, the lease must be closed to return the producer.
+	 */
+	public TransactionalProducerLease<K> lease(String taskKey) {
+		if (!isRunning) {
+			throw new KafkaException("TransactionalProducerPool hasn't been started.");
+		}
+		String transactionalId = transactionalId(taskKey);
+		PooledProducer<K> idle;
+		Future<PooledProducer<K>> warming;
+		List<PooledProducer<K>> evicted = new ArrayList<>();
+		synchronized (lock) {
+			if (leasedIds.contains(transactionalId)) {
+				throw new IllegalStateException("producer of " + transactionalId + " has been leased.");
+			}
+			idle = idleProducers.remove(transactionalId);
+			warming = null == idle ? warmingProducers.remove(transactionalId) : null;
+			if (null == idle && null == warming && !reserve(evicted)) {
+				throw new KafkaException("transactional producer pool is exhausted, max producers = " + maxProducers);
+			}
+			leasedIds.add(transactionalId);
+		}
+		closeAll(evicted);
+
+		try {
+			PooledProducer<K> pooled;
+			if (null != idle) {
+				pooled = idle;
+			} else if (null != warming) {
+				try {
+					pooled = warming.get();
+				} catch (ExecutionException e) {
+					logger.warn("[TransactionalProducerPool] failed to warm up producer of [{}], init it again.",
+							transactionalId, e.getCause());
+					pooled = create(taskKey);
+				}
+			} else {
+				pooled = create(taskKey);
+			}
+			return new TransactionalProducerLease<>(this, pooled, clientContext);
+		} catch (InterruptedException e) {
+			release(transactionalId, null, true);
+			Thread.currentThread().interrupt();
+			throw new InterruptException(e);
+		} catch (RuntimeException e) {
+			release(transactionalId, null, true);
+			throw e;
+		}
+	}
+
+	//initialize the producers of the tasks in background, so the leases don't wait for initTransactions.
+	public void warmUp(Collection<String> taskKeys) {
+		if (!isRunning) {
+			throw new KafkaException("TransactionalProducerPool hasn't been started.");
+		}
+		for (final String taskKey : taskKeys) {
+			final String transactionalId = transactionalId(taskKey);
+			List<PooledProducer<K>> evicted = new ArrayList<>();
+			synchronized (lock) {
+				if (leasedIds.contains(transactionalId) || idleProducers.containsKey(transactionalId)
+						|| warmingProducers.containsKey(transactionalId)) {
+					continue;
+				}
+				if (!reserve(evicted)) {
+					logger.info("[TransactionalProducerPool] pool is full, stop warming up at [{}].", transactionalId);
+					return;
+				}
+				warmingProducers.put(transactionalId, executor.submit(new Callable<PooledProducer<K>>() {
+					@Override
+					public PooledProducer<K> call() {
+						PooledProducer<K> pooled;
+						try {
+							pooled = create(taskKey);
+						} catch (RuntimeException e) {
+							//a failed warm-up doesn't hold a slot, the lease of the task inits the producer again.
+							synchronized (lock) {
+								warmingProducers.remove(transactionalId);
+							}
+							logger.warn("[TransactionalProducerPool] failed to warm up producer of [{}].", transactionalId, e);
+							throw e;
+						}
+						synchronized (lock) {
+							//moved to idle unless it has been taken by a lease, it is closed if the pool is shutdown.
+							boolean warming = warmingProducers.remove(transactionalId) != null;
+							if (warming && isRunning) {
+								pooled.lastUsedMs = time.milliseconds();
+								idleProducers.put(transactionalId, pooled);
+								return pooled;
+							}
+							if (!warming && leasedIds.contains(transactionalId)) {
+								return pooled;
+							}
+						}
+						pooled.close();
+						return pooled;
+					}
+				}));
+			}
+			closeAll(evicted);
+		}
+	}
+
+	//makes room for a new producer by evicting the least recently used idle one, false if the pool is full.
+	private boolean reserve(List<PooledProducer<K>> evicted) {
+		if (leasedIds.size() + idleProducers.size() + warmingProducers.size() < maxProducers)
+			return true;
+		Iterator<PooledProducer<K>> iterator = idleProducers.values().iterator();
+		if (iterator.hasNext()) {
+			evicted.add(iterator.next());
+			iterator.remove();
+			return true;
+		}
+		return false;
+	}
+
+	//the producer is closed if it fails to initialize.
+	PooledProducer<K> create(String taskKey) {
+		Map<String, Object> config = new HashMap<>(clientContext.getProducerConfig());
+		String transactionalId = transactionalId(taskKey);
+		config.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionalId);
+		Object clientId = config.get(ProducerConfig.CLIENT_ID_CONFIG);
+		if (null != clientId) {
+			config.put(ProducerConfig.CLIENT_ID_CONFIG, clientId + "-" + taskKey);
+		}
+		KafkaProducerProxy<K> producer = new KafkaProducerProxy<>(config, clientContext.keySerializer());
+		try {
+			if (!clientContext.getSendMessageHooks().isEmpty()) {
+				producer.addProducerMessageHooks(clientContext.getSendMessageHooks());
+			}
+			//fences the previous producers with the same transactional id.
+			producer.initTransactions();
+		} catch (RuntimeException e) {
+			producer.close(0, TimeUnit.MILLISECONDS);
+			throw e;
+		}
+		logger.debug("[TransactionalProducerPool] producer of [{}] is initialized.", transactionalId);
+		return new PooledProducer<>(transactionalId, producer);
+	}
+
+	//called when a lease is closed, broken producers are closed instead of being reused.
+	void release(String transactionalId, PooledProducer<K> pooled, boolean broken) {
+		List<PooledProducer<K>> evicted = new ArrayList<>();
+		synchronized (lock) {
+			leasedIds.remove(transactionalId);
+			if (null != pooled) {
+				if (broken || !isRunning) {
+					evicted.add(pooled);
+				} else {
+					pooled.lastUsedMs = time.milliseconds();
+					idleProducers.put(transactionalId, pooled);
+					Iterator<PooledProducer<K>> iterator = idleProducers.values().iterator();
+					while (idleProducers.size() > maxIdleProducers && iterator.hasNext()) {
+						evicted.add(iterator.next());
+						iterator.remove();
+					}
+				}
+			}
+		}
+		closeAll(evicted);
+	}
+
+	void evictIdleProducers() {
+		List<PooledProducer<K>> evicted = new ArrayList<>();
+		long now = time.milliseconds();
+		synchronized (lock) {
+			Iterator<PooledProducer<K>> iterator = idleProducers.values().iterator();
+			while (iterator.hasNext()) {
+				PooledProducer<K> pooled = iterator.next();
+				if (now - pooled.lastUsedMs >= idleTimeoutMs) {
+					evicted.add(pooled);
+					iterator.remove();
+				}
+			}
+		}
+		if (!evicted.isEmpty()) {
+			logger.debug("[TransactionalProducerPool] evict [{}] idle producers.", evicted.size());
+		}
+		closeAll(evicted);
+	}
+
+	private void closeAll(List<PooledProducer<K>> producers) {
+		for (PooledProducer<K> pooled : producers) {
+			pooled.close();
+		}
+	}
+
+	public int idleProducerNum() {
+		synchronized (lock) {
+			return idleProducers.size();
+		}
+	}
+
+	public int leasedProducerNum() {
+		synchronized (lock) {
+			return leasedIds.size();
+		}
+	}
+
+	public int warmingProducerNum() {
+		synchronized (lock) {
+			return warmingProducers.size();
+		}
+	}
+
+	@Override
+	public String clientId() {
+		return clientContext.clientId();
+	}
+
+	@Override
+	public void start() {
+		synchronized (lock) {
+			if (isRunning) {
+				logger.info("TransactionalProducerPool has been started.");
+				return;
+			}
+			ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1,
+					new ClientThreadFactory("transactional-producer-pool-"));
+			long checkIntervalMs = Math.max(1000L, idleTimeoutMs / 2);
+			scheduledExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						evictIdleProducers();
+					} catch (Exception e) {
+						logger.warn("[TransactionalProducerPool] failed to evict idle producers.", e);
+					}
+				}
+			}, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+			this.executor = scheduledExecutor;
+			isRunning = true;
+		}
+	}
+
+	@Override
+	public void shutdownNow() {
+		shutdown(0, TimeUnit.MILLISECONDS);
+	}
+
+	//idle producers are closed, leased producers are closed when their leases are closed.
+	@Override
+	public void shutdown(long timeout, TimeUnit unit) {
+		List<PooledProducer<K>> closed;
+		ScheduledExecutorService currentExecutor;
+		synchronized (lock) {
+			if (!isRunning) {
+				logger.info("TransactionalProducerPool has been shutdown.");
+				return;
+			}
+			isRunning = false;
+			closed = new ArrayList<>(idleProducers.values());
+			idleProducers.clear();
+			//the running warm-ups close their producers, the waiting ones are cancelled.
+			for (Future<PooledProducer<K>> warming : warmingProducers.values()) {
+				warming.cancel(false);
+			}
+			warmingProducers.clear();
+			currentExecutor = executor;
+			executor = null;
+		}
+		currentExecutor.shutdown();
+		try {
+			currentExecutor.awaitTermination(timeout, unit);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		currentExecutor.shutdownNow();
+		closeAll(closed);
+		logger.info("TransactionalProducerPool has been closed. prefix = [{}].", transactionalIdPrefix);
+	}
+
+	@Override
+	public void suspend() {
+		//since hard to process transaction message, don't implement it.
+	}
+
+	@Override
+	public void resume() {
+		//since hard to process transaction message, don't implement it.
+	}
+
+	static final class PooledProducer<K> {
+		final String transactionalId;
+		final KafkaProducerProxy<K> producer;
+		volatile long lastUsedMs;
+
+		PooledProducer(String transactionalId, KafkaProducerProxy<K> producer) {
+			this.transactionalId = transactionalId;
+			this.producer = producer;
+		}
+
+		void close() {
+			try {
+				producer.close(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			} catch (Exception e) {
+				logger.warn("[TransactionalProducerPool] producer of [{}] throw exception when closed.", transactionalId, e);
+			}
+		}
+	}
+}
@@ -736,6 +736,184 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
         return doSend(interceptedRecord, callback);
     }
 
+    /**
+     * Asynchronously send a batch of records. Metadata is fetched once per topic, the records are partitioned up front
+     * and appended per partition by {@link RecordAccumulator#appendAll}, so that the deque lock is taken once per
+     * partition and batch rather than once per record. The order of records in the same partition is kept.
+     * <p>
+     * The result of every record is returned in the same order as the records, and is also passed to its callback.
+     * {@link ApiException}s fail only the records they belong to. Other exceptions are thrown as {@link #send} does,
+     * after every record which was not appended yet has been failed with it, the records appended before are still
+     * sent. Either way the callback of every record is called exactly once.
+     *
+     * @param records The records to send
+     * @param callbacks The callbacks of the records, null or a list of the same size as records
+     */
+    public List<Future<RecordMetadata>> sendBatch(List<ProducerRecord<K, V>> records, List<Callback> callbacks) {
+        int recordNum = records.size();
+        if (callbacks != null && callbacks.size() != recordNum)
+            throw new IllegalArgumentException("The number of callbacks must be the same as the number of records.");
+        List<ProducerRecord<K, V>> interceptedRecords = new ArrayList<>(recordNum);
+        for (ProducerRecord<K, V> record : records)
+            interceptedRecords.add(this.interceptors == null ? record : this.interceptors.onSend(record));
+        return doSendBatch(interceptedRecords, callbacks);
+    }
+
+    private List<Future<RecordMetadata>> doSendBatch(List<ProducerRecord<K, V>> records, List<Callback> callbacks) {
+        int recordNum = records.size();
+        List<Future<RecordMetadata>> futures =
+                new ArrayList<>(Collections.<Future<RecordMetadata>>nCopies(recordNum, null));
+        Map<String, ClusterAndWaitTime> clusterByTopic = new HashMap<>();
+        Map<TopicPartition, List<Integer>> recordsByPartition = new LinkedHashMap<>();
+        TopicPartition[] partitions = new TopicPartition[recordNum];
+        byte[][] serializedKeys = new byte[recordNum][];
+        byte[][] serializedValues = new byte[recordNum][];
+        Header[][] headers = new Header[recordNum][];
+        Callback[] interceptCallbacks = new Callback[recordNum];
+        long startMs = time.milliseconds();
+
+        for (int idx = 0; idx < recordNum; idx++) {
+            ProducerRecord<K, V> record = records.get(idx);
+            Callback callback = callbacks == null ? null : callbacks.get(idx);
+            try {
+                ClusterAndWaitTime clusterAndWaitTime = clusterByTopic.get(record.topic());
+                if (clusterAndWaitTime == null || record.partition() != null) {
+                    long remainingWaitMs = Math.max(0, maxBlockTimeMs - (time.milliseconds() - startMs));
+                    clusterAndWaitTime = waitOnMetadata(record.topic(), record.partition(), remainingWaitMs);
+                    clusterByTopic.put(record.topic(), clusterAndWaitTime);
+                }
+                byte[] serializedKey;
+                try {
+                    serializedKey = keySerializer.serialize(record.topic(), record.headers(), record.key());
+                } catch (ClassCastException cce) {
+                    throw new SerializationException("Can't convert key of class " + record.key().getClass().getName() +
+                            " to class " + producerConfig.getClass(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG).getName() +
+                            " specified in key.serializer", cce);
+                }
+                byte[] serializedValue;
+                try {
+                    serializedValue = valueSerializer.serialize(record.topic(), record.headers(), record.value());
+                } catch (ClassCastException cce) {
+                    throw new SerializationException("Can't convert value of class " + record.value().getClass().getName() +
+                            " to class " + producerConfig.getClass(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG).getName() +
+                            " specified in value.serializer", cce);
+                }
+                int partition = partition(record, serializedKey, serializedValue, clusterAndWaitTime.cluster);
+                TopicPartition tp = new TopicPartition(record.topic(), partition);
+                partitions[idx] = tp;
+
+                setReadOnly(record.headers());
+                headers[idx] = record.headers().toArray();
+                ensureValidRecordSize(AbstractRecords.estimateSizeInBytesUpperBound(apiVersions.maxUsableProduceMagic(),
+                        accumulator.compressionType(tp.topic()), serializedKey, serializedValue, headers[idx]));
+                serializedKeys[idx] = serializedKey;
+                serializedValues[idx] = serializedValue;
+                interceptCallbacks[idx] = this.interceptors == null ? callback : new InterceptorCallback<>(callback, this.interceptors, tp);
+
+                List<Integer> indexes = recordsByPartition.get(tp);
+                if (indexes == null) {
+                    indexes = new ArrayList<>();
+                    recordsByPartition.put(tp, indexes);
+                }
+                indexes.add(idx);
+            } catch (ApiException e) {
+                futures.set(idx, failRecord(record, partitions[idx], callback, e));
+            } catch (InterruptedException e) {
+                throw failUnsent(records, partitions, callbacks, futures, new InterruptException(e));
+            } catch (RuntimeException e) {
+                throw failUnsent(records, partitions, callbacks, futures, e);
+            }
+        }
+
+        long nowMs = time.milliseconds();
+        for (Map.Entry<TopicPartition, List<Integer>> entry : recordsByPartition.entrySet()) {
+            TopicPartition tp = entry.getKey();
+            List<Integer> indexes = entry.getValue();
+            int num = indexes.size();
+            long[] timestamps = new long[num];
+            byte[][] keys = new byte[num][];
+            byte[][] values = new byte[num][];
+            Header[][] partitionHeaders = new Header[num][];
+            Callback[] partitionCallbacks = new Callback[num];
+            RecordAccumulator.RecordAppendResult[] results = new RecordAccumulator.RecordAppendResult[num];
+            for (int i = 0; i < num; i++) {
+                int idx = indexes.get(i);
+                Long timestamp = records.get(idx).timestamp();
+                timestamps[i] = timestamp == null ? nowMs : timestamp;
+                keys[i] = serializedKeys[idx];
+                values[i] = serializedValues[idx];
+                partitionHeaders[i] = headers[idx];
+                partitionCallbacks[i] = interceptCallbacks[idx];
+            }
+            try {
+                if (transactionManager != null && transactionManager.isTransactional())
+                    transactionManager.maybeAddPartitionToTransaction(tp);
+                long remainingWaitMs = Math.max(0, maxBlockTimeMs - (time.milliseconds() - startMs));
+                accumulator.appendAll(tp, timestamps, keys, values, partitionHeaders, partitionCallbacks, results,
+                        remainingWaitMs);
+            } catch (ApiException e) {
+                // only the records which were not appended are failed, the appended ones complete when they are sent
+                for (int i = 0; i < num; i++) {
+                    if (results[i] == null) {
+                        int idx = indexes.get(i);
+                        futures.set(idx, failRecord(records.get(idx), tp, callbacks == null ? null : callbacks.get(idx), e));
+                    }
+                }
+            } catch (InterruptedException e) {
+                collectAppended(tp, indexes, results, futures);
+                throw failUnsent(records, partitions, callbacks, futures, new InterruptException(e));
+            } catch (BufferExhaustedException e) {
+                this.metrics.sensor("buffer-exhausted-records").record();
+                collectAppended(tp, indexes, results, futures);
+                throw failUnsent(records, partitions, callbacks, futures, e);
+            } catch (RuntimeException e) {
+                collectAppended(tp, indexes, results, futures);
+                throw failUnsent(records, partitions, callbacks, futures, e);
+            }
+            collectAppended(tp, indexes, results, futures);
+        }
+        return futures;
+    }
+
+    /**
+     * Store the futures of the appended records of a partition and wake up the sender if a batch is ready.
+     */
+    private void collectAppended(TopicPartition tp, List<Integer> indexes, RecordAccumulator.RecordAppendResult[] results,
+                                 List<Future<RecordMetadata>> futures) {
+        boolean wakeupSender = false;
+        for (int i = 0; i < results.length && results[i] != null; i++) {
+            futures.set(indexes.get(i), results[i].future);
+            wakeupSender |= results[i].batchIsFull || results[i].newBatchCreated;
+        }
+        if (wakeupSender) {
+            log.trace("Waking up the sender since topic {} partition {} is either full or getting a new batch", tp.topic(), tp.partition());
+            this.sender.wakeup();
+        }
+    }
+
+    /**
+     * Fail every record of the batch which has neither been appended nor failed yet, so that each callback is
+     * called exactly once before the exception is thrown to the caller.
+     */
+    private RuntimeException failUnsent(List<ProducerRecord<K, V>> records, TopicPartition[] partitions,
+                                        List<Callback> callbacks, List<Future<RecordMetadata>> futures, RuntimeException e) {
+        for (int idx = 0; idx < futures.size(); idx++) {
+            if (futures.get(idx) == null)
+                futures.set(idx, failRecord(records.get(idx), partitions[idx], callbacks == null ? null : callbacks.get(idx), e));
+        }
+        return e;
+    }
+
+    private Future<RecordMetadata> failRecord(ProducerRecord<K, V> record, TopicPartition tp, Callback callback, RuntimeException e) {
+        log.debug("Exception occurred during message send:", e);
+        if (callback != null)
+            callback.onCompletion(null, e);
+        this.errors.record();
+        if (this.interceptors != null)
+            this.interceptors.onSendError(record, tp, e);
+        return new FutureFailure(e);
+    }
+
     /**
      * Implementation of asynchronously send a record to a topic.
      */
@@ -769,7 +947,7 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
             Header[] headers = record.headers().toArray();
 
             int serializedSize = AbstractRecords.estimateSizeInBytesUpperBound(apiVersions.maxUsableProduceMagic(),
-                    compressionType, serializedKey, serializedValue, headers);
+                    accumulator.compressionType(tp.topic()), serializedKey, serializedValue, headers);
             ensureValidRecordSize(serializedSize);
             long timestamp = record.timestamp() == null ? time.milliseconds() : record.timestamp();
             log.trace("Sending record {} with callback {} to topic {} partition {}", record, callback, record.topic(), partition);
@@ -1092,6 +1270,24 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
         }
     }
 
+    protected Metrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Change linger.ms at runtime, used by the clients which adapt batching to the observed latency.
+     */
+    protected void updateLingerMs(long lingerMs) {
+        this.accumulator.lingerMs(lingerMs);
+    }
+
+    /**
+     * Change the compression codec of a topic at runtime, a null codec goes back to compression.type.
+     */
+    protected void updateCompressionType(String topic, CompressionType type) {
+        this.accumulator.compressionType(topic, type);
+    }
+
     private static class FutureFailure implements Future<RecordMetadata> {
 
         private final ExecutionException exception;
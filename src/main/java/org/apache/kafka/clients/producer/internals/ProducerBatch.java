@@ -265,6 +265,10 @@ public final class ProducerBatch {
         return new ProducerBatch(topicPartition, builder, this.createdMs, true);
     }
 
+    public CompressionType compressionType() {
+        return recordsBuilder.compressionType();
+    }
+
     public boolean isCompressed() {
         return recordsBuilder.compressionType() != CompressionType.NONE;
     }
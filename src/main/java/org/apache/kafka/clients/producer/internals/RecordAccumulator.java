@@ -35,6 +35,7 @@ import org.slf4j.Logger;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -53,7 +54,8 @@ public final class RecordAccumulator {
     private final AtomicInteger appendsInProgress;
     private final int batchSize;
     private final CompressionType compression;
-    private final long lingerMs;
+    private final ConcurrentMap<String, CompressionType> topicCompression = new ConcurrentHashMap<>();
+    private volatile long lingerMs;
     private final long retryBackoffMs;
     private final BufferPool free;
     private final Time time;
@@ -183,6 +185,7 @@ public final class RecordAccumulator {
 
             // we don't have an in-progress record batch try to allocate a new batch
             byte maxUsableMagic = apiVersions.maxUsableProduceMagic();
+            CompressionType compression = compressionType(tp.topic());
             int size = Math.max(this.batchSize, AbstractRecords.estimateSizeInBytesUpperBound(maxUsableMagic, compression, key, value, headers));
             log.trace("Allocating a new {} byte message buffer for topic {} partition {}", size, tp.topic(), tp.partition());
             buffer = free.allocate(size, maxTimeToBlock);
@@ -197,7 +200,7 @@ public final class RecordAccumulator {
                     return appendResult;
                 }
 
-                MemoryRecordsBuilder recordsBuilder = recordsBuilder(buffer, maxUsableMagic);
+                MemoryRecordsBuilder recordsBuilder = recordsBuilder(buffer, maxUsableMagic, compression);
                 ProducerBatch batch = new ProducerBatch(tp, recordsBuilder, time.milliseconds());
                 FutureRecordMetadata future = Utils.notNull(batch.tryAppend(timestamp, key, value, headers, callback, time.milliseconds()));
 
@@ -216,7 +219,81 @@ public final class RecordAccumulator {
         }
     }
 
-    private MemoryRecordsBuilder recordsBuilder(ByteBuffer buffer, byte maxUsableMagic) {
+    /**
+     * Change the linger time at runtime, it applies to the batches checked by {@link #ready} afterwards.
+     */
+    public void lingerMs(long lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    public long lingerMs() {
+        return lingerMs;
+    }
+
+    /**
+     * Change the compression codec of a topic at runtime, it applies to the batches created afterwards.
+     * A null codec goes back to the configured one.
+     */
+    public void compressionType(String topic, CompressionType type) {
+        if (type == null)
+            topicCompression.remove(topic);
+        else
+            topicCompression.put(topic, type);
+    }
+
+    public CompressionType compressionType(String topic) {
+        CompressionType type = topicCompression.get(topic);
+        return type == null ? compression : type;
+    }
+
+    /**
+     * Add records of one partition to the accumulator in order. The deque lock is taken once for all the records
+     * which fit in the last batch, a new batch is allocated via {@link #append} only when it is full.
+     * <p>
+     * The arrays are indexed by record, and the append result of every record is stored in results in the same order.
+     * If an exception is thrown part way, the records before the first null entry of results have been appended and
+     * will be sent, the others have not.
+     *
+     * @return The number of appended records, which is the number of records unless an exception is thrown
+     */
+    public int appendAll(TopicPartition tp,
+                         long[] timestamps,
+                         byte[][] keys,
+                         byte[][] values,
+                         Header[][] headers,
+                         Callback[] callbacks,
+                         RecordAppendResult[] results,
+                         long maxTimeToBlock) throws InterruptedException {
+        int recordNum = values.length;
+        appendsInProgress.incrementAndGet();
+        try {
+            Deque<ProducerBatch> dq = getOrCreateDeque(tp);
+            int idx = 0;
+            while (idx < recordNum) {
+                synchronized (dq) {
+                    if (closed)
+                        throw new IllegalStateException("Cannot send after the producer is isRunning.");
+                    while (idx < recordNum) {
+                        RecordAppendResult appendResult = tryAppend(timestamps[idx], keys[idx], values[idx],
+                                headers[idx] == null ? Record.EMPTY_HEADERS : headers[idx], callbacks[idx], dq);
+                        if (appendResult == null)
+                            break;
+                        results[idx++] = appendResult;
+                    }
+                }
+                if (idx < recordNum) {
+                    results[idx] = append(tp, timestamps[idx], keys[idx], values[idx], headers[idx], callbacks[idx],
+                            maxTimeToBlock);
+                    idx++;
+                }
+            }
+            return idx;
+        } finally {
+            appendsInProgress.decrementAndGet();
+        }
+    }
+
+    private MemoryRecordsBuilder recordsBuilder(ByteBuffer buffer, byte maxUsableMagic, CompressionType compression) {
         if (transactionManager != null && maxUsableMagic < RecordBatch.MAGIC_VALUE_V2) {
             throw new UnsupportedVersionException("Attempting to use idempotence with a broker which does not " +
                     "support the required message format (v2). The broker must be version 0.11 or later.");
@@ -305,7 +382,7 @@ public final class RecordAccumulator {
         // Reset the estimated compression ratio to the initial value or the big batch compression ratio, whichever
         // is bigger. There are several different ways to do the reset. We chose the most conservative one to ensure
         // the split doesn't happen too often.
-        CompressionRatioEstimator.setEstimation(bigBatch.topicPartition.topic(), compression,
+        CompressionRatioEstimator.setEstimation(bigBatch.topicPartition.topic(), bigBatch.compressionType(),
                                                 Math.max(1.0f, (float) bigBatch.compressionRatio()));
         Deque<ProducerBatch> dq = bigBatch.split(this.batchSize);
         int numSplitBatches = dq.size();
@@ -361,6 +361,22 @@ public class DefaultRecordBatch extends AbstractRecordBatch implements MutableRe
         buffer.putInt(PARTITION_LEADER_EPOCH_OFFSET, epoch);
     }
 
+    /**
+     * Clear the producer id, epoch and base sequence and the transactional flag in place, so the batch can be
+     * appended again by a client which isn't its producer. The records and the compression aren't touched.
+     */
+    public void clearProducerState() {
+        if (producerId() == RecordBatch.NO_PRODUCER_ID && !isTransactional())
+            return;
+
+        buffer.putShort(ATTRIBUTES_OFFSET, (short) (attributes() & ~TRANSACTIONAL_FLAG_MASK));
+        buffer.putLong(PRODUCER_ID_OFFSET, RecordBatch.NO_PRODUCER_ID);
+        buffer.putShort(PRODUCER_EPOCH_OFFSET, RecordBatch.NO_PRODUCER_EPOCH);
+        buffer.putInt(BASE_SEQUENCE_OFFSET, RecordBatch.NO_SEQUENCE);
+        long crc = computeChecksum();
+        ByteUtils.writeUnsignedInt(buffer, CRC_OFFSET, crc);
+    }
+
     @Override
     public long checksum() {
         return ByteUtils.readUnsignedInt(buffer, CRC_OFFSET);
@@ -16,18 +16,27 @@
  */
 package org.apache.kafka.clients.admin;
 
+import org.apache.kafka.clients.MockClient;
 import org.apache.kafka.clients.NodeApiVersions;
 import org.apache.kafka.clients.admin.DeleteAclsResult.FilterResults;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.common.Cluster;
 import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.acl.*;
 import org.apache.kafka.common.config.ConfigResource;
 import org.apache.kafka.common.errors.InvalidTopicException;
 import org.apache.kafka.common.errors.SecurityDisabledException;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.ControlRecordType;
+import org.apache.kafka.common.record.EndTransactionMarker;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.SimpleRecord;
 import org.apache.kafka.common.requests.*;
 import org.apache.kafka.common.requests.CreateAclsResponse.AclCreationResponse;
 import org.apache.kafka.common.requests.DeleteAclsResponse.AclDeletionResult;
@@ -35,6 +44,8 @@ import org.apache.kafka.common.requests.DeleteAclsResponse.AclFilterResponse;
 import org.apache.kafka.common.resource.Resource;
 import org.apache.kafka.common.resource.ResourceFilter;
 import org.apache.kafka.common.resource.ResourceType;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.utils.CloseableIterator;
 import org.apache.kafka.common.utils.MockTime;
 import org.apache.kafka.test.TestCondition;
 import org.apache.kafka.test.TestUtils;
@@ -45,6 +56,7 @@ import org.junit.rules.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -187,6 +199,242 @@ public class KafkaAdminClientTest {
         }
     }
 
+    private static FetchResponse fetchResponse(TopicPartition tp, long baseOffset, int count, long highWatermark) {
+        SimpleRecord[] records = new SimpleRecord[count];
+        for (int i = 0; i < count; i++) {
+            records[i] = new SimpleRecord(("v" + (baseOffset + i)).getBytes());
+        }
+        LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+        responseData.put(tp, new FetchResponse.PartitionData(Errors.NONE, highWatermark, highWatermark, 0L, null,
+                MemoryRecords.withRecords(baseOffset, CompressionType.NONE, records)));
+        return new FetchResponse(responseData, 0);
+    }
+
+    @Test
+    public void testScanMessagesByOffset() throws Exception {
+        try (MockKafkaAdminClientEnv env = mockClientEnv()) {
+            Node leader = env.cluster().nodeById(0);
+            TopicPartition tp = new TopicPartition("scan", 0);
+            env.kafkaClient().setNodeApiVersions(NodeApiVersions.create());
+            env.kafkaClient().prepareMetadataUpdate(env.cluster(), Collections.<String>emptySet());
+            env.kafkaClient().setNode(leader);
+            env.kafkaClient().prepareResponse(new MetadataResponse(env.cluster().nodes(), env.cluster().clusterResource().clusterId(),
+                    leader.id(), Collections.singletonList(new MetadataResponse.TopicMetadata(Errors.NONE, "scan", false,
+                    Collections.singletonList(new MetadataResponse.PartitionMetadata(Errors.NONE, 0, leader,
+                            Collections.singletonList(leader), Collections.singletonList(leader), Collections.<Node>emptyList()))))));
+            // the first batch starts before the scan, the second fetch is sent before the first is iterated.
+            env.kafkaClient().prepareResponse(fetchResponse(tp, 0L, 3, 5L));
+            env.kafkaClient().prepareResponse(fetchResponse(tp, 3L, 2, 5L));
+
+            StringDeserializer deserializer = new StringDeserializer();
+            List<String> values = new ArrayList<>();
+            try (MessageScanner<String, String> scanner = env.adminClient().scanMessagesByOffset(tp, 1L, Long.MAX_VALUE,
+                    deserializer, deserializer, new ScanRecordsOptions().timeoutMs(10000))) {
+                while (scanner.hasNext()) {
+                    values.add(scanner.next().value());
+                }
+                assertEquals(5L, scanner.position());
+            }
+            assertEquals(asList("v1", "v2", "v3", "v4"), values);
+
+            // the leader is cached, no metadata request before the fetch.
+            env.kafkaClient().prepareResponse(fetchResponse(tp, 3L, 2, 5L));
+            values.clear();
+            try (MessageScanner<String, String> scanner = env.adminClient().scanMessagesByOffset(tp, 3L, 4L,
+                    deserializer, deserializer, new ScanRecordsOptions().timeoutMs(10000))) {
+                while (scanner.hasNext()) {
+                    values.add(scanner.next().value());
+                }
+            }
+            assertEquals(Collections.singletonList("v3"), values);
+        }
+    }
+
+    @Test
+    public void testRetrieveLazyMessagesSizesFetchByAverageRecord() throws Exception {
+        try (MockKafkaAdminClientEnv env = mockClientEnv()) {
+            Node leader = env.cluster().nodeById(0);
+            final TopicPartition tp = new TopicPartition("lazy", 0);
+            env.kafkaClient().setNodeApiVersions(NodeApiVersions.create());
+            env.kafkaClient().prepareMetadataUpdate(env.cluster(), Collections.<String>emptySet());
+            env.kafkaClient().setNode(leader);
+            env.kafkaClient().prepareResponse(new MetadataResponse(env.cluster().nodes(), env.cluster().clusterResource().clusterId(),
+                    leader.id(), Collections.singletonList(new MetadataResponse.TopicMetadata(Errors.NONE, "lazy", false,
+                    Collections.singletonList(new MetadataResponse.PartitionMetadata(Errors.NONE, 0, leader,
+                            Collections.singletonList(leader), Collections.singletonList(leader), Collections.<Node>emptyList()))))));
+            // the first fetch isn't sized yet.
+            env.kafkaClient().prepareResponse(fetchResponse(tp, 0L, 5, 10L));
+
+            StringDeserializer deserializer = new StringDeserializer();
+            List<LazyRecord<String, String>> records = env.adminClient().retrieveLazyMessagesByOffset(tp, 1L, 3,
+                    deserializer, deserializer, new RetrieveRecordsOptions().timeoutMs(10000)).values().get();
+            assertEquals(3, records.size());
+            assertEquals(1L, records.get(0).offset());
+            assertTrue(records.get(0).valueBuffer().isReadOnly());
+            assertEquals("v1", records.get(0).value());
+            assertEquals("v3", records.get(2).toConsumerRecord().value());
+
+            // the next fetch asks for the bytes of two records of the average size.
+            env.kafkaClient().prepareResponse(new MockClient.RequestMatcher() {
+                @Override
+                public boolean matches(AbstractRequest body) {
+                    int maxBytes = ((FetchRequest) body).fetchData().get(tp).maxBytes;
+                    return maxBytes >= QueryIface.FETCH_MESG_MAX_BYTES && maxBytes < 4 * 1024;
+                }
+            }, fetchResponse(tp, 3L, 2, 10L));
+            records = env.adminClient().retrieveLazyMessagesByOffset(tp, 3L, 2, deserializer, deserializer,
+                    new RetrieveRecordsOptions().timeoutMs(10000)).values().get();
+            assertEquals(asList("v3", "v4"), asList(records.get(0).value(), records.get(1).value()));
+        }
+    }
+
+    @Test
+    public void testRetrieveLazyMessagesSkipsControlBatches() throws Exception {
+        try (MockKafkaAdminClientEnv env = mockClientEnv()) {
+            Node leader = env.cluster().nodeById(0);
+            TopicPartition tp = new TopicPartition("lazy", 0);
+            env.kafkaClient().setNodeApiVersions(NodeApiVersions.create());
+            env.kafkaClient().prepareMetadataUpdate(env.cluster(), Collections.<String>emptySet());
+            env.kafkaClient().setNode(leader);
+            env.kafkaClient().prepareResponse(new MetadataResponse(env.cluster().nodes(), env.cluster().clusterResource().clusterId(),
+                    leader.id(), Collections.singletonList(new MetadataResponse.TopicMetadata(Errors.NONE, "lazy", false,
+                    Collections.singletonList(new MetadataResponse.PartitionMetadata(Errors.NONE, 0, leader,
+                            Collections.singletonList(leader), Collections.singletonList(leader), Collections.<Node>emptyList()))))));
+            // a committed transaction of two records, its commit marker at offset 2 and a record after it.
+            MemoryRecords transaction = MemoryRecords.withTransactionalRecords(0L, CompressionType.NONE, 1L, (short) 0, 0,
+                    RecordBatch.NO_PARTITION_LEADER_EPOCH, new SimpleRecord("v0".getBytes()), new SimpleRecord("v1".getBytes()));
+            MemoryRecords marker = MemoryRecords.withEndTransactionMarker(2L, 0L, RecordBatch.NO_PARTITION_LEADER_EPOCH,
+                    1L, (short) 0, new EndTransactionMarker(ControlRecordType.COMMIT, 0));
+            MemoryRecords after = MemoryRecords.withRecords(3L, CompressionType.NONE, new SimpleRecord("v3".getBytes()));
+            ByteBuffer buffer = ByteBuffer.allocate(transaction.sizeInBytes() + marker.sizeInBytes() + after.sizeInBytes());
+            buffer.put(transaction.buffer()).put(marker.buffer()).put(after.buffer());
+            buffer.flip();
+            LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+            responseData.put(tp, new FetchResponse.PartitionData(Errors.NONE, 4L, 4L, 0L, null,
+                    MemoryRecords.readableRecords(buffer)));
+            env.kafkaClient().prepareResponse(new FetchResponse(responseData, 0));
+
+            StringDeserializer deserializer = new StringDeserializer();
+            List<LazyRecord<String, String>> records = env.adminClient().retrieveLazyMessagesByOffset(tp, 0L, 3,
+                    deserializer, deserializer, new RetrieveRecordsOptions().timeoutMs(10000)).values().get();
+            assertEquals(3, records.size());
+            assertEquals(asList("v0", "v1", "v3"), asList(records.get(0).value(), records.get(1).value(),
+                    records.get(2).value()));
+            assertEquals(3L, records.get(2).offset());
+        }
+    }
+
+    @Test
+    public void testSearchMessagesMergedByTimestamp() throws Exception {
+        try (MockKafkaAdminClientEnv env = mockClientEnv()) {
+            Node leader = env.cluster().nodeById(0);
+            TopicPartition tp0 = new TopicPartition("search", 0);
+            TopicPartition tp1 = new TopicPartition("search", 1);
+            env.kafkaClient().setNodeApiVersions(NodeApiVersions.create());
+            env.kafkaClient().prepareMetadataUpdate(env.cluster(), Collections.<String>emptySet());
+            env.kafkaClient().setNode(leader);
+            List<MetadataResponse.PartitionMetadata> partitions = new ArrayList<>();
+            for (int partition = 0; partition < 2; partition++) {
+                partitions.add(new MetadataResponse.PartitionMetadata(Errors.NONE, partition, leader,
+                        Collections.singletonList(leader), Collections.singletonList(leader), Collections.<Node>emptyList()));
+            }
+            env.kafkaClient().prepareResponse(new MetadataResponse(env.cluster().nodes(), env.cluster().clusterResource().clusterId(),
+                    leader.id(), Collections.singletonList(new MetadataResponse.TopicMetadata(Errors.NONE, "search", false, partitions))));
+            // one ListOffset request per leader for each timestamp, no message of partition 0 after the end.
+            Map<TopicPartition, ListOffsetResponse.PartitionData> startOffsets = new HashMap<>();
+            startOffsets.put(tp0, new ListOffsetResponse.PartitionData(Errors.NONE, 30L, 1L));
+            startOffsets.put(tp1, new ListOffsetResponse.PartitionData(Errors.NONE, 20L, 0L));
+            env.kafkaClient().prepareResponse(new ListOffsetResponse(startOffsets));
+            Map<TopicPartition, ListOffsetResponse.PartitionData> endOffsets = new HashMap<>();
+            endOffsets.put(tp0, new ListOffsetResponse.PartitionData(Errors.NONE, -1L, -1L));
+            endOffsets.put(tp1, new ListOffsetResponse.PartitionData(Errors.NONE, 60L, 2L));
+            env.kafkaClient().prepareResponse(new ListOffsetResponse(endOffsets));
+            // a single fetch covers both partitions of the leader.
+            LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+            responseData.put(tp0, new FetchResponse.PartitionData(Errors.NONE, 3L, 3L, 0L, null,
+                    MemoryRecords.withRecords(0L, CompressionType.NONE, new SimpleRecord(10L, null, "p0-10".getBytes()),
+                            new SimpleRecord(30L, null, "p0-30".getBytes()), new SimpleRecord(50L, null, "p0-50".getBytes()))));
+            responseData.put(tp1, new FetchResponse.PartitionData(Errors.NONE, 3L, 3L, 0L, null,
+                    MemoryRecords.withRecords(0L, CompressionType.NONE, new SimpleRecord(20L, null, "p1-20".getBytes()),
+                            new SimpleRecord(40L, null, "p1-40".getBytes()), new SimpleRecord(60L, null, "p1-60".getBytes()))));
+            env.kafkaClient().prepareResponse(new FetchResponse(responseData, 0));
+
+            StringDeserializer deserializer = new StringDeserializer();
+            List<String> values = new ArrayList<>();
+            try (CloseableIterator<ConsumerRecord<String, String>> records = env.adminClient().searchMessages(asList(tp0, tp1),
+                    15L, 55L, deserializer, deserializer, new RecordFilter<String, String>() {
+                        @Override
+                        public boolean accept(ConsumerRecord<String, String> record) {
+                            return !"p1-40".equals(record.value());
+                        }
+                    }, new ScanRecordsOptions().timeoutMs(10000))) {
+                while (records.hasNext()) {
+                    values.add(records.next().value());
+                }
+            }
+            assertEquals(asList("p1-20", "p0-30", "p0-50"), values);
+        }
+    }
+
+    private static MetadataResponse metadataResponse(MockKafkaAdminClientEnv env, String topic, Node leader) {
+        return new MetadataResponse(env.cluster().nodes(), env.cluster().clusterResource().clusterId(),
+                leader.id(), Collections.singletonList(new MetadataResponse.TopicMetadata(Errors.NONE, topic, false,
+                Collections.singletonList(new MetadataResponse.PartitionMetadata(Errors.NONE, 0, leader,
+                        Collections.singletonList(leader), Collections.singletonList(leader), Collections.<Node>emptyList())))));
+    }
+
+    @Test
+    public void testSearchMessagesBacksOffBeforeRetryingPartition() throws Exception {
+        try (MockKafkaAdminClientEnv env = mockClientEnv(AdminClientConfig.RETRY_BACKOFF_MS_CONFIG, "200")) {
+            Node leader = env.cluster().nodeById(0);
+            TopicPartition tp = new TopicPartition("search", 0);
+            env.kafkaClient().setNodeApiVersions(NodeApiVersions.create());
+            env.kafkaClient().prepareMetadataUpdate(env.cluster(), Collections.<String>emptySet());
+            env.kafkaClient().setNode(leader);
+            env.kafkaClient().prepareResponse(metadataResponse(env, "search", leader));
+            env.kafkaClient().prepareResponse(new ListOffsetResponse(Collections.singletonMap(tp,
+                    new ListOffsetResponse.PartitionData(Errors.NONE, 10L, 0L))));
+            env.kafkaClient().prepareResponse(new ListOffsetResponse(Collections.singletonMap(tp,
+                    new ListOffsetResponse.PartitionData(Errors.NONE, -1L, -1L))));
+            final List<Long> fetchedMs = Collections.synchronizedList(new ArrayList<Long>());
+            MockClient.RequestMatcher fetchTime = new MockClient.RequestMatcher() {
+                @Override
+                public boolean matches(AbstractRequest body) {
+                    fetchedMs.add(System.currentTimeMillis());
+                    return body instanceof FetchRequest;
+                }
+            };
+            // the leader moved, it is looked up again and the partition is fetched after the backoff.
+            LinkedHashMap<TopicPartition, FetchResponse.PartitionData> notLeader = new LinkedHashMap<>();
+            notLeader.put(tp, new FetchResponse.PartitionData(Errors.NOT_LEADER_FOR_PARTITION, -1L, -1L, 0L, null,
+                    MemoryRecords.EMPTY));
+            env.kafkaClient().prepareResponse(fetchTime, new FetchResponse(notLeader, 0));
+            env.kafkaClient().prepareResponse(metadataResponse(env, "search", leader));
+            LinkedHashMap<TopicPartition, FetchResponse.PartitionData> responseData = new LinkedHashMap<>();
+            responseData.put(tp, new FetchResponse.PartitionData(Errors.NONE, 2L, 2L, 0L, null,
+                    MemoryRecords.withRecords(0L, CompressionType.NONE, new SimpleRecord(10L, null, "v0".getBytes()),
+                            new SimpleRecord(20L, null, "v1".getBytes()))));
+            env.kafkaClient().prepareResponse(fetchTime, new FetchResponse(responseData, 0));
+
+            StringDeserializer deserializer = new StringDeserializer();
+            List<String> values = new ArrayList<>();
+            try (CloseableIterator<ConsumerRecord<String, String>> records = env.adminClient().searchMessages(
+                    Collections.singletonList(tp), 5L, 25L, deserializer, deserializer, new RecordFilter<String, String>() {
+                        @Override
+                        public boolean accept(ConsumerRecord<String, String> record) {
+                            return true;
+                        }
+                    }, new ScanRecordsOptions().timeoutMs(10000))) {
+                while (records.hasNext()) {
+                    values.add(records.next().value());
+                }
+            }
+            assertEquals(asList("v0", "v1"), values);
+            assertEquals(2, fetchedMs.size());
+            assertTrue(fetchedMs.get(1) - fetchedMs.get(0) >= 200L);
+        }
+    }
+
     private static final AclBinding ACL1 = new AclBinding(new Resource(ResourceType.TOPIC, "mytopic3"),
         new AccessControlEntry("User:ANONYMOUS", "*", AclOperation.DESCRIBE, AclPermissionType.ALLOW));
     private static final AclBinding ACL2 = new AclBinding(new Resource(ResourceType.TOPIC, "mytopic4"),
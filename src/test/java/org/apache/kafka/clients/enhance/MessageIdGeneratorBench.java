@@ -0,0 +1,53 @@
+package org.apache.kafka.clients.enhance;
+
+/**
+ * measures the cost of stamping unique ids, usage: MessageIdGeneratorBench [iterations] [threads].
+ */
+public class MessageIdGeneratorBench {
+
+	public static void main(String[] args) throws Exception {
+		final long iters = (args.length > 0) ? Long.parseLong(args[0]) : 20000000L;
+		int threadNum = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+
+		//warm up
+		run(Math.min(iters, 2000000L));
+
+		Thread[] threads = new Thread[threadNum];
+		final long[] elapsed = new long[threadNum];
+		for (int i = 0; i < threadNum; i++) {
+			final int idx = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					MessageIdGeneratorBench.run(iters);
+					elapsed[idx] = System.nanoTime() - start;
+				}
+			};
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (int i = 0; i < threadNum; i++) {
+			System.out.println(String.format("thread-%d: %.2f ns per id.", i, elapsed[i] / (double) iters));
+		}
+
+		ExtMessage<String> message = new ExtMessage<>();
+		long start = System.nanoTime();
+		for (long i = 0; i < iters; i++) {
+			message.addProperty(ExtMessageDef.PROPERTY_UNIQ_KEY, MessageIdGenerator.nextId());
+		}
+		System.out.println(String.format("stamp UNIQ_KEY: %.2f ns per message.", (System.nanoTime() - start) / (double) iters));
+	}
+
+	private static long run(long iters) {
+		long length = 0;
+		for (long i = 0; i < iters; i++) {
+			length += MessageIdGenerator.nextId().length();
+		}
+		return length;
+	}
+}
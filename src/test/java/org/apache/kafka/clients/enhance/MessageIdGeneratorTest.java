@@ -0,0 +1,50 @@
+package org.apache.kafka.clients.enhance;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class MessageIdGeneratorTest {
+
+	@Test
+	public void generatesUniqueIdsAcrossThreads() throws Exception {
+		final int threadNum = 4;
+		final int idsPerThread = MessageIdGenerator.BLOCK_SIZE * 5 + 7;
+		final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		Thread[] threads = new Thread[threadNum];
+		for (int i = 0; i < threadNum; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					for (int n = 0; n < idsPerThread; n++) {
+						ids.add(MessageIdGenerator.nextId());
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(threadNum * idsPerThread, ids.size());
+	}
+
+	@Test
+	public void embedsTimestamp() {
+		long before = System.currentTimeMillis();
+		Set<String> ids = new HashSet<>();
+		for (int n = 0; n < MessageIdGenerator.BLOCK_SIZE + 1; n++) {
+			ids.add(MessageIdGenerator.nextId());
+		}
+		String id = MessageIdGenerator.nextId();
+		assertEquals(MessageIdGenerator.ID_LENGTH, id.length());
+		assertTrue(MessageIdGenerator.timestampMsOf(id) >= before);
+		assertTrue(MessageIdGenerator.timestampMsOf(id) <= System.currentTimeMillis());
+		assertEquals(-1L, MessageIdGenerator.timestampMsOf("not-an-id"));
+	}
+}
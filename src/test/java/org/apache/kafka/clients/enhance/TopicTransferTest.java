@@ -0,0 +1,136 @@
+package org.apache.kafka.clients.enhance;
+
+import org.apache.kafka.clients.MockClient;
+import org.apache.kafka.clients.NodeApiVersions;
+import org.apache.kafka.clients.admin.MockKafkaAdminClientEnv;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.ControlRecordType;
+import org.apache.kafka.common.record.EndTransactionMarker;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.SimpleRecord;
+import org.apache.kafka.common.requests.AbstractRequest;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.apache.kafka.common.requests.MetadataResponse;
+import org.apache.kafka.common.requests.ProduceRequest;
+import org.apache.kafka.common.requests.ProduceResponse;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.kafka.test.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TopicTransferTest {
+
+	private static MetadataResponse metadata(Cluster cluster, Node node, String topic) {
+		MetadataResponse.PartitionMetadata partition = new MetadataResponse.PartitionMetadata(Errors.NONE, 0, node,
+				Collections.singletonList(node), Collections.singletonList(node), Collections.<Node>emptyList());
+		return new MetadataResponse(cluster.nodes(), cluster.clusterResource().clusterId(), node.id(),
+				Collections.singletonList(new MetadataResponse.TopicMetadata(Errors.NONE, topic, false,
+						Collections.singletonList(partition))));
+	}
+
+	private static MemoryRecords concat(MemoryRecords... records) {
+		int size = 0;
+		for (MemoryRecords record : records) {
+			size += record.sizeInBytes();
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		for (MemoryRecords record : records) {
+			buffer.put(record.buffer().duplicate());
+		}
+		buffer.flip();
+		return MemoryRecords.readableRecords(buffer);
+	}
+
+	//matches a produce request of one batch with the compression and without a producer id.
+	private static MockClient.RequestMatcher produced(final TopicPartition tp, final CompressionType compressionType,
+			final String firstValue) {
+		return new MockClient.RequestMatcher() {
+			@Override
+			public boolean matches(AbstractRequest body) {
+				MemoryRecords records = ((ProduceRequest) body).partitionRecordsOrFail().get(tp);
+				RecordBatch batch = records.batches().iterator().next();
+				return batch.compressionType() == compressionType && batch.producerId() == RecordBatch.NO_PRODUCER_ID
+						&& !batch.isTransactional() && batch.isValid()
+						&& firstValue.equals(Utils.utf8(Utils.toArray(batch.iterator().next().value())));
+			}
+		};
+	}
+
+	private static ProduceResponse appended(TopicPartition tp, long baseOffset) {
+		return new ProduceResponse(Collections.singletonMap(tp,
+				new ProduceResponse.PartitionResponse(Errors.NONE, baseOffset, RecordBatch.NO_TIMESTAMP, 0L)));
+	}
+
+	@Test
+	public void committedBatchesAreExportedAndImportedAsTheyAre() throws Exception {
+		Node node = new Node(0, "localhost", 8121);
+		Cluster cluster = new Cluster("mockClusterId", Collections.singletonList(node),
+				Collections.<PartitionInfo>emptySet(), Collections.<String>emptySet(), Collections.<String>emptySet(), node);
+		TopicPartition source = new TopicPartition("source", 0);
+		TopicPartition target = new TopicPartition("target", 0);
+		File dir = TestUtils.tempDirectory();
+		try (MockKafkaAdminClientEnv env = new MockKafkaAdminClientEnv(cluster)) {
+			env.kafkaClient().setNodeApiVersions(NodeApiVersions.create());
+			env.kafkaClient().prepareMetadataUpdate(cluster, Collections.<String>emptySet());
+			env.kafkaClient().setNode(node);
+
+			//an aborted and a committed transaction between two compressed batches.
+			MemoryRecords records = concat(
+					MemoryRecords.withRecords(0L, CompressionType.GZIP, new SimpleRecord("a0".getBytes()),
+							new SimpleRecord("a1".getBytes())),
+					MemoryRecords.withTransactionalRecords(RecordBatch.CURRENT_MAGIC_VALUE, 2L, CompressionType.NONE,
+							7L, (short) 0, 0, 0, new SimpleRecord("t0".getBytes()), new SimpleRecord("t1".getBytes())),
+					MemoryRecords.withEndTransactionMarker(4L, 0L, 0, 7L, (short) 0,
+							new EndTransactionMarker(ControlRecordType.ABORT, 0)),
+					MemoryRecords.withRecords(5L, CompressionType.GZIP, new SimpleRecord("c0".getBytes())),
+					MemoryRecords.withTransactionalRecords(RecordBatch.CURRENT_MAGIC_VALUE, 6L, CompressionType.NONE,
+							8L, (short) 0, 0, 0, new SimpleRecord("u0".getBytes())),
+					MemoryRecords.withEndTransactionMarker(7L, 0L, 0, 8L, (short) 0,
+							new EndTransactionMarker(ControlRecordType.COMMIT, 0)));
+			env.kafkaClient().prepareResponse(metadata(cluster, node, source.topic()));
+			LinkedHashMap<TopicPartition, FetchResponse.PartitionData> fetched = new LinkedHashMap<>();
+			fetched.put(source, new FetchResponse.PartitionData(Errors.NONE, 8L, 8L, 0L, null, records));
+			env.kafkaClient().prepareResponse(new FetchResponse(fetched, 0));
+
+			Map<TopicPartition, TransferResult> exported = new TopicExporter(env.adminClient(), dir)
+					.export(Collections.singletonMap(source, 0L), Collections.<TopicPartition, Long>emptyMap());
+			TransferResult export = exported.get(source);
+			assertTrue(export.isSuccess());
+			assertEquals(0L, export.startOffset());
+			assertEquals(8L, export.endOffset());
+			assertEquals(6L, export.batches());
+			assertEquals(records.sizeInBytes(), export.bytes());
+			File segment = new File(dir, "source" + File.separator + "0" + File.separator + "00000000000000000000.log");
+			assertEquals(records.sizeInBytes(), segment.length());
+
+			//one batch of the partition per produce request, the aborted transaction and the markers are skipped.
+			env.kafkaClient().prepareResponse(metadata(cluster, node, target.topic()));
+			env.kafkaClient().prepareResponse(produced(target, CompressionType.GZIP, "a0"), appended(target, 10L));
+			env.kafkaClient().prepareResponse(produced(target, CompressionType.GZIP, "c0"), appended(target, 12L));
+			env.kafkaClient().prepareResponse(produced(target, CompressionType.NONE, "u0"), appended(target, 13L));
+
+			Map<TopicPartition, TransferResult> imported = new TopicImporter(env.adminClient(), dir)
+					.importTopic(source.topic(), target.topic());
+			TransferResult result = imported.get(target);
+			assertTrue(result.isSuccess());
+			assertEquals(10L, result.startOffset());
+			assertEquals(14L, result.endOffset());
+			assertEquals(3L, result.batches());
+		} finally {
+			Utils.delete(dir);
+		}
+	}
+}
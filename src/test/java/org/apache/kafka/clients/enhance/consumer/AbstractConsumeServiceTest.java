@@ -0,0 +1,110 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.enhance.ExtMessageEncoder;
+import org.apache.kafka.clients.enhance.ShutdownableThread;
+import org.apache.kafka.clients.enhance.consumer.listener.ConsumeStatus;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class AbstractConsumeServiceTest {
+	private static final TopicPartition TP = new TopicPartition("topic", 0);
+
+	private ConsumeClientContext<String> clientContext;
+	private EnhanceConsumer<String> safeConsumer;
+	private KafkaProducer<String, ExtMessage<String>> innerSender;
+
+	//a service which is running without polling, the tasks are dispatched by the test.
+	private static class TestConsumeService extends AbstractConsumeService<String> {
+
+		TestConsumeService(EnhanceConsumer<String> safeConsumer, KafkaProducer<String, ExtMessage<String>> innerSender,
+				ConsumeClientContext<String> clientContext) {
+			super(safeConsumer, innerSender, clientContext);
+			this.dispatchService = new ShutdownableThread("test-dispatch-service") {
+				@Override
+				public void doWork() {
+					try {
+						TimeUnit.MILLISECONDS.sleep(10);
+					} catch (InterruptedException e) {
+						//shutting down
+					}
+				}
+			};
+			this.dispatchService.start();
+			this.isRunning = true;
+		}
+
+		AbstractConsumeTaskRequest<String> task(final long sleepMs, final CountDownLatch started,
+				final AtomicBoolean finished) {
+			return new AbstractConsumeTaskRequest<String>(this, partitionDataManager,
+					Collections.<ExtMessage<String>>emptyList(), TP, clientContext) {
+				@Override
+				public void processConsumeStatus(ConsumeStatus status) {
+				}
+
+				@Override
+				public ConsumeTaskResponse call() throws Exception {
+					started.countDown();
+					TimeUnit.MILLISECONDS.sleep(sleepMs);
+					finished.set(true);
+					return null;
+				}
+			};
+		}
+	}
+
+	@Before
+	public void setUp() {
+		Map<String, Object> config = new HashMap<>();
+		config.put("bootstrap.servers", "localhost:9999");
+		config.put("group.id", "drain-test");
+		clientContext = new ConsumeClientContext<>();
+		clientContext.consumeConfig(config);
+		clientContext.keySerializer(new StringSerializer());
+		clientContext.keyDeserializer(new StringDeserializer());
+		safeConsumer = new EnhanceConsumer<>(clientContext.getInternalConsumerProps(), clientContext.keyDeserializer());
+		innerSender = new KafkaProducer<>(clientContext.getInternalProducerProps(), clientContext.keySerializer(),
+				new ExtMessageEncoder<String>());
+	}
+
+	@After
+	public void tearDown() {
+		innerSender.close(0, TimeUnit.MILLISECONDS);
+		safeConsumer.close();
+	}
+
+	@Test
+	public void drainFinishesInFlightTasksWithoutWaitingForDelayedRetries() throws Exception {
+		TestConsumeService service = new TestConsumeService(safeConsumer, innerSender, clientContext);
+		CountDownLatch retryStarted = new CountDownLatch(1);
+		AtomicBoolean retryFinished = new AtomicBoolean(false);
+		service.dispatchTaskLater(service.task(0L, retryStarted, retryFinished), 60, TimeUnit.SECONDS);
+		CountDownLatch taskStarted = new CountDownLatch(1);
+		AtomicBoolean taskFinished = new AtomicBoolean(false);
+		service.dispatchTaskAtOnce(service.task(500L, taskStarted, taskFinished));
+		assertTrue(taskStarted.await(5, TimeUnit.SECONDS));
+
+		long startMs = System.currentTimeMillis();
+		service.shutdown(10, TimeUnit.SECONDS);
+		long drainMs = System.currentTimeMillis() - startMs;
+
+		assertTrue("the in-flight task should finish within the drain", taskFinished.get());
+		assertTrue("the drain shouldn't wait for the delayed retry, took " + drainMs + " ms", drainMs < 5000L);
+		assertEquals(1, retryStarted.getCount());
+		assertFalse(service.isDraining());
+	}
+}
@@ -0,0 +1,105 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class AbstractOffsetStorageTest {
+	private final TopicPartition tp = new TopicPartition("storage", 0);
+	private EnhanceConsumer<String> safeConsumer;
+	private PartitionDataManager<String, ExtMessage<String>> manager;
+	private RecordingStorage storage;
+
+	//the storage which keeps the offsets in memory.
+	private static class RecordingStorage extends AbstractOffsetStorage<String> {
+		final Map<TopicPartition, OffsetAndMetadata> stored = new HashMap<>();
+
+		RecordingStorage(EnhanceConsumer<String> safeConsumer, PartitionDataManager partitionDataManager,
+				ConsumeClientContext clientContext) {
+			super(safeConsumer, partitionDataManager, clientContext, LoadOffsetType.LOAD_FROM_BROKER);
+		}
+
+		@Override
+		public boolean load() {
+			return true;
+		}
+
+		@Override
+		public void storeOffsetMeta(Map<TopicPartition, OffsetAndMetadata> ackOffsetMeta) {
+			stored.putAll(ackOffsetMeta);
+		}
+	}
+
+	@Before
+	public void setUp() {
+		Map<String, Object> config = new HashMap<>();
+		config.put("bootstrap.servers", "localhost:9999");
+		config.put("group.id", "storage-test");
+		ConsumeClientContext<String> clientContext = new ConsumeClientContext<>();
+		clientContext.consumeConfig(config);
+		clientContext.keySerializer(new StringSerializer());
+		clientContext.keyDeserializer(new StringDeserializer());
+		clientContext.messageFilter(new SqlMessageFilter<String>("amount = 1"));
+		safeConsumer = new EnhanceConsumer<>(clientContext.getInternalConsumerProps(), clientContext.keyDeserializer());
+		safeConsumer.assign(Collections.singletonList(tp));
+		manager = new PartitionDataManager<>();
+		manager.updateOnPartitionsAssigned(Collections.singletonList(tp));
+		storage = new RecordingStorage(safeConsumer, manager, clientContext);
+	}
+
+	@After
+	public void tearDown() {
+		safeConsumer.close();
+	}
+
+	private void save(long fromOffset, long toOffset, boolean isFilteredOut) throws InterruptedException {
+		List<ConsumerRecord<String, ExtMessage<String>>> records = new ArrayList<>();
+		if (!isFilteredOut) {
+			for (long offset = fromOffset; offset <= toOffset; offset++) {
+				records.add(new ConsumerRecord<>(tp.topic(), tp.partition(), offset, "key", new ExtMessage<String>()));
+			}
+		}
+		manager.saveConsumerRecords(
+				new ConsumerRecords<>(Collections.singletonMap(tp, records)),
+				Collections.singletonMap(tp, toOffset), manager.partitionEpochs(Collections.singletonList(tp)));
+	}
+
+	@Test
+	public void prefetchedRecordsAreNotCommitted() throws Exception {
+		save(0L, 9L, false);
+		List<Long> offsets = new ArrayList<>();
+		for (ConsumerRecord<String, ExtMessage<String>> record : manager.retrieveTaskRecords(tp, 10)) {
+			offsets.add(record.offset());
+		}
+		manager.commitOffsets(tp, offsets);
+
+		//offsets [10, 20) are polled and still in the prefetch queue.
+		safeConsumer.seek(tp, 20L);
+		storage.storeAllOffsetMeta();
+		assertEquals(10L, storage.stored.get(tp).offset());
+
+		//the save stage filters all of them out.
+		save(10L, 19L, true);
+		storage.storeAllOffsetMeta();
+		assertEquals(20L, storage.stored.get(tp).offset());
+	}
+
+	@Test
+	public void inflightRecordsAreNotCommitted() throws Exception {
+		save(0L, 9L, false);
+		manager.retrieveTaskRecords(tp, 10);
+		storage.storeAllOffsetMeta();
+		assertNull(storage.stored.get(tp));
+	}
+}
@@ -0,0 +1,206 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.utils.MockTime;
+import org.apache.kafka.test.TestCondition;
+import org.apache.kafka.test.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class AdminMetadataCacheTest {
+	private static final long TTL_MS = 1000L;
+	private final MockTime time = new MockTime();
+	private final AdminMetadataCache cache = new AdminMetadataCache("test", TTL_MS, 100L, time);
+	private AdminClient adminClient;
+
+	@Before
+	public void setUp() {
+		adminClient = adminClient();
+		cache.adminClients.add(adminClient);
+	}
+
+	@After
+	public void tearDown() {
+		cache.release(adminClient);
+		adminClient.close(0L, TimeUnit.MILLISECONDS);
+	}
+
+	private static AdminClient adminClient() {
+		return AdminClient.create(Collections.<String, Object>singletonMap("bootstrap.servers", "localhost:9999"));
+	}
+
+	private static TopicDescription description(String topic) {
+		return new TopicDescription(topic, false, Collections.<TopicPartitionInfo>emptyList());
+	}
+
+	private static AdminMetadataCache.Loader<TopicDescription> loader(final AtomicInteger loads,
+			final CountDownLatch release) {
+		return new AdminMetadataCache.Loader<TopicDescription>() {
+			@Override
+			public TopicDescription load(AdminClient adminClient) throws Exception {
+				loads.incrementAndGet();
+				release.await();
+				return description("topic-" + loads.get());
+			}
+		};
+	}
+
+	@Test
+	public void concurrentLookupsShareOneRequest() throws Exception {
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		List<Future<TopicDescription>> results = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			results.add(executor.submit(new Callable<TopicDescription>() {
+				@Override
+				public TopicDescription call() throws Exception {
+					return cache.get(cache.topics, "topic", adminClient, loader(loads, release), 10000L);
+				}
+			}));
+		}
+		TestUtils.waitForCondition(new TestCondition() {
+			@Override
+			public boolean conditionMet() {
+				return loads.get() == 1;
+			}
+		}, "the lookup isn't sent.");
+		release.countDown();
+		for (Future<TopicDescription> result : results) {
+			assertEquals("topic-1", result.get().name());
+		}
+		executor.shutdownNow();
+		assertEquals(1, loads.get());
+		assertEquals(1L, cache.requests());
+	}
+
+	@Test
+	public void entryIsRefreshedInBackgroundAndExpires() throws Exception {
+		final AtomicInteger loads = new AtomicInteger();
+		CountDownLatch released = new CountDownLatch(0);
+		assertEquals("topic-1", cache.get(cache.topics, "topic", adminClient, loader(loads, released), 1000L).name());
+
+		//served from the cache within half of the ttl.
+		time.sleep(TTL_MS / 2 - 1);
+		assertEquals("topic-1", cache.get(cache.topics, "topic", adminClient, loader(loads, released), 1000L).name());
+		assertEquals(1, loads.get());
+
+		//the stale entry is served while it is refreshed.
+		time.sleep(1);
+		assertEquals("topic-1", cache.get(cache.topics, "topic", adminClient, loader(loads, released), 1000L).name());
+		TestUtils.waitForCondition(new TestCondition() {
+			@Override
+			public boolean conditionMet() {
+				try {
+					return "topic-2".equals(cache.get(cache.topics, "topic", adminClient, loader(loads, new CountDownLatch(0)), 1000L).name());
+				} catch (Exception e) {
+					return false;
+				}
+			}
+		}, "the entry isn't refreshed.");
+
+		//an expired entry is loaded again.
+		time.sleep(TTL_MS);
+		assertEquals("topic-3", cache.get(cache.topics, "topic", adminClient, loader(loads, released), 1000L).name());
+	}
+
+	@Test
+	public void failedLookupIsNotCached() throws Exception {
+		try {
+			cache.get(cache.topics, "topic", adminClient, new AdminMetadataCache.Loader<TopicDescription>() {
+				@Override
+				public TopicDescription load(AdminClient adminClient) throws Exception {
+					throw new TimeoutException("no broker");
+				}
+			}, 1000L);
+			fail("the error of the lookup should be thrown.");
+		} catch (TimeoutException e) {
+			//expected
+		}
+		AtomicInteger loads = new AtomicInteger();
+		assertEquals("topic-1", cache.get(cache.topics, "topic", adminClient, loader(loads, new CountDownLatch(0)), 1000L).name());
+
+		//a missing topic is cached for the absent ttl only.
+		cache.invalidateTopic("topic");
+		AdminMetadataCache.Loader<TopicDescription> absent = new AdminMetadataCache.Loader<TopicDescription>() {
+			@Override
+			public TopicDescription load(AdminClient adminClient) {
+				return null;
+			}
+		};
+		assertNull(cache.get(cache.topics, "topic", adminClient, absent, 1000L));
+		assertNull(cache.get(cache.topics, "topic", adminClient, loader(loads, new CountDownLatch(0)), 1000L));
+		time.sleep(100L);
+		assertEquals("topic-2", cache.get(cache.topics, "topic", adminClient, loader(loads, new CountDownLatch(0)), 1000L).name());
+	}
+
+	@Test
+	public void refreshUsesTheClientOfAHeldConsumer() throws Exception {
+		final AtomicReference<AdminClient> used = new AtomicReference<>();
+		AdminMetadataCache.Loader<TopicDescription> recording = new AdminMetadataCache.Loader<TopicDescription>() {
+			@Override
+			public TopicDescription load(AdminClient adminClient) {
+				used.set(adminClient);
+				return description("topic");
+			}
+		};
+		AdminClient released = adminClient();
+		cache.adminClients.add(released);
+		cache.get(cache.topics, "topic", released, recording, 1000L);
+		assertSame(released, used.get());
+
+		//the consumer which loaded the entry is closed, the refresh triggered by it uses a held client.
+		cache.release(released);
+		released.close(0L, TimeUnit.MILLISECONDS);
+		time.sleep(TTL_MS / 2);
+		cache.get(cache.topics, "topic", released, recording, 1000L);
+		TestUtils.waitForCondition(new TestCondition() {
+			@Override
+			public boolean conditionMet() {
+				return adminClient == used.get();
+			}
+		}, "the entry isn't refreshed by the held client.");
+	}
+
+	@Test
+	public void consumersWithDifferentCredentialsDontShareTheCache() {
+		List<String> servers = Arrays.asList("broker-1:9092", "broker-2:9092");
+		Map<String, Object> alice = new HashMap<>();
+		alice.put("security.protocol", "SASL_PLAINTEXT");
+		alice.put("sasl.jaas.config", "PlainLoginModule required username=\"alice\";");
+		alice.put("group.id", "group-a");
+		Map<String, Object> aliceInAnotherGroup = new HashMap<>(alice);
+		aliceInAnotherGroup.put("group.id", "group-b");
+		Map<String, Object> bob = new HashMap<>(alice);
+		bob.put("sasl.jaas.config", "PlainLoginModule required username=\"bob\";");
+		Map<String, Object> otherClient = new HashMap<>(alice);
+		otherClient.put("client.id", "other");
+
+		String key = AdminMetadataCache.clusterKey(servers, alice);
+		assertEquals(key, AdminMetadataCache.clusterKey(servers, aliceInAnotherGroup));
+		assertNotEquals(key, AdminMetadataCache.clusterKey(servers, bob));
+		assertNotEquals(key, AdminMetadataCache.clusterKey(servers, otherClient));
+		assertNotEquals(key, AdminMetadataCache.clusterKey(servers.subList(0, 1), alice));
+	}
+}
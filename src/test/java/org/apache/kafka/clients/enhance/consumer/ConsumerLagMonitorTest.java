@@ -0,0 +1,144 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.NodeApiVersions;
+import org.apache.kafka.clients.admin.MockKafkaAdminClientEnv;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.SimpleRecord;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.apache.kafka.common.requests.FindCoordinatorResponse;
+import org.apache.kafka.common.requests.ListOffsetResponse;
+import org.apache.kafka.common.requests.MetadataResponse;
+import org.apache.kafka.common.requests.OffsetFetchResponse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ConsumerLagMonitorTest {
+	private static final String GROUP = "lag-group";
+	private static final String TOPIC = "lag";
+
+	private static OffsetFetchResponse.PartitionData committed(long offset) {
+		return new OffsetFetchResponse.PartitionData(offset, "", Errors.NONE);
+	}
+
+	private static double gauge(Metrics metrics, String name, TopicPartition tp) {
+		Map<String, String> tags = new LinkedHashMap<>();
+		tags.put("group", GROUP);
+		if (null != tp) {
+			tags.put("topic", tp.topic());
+			tags.put("partition", String.valueOf(tp.partition()));
+		}
+		MetricName metricName = metrics.metricName(name, ConsumerLagMonitor.METRIC_GROUP_NAME, tags);
+		assertTrue(name + " of " + tags + " isn't registered.", metrics.metrics().containsKey(metricName));
+		return (Double) metrics.metrics().get(metricName).metricValue();
+	}
+
+	@Test
+	public void lagIsFetchedWithOneRequestPerBroker() throws Exception {
+		Node node = new Node(0, "localhost", 8121);
+		Cluster cluster = new Cluster("mockClusterId", Collections.singletonList(node),
+				Collections.<PartitionInfo>emptySet(), Collections.<String>emptySet(), Collections.<String>emptySet(), node);
+		TopicPartition tp0 = new TopicPartition(TOPIC, 0);
+		TopicPartition tp1 = new TopicPartition(TOPIC, 1);
+		try (MockKafkaAdminClientEnv env = new MockKafkaAdminClientEnv(cluster)) {
+			env.kafkaClient().setNodeApiVersions(NodeApiVersions.create());
+			env.kafkaClient().prepareMetadataUpdate(cluster, Collections.<String>emptySet());
+			env.kafkaClient().setNode(node);
+			Metrics metrics = new Metrics();
+			ConsumerLagMonitor monitor = new ConsumerLagMonitor(env.adminClient(), metrics, GROUP);
+
+			env.kafkaClient().prepareResponse(new FindCoordinatorResponse(Errors.NONE, node));
+			Map<TopicPartition, OffsetFetchResponse.PartitionData> offsets = new HashMap<>();
+			offsets.put(tp0, committed(5L));
+			offsets.put(tp1, committed(10L));
+			//partition 2 has no committed offset.
+			offsets.put(new TopicPartition(TOPIC, 2), committed(OffsetFetchResponse.INVALID_OFFSET));
+			env.kafkaClient().prepareResponse(new OffsetFetchResponse(Errors.NONE, offsets));
+			List<MetadataResponse.PartitionMetadata> partitions = new ArrayList<>();
+			for (int partition = 0; partition < 2; partition++) {
+				partitions.add(new MetadataResponse.PartitionMetadata(Errors.NONE, partition, node,
+						Collections.singletonList(node), Collections.singletonList(node), Collections.<Node>emptyList()));
+			}
+			env.kafkaClient().prepareResponse(new MetadataResponse(cluster.nodes(), cluster.clusterResource().clusterId(),
+					node.id(), Collections.singletonList(new MetadataResponse.TopicMetadata(Errors.NONE, TOPIC, false, partitions))));
+			Map<TopicPartition, ListOffsetResponse.PartitionData> endOffsets = new HashMap<>();
+			endOffsets.put(tp0, new ListOffsetResponse.PartitionData(Errors.NONE, -1L, 8L));
+			endOffsets.put(tp1, new ListOffsetResponse.PartitionData(Errors.NONE, -1L, 10L));
+			env.kafkaClient().prepareResponse(new ListOffsetResponse(endOffsets));
+			//the batch starts before the committed offset, only partition 0 lags.
+			long now = System.currentTimeMillis();
+			LinkedHashMap<TopicPartition, FetchResponse.PartitionData> fetched = new LinkedHashMap<>();
+			fetched.put(tp0, new FetchResponse.PartitionData(Errors.NONE, 8L, 8L, 0L, null,
+					MemoryRecords.withRecords(4L, CompressionType.NONE, new SimpleRecord(now - 90000L, null, "v4".getBytes()),
+							new SimpleRecord(now - 60000L, null, "v5".getBytes()),
+							new SimpleRecord(now - 30000L, null, "v6".getBytes()))));
+			env.kafkaClient().prepareResponse(new FetchResponse(fetched, 0));
+
+			monitor.update();
+			assertEquals(3L, monitor.lags().get(tp0).lag());
+			assertTrue(monitor.lags().get(tp0).lagMs() >= 60000L);
+			assertEquals(0L, monitor.lags().get(tp1).lag());
+			assertEquals(0L, monitor.lags().get(tp1).lagMs());
+			assertEquals(3.0, gauge(metrics, "records-lag", tp0), 0.0);
+			assertEquals(0.0, gauge(metrics, "records-lag-ms", tp1), 0.0);
+			assertEquals(3.0, gauge(metrics, "records-lag-sum", null), 0.0);
+			assertTrue(gauge(metrics, "records-lag-ms-max", null) >= 60000.0);
+
+			//the coordinator and the leaders are cached, the uncommitted partition is removed.
+			env.kafkaClient().prepareResponse(new OffsetFetchResponse(Errors.NONE, Collections.singletonMap(tp0, committed(8L))));
+			env.kafkaClient().prepareResponse(new ListOffsetResponse(Collections.singletonMap(tp0,
+					new ListOffsetResponse.PartitionData(Errors.NONE, -1L, 8L))));
+			monitor.update();
+			assertEquals(Collections.singleton(tp0), monitor.lags().keySet());
+			assertEquals(0.0, gauge(metrics, "records-lag-sum", null), 0.0);
+			Map<String, String> tags = new LinkedHashMap<>();
+			tags.put("group", GROUP);
+			tags.put("topic", TOPIC);
+			tags.put("partition", "1");
+			assertFalse(metrics.metrics().containsKey(metrics.metricName("records-lag", ConsumerLagMonitor.METRIC_GROUP_NAME, tags)));
+			monitor.shutdownNow();
+			metrics.close();
+		}
+	}
+
+	@Test
+	public void shutdownRemovesGaugesAndMonitorCantBeRestarted() throws Exception {
+		Node node = new Node(0, "localhost", 8121);
+		Cluster cluster = new Cluster("mockClusterId", Collections.singletonList(node),
+				Collections.<PartitionInfo>emptySet(), Collections.<String>emptySet(), Collections.<String>emptySet(), node);
+		try (MockKafkaAdminClientEnv env = new MockKafkaAdminClientEnv(cluster)) {
+			Metrics metrics = new Metrics();
+			ConsumerLagMonitor monitor = new ConsumerLagMonitor(env.adminClient(), metrics, GROUP);
+			monitor.suspend();
+			monitor.start();
+			assertEquals(0.0, gauge(metrics, "records-lag-sum", null), 0.0);
+			monitor.shutdownNow();
+			MetricName lagSum = metrics.metricName("records-lag-sum", ConsumerLagMonitor.METRIC_GROUP_NAME,
+					Collections.singletonMap("group", GROUP));
+			assertFalse(metrics.metrics().containsKey(lagSum));
+			try {
+				monitor.start();
+				fail("a monitor which has been shutdown shouldn't start.");
+			} catch (KafkaException e) {
+				//expected
+			}
+			metrics.close();
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.MockClient;
+import org.apache.kafka.clients.NodeApiVersions;
+import org.apache.kafka.clients.admin.MockKafkaAdminClientEnv;
+import org.apache.kafka.clients.consumer.internals.ConsumerProtocol;
+import org.apache.kafka.clients.consumer.internals.PartitionAssignor;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.requests.AbstractRequest;
+import org.apache.kafka.common.requests.DescribeGroupsRequest;
+import org.apache.kafka.common.requests.DescribeGroupsResponse;
+import org.apache.kafka.common.requests.ListGroupsResponse;
+import org.apache.kafka.common.requests.MetadataResponse;
+import org.apache.kafka.common.requests.OffsetFetchRequest;
+import org.apache.kafka.common.requests.OffsetFetchResponse;
+import org.apache.kafka.common.utils.MockTime;
+import org.apache.kafka.test.TestCondition;
+import org.apache.kafka.test.TestUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GroupInspectorTest {
+	private static final String TOPIC = "inspected";
+
+	private static DescribeGroupsResponse.GroupMetadata group(String memberId, TopicPartition... assignment) {
+		DescribeGroupsResponse.GroupMember member = new DescribeGroupsResponse.GroupMember(memberId, "client", "/127.0.0.1",
+				ConsumerProtocol.serializeSubscription(new PartitionAssignor.Subscription(Collections.singletonList(TOPIC))),
+				ConsumerProtocol.serializeAssignment(new PartitionAssignor.Assignment(Arrays.asList(assignment))));
+		return new DescribeGroupsResponse.GroupMetadata(Errors.NONE, "Stable", ConsumerProtocol.PROTOCOL_TYPE, "range",
+				Collections.singletonList(member));
+	}
+
+	//matches the DescribeGroups request which describes both groups at once.
+	private static MockClient.RequestMatcher describesBoth() {
+		return new MockClient.RequestMatcher() {
+			@Override
+			public boolean matches(AbstractRequest body) {
+				return new HashSet<>(((DescribeGroupsRequest) body).groupIds()).equals(new HashSet<>(Arrays.asList("g1", "g2")));
+			}
+		};
+	}
+
+	private static MockClient.RequestMatcher fetchesOffsetsOf(final String groupId) {
+		return new MockClient.RequestMatcher() {
+			@Override
+			public boolean matches(AbstractRequest body) {
+				return null == groupId || groupId.equals(((OffsetFetchRequest) body).groupId());
+			}
+		};
+	}
+
+	private static OffsetFetchResponse committed(TopicPartition tp, long offset) {
+		return new OffsetFetchResponse(Errors.NONE, Collections.singletonMap(tp,
+				new OffsetFetchResponse.PartitionData(offset, "", Errors.NONE)));
+	}
+
+	@Test
+	public void changedGroupsAreRefreshedFirst() throws Exception {
+		Node node = new Node(0, "localhost", 8121);
+		Cluster cluster = new Cluster("mockClusterId", Collections.singletonList(node),
+				Collections.<PartitionInfo>emptySet(), Collections.<String>emptySet(), Collections.<String>emptySet(), node);
+		TopicPartition tp0 = new TopicPartition(TOPIC, 0);
+		TopicPartition tp1 = new TopicPartition(TOPIC, 1);
+		MockTime time = new MockTime();
+		try (MockKafkaAdminClientEnv env = new MockKafkaAdminClientEnv(cluster)) {
+			env.kafkaClient().setNodeApiVersions(NodeApiVersions.create());
+			env.kafkaClient().prepareMetadataUpdate(cluster, Collections.<String>emptySet());
+			env.kafkaClient().setNode(node);
+			GroupInspector inspector = new GroupInspector(env.adminClient(), false, null, time).maxOffsetFetches(2);
+
+			//the broker lists the groups it coordinates, so no coordinator is looked up.
+			env.kafkaClient().prepareResponse(new MetadataResponse(cluster.nodes(), cluster.clusterResource().clusterId(),
+					node.id(), Collections.<MetadataResponse.TopicMetadata>emptyList()));
+			env.kafkaClient().prepareResponse(new ListGroupsResponse(Errors.NONE, Arrays.asList(
+					new ListGroupsResponse.Group("g1", ConsumerProtocol.PROTOCOL_TYPE),
+					new ListGroupsResponse.Group("g2", ConsumerProtocol.PROTOCOL_TYPE))));
+			Map<String, DescribeGroupsResponse.GroupMetadata> groups = new HashMap<>();
+			groups.put("g1", group("m1", tp0, tp1));
+			groups.put("g2", group("m2", tp0));
+			env.kafkaClient().prepareResponse(describesBoth(), new DescribeGroupsResponse(groups));
+			env.kafkaClient().prepareResponse(fetchesOffsetsOf(null), committed(tp0, 5L));
+			env.kafkaClient().prepareResponse(fetchesOffsetsOf(null), committed(tp0, 5L));
+			inspector.refresh();
+
+			assertEquals(new HashSet<>(Arrays.asList("g1", "g2")), inspector.groups().keySet());
+			GroupInspector.GroupView g1 = inspector.group("g1");
+			assertEquals(Arrays.asList(tp0, tp1), g1.description().members().get(0).assignment());
+			assertEquals(Collections.singletonList(TOPIC), g1.description().members().get(0).subscription());
+			assertEquals(5L, g1.committedOffsets().get(tp0).offset());
+
+			//the list isn't taken again within the list interval, only the rebalanced group fetches its offsets.
+			time.sleep(GroupInspector.DEFAULT_INTERVAL_MS);
+			inspector.maxOffsetFetches(1);
+			groups.put("g2", group("m3", tp0));
+			env.kafkaClient().prepareResponse(describesBoth(), new DescribeGroupsResponse(groups));
+			env.kafkaClient().prepareResponse(fetchesOffsetsOf("g2"), committed(tp0, 9L));
+			inspector.refresh();
+
+			assertEquals("m3", inspector.group("g2").description().members().get(0).memberId());
+			assertEquals(9L, inspector.group("g2").committedOffsets().get(tp0).offset());
+			assertEquals(time.milliseconds(), inspector.group("g2").offsetsMs());
+			assertEquals(5L, inspector.group("g1").committedOffsets().get(tp0).offset());
+			assertTrue(inspector.group("g1").offsetsMs() < time.milliseconds());
+		}
+	}
+
+	@Test
+	public void shutdownClearsViewsAndInspectorCantBeRestarted() throws Exception {
+		Node node = new Node(0, "localhost", 8121);
+		Cluster cluster = new Cluster("mockClusterId", Collections.singletonList(node),
+				Collections.<PartitionInfo>emptySet(), Collections.<String>emptySet(), Collections.<String>emptySet(), node);
+		TopicPartition tp0 = new TopicPartition(TOPIC, 0);
+		try (MockKafkaAdminClientEnv env = new MockKafkaAdminClientEnv(cluster)) {
+			env.kafkaClient().setNodeApiVersions(NodeApiVersions.create());
+			env.kafkaClient().prepareMetadataUpdate(cluster, Collections.<String>emptySet());
+			env.kafkaClient().setNode(node);
+			final GroupInspector inspector = new GroupInspector(env.adminClient(), false, null, new MockTime());
+
+			env.kafkaClient().prepareResponse(new MetadataResponse(cluster.nodes(), cluster.clusterResource().clusterId(),
+					node.id(), Collections.<MetadataResponse.TopicMetadata>emptyList()));
+			env.kafkaClient().prepareResponse(new ListGroupsResponse(Errors.NONE, Arrays.asList(
+					new ListGroupsResponse.Group("g1", ConsumerProtocol.PROTOCOL_TYPE),
+					new ListGroupsResponse.Group("g2", ConsumerProtocol.PROTOCOL_TYPE))));
+			Map<String, DescribeGroupsResponse.GroupMetadata> groups = new HashMap<>();
+			groups.put("g1", group("m1", tp0));
+			groups.put("g2", group("m2", tp0));
+			env.kafkaClient().prepareResponse(describesBoth(), new DescribeGroupsResponse(groups));
+			env.kafkaClient().prepareResponse(fetchesOffsetsOf(null), committed(tp0, 5L));
+			env.kafkaClient().prepareResponse(fetchesOffsetsOf(null), committed(tp0, 5L));
+			inspector.refresh();
+			assertEquals(2, inspector.groups().size());
+
+			inspector.suspend();
+			inspector.start();
+			inspector.shutdownNow();
+			TestUtils.waitForCondition(new TestCondition() {
+				@Override
+				public boolean conditionMet() {
+					return inspector.groups().isEmpty();
+				}
+			}, "the views should be cleared after the refresh thread terminates.");
+			try {
+				inspector.start();
+				fail("an inspector which has been shutdown shouldn't start.");
+			} catch (KafkaException e) {
+				//expected
+			}
+		}
+	}
+}
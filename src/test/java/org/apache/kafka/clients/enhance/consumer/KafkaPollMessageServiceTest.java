@@ -0,0 +1,141 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.*;
+
+public class KafkaPollMessageServiceTest {
+	private static final int RECORDS_PER_PARTITION = 4 * KafkaPollMessageService.FILTER_CHUNK_SIZE;
+	//every test has its own service name, so the filter threads of the former tests aren't counted.
+	private static final AtomicInteger SERVICE_ID = new AtomicInteger();
+
+	private ConsumeClientContext<String> clientContext;
+	private EnhanceConsumer<String> safeConsumer;
+	private KafkaPollMessageService<String> service;
+	private String serviceName;
+
+	//the sql filter, which also records the threads calling it.
+	private static class RecordingFilter extends SqlMessageFilter<String> {
+		final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+		RecordingFilter(String expression) {
+			super(expression);
+		}
+
+		@Override
+		public boolean canDeliveryMessage(ExtMessage<String> message, Headers headers) {
+			threads.add(Thread.currentThread().getName());
+			return super.canDeliveryMessage(message, headers);
+		}
+	}
+
+	@Before
+	public void setUp() {
+		Map<String, Object> config = new HashMap<>();
+		config.put("bootstrap.servers", "localhost:9999");
+		config.put("group.id", "filter-test");
+		clientContext = new ConsumeClientContext<>();
+		clientContext.consumeConfig(config);
+		clientContext.keySerializer(new StringSerializer());
+		clientContext.keyDeserializer(new StringDeserializer());
+		safeConsumer = new EnhanceConsumer<>(clientContext.getInternalConsumerProps(), clientContext.keyDeserializer());
+		serviceName = "filter-test-" + SERVICE_ID.incrementAndGet();
+		service = new KafkaPollMessageService<>(serviceName, safeConsumer,
+				new PartitionDataManager<String, ExtMessage<String>>(), clientContext, new ReentrantLock(), null);
+	}
+
+	private Set<String> filterThreads() {
+		Set<String> threads = new HashSet<>();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith(serviceName + "-filter-")) {
+				threads.add(thread.getName());
+			}
+		}
+		return threads;
+	}
+
+	@After
+	public void tearDown() {
+		service.shutdown();
+		safeConsumer.close();
+	}
+
+	private static ConsumerRecords<String, ExtMessage<String>> records(TopicPartition... tps) {
+		Map<TopicPartition, List<ConsumerRecord<String, ExtMessage<String>>>> records = new HashMap<>();
+		for (TopicPartition tp : tps) {
+			List<ConsumerRecord<String, ExtMessage<String>>> partitionRecords = new ArrayList<>();
+			for (int offset = 0; offset < RECORDS_PER_PARTITION; offset++) {
+				ExtMessage<String> message = new ExtMessage<>();
+				message.addUserProperty("amount", String.valueOf(offset % 2));
+				partitionRecords.add(new ConsumerRecord<>(tp.topic(), tp.partition(), offset, "key", message));
+			}
+			records.put(tp, partitionRecords);
+		}
+		return new ConsumerRecords<>(records);
+	}
+
+	@Test
+	public void filterIsEvaluatedInSaveStageByDefault() {
+		RecordingFilter filter = new RecordingFilter("amount = 1");
+		ConsumerRecords<String, ExtMessage<String>> filtered = service.filterMessage(
+				records(new TopicPartition("filter", 0)), filter, new HashMap<TopicPartition, Long>());
+
+		assertEquals(RECORDS_PER_PARTITION / 2, filtered.count());
+		assertEquals(Collections.singleton(Thread.currentThread().getName()), filter.threads);
+		assertTrue(filterThreads().isEmpty());
+	}
+
+	@Test
+	public void permitAllFilterStartsNoFilterThread() {
+		clientContext.filterParallelism(4);
+		ConsumerRecords<String, ExtMessage<String>> records = records(new TopicPartition("filter", 0));
+		assertSame(records, service.filterMessage(records, new DefaultMessageFilter<String>("*"),
+				new HashMap<TopicPartition, Long>()));
+		assertTrue(filterThreads().isEmpty());
+	}
+
+	@Test
+	public void sqlFilterIsEvaluatedConcurrentlyInPartitionOrder() {
+		clientContext.filterParallelism(4);
+		TopicPartition tp0 = new TopicPartition("filter", 0);
+		TopicPartition tp1 = new TopicPartition("filter", 1);
+		RecordingFilter filter = new RecordingFilter("amount = 1");
+		Map<TopicPartition, Long> highWaterMarks = new HashMap<>();
+
+		ConsumerRecords<String, ExtMessage<String>> filtered = service.filterMessage(records(tp0, tp1), filter,
+				highWaterMarks);
+
+		assertTrue("the chunks should be filtered by several threads, " + filter.threads, filter.threads.size() > 1);
+		for (TopicPartition tp : new TopicPartition[] {tp0, tp1}) {
+			List<ConsumerRecord<String, ExtMessage<String>>> partitionRecords = filtered.records(tp);
+			assertEquals(RECORDS_PER_PARTITION / 2, partitionRecords.size());
+			long lastOffset = -1L;
+			for (ConsumerRecord<String, ExtMessage<String>> record : partitionRecords) {
+				assertTrue(record.offset() > lastOffset);
+				assertEquals(1L, record.offset() % 2);
+				lastOffset = record.offset();
+			}
+			assertEquals(RECORDS_PER_PARTITION - 1, highWaterMarks.get(tp).longValue());
+		}
+	}
+}
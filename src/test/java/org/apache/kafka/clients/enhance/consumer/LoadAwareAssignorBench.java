@@ -0,0 +1,179 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.RangeAssignor;
+import org.apache.kafka.clients.consumer.RoundRobinAssignor;
+import org.apache.kafka.clients.consumer.StickyAssignor;
+import org.apache.kafka.clients.consumer.internals.PartitionAssignor;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.MockTime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * simulates rebalances of a group on synthetic skewed partition loads offline and compares the assignors by the
+ * peak member load over the average one, the moved partitions and the assignment time. the bound is the least
+ * peak possible, set by the hottest partition.
+ * <p>
+ * the loads drift every round, a member leaves in the third round and joins again in the sixth. the members of the
+ * load aware assignor measure their partitions by PartitionLoadTracker as PartitionLoadInterceptor does.
+ * usage: LoadAwareAssignorBench [members] [partitions] [rounds].
+ */
+public class LoadAwareAssignorBench {
+	private static final String TOPIC = "skewed";
+	private static final long ROUND_MS = 60 * 1000L;
+	private static final long POLL_MS = 1000L;
+	private static final int RECORD_BYTES = 512;
+
+	public static void main(String[] args) {
+		int members = (args.length > 0) ? Integer.parseInt(args[0]) : 12;
+		int partitions = (args.length > 1) ? Integer.parseInt(args[1]) : 240;
+		int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+
+		for (String workload : new String[] { "zipf", "100x" }) {
+			System.out.println(String.format("%s loads, %d members, %d partitions, %d rounds:", workload, members,
+					partitions, rounds));
+			bench(workload, new RangeAssignor(), members, partitions, rounds);
+			bench(workload, new RoundRobinAssignor(), members, partitions, rounds);
+			bench(workload, new StickyAssignor(), members, partitions, rounds);
+			bench(workload, new LoadAwareAssignor(), members, partitions, rounds);
+		}
+	}
+
+	//the bytes per second of the partitions, the hottest ones at random partitions.
+	private static double[] loads(String workload, int partitions, Random random) {
+		double[] loads = new double[partitions];
+		for (int i = 0; i < partitions; i++) {
+			loads[i] = "zipf".equals(workload) ? 1e7 / (i + 1) : 1e5 * Math.pow(100, random.nextDouble());
+		}
+		for (int i = partitions - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			double load = loads[i];
+			loads[i] = loads[j];
+			loads[j] = load;
+		}
+		return loads;
+	}
+
+	private static void bench(String workload, PartitionAssignor prototype, int memberNum, int partitions, int rounds) {
+		Random random = new Random(17);
+		double[] loads = loads(workload, partitions, random);
+		MockTime time = new MockTime();
+		Node node = new Node(0, "localhost", 9092);
+		List<PartitionInfo> infos = new ArrayList<>();
+		for (int i = 0; i < partitions; i++) {
+			infos.add(new PartitionInfo(TOPIC, i, node, new Node[] { node }, new Node[] { node }));
+		}
+		Cluster cluster = new Cluster("sim", Collections.singletonList(node), infos, Collections.<String>emptySet(),
+				Collections.<String>emptySet());
+		Set<String> topics = Collections.singleton(TOPIC);
+
+		List<String> memberIds = new ArrayList<>();
+		Map<String, PartitionAssignor> assignors = new HashMap<>();
+		Map<String, PartitionLoadTracker> trackers = new HashMap<>();
+		for (int i = 0; i < memberNum; i++) {
+			String memberId = String.format("sim-%03d", i);
+			memberIds.add(memberId);
+			trackers.put(memberId, PartitionLoadTracker.acquire(memberId));
+			assignors.put(memberId, assignor(prototype, memberId, time));
+		}
+
+		Map<TopicPartition, String> owners = new HashMap<>();
+		double peakSum = 0;
+		double boundSum = 0;
+		double worstPeak = 0;
+		long moves = 0;
+		long assignNs = 0;
+		for (int round = 0; round < rounds; round++) {
+			//the members consume what they own for a round, then the loads drift by up to 30%.
+			for (long polled = 0; polled < ROUND_MS; polled += POLL_MS) {
+				time.sleep(POLL_MS);
+				for (Map.Entry<TopicPartition, String> owner : owners.entrySet()) {
+					double bytes = loads[owner.getKey().partition()] * POLL_MS / 1000;
+					trackers.get(owner.getValue()).record(owner.getKey(), (long) (bytes / RECORD_BYTES), (long) bytes,
+							time.milliseconds());
+				}
+			}
+			for (int i = 0; i < partitions; i++) {
+				loads[i] *= 0.7 + 0.6 * random.nextDouble();
+			}
+			List<String> group = new ArrayList<>(memberIds);
+			if (round >= 3 && round < 6) {
+				group.remove(group.size() - 1);
+			}
+
+			Map<String, PartitionAssignor.Subscription> subscriptions = new HashMap<>();
+			for (String memberId : group) {
+				subscriptions.put(memberId, assignors.get(memberId).subscription(topics));
+			}
+			long start = System.nanoTime();
+			Map<String, PartitionAssignor.Assignment> assignment = assignors.get(group.get(0)).assign(cluster,
+					subscriptions);
+			assignNs += System.nanoTime() - start;
+
+			double total = 0;
+			double peak = 0;
+			Map<TopicPartition, String> assigned = new HashMap<>();
+			for (String memberId : memberIds) {
+				List<TopicPartition> owned = assignment.containsKey(memberId) ? assignment.get(memberId).partitions()
+						: Collections.<TopicPartition>emptyList();
+				assignors.get(memberId).onAssignment(new PartitionAssignor.Assignment(owned));
+				double load = 0;
+				for (TopicPartition tp : owned) {
+					load += loads[tp.partition()];
+					assigned.put(tp, memberId);
+				}
+				total += load;
+				peak = Math.max(peak, load);
+			}
+			//a partition moves if its owner is still in the group but loses it.
+			for (Map.Entry<TopicPartition, String> owner : owners.entrySet()) {
+				if (group.contains(owner.getValue()) && !owner.getValue().equals(assigned.get(owner.getKey())))
+					moves++;
+			}
+			owners = assigned;
+			double peakRatio = peak / (total / group.size());
+			//no assignment does better than the hottest partition on a member.
+			double hottest = 0;
+			for (double load : loads) {
+				hottest = Math.max(hottest, load);
+			}
+			boundSum += Math.max(1.0, hottest / (total / group.size()));
+			peakSum += peakRatio;
+			worstPeak = Math.max(worstPeak, peakRatio);
+		}
+		for (String memberId : memberIds) {
+			PartitionLoadTracker.release(memberId);
+		}
+		System.out.println(String.format(
+				"  %-12s peak/avg %6.2f mean %6.2f worst %6.2f bound, %6d moved, %10.1f us/assign.", prototype.name(),
+				peakSum / rounds, worstPeak, boundSum / rounds, moves, assignNs / 1000.0 / rounds));
+	}
+
+	private static PartitionAssignor assignor(PartitionAssignor prototype, String clientId, MockTime time) {
+		PartitionAssignor assignor;
+		if (prototype instanceof LoadAwareAssignor) {
+			assignor = new LoadAwareAssignor(time);
+		} else {
+			try {
+				assignor = prototype.getClass().getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		if (assignor instanceof Configurable) {
+			((Configurable) assignor).configure(Collections.singletonMap(ConsumerConfig.CLIENT_ID_CONFIG, clientId));
+		}
+		return assignor;
+	}
+}
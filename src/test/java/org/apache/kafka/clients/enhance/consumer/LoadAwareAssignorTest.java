@@ -0,0 +1,102 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.internals.PartitionAssignor;
+import org.apache.kafka.clients.enhance.consumer.PartitionLoadTracker.PartitionLoad;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.MockTime;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LoadAwareAssignorTest {
+	private static final String TOPIC = "skewed";
+
+	private static PartitionAssignor.Subscription subscription(Map<TopicPartition, PartitionLoad> loads) {
+		return new PartitionAssignor.Subscription(Collections.singletonList(TOPIC),
+				LoadAwareAssignor.serializeLoads(loads.keySet(), loads));
+	}
+
+	private static TopicPartition tp(int partition) {
+		return new TopicPartition(TOPIC, partition);
+	}
+
+	private static double load(List<TopicPartition> partitions, Map<TopicPartition, PartitionLoad> loads) {
+		double load = 0;
+		for (TopicPartition tp : partitions) {
+			load += loads.get(tp).bytesRate;
+		}
+		return load;
+	}
+
+	@Test
+	public void reportedLoadsAreBalancedWithinTheMovementBudget() {
+		//m1 owns the hot partition and two warm ones, m2 owns the cold ones.
+		Map<TopicPartition, PartitionLoad> loads = new HashMap<>();
+		loads.put(tp(0), new PartitionLoad(1000, 0));
+		loads.put(tp(1), new PartitionLoad(400, 0));
+		loads.put(tp(2), new PartitionLoad(400, 0));
+		loads.put(tp(3), new PartitionLoad(10, 0));
+		loads.put(tp(4), new PartitionLoad(10, 0));
+		Map<TopicPartition, PartitionLoad> m1 = new HashMap<>();
+		Map<TopicPartition, PartitionLoad> m2 = new HashMap<>();
+		for (int i = 0; i < 3; i++) {
+			m1.put(tp(i), loads.get(tp(i)));
+		}
+		for (int i = 3; i < 5; i++) {
+			m2.put(tp(i), loads.get(tp(i)));
+		}
+		Map<String, PartitionAssignor.Subscription> subscriptions = new HashMap<>();
+		subscriptions.put("m1", subscription(m1));
+		subscriptions.put("m2", subscription(m2));
+		Map<String, Integer> partitionsPerTopic = Collections.singletonMap(TOPIC, 5);
+
+		//a single move, the hot partition takes the place of the cold ones.
+		Map<String, List<TopicPartition>> assignment = new LoadAwareAssignor().maxMovementRatio(0.2)
+				.assign(partitionsPerTopic, subscriptions);
+		assertEquals(Arrays.asList(tp(1), tp(2)), assignment.get("m1"));
+		assertEquals(Arrays.asList(tp(3), tp(4), tp(0)), assignment.get("m2"));
+
+		//a third member without reports takes the partitions the others give up.
+		subscriptions.put("m3", subscription(Collections.<TopicPartition, PartitionLoad>emptyMap()));
+		assignment = new LoadAwareAssignor().maxMovementRatio(1.0).assign(partitionsPerTopic, subscriptions);
+		assertEquals(Collections.singletonList(tp(0)), assignment.get("m3"));
+		assertEquals(400.0, load(assignment.get("m1"), loads), 0.0);
+		assertEquals(420.0, load(assignment.get("m2"), loads), 0.0);
+	}
+
+	@Test
+	public void interceptedRatesAreReportedForTheOwnedPartitions() {
+		MockTime time = new MockTime();
+		Map<String, Object> configs = Collections.<String, Object>singletonMap(ConsumerConfig.CLIENT_ID_CONFIG, "loaded");
+		PartitionLoadTracker tracker = PartitionLoadTracker.acquire("loaded");
+		try {
+			LoadAwareAssignor assignor = new LoadAwareAssignor(time);
+			assignor.configure(configs);
+			assignor.onAssignment(new PartitionAssignor.Assignment(Arrays.asList(tp(0), tp(1))));
+			time.sleep(PartitionLoadTracker.MIN_WINDOW_MS / 2);
+			tracker.record(tp(0), 10, 1000, time.milliseconds());
+			//not owned long enough to have a rate yet.
+			Map<TopicPartition, PartitionLoad> reported = LoadAwareAssignor.deserializeLoads(
+					assignor.subscription(Collections.singleton(TOPIC)).userData());
+			assertEquals(Arrays.asList(tp(0), tp(1)), Arrays.asList(reported.keySet().toArray()));
+			assertNull(reported.get(tp(0)));
+
+			time.sleep(PartitionLoadTracker.MIN_WINDOW_MS * 3 / 2);
+			reported = LoadAwareAssignor.deserializeLoads(
+					assignor.subscription(Collections.singleton(TOPIC)).userData());
+			assertEquals(500.0, reported.get(tp(0)).bytesRate, 0.0);
+			assertEquals(5.0, reported.get(tp(0)).recordsRate, 0.0);
+			assertEquals(0.0, reported.get(tp(1)).bytesRate, 0.0);
+		} finally {
+			PartitionLoadTracker.release("loaded");
+		}
+		assertNull(PartitionLoadTracker.get("loaded"));
+	}
+}
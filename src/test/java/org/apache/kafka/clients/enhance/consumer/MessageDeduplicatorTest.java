@@ -0,0 +1,66 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.MockTime;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.apache.kafka.clients.enhance.ExtMessageDef.PROPERTY_POSSIBLE_DUPLICATED;
+import static org.apache.kafka.clients.enhance.ExtMessageDef.PROPERTY_UNIQ_KEY;
+import static org.junit.Assert.*;
+
+public class MessageDeduplicatorTest {
+	private final TopicPartition tp = new TopicPartition("test", 0);
+	private final MockTime time = new MockTime();
+
+	private ConsumerRecord<String, ExtMessage<String>> record(long offset, String uniqKey) {
+		ExtMessage<String> message = new ExtMessage<>();
+		message.addProperty(PROPERTY_UNIQ_KEY, uniqKey);
+		return new ConsumerRecord<>(tp.topic(), tp.partition(), offset, "key", message);
+	}
+
+	private ConsumerRecords<String, ExtMessage<String>> records(
+			List<ConsumerRecord<String, ExtMessage<String>>> records) {
+		return new ConsumerRecords<>(Collections.singletonMap(tp, records));
+	}
+
+	@Test
+	public void dropsConsumedMessagesInWindow() {
+		MessageDeduplicator<String> deduplicator = new MessageDeduplicator<>(60000L, 1000L, 100, true, time);
+		ConsumerRecord<String, ExtMessage<String>> first = record(0L, "uniq-0");
+		Map<TopicPartition, Long> highWaterMarks = new HashMap<>();
+		assertEquals(1, deduplicator.deduplicate(records(Collections.singletonList(first)), highWaterMarks).count());
+
+		deduplicator.markConsumed(first.value());
+		highWaterMarks.clear();
+		ConsumerRecords<String, ExtMessage<String>> result = deduplicator
+				.deduplicate(records(Arrays.asList(record(1L, "uniq-1"), record(2L, "uniq-0"))), highWaterMarks);
+		assertEquals(1, result.count());
+		assertEquals(1L, result.records(tp).get(0).offset());
+		assertEquals(Long.valueOf(2L), highWaterMarks.get(tp));
+		assertEquals(1L, deduplicator.duplicatedCount());
+		assertEquals(2L, deduplicator.uniqueCount());
+
+		time.sleep(60000L);
+		assertEquals(1, deduplicator
+				.deduplicate(records(Collections.singletonList(record(3L, "uniq-0"))), highWaterMarks).count());
+	}
+
+	@Test
+	public void flagsKeysEvictedFromExactCache() {
+		MessageDeduplicator<String> deduplicator = new MessageDeduplicator<>(60000L, 1000L, 1, true, time);
+		deduplicator.markConsumed(record(0L, "uniq-0").value());
+		deduplicator.markConsumed(record(1L, "uniq-1").value());
+
+		ConsumerRecords<String, ExtMessage<String>> result = deduplicator
+				.deduplicate(records(Collections.singletonList(record(2L, "uniq-0"))),
+						new HashMap<TopicPartition, Long>());
+		assertEquals(1, result.count());
+		assertEquals("true", result.records(tp).get(0).value().getProperty(PROPERTY_POSSIBLE_DUPLICATED));
+		assertEquals(1L, deduplicator.possibleDuplicatedCount());
+	}
+}
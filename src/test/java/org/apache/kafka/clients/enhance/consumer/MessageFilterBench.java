@@ -0,0 +1,69 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.enhance.AbstractExtMessageFilter;
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * compares the regex tag filter with the sql property filter, usage: MessageFilterBench [iterations].
+ */
+public class MessageFilterBench {
+	private static final int MESSAGE_NUM = 1024;
+	private static final String[] REGIONS = { "eu", "us", "ap", "sa" };
+	private static final String[] TAGS = { "a", "b", "c", "d", "e", "f" };
+
+	public static void main(String[] args) {
+		long iters = (args.length > 0) ? Long.parseLong(args[0]) : 10000000L;
+		Random random = new Random(17);
+		ExtMessage<String>[] messages = createMessages(random);
+		Headers headers = new RecordHeaders();
+
+		bench("regex tags 'a|b'", new DefaultMessageFilter<String>("a|b"), messages, headers, iters);
+		bench("sql tags IN ('a','b')", new SqlMessageFilter<String>("TAGS IN ('a', 'b')"), messages, headers, iters);
+		bench("sql region/amount/tags",
+				new SqlMessageFilter<String>("region = 'eu' AND amount > 100 AND TAGS IN ('a', 'b')"), messages,
+				headers, iters);
+		bench("sql folded constants",
+				new SqlMessageFilter<String>("(1 = 1 AND region IN ('eu', 'us')) OR 'x' = 'y'"), messages, headers,
+				iters);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ExtMessage<String>[] createMessages(Random random) {
+		ExtMessage<String>[] messages = new ExtMessage[MESSAGE_NUM];
+		for (int i = 0; i < MESSAGE_NUM; i++) {
+			ExtMessage<String> message = new ExtMessage<>();
+			message.addUserProperty("region", REGIONS[random.nextInt(REGIONS.length)]);
+			message.addUserProperty("amount", String.valueOf(random.nextInt(200)));
+			message.setTags(Arrays.asList(TAGS[random.nextInt(TAGS.length)], TAGS[random.nextInt(TAGS.length)]));
+			messages[i] = message;
+		}
+		return messages;
+	}
+
+	private static void bench(String name, AbstractExtMessageFilter<String> filter, ExtMessage<String>[] messages,
+			Headers headers, long iters) {
+		//warm up
+		run(filter, messages, headers, Math.min(iters, 1000000L));
+		long start = System.nanoTime();
+		long matched = run(filter, messages, headers, iters);
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("%-28s %8.2f ns/msg, %12.0f msg/s, matched %d.", name,
+				elapsed / (double) iters, iters * 1e9 / elapsed, matched));
+	}
+
+	private static long run(AbstractExtMessageFilter<String> filter, ExtMessage<String>[] messages, Headers headers,
+			long iters) {
+		long matched = 0;
+		for (long i = 0; i < iters; i++) {
+			if (filter.canDeliveryMessage(messages[(int) (i & (MESSAGE_NUM - 1))], headers)) {
+				matched++;
+			}
+		}
+		return matched;
+	}
+}
@@ -0,0 +1,118 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.test.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageIndexLogTest {
+
+	@Test
+	public void timeIndexFindsFirstOffsetAtTimestamp() throws Exception {
+		File dir = TestUtils.tempDirectory();
+		TimeIndexLog log = new TimeIndexLog(dir, 4);
+		//offset 3 is out of order, it isn't indexed.
+		long[] timestamps = {100L, 110L, 120L, 115L, 130L, 140L, 150L, 160L, 170L, 180L};
+		for (int offset = 0; offset < timestamps.length; offset++) {
+			log.append(timestamps[offset], offset);
+		}
+		log.checkpoint(timestamps.length);
+
+		assertEquals(1L, log.lookup(105L));
+		assertEquals(2L, log.lookup(115L));
+		assertEquals(4L, log.lookup(121L));
+		assertEquals(8L, log.lookup(170L));
+		assertEquals(9L, log.lookup(180L));
+		//not covered by the indexed records.
+		assertEquals(-1L, log.lookup(100L));
+		assertEquals(-1L, log.lookup(181L));
+		log.close();
+
+		TimeIndexLog recovered = new TimeIndexLog(dir, 4);
+		assertEquals(timestamps.length, recovered.indexedOffset());
+		assertEquals(180L, recovered.maxTimestamp());
+		assertEquals(4L, recovered.lookup(121L));
+		recovered.append(190L, 10L);
+		assertEquals(10L, recovered.lookup(185L));
+		recovered.close();
+	}
+
+	@Test
+	public void keyIndexFindsAllPositionsAcrossSegments() throws Exception {
+		File dir = TestUtils.tempDirectory();
+		KeyIndexLog log = new KeyIndexLog(dir, 16, 3);
+		long hash = KeyIndexLog.hash(MessageIndexService.KIND_UNIQ_KEY, "uniq-1".getBytes());
+		assertNotEquals(hash, KeyIndexLog.hash(MessageIndexService.KIND_KEY, "uniq-1".getBytes()));
+		log.put(hash, 1, 10L, 10L);
+		for (int idx = 0; idx < 20; idx++) {
+			log.put(KeyIndexLog.hash(MessageIndexService.KIND_KEY, ("key-" + idx).getBytes()), idx % 3, idx, idx);
+		}
+		log.put(hash, 2, 30L, 30L);
+		//a repeated position is returned once.
+		log.put(hash, 2, 30L, 30L);
+
+		List<long[]> positions = log.lookup(hash);
+		assertEquals(2, positions.size());
+		assertArrayEquals(new long[] {1L, 10L}, positions.get(0));
+		assertArrayEquals(new long[] {2L, 30L}, positions.get(1));
+		assertTrue(log.lookup(KeyIndexLog.hash(MessageIndexService.KIND_KEY, "absent".getBytes())).isEmpty());
+		log.close();
+
+		KeyIndexLog recovered = new KeyIndexLog(dir, 16, 3);
+		assertEquals(2, recovered.lookup(hash).size());
+		//12 entries per segment, the oldest segment is deleted beyond 3 segments.
+		for (int idx = 0; idx < 24; idx++) {
+			recovered.put(KeyIndexLog.hash(MessageIndexService.KIND_KEY, ("more-" + idx).getBytes()), 0, idx, idx);
+		}
+		positions = recovered.lookup(hash);
+		assertEquals(1, positions.size());
+		assertArrayEquals(new long[] {2L, 30L}, positions.get(0));
+		recovered.close();
+	}
+
+	@Test
+	public void timeIndexDeletesExpiredSegments() throws Exception {
+		File dir = TestUtils.tempDirectory();
+		TimeIndexLog log = new TimeIndexLog(dir, 2);
+		for (int offset = 0; offset < 6; offset++) {
+			log.append(100L + offset * 10, offset);
+		}
+		log.checkpoint(6L);
+		//the first segment has 100 and 110, the second 120 and 130, the last 140 and 150.
+		log.deleteSegmentsBefore(125L);
+		assertEquals(2, dir.listFiles().length);
+		assertEquals(-1L, log.lookup(115L));
+		assertEquals(4L, log.lookup(135L));
+
+		//the last segment keeps the indexed offset.
+		log.deleteSegmentsBefore(Long.MAX_VALUE);
+		assertEquals(1, dir.listFiles().length);
+		assertEquals(6L, log.indexedOffset());
+		log.close();
+	}
+
+	@Test
+	public void keyIndexDeletesExpiredSegments() throws Exception {
+		File dir = TestUtils.tempDirectory();
+		KeyIndexLog log = new KeyIndexLog(dir, 4, 10);
+		//3 entries per segment.
+		for (int idx = 0; idx < 9; idx++) {
+			log.put(KeyIndexLog.hash(MessageIndexService.KIND_KEY, ("key-" + idx).getBytes()), 0, idx, 100L + idx);
+		}
+		long hash = KeyIndexLog.hash(MessageIndexService.KIND_KEY, "key-4".getBytes());
+		log.deleteSegmentsBefore(103L);
+		assertEquals(2, dir.listFiles().length);
+		assertTrue(log.lookup(KeyIndexLog.hash(MessageIndexService.KIND_KEY, "key-2".getBytes())).isEmpty());
+		assertArrayEquals(new long[] {0L, 4L}, log.lookup(hash).get(0));
+		log.close();
+
+		KeyIndexLog recovered = new KeyIndexLog(dir, 4, 10);
+		recovered.deleteSegmentsBefore(106L);
+		assertEquals(1, dir.listFiles().length);
+		assertTrue(recovered.lookup(hash).isEmpty());
+		recovered.close();
+	}
+}
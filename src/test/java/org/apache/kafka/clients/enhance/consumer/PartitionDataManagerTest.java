@@ -0,0 +1,91 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PartitionDataManagerTest {
+	private final TopicPartition tp0 = new TopicPartition("test", 0);
+	private final TopicPartition tp1 = new TopicPartition("test", 1);
+	private PartitionDataManager<String, String> manager;
+
+	@Before
+	public void setUp() throws Exception {
+		manager = new PartitionDataManager<>();
+		manager.updateOnPartitionsAssigned(Arrays.asList(tp0, tp1));
+		Map<TopicPartition, List<ConsumerRecord<String, String>>> records = new HashMap<>();
+		records.put(tp0, produceRecords(tp0, 0, 10));
+		records.put(tp1, produceRecords(tp1, 0, 10));
+		manager.saveConsumerRecords(new ConsumerRecords<>(records), new HashMap<TopicPartition, Long>());
+	}
+
+	private List<ConsumerRecord<String, String>> produceRecords(TopicPartition tp, long fromOffset, int num) {
+		List<ConsumerRecord<String, String>> records = new ArrayList<>(num);
+		for (long offset = fromOffset; offset < fromOffset + num; offset++) {
+			records.add(new ConsumerRecord<>(tp.topic(), tp.partition(), offset, "key", "val"));
+		}
+		return records;
+	}
+
+	@Test
+	public void retainedPartitionKeepsWindow() throws Exception {
+		List<ConsumerRecord<String, String>> taken = manager.retrieveTaskRecords(tp0, 4);
+		assertEquals(4, taken.size());
+
+		manager.updateOnPartitionsRevoked(Arrays.asList(tp0, tp1), 0L);
+		assertTrue(manager.retrieveTaskRecords(tp0, 4).isEmpty());
+
+		Map<TopicPartition, Long> resumeOffsets = manager.updateOnPartitionsAssigned(Collections.singletonList(tp0));
+		assertEquals(Collections.singleton(tp0), manager.getAssignedPartition());
+		assertEquals(Long.valueOf(10L), resumeOffsets.get(tp0));
+
+		//the cursor is kept, dispatching continues after the in-flight records.
+		List<ConsumerRecord<String, String>> next = manager.retrieveTaskRecords(tp0, 4);
+		assertEquals(4L, next.get(0).offset());
+
+		manager.commitOffsets(tp0, Arrays.asList(0L, 1L, 2L, 3L));
+		assertEquals(4L, manager.latestAckOffsets().get(tp0).offset());
+	}
+
+	@Test
+	public void revokeWaitsForInflightRecords() throws Exception {
+		manager.retrieveTaskRecords(tp0, 2);
+		Thread acker = new Thread() {
+			@Override
+			public void run() {
+				try {
+					TimeUnit.MILLISECONDS.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				manager.commitOffsets(tp0, Arrays.asList(0L, 1L));
+			}
+		};
+		acker.start();
+		manager.updateOnPartitionsRevoked(Collections.singletonList(tp0), 5000L);
+		assertEquals(2L, manager.latestAckOffsets().get(tp0).offset());
+		acker.join();
+	}
+
+	@Test
+	public void staleRecordsAreDroppedAfterReset() throws Exception {
+		Map<TopicPartition, Long> epochs = manager.partitionEpochs(Collections.singletonList(tp0));
+		manager.resetPartitionData(tp0);
+
+		Map<TopicPartition, List<ConsumerRecord<String, String>>> records = new HashMap<>();
+		records.put(tp0, produceRecords(tp0, 10, 5));
+		manager.saveConsumerRecords(new ConsumerRecords<>(records), new HashMap<TopicPartition, Long>(), epochs);
+		assertTrue(manager.retrieveTaskRecords(tp0, 5).isEmpty());
+
+		manager.saveConsumerRecords(new ConsumerRecords<>(records), new HashMap<TopicPartition, Long>(),
+				manager.partitionEpochs(Collections.singletonList(tp0)));
+		assertEquals(5, manager.retrieveTaskRecords(tp0, 5).size());
+	}
+}
@@ -1,10 +1,12 @@
 package org.apache.kafka.clients.enhance.consumer;
 
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -75,6 +77,22 @@ public class PartitionDataTest {
     public void clear() throws Exception {
     }
 
+    @Test
+    public void staleRecordsAreDroppedByReassignedPartition() throws Exception {
+        TopicPartition tp = new TopicPartition("topic", 0);
+        PartitionData<String, String> revoked = new PartitionData<>(tp);
+        long prefetchEpoch = revoked.epoch();
+        revoked.clear();
+
+        PartitionData<String, String> reassigned = new PartitionData<>(tp);
+        assertNotEquals(prefetchEpoch, reassigned.epoch());
+        assertNotEquals(revoked.epoch(), reassigned.epoch());
+        List<ConsumerRecord<String, String>> records = Collections.singletonList(
+                new ConsumerRecord<>(tp.topic(), tp.partition(), 0L, "key", "value"));
+        assertEquals(0, reassigned.putRecords(records, 1L, prefetchEpoch));
+        assertEquals(1, reassigned.putRecords(records, 1L, reassigned.epoch()));
+    }
+
     @Test
     public void resetPartition() throws Exception {
     }
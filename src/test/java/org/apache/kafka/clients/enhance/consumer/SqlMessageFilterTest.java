@@ -0,0 +1,90 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SqlMessageFilterTest {
+
+	private ExtMessage<String> message(String region, String amount, String... tags) {
+		ExtMessage<String> message = new ExtMessage<>();
+		if (null != region) {
+			message.addUserProperty("region", region);
+		}
+		if (null != amount) {
+			message.addUserProperty("amount", amount);
+		}
+		if (tags.length > 0) {
+			message.setTags(Arrays.asList(tags));
+		}
+		return message;
+	}
+
+	private boolean matches(String expression, ExtMessage<String> message) {
+		return new SqlMessageFilter<String>(expression).canDeliveryMessage(message, new RecordHeaders());
+	}
+
+	@Test
+	public void matchesPropertiesAndTags() {
+		String expression = "region = 'eu' AND amount > 100 AND tag IN ('a','b')";
+		assertTrue(matches(expression, message("eu", "150", "b", "c")));
+		assertFalse(matches(expression, message("eu", "100", "a")));
+		assertFalse(matches(expression, message("us", "150", "a")));
+		assertFalse(matches(expression, message("eu", "150", "c", "ab")));
+		assertFalse(matches(expression, message("eu", "not-a-number", "a")));
+		assertFalse(matches(expression, message(null, "150", "a")));
+	}
+
+	@Test
+	public void supportsOperators() {
+		ExtMessage<String> msg = message("eu", "-2.5", "a");
+		assertTrue(matches("NOT (region <> 'eu') AND -3 < amount", msg));
+		assertTrue(matches("amount BETWEEN -3 AND 0 OR region = 'us'", msg));
+		assertTrue(matches("amount NOT IN (1, 2) AND region IN ('eu', 'us')", msg));
+		assertTrue(matches("missing IS NULL AND region IS NOT NULL", msg));
+		assertTrue(matches("TAGS = 'a' and tags <> 'b'", msg));
+
+		RecordHeaders headers = new RecordHeaders();
+		headers.add("source", "app-1".getBytes());
+		assertTrue(new SqlMessageFilter<String>("source = 'app-1'").canDeliveryMessage(msg, headers));
+	}
+
+	@Test
+	public void parsesExponentLiterals() {
+		ExtMessage<String> msg = message("eu", "0.00002");
+		assertTrue(matches("amount > 1e-5 AND amount < 2.5E-5", msg));
+		assertTrue(matches("amount BETWEEN -1e+2 AND 1E2", msg));
+		assertFalse(matches("amount >= 3e-5", msg));
+	}
+
+	@Test
+	public void missingPropertyIsUnknown() {
+		ExtMessage<String> msg = message(null, "not-a-number", "a");
+		assertFalse(matches("region = 'eu'", msg));
+		assertFalse(matches("NOT (region = 'eu')", msg));
+		assertFalse(matches("region <> 'eu'", msg));
+		assertFalse(matches("NOT (amount > 1)", msg));
+		assertFalse(matches("NOT (region = 'eu' AND tags = 'a')", msg));
+		//UNKNOWN OR TRUE is TRUE, UNKNOWN AND FALSE is FALSE.
+		assertTrue(matches("region = 'eu' OR tags = 'a'", msg));
+		assertTrue(matches("NOT (region = 'eu' AND tags = 'b')", msg));
+		assertTrue(matches("NOT (region = 'eu') OR region IS NULL", msg));
+		assertFalse(matches("NOT (tags = 'a')", message("eu", null)));
+	}
+
+	@Test
+	public void foldsConstants() {
+		assertTrue(new SqlMessageFilter<String>("1 = 1 OR region = 'eu'").isPermitAll());
+		assertTrue(new SqlMessageFilter<String>("").isPermitAll());
+		assertFalse(matches("'a' = 'b' AND region = 'eu'", message("eu", null)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInvalidExpression() {
+		new SqlMessageFilter<String>("region = 'eu' AND");
+	}
+}
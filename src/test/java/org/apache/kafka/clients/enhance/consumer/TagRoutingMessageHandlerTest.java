@@ -0,0 +1,84 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.enhance.consumer.listener.ConcurrentConsumeContext;
+import org.apache.kafka.clients.enhance.consumer.listener.ConcurrentMessageHandler;
+import org.apache.kafka.clients.enhance.consumer.listener.ConsumeStatus;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TagRoutingMessageHandlerTest {
+	private final TopicPartition tp = new TopicPartition("test", 0);
+
+	private static class RecordingHandler implements ConcurrentMessageHandler<String> {
+		private final List<String> received = new ArrayList<>();
+		private final String failedTag;
+
+		RecordingHandler(String failedTag) {
+			this.failedTag = failedTag;
+		}
+
+		@Override
+		public ConsumeStatus consumeMessage(List<ExtMessage<String>> messages, ConcurrentConsumeContext consumeContext) {
+			ConsumeStatus status = ConsumeStatus.CONSUME_SUCCESS;
+			for (int idx = 0; idx < messages.size(); idx++) {
+				ExtMessage<String> message = messages.get(idx);
+				received.add(message.getMsgKey());
+				boolean failed = message.getTags().contains(failedTag);
+				consumeContext.updateConsumeStatusInBatch(idx, !failed);
+				if (failed) {
+					status = ConsumeStatus.CONSUME_RETRY_LATER;
+				}
+			}
+			return status;
+		}
+	}
+
+	private ExtMessage<String> message(String key, String... tags) {
+		ExtMessage<String> message = new ExtMessage<>();
+		message.setMsgKey(key);
+		message.setTags(Arrays.asList(tags));
+		return message;
+	}
+
+	@Test
+	public void routesMessagesByTags() throws Exception {
+		RecordingHandler handlerA = new RecordingHandler(null);
+		RecordingHandler handlerBC = new RecordingHandler(null);
+		RecordingHandler handlerAll = new RecordingHandler(null);
+		TagRoutingMessageHandler<String> router = new TagRoutingMessageHandler<>();
+		router.addHandler("a", handlerA);
+		router.addHandler("b || c", handlerBC);
+		router.addHandler("*", handlerAll);
+
+		List<ExtMessage<String>> messages = Arrays.asList(message("m0", "a"), message("m1", "b", "a"),
+				message("m2", "d"), message("m3", "c"));
+		ConsumeStatus status = router.consumeMessage(messages, new ConcurrentConsumeContext(tp, 0L, messages.size()));
+
+		assertEquals(ConsumeStatus.CONSUME_SUCCESS, status);
+		assertEquals(Arrays.asList("m0", "m1"), handlerA.received);
+		assertEquals(Arrays.asList("m1", "m3"), handlerBC.received);
+		assertEquals(Arrays.asList("m0", "m1", "m2", "m3"), handlerAll.received);
+	}
+
+	@Test
+	public void retriesMessagesFailedByAnyHandler() throws Exception {
+		TagRoutingMessageHandler<String> router = new TagRoutingMessageHandler<>();
+		router.addHandler("a||b", new RecordingHandler("b"));
+		router.addHandler("a", new RecordingHandler(null));
+
+		List<ExtMessage<String>> messages = Arrays.asList(message("m0", "a"), message("m1", "b"), message("m2", "x"));
+		ConcurrentConsumeContext context = new ConcurrentConsumeContext(tp, 0L, messages.size());
+
+		assertEquals(ConsumeStatus.CONSUME_RETRY_LATER, router.consumeMessage(messages, context));
+		assertTrue(context.getStatusByBatchIndex(0));
+		assertFalse(context.getStatusByBatchIndex(1));
+		assertTrue(context.getStatusByBatchIndex(2));
+	}
+}
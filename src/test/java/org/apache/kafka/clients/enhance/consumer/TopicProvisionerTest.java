@@ -0,0 +1,149 @@
+package org.apache.kafka.clients.enhance.consumer;
+
+import org.apache.kafka.clients.MockClient;
+import org.apache.kafka.clients.NodeApiVersions;
+import org.apache.kafka.clients.admin.MockKafkaAdminClientEnv;
+import org.apache.kafka.clients.enhance.TopicProvisionResult;
+import org.apache.kafka.clients.enhance.TopicProvisionResult.Change;
+import org.apache.kafka.clients.enhance.TopicSpec;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.errors.InvalidConfigurationException;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.requests.AbstractRequest;
+import org.apache.kafka.common.requests.AlterConfigsRequest;
+import org.apache.kafka.common.requests.AlterConfigsResponse;
+import org.apache.kafka.common.requests.ApiError;
+import org.apache.kafka.common.requests.CreatePartitionsResponse;
+import org.apache.kafka.common.requests.CreateTopicsResponse;
+import org.apache.kafka.common.requests.DescribeConfigsResponse;
+import org.apache.kafka.common.requests.MetadataResponse;
+import org.apache.kafka.common.requests.Resource;
+import org.apache.kafka.common.requests.ResourceType;
+import org.apache.kafka.common.utils.Time;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TopicProvisionerTest {
+
+	private static MetadataResponse.TopicMetadata topicMetadata(Node node, String topic, int partitions) {
+		List<MetadataResponse.PartitionMetadata> partitionMetadata = new ArrayList<>();
+		for (int partition = 0; partition < partitions; partition++) {
+			partitionMetadata.add(new MetadataResponse.PartitionMetadata(Errors.NONE, partition, node,
+					Collections.singletonList(node), Collections.singletonList(node), Collections.<Node>emptyList()));
+		}
+		return new MetadataResponse.TopicMetadata(Errors.NONE, topic, false, partitionMetadata);
+	}
+
+	@Test
+	public void topicsAreDiffedOnceAndChangedInBatches() throws Exception {
+		Node node = new Node(0, "localhost", 8121);
+		Cluster cluster = new Cluster("mockClusterId", Collections.singletonList(node),
+				Collections.<PartitionInfo>emptySet(), Collections.<String>emptySet(), Collections.<String>emptySet(), node);
+		try (MockKafkaAdminClientEnv env = new MockKafkaAdminClientEnv(cluster)) {
+			env.kafkaClient().setNodeApiVersions(NodeApiVersions.create());
+			env.kafkaClient().prepareMetadataUpdate(cluster, Collections.<String>emptySet());
+			env.kafkaClient().setNode(node);
+
+			//one metadata request describes all the topics.
+			List<MetadataResponse.TopicMetadata> topics = new ArrayList<>();
+			topics.add(topicMetadata(node, "unchanged", 2));
+			topics.add(topicMetadata(node, "grown", 1));
+			topics.add(topicMetadata(node, "configured", 2));
+			topics.add(new MetadataResponse.TopicMetadata(Errors.UNKNOWN_TOPIC_OR_PARTITION, "missing-1", false,
+					Collections.<MetadataResponse.PartitionMetadata>emptyList()));
+			topics.add(new MetadataResponse.TopicMetadata(Errors.UNKNOWN_TOPIC_OR_PARTITION, "missing-2", false,
+					Collections.<MetadataResponse.PartitionMetadata>emptyList()));
+			env.kafkaClient().prepareResponse(new MetadataResponse(cluster.nodes(), cluster.clusterResource().clusterId(),
+					node.id(), topics));
+			//one request describes the configs of the existing topics with configs in their specs.
+			Map<Resource, DescribeConfigsResponse.Config> configs = new HashMap<>();
+			configs.put(new Resource(ResourceType.TOPIC, "unchanged"), new DescribeConfigsResponse.Config(ApiError.NONE,
+					Collections.singletonList(new DescribeConfigsResponse.ConfigEntry("retention.ms", "3600000", false, false, false))));
+			configs.put(new Resource(ResourceType.TOPIC, "configured"), new DescribeConfigsResponse.Config(ApiError.NONE,
+					Arrays.asList(new DescribeConfigsResponse.ConfigEntry("retention.ms", "604800000", false, true, false),
+							new DescribeConfigsResponse.ConfigEntry("cleanup.policy", "compact", false, false, false))));
+			env.kafkaClient().prepareResponse(new DescribeConfigsResponse(0, configs));
+			//a batch of one topic, the second creation fails.
+			env.kafkaClient().prepareResponse(new CreateTopicsResponse(Collections.singletonMap("missing-1", ApiError.NONE)));
+			env.kafkaClient().prepareResponse(new CreateTopicsResponse(Collections.singletonMap("missing-2",
+					new ApiError(Errors.TOPIC_ALREADY_EXISTS, "exists"))));
+			env.kafkaClient().prepareResponse(new CreatePartitionsResponse(0, Collections.singletonMap("grown", ApiError.NONE)));
+			//the override which isn't in the spec is kept.
+			env.kafkaClient().prepareResponse(new MockClient.RequestMatcher() {
+				@Override
+				public boolean matches(AbstractRequest body) {
+					AlterConfigsRequest.Config config = ((AlterConfigsRequest) body).configs()
+							.get(new Resource(ResourceType.TOPIC, "configured"));
+					Map<String, String> entries = new HashMap<>();
+					for (AlterConfigsRequest.ConfigEntry entry : config.entries()) {
+						entries.put(entry.name(), entry.value());
+					}
+					Map<String, String> expected = new HashMap<>();
+					expected.put("retention.ms", "3600000");
+					expected.put("cleanup.policy", "compact");
+					return expected.equals(entries);
+				}
+			}, new AlterConfigsResponse(0, Collections.singletonMap(new Resource(ResourceType.TOPIC, "configured"), ApiError.NONE)));
+
+			TopicProvisioner provisioner = new TopicProvisioner(env.adminClient(), 1, 2, Time.SYSTEM);
+			Map<String, TopicProvisionResult> results = provisioner.provision(Arrays.asList(
+					new TopicSpec("unchanged", 2, (short) 1).config("retention.ms", "3600000"),
+					new TopicSpec("grown", 3, (short) 1),
+					new TopicSpec("configured", 2, (short) 1).config("retention.ms", "3600000"),
+					new TopicSpec("missing-1", 4, (short) 1),
+					new TopicSpec("missing-2", 4, (short) 1)), 10000L);
+
+			assertEquals(Arrays.asList("unchanged", "grown", "configured", "missing-1", "missing-2"),
+					new ArrayList<>(results.keySet()));
+			assertTrue(results.get("unchanged").isUnchanged());
+			assertEquals(EnumSet.of(Change.PARTITIONS_INCREASED), results.get("grown").changes());
+			assertEquals(EnumSet.of(Change.CONFIGS_ALTERED), results.get("configured").changes());
+			assertEquals(EnumSet.of(Change.CREATED), results.get("missing-1").changes());
+			assertFalse(results.get("missing-2").isSuccess());
+			assertTrue(results.get("missing-2").error() instanceof TopicExistsException);
+		}
+	}
+
+	@Test
+	public void alteredConfigIsNullWhenConfigsMatch() {
+		org.apache.kafka.clients.admin.Config current = new org.apache.kafka.clients.admin.Config(Arrays.asList(
+				new org.apache.kafka.clients.admin.ConfigEntry("retention.ms", "1000", false, false, false),
+				new org.apache.kafka.clients.admin.ConfigEntry("segment.ms", "5000", true, false, false)));
+		assertNull(TopicProvisioner.alteredConfig(current, Collections.singletonMap("retention.ms", "1000")));
+		//a default value is set as an override.
+		assertNotNull(TopicProvisioner.alteredConfig(current, Collections.singletonMap("segment.ms", "5000")));
+	}
+
+	@Test(expected = InvalidConfigurationException.class)
+	public void sensitiveOverrideMustBeInSpec() {
+		org.apache.kafka.clients.admin.Config current = new org.apache.kafka.clients.admin.Config(Arrays.asList(
+				new org.apache.kafka.clients.admin.ConfigEntry("retention.ms", "1000", false, false, false),
+				new org.apache.kafka.clients.admin.ConfigEntry("secret.key", null, false, true, false)));
+		TopicProvisioner.alteredConfig(current, Collections.singletonMap("retention.ms", "2000"));
+	}
+
+	@Test
+	public void sensitiveOverrideInSpecIsSent() {
+		org.apache.kafka.clients.admin.Config current = new org.apache.kafka.clients.admin.Config(Arrays.asList(
+				new org.apache.kafka.clients.admin.ConfigEntry("retention.ms", "1000", false, false, false),
+				new org.apache.kafka.clients.admin.ConfigEntry("secret.key", null, false, true, false)));
+		Map<String, String> desired = new HashMap<>();
+		desired.put("retention.ms", "2000");
+		desired.put("secret.key", "secret");
+		org.apache.kafka.clients.admin.Config altered = TopicProvisioner.alteredConfig(current, desired);
+		assertEquals("2000", altered.get("retention.ms").value());
+		assertEquals("secret", altered.get("secret.key").value());
+	}
+}
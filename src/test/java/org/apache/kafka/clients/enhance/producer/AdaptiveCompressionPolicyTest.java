@@ -0,0 +1,62 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.SimpleRecord;
+import org.apache.kafka.common.utils.MockTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveCompressionPolicyTest {
+	private final MockTime time = new MockTime();
+
+	private List<SimpleRecord> sample(boolean compressible) {
+		Random random = new Random(17);
+		List<SimpleRecord> records = new ArrayList<>();
+		for (int i = 0; i < 256; i++) {
+			byte[] value = new byte[256];
+			if (compressible) {
+				byte[] text = ("{\"event\":\"click\",\"user\":" + (i % 8) + ",\"page\":\"/index.html\"}").getBytes();
+				for (int pos = 0; pos < value.length; pos++) {
+					value[pos] = text[pos % text.length];
+				}
+			} else {
+				random.nextBytes(value);
+			}
+			records.add(new SimpleRecord(0L, null, value));
+		}
+		return records;
+	}
+
+	@Test
+	public void compressesWhenTheNetworkIsSlow() {
+		ProducerClientContext<String> context = new ProducerClientContext<>();
+		context.adaptiveCompression("slow").compressionBandwidthBytes(1024 * 1024L)
+				.compressionCandidates(CompressionType.NONE, CompressionType.GZIP);
+		AdaptiveCompressionPolicy<String> policy = new AdaptiveCompressionPolicy<>(context, time);
+		assertEquals(CompressionType.NONE, policy.compressionType("slow"));
+		assertNull(policy.compressionType("other"));
+
+		assertEquals(CompressionType.GZIP, policy.evaluate("slow", sample(true)));
+		policy.close();
+	}
+
+	@Test
+	public void skipsCompressionOfIncompressibleMessages() {
+		ProducerClientContext<String> context = new ProducerClientContext<>();
+		context.producerConfig(Collections.<String, Object>singletonMap(ProducerConfig.COMPRESSION_TYPE_CONFIG, "gzip"));
+		context.adaptiveCompression("random").compressionBandwidthBytes(10L * 1024 * 1024 * 1024)
+				.compressionCandidates(CompressionType.NONE, CompressionType.GZIP);
+		AdaptiveCompressionPolicy<String> policy = new AdaptiveCompressionPolicy<>(context, time);
+		assertEquals(CompressionType.GZIP, policy.compressionType("random"));
+
+		assertEquals(CompressionType.NONE, policy.evaluate("random", sample(false)));
+		policy.close();
+	}
+}
@@ -0,0 +1,109 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.common.utils.MockTime;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveSendControllerTest {
+	private final MockTime time = new MockTime();
+
+	private void sendAndAck(AdaptiveSendController controller, int num, long latencyMs) {
+		for (int i = 0; i < num; i++) {
+			controller.acquire("test");
+		}
+		long sendMs = time.milliseconds();
+		time.sleep(latencyMs);
+		for (int i = 0; i < num; i++) {
+			controller.onAcked(sendMs, null);
+		}
+	}
+
+	@Test
+	public void windowDecreasesOnHighLatencyAndRecovers() {
+		ProducerClientContext<String> context = new ProducerClientContext<>();
+		context.adaptiveSendControl(2, 16, 50L).lingerMs(0L).maxAdaptiveLingerMs(8L);
+		AdaptiveSendController controller = new AdaptiveSendController(context, time);
+		assertEquals(16, controller.window());
+
+		sendAndAck(controller, 16, AdaptiveSendController.ADJUST_INTERVAL_MS + 100L);
+		assertEquals(8, controller.window());
+		assertEquals(1L, controller.lingerMs());
+		assertEquals(0, controller.inFlight());
+
+		sendAndAck(controller, 8, AdaptiveSendController.ADJUST_INTERVAL_MS + 100L);
+		sendAndAck(controller, 4, AdaptiveSendController.ADJUST_INTERVAL_MS + 100L);
+		sendAndAck(controller, 2, AdaptiveSendController.ADJUST_INTERVAL_MS + 100L);
+		assertEquals(2, controller.window());
+		assertEquals(8L, controller.lingerMs());
+
+		//the first adjust still sees an ack of the congested interval.
+		for (int i = 0; i < 2; i++) {
+			time.sleep(AdaptiveSendController.ADJUST_INTERVAL_MS);
+			sendAndAck(controller, 2, 10L);
+		}
+		assertEquals(3, controller.window());
+		assertEquals(7L, controller.lingerMs());
+	}
+
+	@Test
+	public void batchLargerThanShrunkWindowIsSentInChunks() {
+		ProducerClientContext<String> context = new ProducerClientContext<>();
+		context.adaptiveSendControl(2, 16, 50L).lingerMs(0L).maxAdaptiveLingerMs(8L).maxBlockMs(0L);
+		AdaptiveSendController controller = new AdaptiveSendController(context, time);
+		for (int window = 16; window > 2; window /= 2) {
+			sendAndAck(controller, window, AdaptiveSendController.ADJUST_INTERVAL_MS + 100L);
+		}
+		assertEquals(2, controller.window());
+
+		//a batch of 10 never waits for more permits than the window holds.
+		int chunks = 0;
+		for (int remaining = 10; remaining > 0; chunks++) {
+			int permits = controller.acquire("test", remaining);
+			assertEquals(2, permits);
+			assertEquals(2, controller.inFlight());
+			for (int i = 0; i < permits; i++) {
+				controller.onAcked(time.milliseconds(), null);
+			}
+			remaining -= permits;
+		}
+		assertEquals(5, chunks);
+		assertEquals(0, controller.inFlight());
+	}
+
+	@Test
+	public void batchIsCappedAtRateLimitBurst() {
+		ProducerClientContext<String> context = new ProducerClientContext<>();
+		context.topicRateLimit("test", 10.0).maxBlockMs(150L);
+		AdaptiveSendController controller = new AdaptiveSendController(context, time);
+
+		long start = time.milliseconds();
+		assertEquals(10, controller.acquire("test", 25));
+		assertEquals(start, time.milliseconds());
+		assertEquals(1, controller.acquire("test", 1));
+		assertEquals(100L, time.milliseconds() - start);
+		assertEquals(25, controller.acquire("other", 25));
+	}
+
+	@Test
+	public void topicRateIsLimited() {
+		ProducerClientContext<String> context = new ProducerClientContext<>();
+		context.topicRateLimit("test", 10.0).maxBlockMs(150L);
+		AdaptiveSendController controller = new AdaptiveSendController(context, time);
+
+		long start = time.milliseconds();
+		for (int i = 0; i < 12; i++) {
+			controller.acquire("test");
+			controller.acquire("other");
+		}
+		//a burst of 10, then one permit every 100 ms.
+		assertEquals(200L, time.milliseconds() - start);
+
+		AdaptiveSendController.TokenBucket bucket = new AdaptiveSendController.TokenBucket(10.0, time);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(0L, bucket.reserve(150L));
+		}
+		assertEquals(100L, bucket.reserve(150L));
+		assertEquals(-1L, bucket.reserve(150L));
+	}
+}
@@ -0,0 +1,92 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BatchSendFutureTest {
+
+	private static List<ExtMessage<String>> messages(int num) {
+		List<ExtMessage<String>> messages = new ArrayList<>();
+		for (int idx = 0; idx < num; idx++) {
+			ExtMessage<String> message = new ExtMessage<>();
+			message.setTopic("topic");
+			message.setMsgValue(("value-" + idx).getBytes());
+			messages.add(message);
+		}
+		return messages;
+	}
+
+	private static RecordMetadata metadata(long offset) {
+		return new RecordMetadata(new TopicPartition("topic", 0), offset, 0, 0L, null, 0, 0);
+	}
+
+	@Test
+	public void emptyBatchIsDone() throws Exception {
+		BatchSendFuture<String> future = new BatchSendFuture<>(Collections.<ExtMessage<String>>emptyList());
+		assertTrue(future.isDone());
+		assertTrue(future.get().isAllSuccess());
+	}
+
+	@Test
+	public void partialAppendCompletesWithFailedSuffix() throws Exception {
+		List<ExtMessage<String>> messages = messages(4);
+		BatchSendFuture<String> future = new BatchSendFuture<>(messages);
+		TimeoutException bufferTimeout = new TimeoutException("Failed to allocate memory");
+
+		//the unappended suffix is failed while sending, the appended prefix completes when acked.
+		future.callback(2).onCompletion(null, bufferTimeout);
+		future.callback(3).onCompletion(null, bufferTimeout);
+		assertFalse(future.isDone());
+		future.callback(0).onCompletion(metadata(0L), null);
+		future.callback(1).onCompletion(metadata(1L), null);
+		assertTrue(future.isDone());
+
+		BatchSendResult<String> result = future.get(0, TimeUnit.MILLISECONDS);
+		assertFalse(result.isAllSuccess());
+		assertEquals(0L, result.metadata(0).offset());
+		assertEquals(1L, result.metadata(1).offset());
+		assertSame(bufferTimeout, result.exception(2));
+		assertSame(bufferTimeout, result.exception(3));
+		assertEquals(messages.subList(2, 4), result.failedMessages());
+	}
+
+	@Test
+	public void midBatchExceptionCompletesEveryMessage() throws Exception {
+		List<ExtMessage<String>> messages = messages(3);
+		BatchSendFuture<String> future = new BatchSendFuture<>(messages);
+		IllegalStateException exception = new IllegalStateException("closed");
+		for (int idx = 0; idx < messages.size(); idx++) {
+			future.callback(idx).onCompletion(null, exception);
+		}
+		assertTrue(future.isDone());
+		assertEquals(messages, future.get().failedMessages());
+	}
+
+	@Test
+	public void secondCompletionOfMessageIsIgnored() throws Exception {
+		BatchSendFuture<String> future = new BatchSendFuture<>(messages(2));
+		future.callback(0).onCompletion(metadata(0L), null);
+		future.callback(0).onCompletion(null, new IllegalStateException("closed"));
+		assertFalse(future.isDone());
+		future.callback(1).onCompletion(metadata(1L), null);
+		assertTrue(future.isDone());
+		assertTrue(future.get().isAllSuccess());
+	}
+
+	@Test(expected = java.util.concurrent.TimeoutException.class)
+	public void getTimesOutWhileMessagesAreInFlight() throws Exception {
+		BatchSendFuture<String> future = new BatchSendFuture<>(messages(2));
+		future.callback(0).onCompletion(metadata(0L), null);
+		future.get(10, TimeUnit.MILLISECONDS);
+	}
+}
@@ -0,0 +1,239 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.requests.AbstractResponse;
+import org.apache.kafka.common.requests.ApiVersionsResponse;
+import org.apache.kafka.common.requests.MetadataResponse;
+import org.apache.kafka.common.requests.ProduceRequest;
+import org.apache.kafka.common.requests.ProduceResponse;
+import org.apache.kafka.common.requests.RequestHeader;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * measures the acked throughput of ProducerShards: the records are routed, appended to the accumulators of the
+ * shards and sent by their sender threads to a stub broker in the process, which acks every produce request
+ * without storing the records.
+ * usage: ProducerShardsBench [max shards] [sender threads] [seconds per round] [partitions] [batch size].
+ * every round doubles the shards, 1, 2, 4 ... up to max shards. a batch size of 1 sends record by record.
+ */
+public class ProducerShardsBench {
+	private static final String TOPIC = "bench";
+	private static final byte[] VALUE = new byte[256];
+
+	public static void main(String[] args) throws Exception {
+		int maxShards = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+		int threadNum = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long seconds = (args.length > 2) ? Long.parseLong(args[2]) : 5L;
+		int partitionNum = (args.length > 3) ? Integer.parseInt(args[3]) : 64;
+		int batchSize = (args.length > 4) ? Integer.parseInt(args[4]) : 100;
+
+		StubBroker broker = new StubBroker(partitionNum);
+		broker.start();
+		try {
+			//warm up
+			run(broker, 1, threadNum, 1L, batchSize);
+			double base = 0;
+			for (int shards = 1; shards <= maxShards; shards *= 2) {
+				double rate = run(broker, shards, threadNum, seconds, batchSize);
+				if (shards == 1)
+					base = rate;
+				System.out.println(String.format("%d shards, %d threads: %.0f acked records/s, %.2fx.", shards,
+						threadNum, rate, rate / base));
+			}
+		} finally {
+			broker.close();
+		}
+	}
+
+	private static double run(StubBroker broker, int shardNum, int threadNum, long seconds, final int batchSize)
+			throws Exception {
+		Map<String, Object> config = new HashMap<>();
+		config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:" + broker.port());
+		config.put(ProducerConfig.CLIENT_ID_CONFIG, "shards-bench");
+		config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+		config.put(ProducerConfig.ACKS_CONFIG, "1");
+		config.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+		config.put(ProducerConfig.BUFFER_MEMORY_CONFIG, 32 * 1024 * 1024L);
+		final ProducerShards<String> shards = new ProducerShards<>(config, new StringSerializer(), shardNum);
+
+		final AtomicLong acked = new AtomicLong();
+		final Callback callback = new Callback() {
+			@Override
+			public void onCompletion(RecordMetadata metadata, Exception exception) {
+				if (null == exception) {
+					acked.incrementAndGet();
+				}
+			}
+		};
+		//the metadata is fetched before the clock starts.
+		shards.send(record(0L), null).get();
+
+		final long endMs = System.currentTimeMillis() + seconds * 1000L;
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < threadNum; i++) {
+			final long offset = i * (1L << 40);
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					List<ProducerRecord<String, ExtMessage<String>>> records = new ArrayList<>(batchSize);
+					List<Callback> callbacks = Collections.nCopies(batchSize, callback);
+					for (long seq = offset; System.currentTimeMillis() < endMs; ) {
+						if (batchSize == 1) {
+							shards.send(record(seq++), callback);
+							continue;
+						}
+						records.clear();
+						for (int idx = 0; idx < batchSize; idx++) {
+							records.add(record(seq++));
+						}
+						shards.sendBatch(records, callbacks);
+					}
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		shards.flush();
+		double rate = acked.get() * 1e9 / (System.nanoTime() - start);
+		shards.close(30, TimeUnit.SECONDS);
+		return rate;
+	}
+
+	//the records are keyed, so routing hashes the key as DefaultPartitioner does.
+	private static ProducerRecord<String, ExtMessage<String>> record(long seq) {
+		ExtMessage<String> message = new ExtMessage<>();
+		message.setTopic(TOPIC);
+		message.setMsgValue(VALUE);
+		return new ProducerRecord<>(TOPIC, "key-" + seq, message);
+	}
+
+	//a single node cluster which leads every partition of the topic, one thread per connection.
+	private static final class StubBroker extends Thread {
+		private final ServerSocket serverSocket;
+		private final int partitionNum;
+		private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+		StubBroker(int partitionNum) throws IOException {
+			super("stub-broker");
+			setDaemon(true);
+			this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+			this.partitionNum = partitionNum;
+		}
+
+		int port() {
+			return serverSocket.getLocalPort();
+		}
+
+		@Override
+		public void run() {
+			while (!serverSocket.isClosed()) {
+				try {
+					final Socket socket = serverSocket.accept();
+					socket.setTcpNoDelay(true);
+					sockets.add(socket);
+					Thread handler = new Thread("stub-broker-" + socket.getPort()) {
+						@Override
+						public void run() {
+							handle(socket);
+						}
+					};
+					handler.setDaemon(true);
+					handler.start();
+				} catch (IOException e) {
+					return;
+				}
+			}
+		}
+
+		private void handle(Socket socket) {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				while (true) {
+					byte[] request = new byte[in.readInt()];
+					in.readFully(request);
+					ByteBuffer buffer = ByteBuffer.wrap(request);
+					RequestHeader header = RequestHeader.parse(buffer);
+					AbstractResponse response = respond(header, buffer);
+					if (null == response)
+						continue;
+					ByteBuffer bytes = response.serialize(header.apiVersion(), header.toResponseHeader());
+					out.writeInt(bytes.remaining());
+					out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+					out.flush();
+				}
+			} catch (IOException e) {
+				//the producer is closed.
+			}
+		}
+
+		private AbstractResponse respond(RequestHeader header, ByteBuffer body) {
+			if (ApiKeys.API_VERSIONS == header.apiKey()) {
+				return ApiVersionsResponse.defaultApiVersionsResponse();
+			}
+			if (ApiKeys.METADATA == header.apiKey()) {
+				Node node = new Node(0, "localhost", port());
+				List<Node> nodes = Collections.singletonList(node);
+				List<MetadataResponse.PartitionMetadata> partitions = new ArrayList<>(partitionNum);
+				for (int i = 0; i < partitionNum; i++) {
+					partitions.add(new MetadataResponse.PartitionMetadata(Errors.NONE, i, node, nodes, nodes,
+							Collections.<Node>emptyList()));
+				}
+				return new MetadataResponse(nodes, "stub", node.id(), Collections.singletonList(
+						new MetadataResponse.TopicMetadata(Errors.NONE, TOPIC, false, partitions)));
+			}
+			if (ApiKeys.PRODUCE == header.apiKey()) {
+				ProduceRequest request = ProduceRequest.parse(body, header.apiVersion());
+				if (request.acks() == 0)
+					return null;
+				Map<TopicPartition, ProduceResponse.PartitionResponse> responses = new HashMap<>();
+				for (TopicPartition tp : request.partitionRecordsOrFail().keySet()) {
+					responses.put(tp, new ProduceResponse.PartitionResponse(Errors.NONE, 0L, RecordBatch.NO_TIMESTAMP,
+							0L));
+				}
+				return new ProduceResponse(responses);
+			}
+			throw new IllegalStateException("unexpected request " + header.apiKey() + ".");
+		}
+
+		void close() throws IOException {
+			serverSocket.close();
+			synchronized (sockets) {
+				for (Socket socket : sockets) {
+					socket.close();
+				}
+			}
+		}
+	}
+}
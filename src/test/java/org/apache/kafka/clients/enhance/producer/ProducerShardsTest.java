@@ -0,0 +1,65 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.test.MockPartitioner;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ProducerShardsTest {
+	private static final long BUFFER_MEMORY = 1024 * 1024L;
+
+	private static Map<String, Object> config() {
+		Map<String, Object> config = new HashMap<>();
+		config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9999");
+		config.put(ProducerConfig.CLIENT_ID_CONFIG, "shards-test");
+		config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+		config.put(ProducerConfig.BUFFER_MEMORY_CONFIG, BUFFER_MEMORY);
+		return config;
+	}
+
+	@Test(expected = KafkaException.class)
+	public void transactionalIdIsRejectedWithShards() {
+		Map<String, Object> config = config();
+		config.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, "tx");
+		new ProducerShards<>(config, new StringSerializer(), 2);
+	}
+
+	@Test(expected = KafkaException.class)
+	public void customPartitionerIsRejectedWithShards() {
+		Map<String, Object> config = config();
+		config.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, MockPartitioner.class.getName());
+		new ProducerShards<>(config, new StringSerializer(), 2);
+	}
+
+	@Test
+	public void singleShardKeepsTransactionalIdAndPartitioner() {
+		Map<String, Object> config = config();
+		config.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, "tx");
+		config.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, MockPartitioner.class.getName());
+		ProducerShards<String> shards = new ProducerShards<>(config, new StringSerializer(), 1);
+		assertEquals(1, shards.shardNum());
+		shards.close(0, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	public void shardsReadBufferAndThrottleMetrics() {
+		Map<String, Object> config = config();
+		config.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, DefaultPartitioner.class);
+		ProducerShards<String> shards = new ProducerShards<>(config, null, 3);
+		try {
+			assertEquals(3, shards.shardNum());
+			assertEquals(BUFFER_MEMORY, shards.minBufferAvailableBytes());
+			assertEquals(0.0, shards.maxThrottleTimeMs(), 0.0);
+		} finally {
+			shards.close(0, TimeUnit.MILLISECONDS);
+		}
+	}
+}
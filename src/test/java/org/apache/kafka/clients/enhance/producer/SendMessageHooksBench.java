@@ -0,0 +1,65 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+/**
+ * measures the per send cost of the hook chain with different hook numbers, usage: SendMessageHooksBench [iterations].
+ */
+public class SendMessageHooksBench {
+
+	private static final SendMessageHook<String> NOOP_HOOK = new SendMessageHook<String>() {
+		@Override
+		public ExtMessage<String> beforeSend(ExtMessage<String> message) {
+			return message;
+		}
+
+		@Override
+		public void afterSend(RecordMetadata metadata, Exception exception) {
+		}
+	};
+
+	public static void main(String[] args) {
+		long iters = (args.length > 0) ? Long.parseLong(args[0]) : 20000000L;
+		int[] hookNums = {0, 1, 4, 8};
+
+		for (int hookNum : hookNums) {
+			SendMessageHooks<String> hooks = new SendMessageHooks<>();
+			for (int i = 0; i < hookNum; i++) {
+				//distinct instances, the chain ignores a hook which is added twice.
+				hooks.addSendMessageHook(new SendMessageHook<String>() {
+					@Override
+					public ExtMessage<String> beforeSend(ExtMessage<String> message) {
+						return NOOP_HOOK.beforeSend(message);
+					}
+
+					@Override
+					public void afterSend(RecordMetadata metadata, Exception exception) {
+						NOOP_HOOK.afterSend(metadata, exception);
+					}
+				});
+			}
+			ProducerRecord<String, ExtMessage<String>> record = new ProducerRecord<>("test", 0, 0L, "key",
+					new ExtMessage<String>());
+			//warm up
+			run(hooks, record, Math.min(iters, 2000000L));
+
+			long start = System.nanoTime();
+			long sent = run(hooks, record, iters);
+			long elapsed = System.nanoTime() - start;
+			System.out.println(String.format("%d hooks: %.2f ns per send. (%d)", hookNum, elapsed / (double) iters, sent));
+		}
+	}
+
+	private static long run(SendMessageHooks<String> hooks, ProducerRecord<String, ExtMessage<String>> record,
+			long iters) {
+		long sent = 0;
+		for (long i = 0; i < iters; i++) {
+			if (hooks.onSend(record) == record)
+				sent++;
+			hooks.onAcknowledgement(null, null);
+		}
+		return sent;
+	}
+}
@@ -0,0 +1,82 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.enhance.ExtMessage;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SendMessageHooksTest {
+
+	private static class CountingHook implements SendMessageHook<String> {
+		private final AtomicInteger acked = new AtomicInteger();
+		private final String property;
+
+		CountingHook(String property) {
+			this.property = property;
+		}
+
+		@Override
+		public ExtMessage<String> beforeSend(ExtMessage<String> message) {
+			message.addProperty(property, "true");
+			return message;
+		}
+
+		@Override
+		public void afterSend(RecordMetadata metadata, Exception exception) {
+			acked.incrementAndGet();
+		}
+	}
+
+	@Test
+	public void hooksMutateMessageInPlace() {
+		SendMessageHooks<String> hooks = new SendMessageHooks<>();
+		CountingHook first = new CountingHook("first");
+		CountingHook second = new CountingHook("second");
+		hooks.addSendMessageHook(first);
+		hooks.addSendMessageHook(second);
+		hooks.addSendMessageHook(first);
+		assertEquals(2, hooks.getSendMessageHooks().size());
+
+		ExtMessage<String> message = new ExtMessage<>();
+		ProducerRecord<String, ExtMessage<String>> record = new ProducerRecord<>("test", 3, 100L, "key", message,
+				Collections.<Header>singletonList(new RecordHeader("h", new byte[] {1})));
+		assertSame(record, hooks.onSend(record));
+		assertEquals("true", message.getProperty("first"));
+		assertEquals("true", message.getProperty("second"));
+
+		hooks.onAcknowledgement(null, null);
+		assertEquals(1, first.acked.get());
+		assertEquals(1, second.acked.get());
+	}
+
+	@Test
+	public void replacedMessageKeepsRecordFields() {
+		SendMessageHooks<String> hooks = new SendMessageHooks<>();
+		final ExtMessage<String> replaced = new ExtMessage<>();
+		hooks.addSendMessageHook(new SendMessageHook<String>() {
+			@Override
+			public ExtMessage<String> beforeSend(ExtMessage<String> message) {
+				return replaced;
+			}
+
+			@Override
+			public void afterSend(RecordMetadata metadata, Exception exception) {
+			}
+		});
+
+		ProducerRecord<String, ExtMessage<String>> record = new ProducerRecord<>("test", 3, 100L, "key",
+				new ExtMessage<String>(), Collections.<Header>singletonList(new RecordHeader("h", new byte[] {1})));
+		ProducerRecord<String, ExtMessage<String>> hooked = hooks.onSend(record);
+		assertSame(replaced, hooked.value());
+		assertEquals(Integer.valueOf(3), hooked.partition());
+		assertEquals(Long.valueOf(100L), hooked.timestamp());
+		assertNotNull(hooked.headers().lastHeader("h"));
+	}
+}
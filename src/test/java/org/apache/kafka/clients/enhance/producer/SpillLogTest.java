@@ -0,0 +1,107 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.test.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SpillLogTest {
+	private static final int SEGMENT_BYTES = 64;
+
+	private static byte[] record(int idx) {
+		return ("record-" + idx).getBytes();
+	}
+
+	@Test
+	public void recordsAreReadInOrderAcrossSegments() throws Exception {
+		File dir = TestUtils.tempDirectory();
+		SpillLog log = new SpillLog(dir, SEGMENT_BYTES, 4 * SEGMENT_BYTES);
+		int appended = 0;
+		while (log.append(record(appended))) {
+			appended++;
+		}
+		//16 bytes per record, 3 records per segment.
+		assertEquals(12, appended);
+		assertEquals(4, log.segmentNum());
+
+		for (int idx = 0; idx < appended; idx++) {
+			assertArrayEquals(record(idx), log.peek());
+			log.commit();
+		}
+		assertNull(log.peek());
+		assertTrue(log.isEmpty());
+		assertTrue(log.append(record(appended)));
+		assertEquals(1, log.segmentNum());
+		log.close();
+	}
+
+	@Test
+	public void nextReadsAheadOfCommit() throws Exception {
+		File dir = TestUtils.tempDirectory();
+		SpillLog log = new SpillLog(dir, SEGMENT_BYTES, 4 * SEGMENT_BYTES);
+		for (int idx = 0; idx < 5; idx++) {
+			assertTrue(log.append(record(idx)));
+		}
+		//records in flight across segments stay in the log until they are committed.
+		for (int idx = 0; idx < 5; idx++) {
+			assertArrayEquals(record(idx), log.next());
+		}
+		assertNull(log.next());
+		assertEquals(5, log.pendingRecords());
+		assertEquals(2, log.segmentNum());
+
+		log.commit();
+		log.commit();
+		log.close();
+
+		//uncommitted records are sent again after restart.
+		SpillLog recovered = new SpillLog(dir, SEGMENT_BYTES, 4 * SEGMENT_BYTES);
+		assertEquals(3, recovered.pendingRecords());
+		for (int idx = 2; idx < 5; idx++) {
+			assertArrayEquals(record(idx), recovered.next());
+		}
+		assertTrue(recovered.append(record(5)));
+		assertArrayEquals(record(5), recovered.next());
+		for (int idx = 2; idx < 6; idx++) {
+			assertArrayEquals(record(idx), recovered.peek());
+			recovered.commit();
+		}
+		assertTrue(recovered.isEmpty());
+		recovered.close();
+	}
+
+	@Test
+	public void unsentRecordsAreRecovered() throws Exception {
+		File dir = TestUtils.tempDirectory();
+		SpillLog log = new SpillLog(dir, SEGMENT_BYTES, 4 * SEGMENT_BYTES);
+		for (int idx = 0; idx < 5; idx++) {
+			assertTrue(log.append(record(idx)));
+		}
+		log.peek();
+		log.commit();
+		log.close();
+
+		//a torn record at the tail of the last segment is dropped.
+		File[] segments = dir.listFiles();
+		Arrays.sort(segments);
+		RandomAccessFile raf = new RandomAccessFile(segments[segments.length - 1], "rw");
+		raf.seek(SpillLog.HEADER_SIZE + 2 * (SpillLog.RECORD_OVERHEAD + record(0).length));
+		raf.writeInt(100);
+		raf.close();
+
+		SpillLog recovered = new SpillLog(dir, SEGMENT_BYTES, 4 * SEGMENT_BYTES);
+		assertEquals(4, recovered.pendingRecords());
+		for (int idx = 1; idx < 5; idx++) {
+			assertArrayEquals(record(idx), recovered.peek());
+			recovered.commit();
+		}
+		assertNull(recovered.peek());
+		assertTrue(recovered.append(record(5)));
+		assertArrayEquals(record(5), recovered.peek());
+		recovered.close();
+	}
+}
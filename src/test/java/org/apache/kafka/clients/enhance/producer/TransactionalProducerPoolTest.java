@@ -0,0 +1,121 @@
+package org.apache.kafka.clients.enhance.producer;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.test.TestCondition;
+import org.apache.kafka.test.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TransactionalProducerPoolTest {
+	private TestPool pool;
+
+	//a pool whose producers aren't initialized, so it runs without a broker.
+	private static class TestPool extends TransactionalProducerPool<String> {
+		final AtomicInteger created = new AtomicInteger();
+		final Set<String> failingKeys = Collections.synchronizedSet(new HashSet<String>());
+
+		TestPool(Map<String, Object> configs) {
+			super(configs, String.class, "pool-test");
+		}
+
+		@Override
+		PooledProducer<String> create(String taskKey) {
+			created.incrementAndGet();
+			if (failingKeys.remove(taskKey)) {
+				throw new KafkaException("failed to init producer of " + taskKey);
+			}
+			Map<String, Object> config = new HashMap<>(producerSetting().getProducerConfig());
+			return new PooledProducer<>(transactionalId(taskKey),
+					new KafkaProducerProxy<>(config, new StringSerializer()));
+		}
+	}
+
+	@Before
+	public void setUp() {
+		Map<String, Object> config = new HashMap<>();
+		config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9999");
+		pool = new TestPool(config);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void releasedProducerIsReused() {
+		pool.start();
+		pool.lease("a").close();
+		assertEquals(1, pool.idleProducerNum());
+		TransactionalProducerLease<String> lease = pool.lease("a");
+		assertEquals("pool-test-a", lease.transactionalId());
+		assertEquals(0, pool.idleProducerNum());
+		assertEquals(1, pool.leasedProducerNum());
+		lease.close();
+		assertEquals(1, pool.created.get());
+	}
+
+	@Test
+	public void leastRecentlyUsedIdleProducerIsEvictedWhenFull() {
+		pool.maxProducers(2).start();
+		pool.lease("a").close();
+		pool.lease("b").close();
+		pool.lease("a").close();
+		pool.lease("c").close();
+		assertEquals(3, pool.created.get());
+		assertEquals(2, pool.idleProducerNum());
+
+		pool.lease("a").close();
+		assertEquals(3, pool.created.get());
+		pool.lease("b").close();
+		assertEquals(4, pool.created.get());
+	}
+
+	@Test(expected = KafkaException.class)
+	public void leaseFailsWhenPoolIsExhausted() {
+		pool.maxProducers(1).start();
+		pool.lease("a");
+		pool.lease("b");
+	}
+
+	@Test
+	public void failedWarmUpDoesNotHoldSlot() throws Exception {
+		pool.maxProducers(1).start();
+		pool.failingKeys.add("a");
+		pool.warmUp(Collections.singletonList("a"));
+		TestUtils.waitForCondition(new TestCondition() {
+			@Override
+			public boolean conditionMet() {
+				return pool.warmingProducerNum() == 0;
+			}
+		}, "the failed warm-up should be removed.");
+		assertEquals(0, pool.idleProducerNum());
+
+		pool.lease("b").close();
+		assertEquals(2, pool.created.get());
+	}
+
+	@Test
+	public void leaseInitsProducerAgainAfterFailedWarmUp() {
+		pool.start();
+		pool.failingKeys.add("a");
+		pool.warmUp(Collections.singletonList("a"));
+		TransactionalProducerLease<String> lease = pool.lease("a");
+		assertEquals("pool-test-a", lease.transactionalId());
+		lease.close();
+		assertEquals(2, pool.created.get());
+		assertEquals(1, pool.idleProducerNum());
+	}
+}
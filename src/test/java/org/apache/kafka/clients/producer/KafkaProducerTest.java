@@ -21,6 +21,7 @@ import org.apache.kafka.clients.Metadata;
 import org.apache.kafka.clients.producer.internals.ProducerInterceptors;
 import org.apache.kafka.common.*;
 import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.header.internals.RecordHeader;
 import org.apache.kafka.common.internals.ClusterResourceListeners;
@@ -28,6 +29,7 @@ import org.apache.kafka.common.metrics.Sensor;
 import org.apache.kafka.common.network.Selectable;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.ExtendedSerializer;
+import org.apache.kafka.common.serialization.Serializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.apache.kafka.common.utils.MockTime;
 import org.apache.kafka.common.utils.Time;
@@ -46,6 +48,8 @@ import org.powermock.core.classloader.annotations.PrepareOnlyThisForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -465,4 +469,105 @@ public class KafkaProducerTest {
             // expected
         }
     }
+
+    private static class CountingCallback implements Callback {
+        private int completions = 0;
+        private Exception exception;
+
+        @Override
+        public synchronized void onCompletion(RecordMetadata metadata, Exception exception) {
+            completions++;
+            this.exception = exception;
+        }
+    }
+
+    private KafkaProducer<String, String> batchProducer(Serializer<String> valueSerializer, String topic) throws Exception {
+        Properties props = new Properties();
+        props.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9999");
+        props.setProperty(ProducerConfig.BATCH_SIZE_CONFIG, "1024");
+        props.setProperty(ProducerConfig.BUFFER_MEMORY_CONFIG, "1024");
+        props.setProperty(ProducerConfig.MAX_BLOCK_MS_CONFIG, "0");
+        KafkaProducer<String, String> producer = new KafkaProducer<>(props, new StringSerializer(), valueSerializer);
+        Metadata metadata = new Metadata(0, Long.MAX_VALUE, true);
+        // the partition has no leader, so the appended batches stay in the accumulator until the producer is closed
+        Cluster cluster = new Cluster("dummy", Collections.singletonList(new Node(0, "host1", 1000)),
+                Collections.singletonList(new PartitionInfo(topic, 0, null, null, null)),
+                Collections.<String>emptySet(), Collections.<String>emptySet());
+        metadata.update(cluster, Collections.<String>emptySet(), System.currentTimeMillis());
+        MemberModifier.field(KafkaProducer.class, "metadata").set(producer, metadata);
+        return producer;
+    }
+
+    @Test
+    public void testSendBatchFailsOnlyUnappendedRecords() throws Exception {
+        String topic = "topic";
+        KafkaProducer<String, String> producer = batchProducer(new StringSerializer(), topic);
+        char[] chars = new char[100];
+        Arrays.fill(chars, 'v');
+        String value = new String(chars);
+        int recordNum = 20;
+        List<ProducerRecord<String, String>> records = new ArrayList<>();
+        List<Callback> callbacks = new ArrayList<>();
+        List<CountingCallback> counters = new ArrayList<>();
+        for (int i = 0; i < recordNum; i++) {
+            records.add(new ProducerRecord<>(topic, 0, "key", value));
+            CountingCallback callback = new CountingCallback();
+            counters.add(callback);
+            callbacks.add(callback);
+        }
+
+        // the buffer memory holds a single batch, so the allocation of the second one times out
+        List<Future<RecordMetadata>> futures = producer.sendBatch(records, callbacks);
+        assertEquals(recordNum, futures.size());
+        int appended = 0;
+        while (appended < recordNum && counters.get(appended).completions == 0)
+            appended++;
+        assertTrue("Some records should fit in the first batch", appended > 0);
+        assertTrue("The records after the first batch should fail", appended < recordNum);
+        for (int i = 0; i < recordNum; i++) {
+            assertEquals(i < appended ? 0 : 1, counters.get(i).completions);
+            assertEquals(i >= appended, futures.get(i).isDone());
+        }
+        assertTrue(counters.get(appended).exception instanceof TimeoutException);
+
+        producer.close(0, TimeUnit.MILLISECONDS);
+        for (CountingCallback callback : counters)
+            assertEquals(1, callback.completions);
+    }
+
+    @Test
+    public void testSendBatchCompletesEveryRecordBeforeThrowing() throws Exception {
+        String topic = "topic";
+        KafkaProducer<String, String> producer = batchProducer(new StringSerializer() {
+            @Override
+            public byte[] serialize(String topic, String data) {
+                if ("bad".equals(data))
+                    throw new SerializationException("Can't serialize " + data);
+                return super.serialize(topic, data);
+            }
+        }, topic);
+        List<ProducerRecord<String, String>> records = new ArrayList<>();
+        List<Callback> callbacks = new ArrayList<>();
+        List<CountingCallback> counters = new ArrayList<>();
+        for (String value : Arrays.asList("a", "b", "bad", "c", "d")) {
+            records.add(new ProducerRecord<String, String>(topic, value));
+            CountingCallback callback = new CountingCallback();
+            counters.add(callback);
+            callbacks.add(callback);
+        }
+
+        try {
+            producer.sendBatch(records, callbacks);
+            fail("Expected SerializationException to be raised");
+        } catch (SerializationException e) {
+            // expected
+        }
+        for (CountingCallback callback : counters) {
+            assertEquals(1, callback.completions);
+            assertTrue(callback.exception instanceof SerializationException);
+        }
+        producer.close(0, TimeUnit.MILLISECONDS);
+        for (CountingCallback callback : counters)
+            assertEquals(1, callback.completions);
+    }
 }
@@ -21,9 +21,11 @@ import org.apache.kafka.clients.NodeApiVersions;
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.*;
+import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.errors.UnsupportedVersionException;
 import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.protocol.ApiKeys;
+import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.record.*;
 import org.apache.kafka.common.requests.ApiVersionsResponse;
 import org.apache.kafka.common.utils.LogContext;
@@ -115,6 +117,59 @@ public class RecordAccumulatorTest {
         assertFalse("No more records", iter.hasNext());
     }
 
+    @Test
+    public void testAppendAllFillsBatchesInOrder() throws Exception {
+        int batchSize = 1025;
+        RecordAccumulator accum = createTestRecordAccumulator(
+                batchSize + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10L * batchSize, CompressionType.NONE, 10L);
+        int appends = expectedNumAppends(batchSize) + 1;
+        long[] timestamps = new long[appends];
+        byte[][] keys = new byte[appends][];
+        byte[][] values = new byte[appends][];
+        for (int i = 0; i < appends; i++) {
+            keys[i] = key;
+            values[i] = value;
+        }
+        RecordAccumulator.RecordAppendResult[] results = new RecordAccumulator.RecordAppendResult[appends];
+        int appended = accum.appendAll(tp1, timestamps, keys, values, new Header[appends][], new Callback[appends],
+                results, maxBlockTimeMs);
+
+        assertEquals(appends, appended);
+        assertTrue(results[0].newBatchCreated);
+        assertFalse(results[1].newBatchCreated);
+        assertTrue(results[appends - 1].newBatchCreated);
+        assertEquals(2, accum.batches().get(tp1).size());
+        assertEquals(appends - 1, accum.batches().get(tp1).peekFirst().recordCount);
+    }
+
+    @Test
+    public void testAppendAllReportsPartialAppend() throws Exception {
+        int batchSize = 1025;
+        // the buffer memory holds a single batch, so allocating the second one times out
+        RecordAccumulator accum = createTestRecordAccumulator(
+                batchSize + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, batchSize + DefaultRecordBatch.RECORD_BATCH_OVERHEAD,
+                CompressionType.NONE, 10L);
+        int fitting = expectedNumAppends(batchSize);
+        int appends = fitting + 2;
+        long[] timestamps = new long[appends];
+        byte[][] keys = new byte[appends][];
+        byte[][] values = new byte[appends][];
+        for (int i = 0; i < appends; i++) {
+            keys[i] = key;
+            values[i] = value;
+        }
+        RecordAccumulator.RecordAppendResult[] results = new RecordAccumulator.RecordAppendResult[appends];
+        try {
+            accum.appendAll(tp1, timestamps, keys, values, new Header[appends][], new Callback[appends], results, 0L);
+            fail("Allocating the second batch should time out");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        for (int i = 0; i < appends; i++)
+            assertEquals(i < fitting, results[i] != null);
+        assertEquals(fitting, accum.batches().get(tp1).peekFirst().recordCount);
+    }
+
     @Test
     public void testAppendLargeCompressed() throws Exception {
         testAppendLarge(CompressionType.GZIP);